@@ -0,0 +1,11 @@
+package com.xabber.android.ui.preferences;
+
+import android.preference.PreferenceScreen;
+
+class DebugBenchmarks {
+
+    static void setupPreferences(PreferenceScreen preferenceScreen) {
+        // benchmarks are available in dev flavour only
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.xabber.android.data.database;
+
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.message.MessageDedupIndex;
+
+import org.jxmpp.stringprep.XmppStringprepException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+
+/**
+ * Compares duplicate checks of archived messages during catch-up: one compound query per
+ * message against {@link MessageDedupIndex}, for several sizes of local chat history.
+ * <p/>
+ * Uses in-memory realm with the message schema, so real history is not touched.
+ * Takes tens of seconds, MUST be called from background thread.
+ */
+public class MamDedupBenchmark {
+
+    public static final int[] DEFAULT_HISTORY_SIZES = {1000, 10000, 100000};
+
+    private static final int CATCH_UP_SIZE = 2000;
+
+    /**
+     * Every such message of catch-up is already stored locally.
+     */
+    private static final int DUPLICATE_PERIOD = 10;
+
+    private static final int BATCH_SIZE = 10000;
+
+    private final int[] historySizes;
+
+    public MamDedupBenchmark(int[] historySizes) {
+        this.historySizes = historySizes;
+    }
+
+    /**
+     * @return report with total time of checks of each kind for each history size.
+     */
+    public String run() throws XmppStringprepException, UserJid.UserJidCreateException {
+        AccountJid account = AccountJid.from("account@example.com/benchmark");
+        UserJid user = UserJid.from("user@example.com");
+
+        StringBuilder report = new StringBuilder();
+        report.append("catch-up of ").append(CATCH_UP_SIZE).append(" messages, every ")
+                .append(DUPLICATE_PERIOD).append(" is duplicate\n");
+        for (int historySize : historySizes) {
+            RealmConfiguration configuration = new RealmConfiguration.Builder()
+                    .name("mam_dedup_benchmark_" + historySize + ".realm")
+                    .inMemory()
+                    .modules(new MessageDatabaseManager.MessageRealmDatabaseModule())
+                    .build();
+
+            Realm realm = Realm.getInstance(configuration);
+            try {
+                List<MessageItem> history = fill(realm, account, user, historySize);
+                List<MessageItem> catchUp = createCatchUp(account, user, history);
+
+                int expectedFound = 0;
+                long start = System.nanoTime();
+                for (MessageItem message : catchUp) {
+                    if (findByCompoundQuery(realm, message) != null) expectedFound++;
+                }
+                long byQuery = System.nanoTime() - start;
+
+                MessageDedupIndex index = new MessageDedupIndex();
+                int found = 0;
+                start = System.nanoTime();
+                for (MessageItem message : catchUp) {
+                    if (index.findSameLocalMessage(realm, message) != null) found++;
+                }
+                long byIndex = System.nanoTime() - start;
+
+                if (found != expectedFound) {
+                    throw new IllegalStateException("Checks found different number of duplicates: "
+                            + expectedFound + ", " + found);
+                }
+
+                report.append("history ").append(historySize).append(": ")
+                        .append(byQuery / 1000000).append(" ms by compound query, ")
+                        .append(byIndex / 1000000).append(" ms by index (")
+                        .append(String.format("%.1f", byIndex == 0 ? 0 : (double) byQuery / byIndex))
+                        .append("x), ").append(found).append(" duplicates; ").append(index).append('\n');
+            } finally {
+                realm.close();
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return unmanaged copies of some stored messages, to make duplicates from.
+     */
+    private static List<MessageItem> fill(Realm realm, AccountJid account, UserJid user, int historySize) {
+        List<MessageItem> samples = new ArrayList<>();
+        List<MessageItem> batch = new ArrayList<>(BATCH_SIZE);
+        long now = System.currentTimeMillis();
+        int samplePeriod = Math.max(1, historySize / CATCH_UP_SIZE);
+        for (int i = 0; i < historySize; i++) {
+            MessageItem messageItem = new MessageItem(UUID.randomUUID().toString());
+            messageItem.setAccount(account);
+            messageItem.setUser(user);
+            messageItem.setText("message " + i);
+            messageItem.setTimestamp(now - (historySize - i) * 1000L);
+            messageItem.setStanzaId(UUID.randomUUID().toString());
+            messageItem.setArchivedId(String.valueOf(now * 1000 + i));
+            batch.add(messageItem);
+            if (i % samplePeriod == 0) samples.add(messageItem);
+
+            if (batch.size() == BATCH_SIZE || i == historySize - 1) {
+                realm.beginTransaction();
+                realm.insert(batch);
+                realm.commitTransaction();
+                batch.clear();
+            }
+        }
+        return samples;
+    }
+
+    private static List<MessageItem> createCatchUp(AccountJid account, UserJid user, List<MessageItem> history) {
+        Random random = new Random(0);
+        List<MessageItem> catchUp = new ArrayList<>(CATCH_UP_SIZE);
+        for (int i = 0; i < CATCH_UP_SIZE; i++) {
+            MessageItem messageItem = new MessageItem(UUID.randomUUID().toString());
+            messageItem.setAccount(account);
+            messageItem.setUser(user);
+            if (i % DUPLICATE_PERIOD == 0) {
+                MessageItem local = history.get(random.nextInt(history.size()));
+                messageItem.setText(local.getText());
+                messageItem.setStanzaId(local.getStanzaId());
+                messageItem.setArchivedId(local.getArchivedId());
+            } else {
+                messageItem.setText("new message " + i);
+                messageItem.setStanzaId(UUID.randomUUID().toString());
+                messageItem.setArchivedId(UUID.randomUUID().toString());
+            }
+            catchUp.add(messageItem);
+        }
+        return catchUp;
+    }
+
+    /**
+     * Duplicate check used before the index.
+     */
+    private static MessageItem findByCompoundQuery(Realm realm, MessageItem message) {
+        return MessageDatabaseManager.getChatQuery(realm, message.getChatKey())
+                .equalTo(MessageItem.Fields.TEXT, message.getText())
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
+                .beginGroup()
+                    .equalTo(MessageItem.Fields.STANZA_ID, message.getStanzaId())
+                    .or()
+                    .equalTo(MessageItem.Fields.STANZA_ID, message.getPacketId())
+                    .or()
+                    .equalTo(MessageItem.Fields.STANZA_ID, message.getArchivedId())
+                    .or()
+                    .equalTo(MessageItem.Fields.ARCHIVED_ID, message.getArchivedId())
+                .endGroup()
+                .findFirst();
+    }
+}
@@ -0,0 +1,168 @@
+package com.xabber.android.data.database;
+
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+
+import org.jxmpp.stringprep.XmppStringprepException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * Compares per-chat message lookups by account and user fields with sorting
+ * against lookups by chat key without sorting.
+ * <p/>
+ * Uses in-memory realm with the message schema, so real history is not touched.
+ * Takes tens of seconds, MUST be called from background thread.
+ */
+public class MessageQueryBenchmark {
+
+    public static final int DEFAULT_MESSAGE_COUNT = 500000;
+
+    private static final int ACCOUNT_COUNT = 4;
+    private static final int CHAT_COUNT = 500;
+    private static final int LOOKUP_COUNT = 200;
+    private static final int BATCH_SIZE = 10000;
+
+    private final int messageCount;
+
+    public MessageQueryBenchmark(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    /**
+     * @return report with total time of lookups of each kind.
+     */
+    public String run() throws XmppStringprepException, UserJid.UserJidCreateException {
+        RealmConfiguration configuration = new RealmConfiguration.Builder()
+                .name("message_query_benchmark.realm")
+                .inMemory()
+                .modules(new MessageDatabaseManager.MessageRealmDatabaseModule())
+                .build();
+
+        Realm realm = Realm.getInstance(configuration);
+        try {
+            List<AccountJid> accounts = new ArrayList<>();
+            List<UserJid> users = new ArrayList<>();
+            for (int i = 0; i < CHAT_COUNT; i++) {
+                accounts.add(AccountJid.from("account" + (i % ACCOUNT_COUNT) + "@example.com/benchmark"));
+                users.add(UserJid.from("user" + (i / ACCOUNT_COUNT) + "@example.com"));
+            }
+
+            long fillStart = System.currentTimeMillis();
+            fill(realm, accounts, users);
+            long fillTime = System.currentTimeMillis() - fillStart;
+
+            Random random = new Random(0);
+            int[] chats = new int[LOOKUP_COUNT];
+            for (int i = 0; i < LOOKUP_COUNT; i++) chats[i] = random.nextInt(CHAT_COUNT);
+
+            long lastByFields = 0;
+            long lastByKey = 0;
+            long unreadByFields = 0;
+            long unreadByKey = 0;
+            for (int chat : chats) {
+                String account = accounts.get(chat).toString();
+                String user = users.get(chat).toString();
+
+                long start = System.nanoTime();
+                RealmResults<MessageItem> results = getFieldsQuery(realm, account, user)
+                        .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+                MessageItem expectedLast = results.isEmpty() ? null : results.last();
+                lastByFields += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                MessageItem last = MessageDatabaseManager.findLast(
+                        getKeyQuery(realm, accounts.get(chat), users.get(chat)));
+                lastByKey += System.nanoTime() - start;
+                check(expectedLast, last);
+
+                start = System.nanoTime();
+                results = getFieldsQuery(realm, account, user)
+                        .equalTo(MessageItem.Fields.INCOMING, true)
+                        .equalTo(MessageItem.Fields.READ, false)
+                        .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+                MessageItem expectedUnread = results.isEmpty() ? null : results.first();
+                unreadByFields += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                MessageItem unread = MessageDatabaseManager.findFirst(
+                        getKeyQuery(realm, accounts.get(chat), users.get(chat))
+                                .equalTo(MessageItem.Fields.INCOMING, true)
+                                .equalTo(MessageItem.Fields.READ, false));
+                unreadByKey += System.nanoTime() - start;
+                check(expectedUnread, unread);
+            }
+
+            return "messages: " + messageCount + ", chats: " + CHAT_COUNT
+                    + ", fill: " + fillTime + " ms\n"
+                    + report("last message", lastByFields, lastByKey)
+                    + report("first unread message", unreadByFields, unreadByKey);
+        } finally {
+            realm.close();
+        }
+    }
+
+    private void fill(Realm realm, List<AccountJid> accounts, List<UserJid> users) {
+        Random random = new Random(0);
+        long now = System.currentTimeMillis();
+        List<MessageItem> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < messageCount; i++) {
+            int chat = random.nextInt(CHAT_COUNT);
+            MessageItem messageItem = new MessageItem(UUID.randomUUID().toString());
+            messageItem.setAccount(accounts.get(chat));
+            messageItem.setUser(users.get(chat));
+            messageItem.setText("message " + i);
+            messageItem.setTimestamp(now - (messageCount - i) * 1000L);
+            messageItem.setIncoming(random.nextBoolean());
+            messageItem.setRead(i < messageCount - CHAT_COUNT || random.nextBoolean());
+            batch.add(messageItem);
+
+            if (batch.size() == BATCH_SIZE || i == messageCount - 1) {
+                realm.beginTransaction();
+                realm.insert(batch);
+                realm.commitTransaction();
+                batch.clear();
+            }
+        }
+    }
+
+    private static RealmQuery<MessageItem> getFieldsQuery(Realm realm, String account, String user) {
+        return realm.where(MessageItem.class)
+                .equalTo(MessageItem.Fields.ACCOUNT, account)
+                .equalTo(MessageItem.Fields.USER, user)
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID);
+    }
+
+    private static RealmQuery<MessageItem> getKeyQuery(Realm realm, AccountJid account, UserJid user) {
+        return MessageDatabaseManager.getChatQuery(realm, account, user)
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID);
+    }
+
+    /**
+     * Messages have unique timestamps, so both lookups must find the same message.
+     */
+    private static void check(MessageItem expected, MessageItem actual) {
+        String expectedId = expected == null ? null : expected.getUniqueId();
+        String actualId = actual == null ? null : actual.getUniqueId();
+        if (expectedId == null ? actualId != null : !expectedId.equals(actualId)) {
+            throw new IllegalStateException("Lookups found different messages: "
+                    + expectedId + ", " + actualId);
+        }
+    }
+
+    private static String report(String name, long byFields, long byKey) {
+        return name + ": " + byFields / 1000000 + " ms sorted by account and user, "
+                + byKey / 1000000 + " ms by chat key (" + LOOKUP_COUNT + " lookups, "
+                + String.format("%.1f", byKey == 0 ? 0 : (double) byFields / byKey) + "x)\n";
+    }
+}
@@ -0,0 +1,90 @@
+package com.xabber.android.ui.preferences;
+
+import android.preference.Preference;
+import android.preference.PreferenceScreen;
+import android.widget.Toast;
+
+import com.xabber.android.R;
+import com.xabber.android.data.Application;
+import com.xabber.android.data.database.MamDedupBenchmark;
+import com.xabber.android.data.database.MessageQueryBenchmark;
+import com.xabber.android.data.log.LogManager;
+
+/**
+ * Benchmarks of message history started from debug settings.
+ * Available in dev flavour only, other flavours have empty implementation.
+ */
+class DebugBenchmarks {
+
+    private static final String LOG_TAG = DebugBenchmarks.class.getSimpleName();
+
+    static void setupPreferences(PreferenceScreen preferenceScreen) {
+        Preference prefMessageQueryBenchmark = preferenceScreen.findPreference(
+                Application.getInstance().getString(R.string.debug_message_query_benchmark_key));
+        if (prefMessageQueryBenchmark != null) {
+            prefMessageQueryBenchmark.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    startMessageQueryBenchmark();
+                    return true;
+                }
+            });
+        }
+
+        Preference prefMamDedupBenchmark = preferenceScreen.findPreference(
+                Application.getInstance().getString(R.string.debug_mam_dedup_benchmark_key));
+        if (prefMamDedupBenchmark != null) {
+            prefMamDedupBenchmark.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    startMamDedupBenchmark();
+                    return true;
+                }
+            });
+        }
+    }
+
+    private static void startMessageQueryBenchmark() {
+        Toast.makeText(Application.getInstance(), "Message query benchmark started", Toast.LENGTH_SHORT).show();
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    result = new MessageQueryBenchmark(MessageQueryBenchmark.DEFAULT_MESSAGE_COUNT).run();
+                } catch (Exception e) {
+                    LogManager.exception(LOG_TAG, e);
+                    result = "Message query benchmark failed: " + e.getMessage();
+                }
+                showResult(result);
+            }
+        });
+    }
+
+    private static void startMamDedupBenchmark() {
+        Toast.makeText(Application.getInstance(), "Archive deduplication benchmark started", Toast.LENGTH_SHORT).show();
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    result = new MamDedupBenchmark(MamDedupBenchmark.DEFAULT_HISTORY_SIZES).run();
+                } catch (Exception e) {
+                    LogManager.exception(LOG_TAG, e);
+                    result = "Archive deduplication benchmark failed: " + e.getMessage();
+                }
+                showResult(result);
+            }
+        });
+    }
+
+    private static void showResult(final String message) {
+        LogManager.i(LOG_TAG, message);
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(Application.getInstance(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -32,9 +32,12 @@ import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.ScreenManager;
 import com.xabber.android.data.connection.CertificateManager;
 import com.xabber.android.data.connection.ConnectionManager;
+import com.xabber.android.data.connection.ConnectionMetricsManager;
 import com.xabber.android.data.connection.NetworkManager;
 import com.xabber.android.data.connection.ReconnectionManager;
+import com.xabber.android.data.connection.StreamResumptionManager;
 import com.xabber.android.data.database.DatabaseManager;
+import com.xabber.android.data.database.RealmCompactionManager;
 import com.xabber.android.data.extension.attention.AttentionManager;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.avatar.AvatarStorage;
@@ -57,6 +60,8 @@ import com.xabber.android.data.http.PatreonManager;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.message.ReceiptManager;
+import com.xabber.android.data.message.MessageSearchManager;
+import com.xabber.android.data.message.UnreadMessageCounter;
 import com.xabber.android.data.message.chat.ChatManager;
 import com.xabber.android.data.message.phrase.PhraseManager;
 import com.xabber.android.data.notification.DelayedNotificationActionManager;
@@ -355,6 +360,7 @@ public class Application extends android.app.Application {
         addManager(SettingsManager.getInstance());
         addManager(LogManager.getInstance());
         addManager(DatabaseManager.getInstance());
+        addManager(RealmCompactionManager.getInstance());
         addManager(AvatarStorage.getInstance());
         addManager(OTRManager.getInstance());
         addManager(ConnectionManager.getInstance());
@@ -366,6 +372,8 @@ public class Application extends android.app.Application {
         addManager(MUCManager.getInstance());
         addManager(MessageManager.getInstance());
         addManager(ChatManager.getInstance());
+        addManager(UnreadMessageCounter.getInstance());
+        addManager(MessageSearchManager.getInstance());
         addManager(VCardManager.getInstance());
         addManager(AvatarManager.getInstance());
         addManager(PresenceManager.getInstance());
@@ -379,6 +387,8 @@ public class Application extends android.app.Application {
         addManager(ChatStateManager.getInstance());
         addManager(NetworkManager.getInstance());
         addManager(ReconnectionManager.getInstance());
+        addManager(StreamResumptionManager.getInstance());
+        addManager(ConnectionMetricsManager.getInstance());
         addManager(ReceiptManager.getInstance());
         addManager(ChatMarkerManager.getInstance());
         addManager(SSNManager.getInstance());
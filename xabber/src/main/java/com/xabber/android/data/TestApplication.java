@@ -26,8 +26,10 @@ import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.ScreenManager;
 import com.xabber.android.data.connection.CertificateManager;
 import com.xabber.android.data.connection.ConnectionManager;
+import com.xabber.android.data.connection.ConnectionMetricsManager;
 import com.xabber.android.data.connection.NetworkManager;
 import com.xabber.android.data.connection.ReconnectionManager;
+import com.xabber.android.data.connection.StreamResumptionManager;
 import com.xabber.android.data.database.DatabaseManager;
 import com.xabber.android.data.extension.attention.AttentionManager;
 import com.xabber.android.data.extension.avatar.AvatarManager;
@@ -344,6 +346,8 @@ public class TestApplication extends android.app.Application {
         addManager(ChatStateManager.getInstance());
         addManager(NetworkManager.getInstance());
         addManager(ReconnectionManager.getInstance());
+        addManager(StreamResumptionManager.getInstance());
+        addManager(ConnectionMetricsManager.getInstance());
         addManager(ReceiptManager.getInstance());
         addManager(ChatMarkerManager.getInstance());
         addManager(SSNManager.getInstance());
@@ -1229,6 +1229,7 @@ public class AccountManager implements OnLoadListener, OnUnloadListener, OnWipeL
     }
 
     public void onAccountsChanged(final Collection<AccountJid> accounts) {
+        ReconnectionManager.getInstance().requestCheck();
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
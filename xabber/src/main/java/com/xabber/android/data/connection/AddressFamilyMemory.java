@@ -0,0 +1,82 @@
+package com.xabber.android.data.connection;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.log.LogManager;
+import com.xabber.xmpp.smack.AddressFamilyPreference;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * Remembers per network which address family won the last connection race, so on a network
+ * with broken IPv6 the working IPv4 address is tried first next time.
+ * <p/>
+ * Network is identified by its type and extra info (SSID or APN).
+ */
+class AddressFamilyMemory implements AddressFamilyPreference {
+
+    private static final String LOG_TAG = AddressFamilyMemory.class.getSimpleName();
+    private static final String PREFERENCES = "address_family";
+    private static final String IPV4 = "ipv4";
+    private static final String IPV6 = "ipv6";
+
+    private static AddressFamilyMemory instance;
+
+    private final SharedPreferences preferences;
+
+    static AddressFamilyMemory getInstance() {
+        if (instance == null) {
+            instance = new AddressFamilyMemory();
+        }
+
+        return instance;
+    }
+
+    private AddressFamilyMemory() {
+        preferences = Application.getInstance().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public Class<? extends InetAddress> getPreferredFamily() {
+        String network = getNetworkKey();
+        if (network == null) {
+            return null;
+        }
+        String family = preferences.getString(network, null);
+        if (IPV4.equals(family)) {
+            return Inet4Address.class;
+        } else if (IPV6.equals(family)) {
+            return Inet6Address.class;
+        }
+        return null;
+    }
+
+    @Override
+    public void onConnected(InetAddress address) {
+        String network = getNetworkKey();
+        if (network == null) {
+            return;
+        }
+        String family = address instanceof Inet4Address ? IPV4 : IPV6;
+        if (!family.equals(preferences.getString(network, null))) {
+            LogManager.i(LOG_TAG, family + " won on " + network);
+            preferences.edit().putString(network, family).apply();
+        }
+    }
+
+    private static String getNetworkKey() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) Application.getInstance()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        if (networkInfo == null) {
+            return null;
+        }
+        return networkInfo.getTypeName() + ":" + networkInfo.getExtraInfo();
+    }
+}
@@ -50,6 +50,8 @@ class ConnectionBuilder {
         builder.setResource(connectionSettings.getResource());
 
         builder.setProxyInfo(getProxyInfo(connectionSettings));
+        builder.setParallelConnectEnabled(true);
+        builder.setAddressFamilyPreference(AddressFamilyMemory.getInstance());
 
         try {
             LogManager.i(LOG_TAG, "SettingsManager.securityCheckCertificate: " + SettingsManager.securityCheckCertificate());
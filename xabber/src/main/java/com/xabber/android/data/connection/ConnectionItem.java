@@ -20,7 +20,6 @@ import androidx.annotation.NonNull;
 
 import com.xabber.android.data.Application;
 import com.xabber.android.data.account.AccountManager;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.roster.AccountRosterListener;
@@ -32,6 +31,8 @@ import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.parsing.ExceptionLoggingCallback;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.sm.predicates.ForEveryStanza;
+import com.xabber.xmpp.smack.ConnectionMetrics;
+import com.xabber.xmpp.smack.StreamManagementStateListener;
 import com.xabber.xmpp.smack.XMPPTCPConnection;
 import org.jivesoftware.smackx.ping.PingFailedListener;
 import org.jivesoftware.smackx.ping.PingManager;
@@ -78,6 +79,15 @@ public abstract class ConnectionItem {
 
     private ConnectionThread connectionThread;
 
+    @NonNull
+    private StanzaBundlingPolicy bundlingPolicy;
+
+    /**
+     * Traffic and latency counters, shared by recreated connections of the account.
+     */
+    @NonNull
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+
     public ConnectionItem(boolean custom,
                           String host, int port, DomainBareJid serverName, Localpart userName,
                           Resourcepart resource, boolean storePassword, String password, String token,
@@ -102,6 +112,10 @@ public abstract class ConnectionItem {
         connection = ConnectionBuilder.build(account, connectionSettings);
         LogManager.i(logTag, "Connection created");
 
+        bundlingPolicy = new StanzaBundlingPolicy();
+        connection.setBundleandDeferCallback(bundlingPolicy);
+        connection.setMetrics(metrics);
+
         connectionThread = new ConnectionThread(connection, this);
 
         addConnectionListeners();
@@ -121,6 +135,22 @@ public abstract class ConnectionItem {
         return connection;
     }
 
+    /**
+     * @return bundling of outgoing stanzas of the current connection with its counters.
+     */
+    @NonNull
+    public StanzaBundlingPolicy getBundlingPolicy() {
+        return bundlingPolicy;
+    }
+
+    /**
+     * @return traffic and latency counters of the account.
+     */
+    @NonNull
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * @return connection options.
      */
@@ -150,14 +180,25 @@ public abstract class ConnectionItem {
             connectionThread = new ConnectionThread(connection, this);
         };
 
-        return connectionThread.start();
+        boolean started = connectionThread.start();
+        if (started) {
+            metrics.onConnectionAttempt();
+        }
+        return started;
     }
 
     private void configureConnection() {
         // enable Stream Management support. SMACK will only enable SM if supported by the server,
         // so no additional checks are required.
         connection.setUseStreamManagement(true);
-        connection.setUseStreamManagementResumption(false);
+        connection.setUseStreamManagementResumption(true);
+        connection.setPreferredResumptionTime(StreamResumptionManager.RESUMPTION_TIME_SECONDS);
+        connection.setStreamManagementStateListener(new StreamManagementStateListener() {
+            @Override
+            public void onStreamManagementStateChanged(XMPPTCPConnection connection) {
+                StreamResumptionManager.getInstance().onStateChanged(ConnectionItem.this, connection);
+            }
+        });
 
         // by default Smack disconnects in case of parsing errors
         connection.setParsingExceptionCallback(new ExceptionLoggingCallback());
@@ -299,9 +340,7 @@ public abstract class ConnectionItem {
             Application.getInstance().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    for (OnPacketListener listener : Application.getInstance().getManagers(OnPacketListener.class)) {
-                        listener.onStanza(ConnectionItem.this, stanza);
-                    }
+                    StanzaDispatcher.getInstance().dispatch(ConnectionItem.this, stanza);
                 }
             });
         }
@@ -8,12 +8,15 @@ import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.bookmarks.BookmarksManager;
 import com.xabber.android.data.extension.carbons.CarbonManager;
 import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
+import com.xabber.android.data.extension.mam.NextMamManager;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.roster.PresenceManager;
 
+import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.sasl.SASLErrorException;
 
 class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
@@ -62,6 +65,20 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
         HttpFileUploadManager.getInstance().onAuthorized(connectionItem);
         PresenceManager.getInstance().onAuthorized(connectionItem);
         BookmarksManager.getInstance().onAuthorized(connectionItem.getAccount());
+        ReconnectionManager.getInstance().onAuthorized(connectionItem);
+        StreamResumptionManager.getInstance().onAuthenticated(connectionItem, resumed);
+        NextMamManager.getInstance().onAuthenticated(connectionItem.getAccount(), resumed);
+
+        // Roster is not reloaded on resumption, but session restored after restart has no roster
+        Roster roster = Roster.getInstanceFor(connection);
+        if (resumed && !roster.isLoaded()) {
+            try {
+                roster.reload();
+            } catch (SmackException.NotLoggedInException | SmackException.NotConnectedException
+                    | InterruptedException e) {
+                LogManager.exception(getLogTag(), e);
+            }
+        }
 
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
@@ -74,7 +91,9 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
     @Override
     public void connectionClosed() {
         LogManager.i(getLogTag(), "connectionClosed");
+        LogManager.i(getLogTag(), "stanza bundling: " + connectionItem.getBundlingPolicy());
         connectionItem.updateState(ConnectionState.offline);
+        StreamResumptionManager.getInstance().requestSave(connectionItem);
 
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
@@ -91,7 +110,10 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
     @Override
     public void connectionClosedOnError(final Exception e) {
         LogManager.i(getLogTag(), "connectionClosedOnError " + e + " " + e.getMessage());
+        LogManager.i(getLogTag(), "stanza bundling: " + connectionItem.getBundlingPolicy());
         connectionItem.updateState(ConnectionState.waiting);
+        connectionItem.getMetrics().onConnectionLost();
+        StreamResumptionManager.getInstance().requestSave(connectionItem);
 
         if (e instanceof XMPPException.StreamErrorException) {
             String message = e.getMessage();
@@ -104,6 +126,8 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
             AccountManager.getInstance().setEnabled(connectionItem.getAccount(), false);
         }
 
+        ReconnectionManager.getInstance().onConnectionLost(connectionItem.getAccount());
+
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
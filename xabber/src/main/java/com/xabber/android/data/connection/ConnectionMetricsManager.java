@@ -0,0 +1,140 @@
+package com.xabber.android.data.connection;
+
+import android.text.format.DateFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.xabber.android.data.OnTimerListener;
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.xmpp.smack.ConnectionMetrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of traffic and latency counters of the accounts.
+ * <p/>
+ * Counters themselves are kept by {@link ConnectionItem}, this manager samples them every
+ * {@link #SAMPLE_INTERVAL_TICKS} seconds into a time series of the last hour
+ * and dumps everything for debug.
+ */
+public class ConnectionMetricsManager implements OnTimerListener, OnAccountRemovedListener {
+
+    private static final int SAMPLE_INTERVAL_TICKS = 60;
+    private static final int SERIES_CAPACITY = 60;
+
+    private final Map<AccountJid, MetricsTimeSeries> series = new ConcurrentHashMap<>();
+
+    private int ticks;
+
+    private static ConnectionMetricsManager instance;
+
+    public static ConnectionMetricsManager getInstance() {
+        if (instance == null) {
+            instance = new ConnectionMetricsManager();
+        }
+
+        return instance;
+    }
+
+    private ConnectionMetricsManager() {
+    }
+
+    @Override
+    public void onTimer() {
+        if (++ticks % SAMPLE_INTERVAL_TICKS != 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (AccountJid account : AccountManager.getInstance().getAllAccounts()) {
+            ConnectionMetrics metrics = getMetrics(account);
+            if (metrics == null) {
+                continue;
+            }
+            MetricsTimeSeries accountSeries = series.get(account);
+            if (accountSeries == null) {
+                accountSeries = new MetricsTimeSeries(SERIES_CAPACITY);
+                series.put(account, accountSeries);
+            }
+            accountSeries.add(getTotals(now, metrics));
+        }
+    }
+
+    /**
+     * @return cumulative counters of the account since start of the application.
+     */
+    @Nullable
+    public ConnectionMetrics getMetrics(AccountJid account) {
+        AccountItem accountItem = AccountManager.getInstance().getAccount(account);
+        return accountItem != null ? accountItem.getMetrics() : null;
+    }
+
+    /**
+     * @return traffic of the account by {@link #SAMPLE_INTERVAL_TICKS} seconds, oldest first.
+     */
+    @NonNull
+    public List<MetricsTimeSeries.Sample> getSeries(AccountJid account) {
+        MetricsTimeSeries accountSeries = series.get(account);
+        return accountSeries != null ? accountSeries.getIntervals()
+                : Collections.<MetricsTimeSeries.Sample>emptyList();
+    }
+
+    /**
+     * @return human readable counters and the last hour of traffic of all accounts,
+     * followed by time spent by stanza listeners.
+     */
+    @NonNull
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (AccountJid account : AccountManager.getInstance().getAllAccounts()) {
+            ConnectionMetrics metrics = getMetrics(account);
+            if (metrics == null) {
+                continue;
+            }
+            builder.append(account).append('\n');
+            builder.append("connection attempts ").append(metrics.getConnectionAttempts())
+                    .append(", lost ").append(metrics.getConnectionsLost()).append('\n');
+            builder.append("bytes in ").append(metrics.getWireBytesIn())
+                    .append(" (uncompressed ").append(metrics.getStreamBytesIn())
+                    .append("), out ").append(metrics.getWireBytesOut())
+                    .append(" (uncompressed ").append(metrics.getStreamBytesOut()).append(")\n");
+            builder.append("stanzas in ").append(metrics.getStanzasIn())
+                    .append(", out ").append(metrics.getStanzasOut()).append('\n');
+            for (Map.Entry<String, Long> entry : metrics.getStanzaCounts().entrySet()) {
+                builder.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            builder.append("latency\n");
+            for (Map.Entry<String, ConnectionMetrics.Latency> entry : metrics.getLatencies().entrySet()) {
+                builder.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            builder.append("traffic by ").append(SAMPLE_INTERVAL_TICKS).append(" s\n");
+            for (MetricsTimeSeries.Sample sample : getSeries(account)) {
+                if (!sample.isEmpty()) {
+                    builder.append("  ").append(DateFormat.format("HH:mm", sample.timestamp))
+                            .append(' ').append(sample).append('\n');
+                }
+            }
+            builder.append('\n');
+        }
+        builder.append("stanza dispatch\n").append(StanzaDispatcher.getInstance());
+        return builder.toString();
+    }
+
+    private static MetricsTimeSeries.Sample getTotals(long timestamp, ConnectionMetrics metrics) {
+        return new MetricsTimeSeries.Sample(timestamp, metrics.getWireBytesIn(), metrics.getWireBytesOut(),
+                metrics.getStreamBytesIn(), metrics.getStreamBytesOut(), metrics.getStanzasIn(),
+                metrics.getStanzasOut());
+    }
+
+    @Override
+    public void onAccountRemoved(AccountItem accountItem) {
+        series.remove(accountItem.getAccount());
+    }
+}
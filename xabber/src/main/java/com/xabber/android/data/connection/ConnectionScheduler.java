@@ -0,0 +1,147 @@
+package com.xabber.android.data.connection;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.message.MessageManager;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs connection attempts of the accounts (DNS resolution, TCP and TLS setup, login)
+ * concurrently, at most {@link #getMaxConcurrentConnections()} at once.
+ * <p/>
+ * Waiting attempts are started in order of scheduling, except the account of the visible
+ * chat, which goes first.
+ */
+public class ConnectionScheduler {
+
+    private static final String LOG_TAG = ConnectionScheduler.class.getSimpleName();
+
+    static final int DEFAULT_MAX_CONCURRENT_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ConnectionScheduler instance;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public static ConnectionScheduler getInstance() {
+        if (instance == null) {
+            instance = new ConnectionScheduler();
+        }
+
+        return instance;
+    }
+
+    private ConnectionScheduler() {
+        executor = new ThreadPoolExecutor(DEFAULT_MAX_CONCURRENT_CONNECTIONS,
+                DEFAULT_MAX_CONCURRENT_CONNECTIONS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Connection thread #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getMaxConcurrentConnections() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Changes the number of accounts connecting at once. Running attempts are not interrupted.
+     */
+    public void setMaxConcurrentConnections(int maxConcurrentConnections) {
+        if (maxConcurrentConnections < 1) {
+            throw new IllegalArgumentException("At least one connection must be allowed");
+        }
+        synchronized (executor) {
+            if (maxConcurrentConnections > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxConcurrentConnections);
+                executor.setCorePoolSize(maxConcurrentConnections);
+            } else {
+                executor.setCorePoolSize(maxConcurrentConnections);
+                executor.setMaximumPoolSize(maxConcurrentConnections);
+            }
+        }
+    }
+
+    /**
+     * Schedules connection attempt.
+     */
+    void schedule(@NonNull ConnectionThread connectionThread) {
+        AccountJid account = connectionThread.connectionItem.getAccount();
+        Task task = new Task(connectionThread, account.equals(getVisibleAccount()),
+                sequence.incrementAndGet());
+        LogManager.i(LOG_TAG, "Scheduling " + task + ", waiting: " + executor.getQueue().size()
+                + ", connecting: " + executor.getActiveCount());
+        executor.execute(task);
+    }
+
+    /**
+     * Moves waiting connection attempt of the account ahead of the others.
+     * Should be called when chat of the account becomes visible.
+     */
+    public void prioritize(@NonNull AccountJid account) {
+        for (Runnable runnable : executor.getQueue()) {
+            Task task = (Task) runnable;
+            if (!task.priority && task.account.equals(account) && executor.remove(task)) {
+                LogManager.i(LOG_TAG, "Prioritizing " + task);
+                executor.execute(new Task(task.connectionThread, true, task.sequence));
+            }
+        }
+    }
+
+    @Nullable
+    private static AccountJid getVisibleAccount() {
+        AbstractChat chat = MessageManager.getInstance().getVisibleChat();
+        return chat != null ? chat.getAccount() : null;
+    }
+
+    private static class Task implements Runnable, Comparable<Task> {
+
+        private final ConnectionThread connectionThread;
+        private final AccountJid account;
+        private final boolean priority;
+        private final long sequence;
+
+        Task(ConnectionThread connectionThread, boolean priority, long sequence) {
+            this.connectionThread = connectionThread;
+            this.account = connectionThread.connectionItem.getAccount();
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            connectionThread.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull Task another) {
+            if (priority != another.priority) {
+                return priority ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+
+        @Override
+        public String toString() {
+            return account + (priority ? " (visible chat)" : "");
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.jivesoftware.smack.util.DNSUtil;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import de.measite.minidns.AbstractDNSClient;
@@ -58,58 +59,57 @@ class ConnectionThread {
     @SuppressWarnings("WeakerAccess")
     @NonNull
     final ConnectionItem connectionItem;
-    private Thread thread;
+    /**
+     * Whether connection attempt is scheduled or running.
+     */
+    private final AtomicBoolean active = new AtomicBoolean();
 
     ConnectionThread(@NonNull XMPPTCPConnection connection, @NonNull ConnectionItem connectionItem) {
         this.connection = connection;
         this.connectionItem = connectionItem;
-        createNewThread();
-    }
-
-    private void createNewThread() {
-        LogManager.i(this, "Creating new connection thread");
-        thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                if (NetworkManager.isNetworkAvailable()) {
-                    connectAndLogin();
-                } else {
-                    connectionItem.updateState(ConnectionState.waiting);
-                    LogManager.i(this, "No network connection");
-                }
-            }
-        });
-        thread.setPriority(Thread.MIN_PRIORITY);
-        thread.setDaemon(true);
     }
 
     /**
+     * Schedules connection attempt in {@link ConnectionScheduler}.
      *
-     * @return true if connection thread started, false if already running - nothing changed
+     * @return true if connection attempt scheduled, false if already scheduled or running - nothing changed
      */
     boolean start() {
-        if (thread.getState() == Thread.State.TERMINATED) {
-            LogManager.i(this, "Connection thread is finished, creating new one...");
-            createNewThread();
-        }
-
-        if (thread.getState() == Thread.State.NEW) {
-            LogManager.i(this, "Connection thread is new, starting...");
-            thread.start();
+        if (active.compareAndSet(false, true)) {
+            ConnectionScheduler.getInstance().schedule(this);
             return true;
         } else {
-            LogManager.i(this, "Connection thread is running already");
+            LogManager.i(this, "Connection attempt is scheduled or running already");
             return false;
         }
     }
 
+    /**
+     * Called by {@link ConnectionScheduler}.
+     */
+    void run() {
+        try {
+            if (NetworkManager.isNetworkAvailable()) {
+                connectAndLogin();
+            } else {
+                connectionItem.updateState(ConnectionState.waiting);
+                LogManager.i(this, "No network connection");
+            }
+        } finally {
+            active.set(false);
+        }
+    }
+
     @SuppressWarnings("WeakerAccess")
     void connectAndLogin() {
-        AndroidLoggingHandler.reset(new AndroidLoggingHandler());
-        java.util.logging.Logger.getLogger(XMPPTCPConnection.class.getName()).setLevel(Level.FINEST);
-        java.util.logging.Logger.getLogger(AbstractDNSClient.class.getName()).setLevel(Level.FINEST);
-        java.util.logging.Logger.getLogger(AbstractXMPPConnection.class.getName()).setLevel(Level.FINEST);
-        java.util.logging.Logger.getLogger(DNSUtil.class.getName()).setLevel(Level.FINEST);
+        // several accounts can connect at once, but root log handler must be replaced only once
+        synchronized (ConnectionThread.class) {
+            AndroidLoggingHandler.reset(new AndroidLoggingHandler());
+            java.util.logging.Logger.getLogger(XMPPTCPConnection.class.getName()).setLevel(Level.FINEST);
+            java.util.logging.Logger.getLogger(AbstractDNSClient.class.getName()).setLevel(Level.FINEST);
+            java.util.logging.Logger.getLogger(AbstractXMPPConnection.class.getName()).setLevel(Level.FINEST);
+            java.util.logging.Logger.getLogger(DNSUtil.class.getName()).setLevel(Level.FINEST);
+        }
 
         if (connection.getConfiguration().getPassword().isEmpty()) {
             AccountErrorEvent accountErrorEvent = new AccountErrorEvent(connectionItem.getAccount(),
@@ -154,6 +154,7 @@ class ConnectionThread {
             LogManager.i(this, "Trying to connect and login...");
             if (!connection.isConnected()) {
                 connectionItem.updateState(ConnectionState.connecting);
+                StreamResumptionManager.getInstance().restoreOnce(connectionItem, connection);
                 connection.connect();
             } else {
                 LogManager.i(this, "Already connected");
@@ -202,7 +203,8 @@ class ConnectionThread {
             LogManager.exception(this, e);
         }
 
-        LogManager.i(this, "Connection thread finished");
+        LogManager.i(this, "Connection thread finished, timings: " + connection.getTimings()
+                + ", DNS cache: " + ExtDNSJavaResolver.getCache());
     }
 
     @Override
@@ -0,0 +1,277 @@
+package com.xabber.android.data.connection;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.xabber.android.data.log.LogManager;
+
+import org.jivesoftware.smack.util.dns.SRVRecord;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of resolved SRV records with their addresses, shared by all accounts.
+ * <p/>
+ * Answers are fresh for the TTL of SRV records, but not longer than {@link #MAX_TTL_MILLIS},
+ * since TTL of the addresses is unknown. Expired answer is still returned for
+ * {@link #MAX_STALE_MILLIS} while it is refreshed in background. The last good answer
+ * is persisted and used after restart or when lookup fails because of network.
+ * <p/>
+ * Concurrent lookups of the same name wait for one query.
+ */
+public class DnsCache {
+
+    private static final String LOG_TAG = DnsCache.class.getSimpleName();
+
+    static final long MAX_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long NEGATIVE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long MAX_STALE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Resolves the name without cache.
+     */
+    public interface Source {
+        /**
+         * @return the answer or <code>null</code> if lookup failed because of network or server error.
+         */
+        @Nullable
+        Answer resolve(String name);
+    }
+
+    public static class Answer {
+        final List<SRVRecord> records;
+        final long ttlMillis;
+
+        /**
+         * @param records   records with resolved addresses, empty if name has no records.
+         * @param ttlMillis minimal TTL of the records.
+         */
+        public Answer(List<SRVRecord> records, long ttlMillis) {
+            this.records = records;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+    private static class Entry {
+        final List<SRVRecord> records;
+        final long expires;
+        final long lookupMillis;
+
+        Entry(List<SRVRecord> records, long expires, long lookupMillis) {
+            this.records = Collections.unmodifiableList(new ArrayList<>(records));
+            this.expires = expires;
+            this.lookupMillis = lookupMillis;
+        }
+    }
+
+    private final Source source;
+    private final SharedPreferences preferences;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedMillis = new AtomicLong();
+
+    public DnsCache(@NonNull Source source, @NonNull SharedPreferences preferences) {
+        this.source = source;
+        this.preferences = preferences;
+        refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "DNS cache refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return records of the name, the list and the records are new instances,
+     * so connection can mark failed addresses.
+     */
+    @NonNull
+    public List<SRVRecord> lookup(String name) {
+        long now = System.currentTimeMillis();
+        Entry entry = getEntry(name);
+        if (entry != null && now < entry.expires) {
+            hits.incrementAndGet();
+            savedMillis.addAndGet(entry.lookupMillis);
+            LogManager.i(LOG_TAG, "hit " + name + ", saved " + entry.lookupMillis + " ms");
+            return copy(entry.records);
+        }
+        if (entry != null && !entry.records.isEmpty() && now < entry.expires + MAX_STALE_MILLIS) {
+            staleHits.incrementAndGet();
+            savedMillis.addAndGet(entry.lookupMillis);
+            LogManager.i(LOG_TAG, "stale hit " + name + ", refreshing");
+            refreshInBackground(name);
+            return copy(entry.records);
+        }
+
+        misses.incrementAndGet();
+        entry = resolve(name, entry);
+        return entry != null ? copy(entry.records) : Collections.<SRVRecord>emptyList();
+    }
+
+    /**
+     * Refreshes the names in background, called when network changes.
+     */
+    public void prefetch(Collection<String> names) {
+        for (String name : names) {
+            refreshInBackground(name);
+        }
+    }
+
+    private void refreshInBackground(final String name) {
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                resolve(name, getEntry(name));
+            }
+        });
+    }
+
+    /**
+     * Resolves the name unless other thread has just resolved it.
+     *
+     * @param known entry known before the call.
+     * @return new entry, or the last good one if lookup failed.
+     */
+    @Nullable
+    private Entry resolve(String name, @Nullable Entry known) {
+        Object lock = locks.get(name);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = locks.putIfAbsent(name, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            Entry current = entries.get(name);
+            if (current != null && current != known) {
+                return current;
+            }
+
+            long start = System.currentTimeMillis();
+            Answer answer = source.resolve(name);
+            long end = System.currentTimeMillis();
+            if (answer == null) {
+                LogManager.i(LOG_TAG, "lookup " + name + " failed"
+                        + (current != null ? ", using last good answer" : ""));
+                return current;
+            }
+
+            long ttl = answer.records.isEmpty() ? NEGATIVE_TTL_MILLIS : Math.min(answer.ttlMillis, MAX_TTL_MILLIS);
+            Entry entry = new Entry(answer.records, end + ttl, end - start);
+            entries.put(name, entry);
+            persist(name, entry);
+            LogManager.i(LOG_TAG, "resolved " + name + " in " + (end - start) + " ms, "
+                    + answer.records.size() + " records, fresh for " + ttl + " ms");
+            return entry;
+        }
+    }
+
+    @Nullable
+    private Entry getEntry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = restore(name);
+            if (entry != null) {
+                Entry previous = entries.putIfAbsent(name, entry);
+                if (previous != null) {
+                    entry = previous;
+                }
+            }
+        }
+        return entry;
+    }
+
+    private void persist(String name, Entry entry) {
+        if (entry.records.isEmpty()) {
+            preferences.edit().remove(name).apply();
+            return;
+        }
+
+        StringBuilder value = new StringBuilder();
+        value.append(entry.expires).append(' ').append(entry.lookupMillis);
+        for (SRVRecord record : entry.records) {
+            value.append('\n').append(record.getFQDN()).append(' ').append(record.getPort())
+                    .append(' ').append(record.getPriority()).append(' ').append(record.getWeight());
+            for (InetAddress address : record.getInetAddresses()) {
+                value.append(' ').append(address.getHostAddress());
+            }
+        }
+        preferences.edit().putString(name, value.toString()).apply();
+    }
+
+    @Nullable
+    private Entry restore(String name) {
+        String value = preferences.getString(name, null);
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            String[] lines = value.split("\n");
+            String[] header = lines[0].split(" ");
+            List<SRVRecord> records = new ArrayList<>(lines.length - 1);
+            for (int i = 1; i < lines.length; i++) {
+                String[] fields = lines[i].split(" ");
+                List<InetAddress> addresses = new ArrayList<>(fields.length - 4);
+                for (int j = 4; j < fields.length; j++) {
+                    // literal addresses are parsed without lookup
+                    addresses.add(InetAddress.getByName(fields[j]));
+                }
+                records.add(new SRVRecord(fields[0], Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), addresses));
+            }
+            return new Entry(records, Long.parseLong(header[0]), Long.parseLong(header[1]));
+        } catch (UnknownHostException | RuntimeException e) {
+            LogManager.exception(LOG_TAG, e);
+            preferences.edit().remove(name).apply();
+            return null;
+        }
+    }
+
+    private static List<SRVRecord> copy(List<SRVRecord> records) {
+        List<SRVRecord> copy = new ArrayList<>(records.size());
+        for (SRVRecord record : records) {
+            copy.add(new SRVRecord(record.getFQDN(), record.getPort(), record.getPriority(),
+                    record.getWeight(), new ArrayList<>(record.getInetAddresses())));
+        }
+        return copy;
+    }
+
+    public long getHits() {
+        return hits.get() + staleHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHits();
+        long total = hits + misses.get();
+        return "hits " + hits + " (stale " + staleHits.get() + "), misses " + misses.get()
+                + ", hit ratio " + (total > 0 ? hits * 100 / total : 0) + "%, saved " + savedMillis.get() + " ms";
+    }
+}
@@ -6,6 +6,10 @@ import android.net.LinkProperties;
 import android.net.Network;
 
 import com.xabber.android.data.Application;
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
 
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.initializer.SmackInitializer;
@@ -23,6 +27,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by valery.miller on 12.05.17.
@@ -30,7 +35,11 @@ import java.util.List;
 
 public class ExtDNSJavaResolver extends DNSResolver implements SmackInitializer {
 
+    private static final String CACHE_PREFERENCES = "dns_cache";
+    private static final String XMPP_CLIENT_SRV_PREFIX = "_xmpp-client._tcp.";
+
     private static ExtDNSJavaResolver instance = new ExtDNSJavaResolver();
+    private static DnsCache cache;
 
     public static DNSResolver getInstance() {
         return instance;
@@ -42,6 +51,40 @@ public class ExtDNSJavaResolver extends DNSResolver implements SmackInitializer
 
     @Override
     protected List<SRVRecord> lookupSRVRecords0(String name, List<HostAddress> failedAddresses, ConnectionConfiguration.DnssecMode dnssecMode) {
+        return getCache().lookup(name);
+    }
+
+    /**
+     * @return cache of the SRV lookups of this resolver.
+     */
+    public static synchronized DnsCache getCache() {
+        if (cache == null) {
+            cache = new DnsCache(new DnsCache.Source() {
+                @Override
+                public DnsCache.Answer resolve(String name) {
+                    return instance.resolveSRVRecords(name);
+                }
+            }, Application.getInstance().getSharedPreferences(CACHE_PREFERENCES, Context.MODE_PRIVATE));
+        }
+        return cache;
+    }
+
+    /**
+     * Refreshes cached SRV records of the enabled accounts, called when network changes.
+     */
+    public static void prefetch() {
+        List<String> names = new ArrayList<>();
+        for (AccountJid account : AccountManager.getInstance().getEnabledAccounts()) {
+            AccountItem accountItem = AccountManager.getInstance().getAccount(account);
+            if (accountItem != null && !accountItem.getConnectionSettings().isCustomHostAndPort()) {
+                names.add(XMPP_CLIENT_SRV_PREFIX + accountItem.getConnectionSettings().getServerName());
+            }
+        }
+        LogManager.i(ExtDNSJavaResolver.class.getSimpleName(), "prefetch " + names + ", cache " + getCache());
+        getCache().prefetch(names);
+    }
+
+    private DnsCache.Answer resolveSRVRecords(String name) {
         List<SRVRecord> res = new ArrayList<SRVRecord>();
         org.xbill.DNS.ResolverConfig.refresh();
 
@@ -60,9 +103,15 @@ public class ExtDNSJavaResolver extends DNSResolver implements SmackInitializer
         }
 
         Record[] recs = lookup.run();
-        if (recs == null)
-            return res;
+        if (recs == null) {
+            // name or record does not exist, other errors are not cached
+            if (lookup.getResult() == ExtLookup.HOST_NOT_FOUND || lookup.getResult() == ExtLookup.TYPE_NOT_FOUND)
+                return new DnsCache.Answer(res, 0);
+            return null;
+        }
 
+        long ttl = Long.MAX_VALUE;
+        List<HostAddress> failedAddresses = new ArrayList<>();
         for (Record record : recs) {
             org.xbill.DNS.SRVRecord srvRecord = (org.xbill.DNS.SRVRecord) record;
             if (srvRecord != null && srvRecord.getTarget() != null) {
@@ -71,17 +120,22 @@ public class ExtDNSJavaResolver extends DNSResolver implements SmackInitializer
                 int priority = srvRecord.getPriority();
                 int weight = srvRecord.getWeight();
 
-                List<InetAddress> hostAddresses = lookupHostAddress0(host, failedAddresses, dnssecMode);
+                List<InetAddress> hostAddresses = lookupHostAddress0(host, failedAddresses,
+                        ConnectionConfiguration.DnssecMode.disabled);
                 if (hostAddresses == null) {
                     continue;
                 }
 
                 SRVRecord r = new SRVRecord(host, port, priority, weight, hostAddresses);
                 res.add(r);
+                ttl = Math.min(ttl, TimeUnit.SECONDS.toMillis(srvRecord.getTTL()));
             }
         }
 
-        return res;
+        // targets exist, but their addresses were not resolved
+        if (res.isEmpty()) return null;
+
+        return new DnsCache.Answer(res, ttl);
     }
 
     public static void setup() {
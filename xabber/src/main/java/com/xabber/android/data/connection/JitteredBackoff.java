@@ -0,0 +1,46 @@
+package com.xabber.android.data.connection;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter: delay is uniformly distributed between zero and
+ * the exponentially growing ceiling, so clients disconnected by the same outage
+ * don't retry in lockstep.
+ */
+public class JitteredBackoff implements ReconnectionBackoff {
+
+    /**
+     * Ceiling is not doubled after that number of attempts, it would reach the cap anyway.
+     */
+    private static final int MAX_DOUBLINGS = 20;
+
+    private final long baseMillis;
+    private final long capMillis;
+    private final Random random;
+
+    /**
+     * @param baseMillis ceiling of the first delay.
+     * @param capMillis  maximum ceiling of the delay.
+     */
+    public JitteredBackoff(long baseMillis, long capMillis, Random random) {
+        if (baseMillis <= 0 || capMillis < baseMillis) {
+            throw new IllegalArgumentException("Invalid backoff range: " + baseMillis + ".." + capMillis);
+        }
+        this.baseMillis = baseMillis;
+        this.capMillis = capMillis;
+        this.random = random;
+    }
+
+    /**
+     * @return ceiling of the delay after specified number of attempts.
+     */
+    public long getCeilingMillis(int failedAttempts) {
+        int doublings = Math.min(Math.max(failedAttempts, 0), MAX_DOUBLINGS);
+        return Math.min(capMillis, baseMillis << doublings);
+    }
+
+    @Override
+    public long getDelayMillis(int failedAttempts) {
+        return (long) (random.nextDouble() * getCeilingMillis(failedAttempts));
+    }
+}
@@ -0,0 +1,94 @@
+package com.xabber.android.data.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of traffic per sampling interval. Keeps the last {@link #getCapacity()} intervals,
+ * older ones are overwritten.
+ */
+public class MetricsTimeSeries {
+
+    /**
+     * Cumulative counters at some moment or their change over an interval.
+     */
+    public static final class Sample {
+        public final long timestamp;
+        public final long wireBytesIn;
+        public final long wireBytesOut;
+        public final long streamBytesIn;
+        public final long streamBytesOut;
+        public final long stanzasIn;
+        public final long stanzasOut;
+
+        public Sample(long timestamp, long wireBytesIn, long wireBytesOut, long streamBytesIn,
+                      long streamBytesOut, long stanzasIn, long stanzasOut) {
+            this.timestamp = timestamp;
+            this.wireBytesIn = wireBytesIn;
+            this.wireBytesOut = wireBytesOut;
+            this.streamBytesIn = streamBytesIn;
+            this.streamBytesOut = streamBytesOut;
+            this.stanzasIn = stanzasIn;
+            this.stanzasOut = stanzasOut;
+        }
+
+        /**
+         * @return change since the previous sample, with timestamp of this one.
+         */
+        Sample minus(Sample previous) {
+            return new Sample(timestamp, wireBytesIn - previous.wireBytesIn,
+                    wireBytesOut - previous.wireBytesOut, streamBytesIn - previous.streamBytesIn,
+                    streamBytesOut - previous.streamBytesOut, stanzasIn - previous.stanzasIn,
+                    stanzasOut - previous.stanzasOut);
+        }
+
+        public boolean isEmpty() {
+            return wireBytesIn == 0 && wireBytesOut == 0 && stanzasIn == 0 && stanzasOut == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "in " + wireBytesIn + "/" + streamBytesIn + " B, " + stanzasIn + " stanzas; out "
+                    + wireBytesOut + "/" + streamBytesOut + " B, " + stanzasOut + " stanzas";
+        }
+    }
+
+    private final Sample[] intervals;
+    private int next;
+    private int size;
+    private Sample lastTotals;
+
+    public MetricsTimeSeries(int capacity) {
+        intervals = new Sample[capacity];
+    }
+
+    /**
+     * Adds the interval since the previous totals. First totals only start the series.
+     *
+     * @param totals cumulative counters.
+     */
+    public synchronized void add(Sample totals) {
+        if (lastTotals != null) {
+            intervals[next] = totals.minus(lastTotals);
+            next = (next + 1) % intervals.length;
+            size = Math.min(size + 1, intervals.length);
+        }
+        lastTotals = totals;
+    }
+
+    /**
+     * @return intervals from the oldest to the newest.
+     */
+    public synchronized List<Sample> getIntervals() {
+        List<Sample> result = new ArrayList<>(size);
+        int first = (next - size + intervals.length) % intervals.length;
+        for (int i = 0; i < size; i++) {
+            result.add(intervals[(first + i) % intervals.length]);
+        }
+        return result;
+    }
+
+    public int getCapacity() {
+        return intervals.length;
+    }
+}
@@ -89,6 +89,7 @@ public class  NetworkManager implements OnCloseListener, OnInitializedListener {
      */
     private void onAvailable() {
         LogManager.i(LOG_TAG, "onAvailable");
+        ExtDNSJavaResolver.prefetch();
         ConnectionManager.getInstance().connectAll();
     }
 
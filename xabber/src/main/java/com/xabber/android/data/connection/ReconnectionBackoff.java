@@ -0,0 +1,14 @@
+package com.xabber.android.data.connection;
+
+/**
+ * Strategy of delays between reconnection attempts.
+ */
+public interface ReconnectionBackoff {
+
+    /**
+     * @param failedAttempts number of attempts made since last successful connection.
+     * @return delay in milliseconds before the next attempt.
+     */
+    long getDelayMillis(int failedAttempts);
+
+}
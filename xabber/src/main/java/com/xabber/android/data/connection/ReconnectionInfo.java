@@ -1,7 +1,7 @@
 package com.xabber.android.data.connection;
 
 /**
- * Information about reconnection attempts.
+ * Information about reconnection attempts to the server.
  *
  * @author alexander.ivanov
  */
@@ -13,9 +13,9 @@ class ReconnectionInfo {
     private int reconnectAttempts = 0;
 
     /**
-     * Time of last reconnection.
+     * Time when next attempt is allowed.
      */
-    private long lastReconnectionTimeMillis;
+    private long nextAttemptTimeMillis;
 
     public ReconnectionInfo() {
         reset();
@@ -25,21 +25,27 @@ class ReconnectionInfo {
         return reconnectAttempts;
     }
 
-    public long getLastReconnectionTimeMillis() {
-        return lastReconnectionTimeMillis;
+    public long getNextAttemptTimeMillis() {
+        return nextAttemptTimeMillis;
     }
 
+    boolean isTimeToReconnect(long now) {
+        return now >= nextAttemptTimeMillis;
+    }
+
+    /**
+     * Forgets failed attempts and allows next attempt immediately.
+     */
     public void reset() {
         reconnectAttempts = 0;
-        resetReconnectionTime();
+        nextAttemptTimeMillis = System.currentTimeMillis();
     }
 
-    void resetReconnectionTime() {
-        lastReconnectionTimeMillis = System.currentTimeMillis();
+    void scheduleAttempt(long delayMillis) {
+        nextAttemptTimeMillis = System.currentTimeMillis() + delayMillis;
     }
 
     public void nextAttempt() {
-        resetReconnectionTime();
         reconnectAttempts += 1;
     }
 }
@@ -1,35 +1,64 @@
 package com.xabber.android.data.connection;
 
+import android.os.Handler;
+import android.os.Looper;
+
 import androidx.annotation.NonNull;
 
 import com.xabber.android.data.OnTimerListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
-import com.xabber.android.data.connection.listeners.OnConnectedListener;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.push.SyncManager;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
 
-public class ReconnectionManager implements OnConnectedListener,
-        OnAccountRemovedListener, OnTimerListener {
+/**
+ * Connects accounts which should be online.
+ * <p/>
+ * Attempts are counted per server, so accounts on the same server share one backoff and
+ * are reconnected together. Delays are chosen by {@link ReconnectionBackoff}, jittered by
+ * default, so clients disconnected by the same server outage don't retry in lockstep.
+ * Attempts of the server are kept while any of its accounts is not authenticated, so an account
+ * which keeps failing (e.g. with wrong password) does not get back to short delays when another
+ * account of the server succeeds. They are forgotten when no account of the server is waiting.
+ * <p/>
+ * Checks are posted on account changes, network changes and when scheduled attempt is due.
+ * {@link #onTimer()} only sweeps every {@link #SWEEP_TICKS} seconds for changes
+ * nobody reported.
+ */
+public class ReconnectionManager implements OnAccountRemovedListener, OnTimerListener {
 
-    /**
-     * Intervals in seconds to be used for attempt to reconnect. First value
-     * will be used on first attempt. Next value will be used if reconnection
-     * fails. Last value will be used if there is no more values in array.
-     */
-    private final static int RECONNECT_AFTER[] = new int[]{0, 2, 10, 30, 60};
     private static final String LOG_TAG = ReconnectionManager.class.getSimpleName();
 
+    private static final long BACKOFF_BASE_MILLIS = 2000;
+    private static final long BACKOFF_CAP_MILLIS = 120000;
+    private static final int SWEEP_TICKS = 30;
+
     /**
-     * Managed connections.
+     * Reconnection attempts by server, only for servers with waiting accounts.
      */
-    private final HashMap<AccountJid, ReconnectionInfo> connections;
+    private final HashMap<String, ReconnectionInfo> connections;
+
+    private final ReconnectionStats stats = new ReconnectionStats();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkConnections();
+        }
+    };
+
+    private ReconnectionBackoff backoff = new JitteredBackoff(BACKOFF_BASE_MILLIS,
+            BACKOFF_CAP_MILLIS, new Random());
+    private int ticks;
 
     private static ReconnectionManager instance;
 
@@ -45,17 +74,73 @@ public class ReconnectionManager implements OnConnectedListener,
         connections = new HashMap<>();
     }
 
+    public synchronized void setBackoff(@NonNull ReconnectionBackoff backoff) {
+        this.backoff = backoff;
+    }
+
+    public ReconnectionStats getStats() {
+        return stats;
+    }
+
     @Override
     public void onTimer() {
-        Collection<AccountJid> allAccounts = AccountManager.getInstance().getAllAccounts();
+        if (++ticks % SWEEP_TICKS == 0) {
+            requestCheck();
+        }
+    }
 
-        for (AccountJid accountJid : allAccounts) {
-            checkConnection(AccountManager.getInstance().getAccount(accountJid),
-                    getReconnectionInfo(accountJid));
+    /**
+     * Checks connections of all accounts as soon as possible.
+     * Several requests are coalesced into one check.
+     */
+    public void requestCheck() {
+        handler.removeCallbacks(checkRunnable);
+        handler.post(checkRunnable);
+    }
+
+    private synchronized void checkConnections() {
+        Map<String, List<AccountItem>> waitingAccounts = new HashMap<>();
+        for (AccountJid accountJid : AccountManager.getInstance().getAllAccounts()) {
+            AccountItem accountItem = AccountManager.getInstance().getAccount(accountJid);
+            if (accountItem == null || !checkConnection(accountItem)) {
+                continue;
+            }
+            String server = getServer(accountItem);
+            List<AccountItem> accountItems = waitingAccounts.get(server);
+            if (accountItems == null) {
+                accountItems = new ArrayList<>();
+                waitingAccounts.put(server, accountItems);
+            }
+            accountItems.add(accountItem);
+        }
+        connections.keySet().retainAll(waitingAccounts.keySet());
+
+        long now = System.currentTimeMillis();
+        long nextCheck = Long.MAX_VALUE;
+        for (Map.Entry<String, List<AccountItem>> entry : waitingAccounts.entrySet()) {
+            ReconnectionInfo reconnectionInfo = getReconnectionInfo(entry.getKey());
+            if (reconnectionInfo.isTimeToReconnect(now)) {
+                reconnect(entry.getKey(), entry.getValue(), reconnectionInfo);
+            } else {
+                LogManager.i(LOG_TAG, entry.getKey() + " waiting "
+                        + (reconnectionInfo.getNextAttemptTimeMillis() - now) + " ms for attempt "
+                        + (reconnectionInfo.getReconnectAttempts() + 1));
+            }
+            nextCheck = Math.min(nextCheck, reconnectionInfo.getNextAttemptTimeMillis());
+        }
+
+        handler.removeCallbacks(checkRunnable);
+        if (nextCheck != Long.MAX_VALUE) {
+            handler.postDelayed(checkRunnable, Math.max(0, nextCheck - now));
         }
     }
 
-    private void checkConnection(AccountItem accountItem, ReconnectionInfo reconnectionInfo) {
+    /**
+     * Updates state of disabled and offline accounts.
+     *
+     * @return whether account should be connected.
+     */
+    private boolean checkConnection(AccountItem accountItem) {
         if (!accountItem.isEnabled()) {
             if (accountItem.getState() != ConnectionState.offline) {
                 ((ConnectionItem)accountItem).updateState(ConnectionState.offline);
@@ -65,33 +150,29 @@ public class ReconnectionManager implements OnConnectedListener,
         if ((!accountItem.isEnabled() || !accountItem.getRawStatusMode().isOnline())
                 && accountItem.getConnection().isConnected()) {
             accountItem.disconnect();
-            return;
+            return false;
         }
 
-        if (!isAccountNeedConnection(accountItem)) {
-            reconnectionInfo.reset();
-            return;
-        }
+        return isAccountNeedConnection(accountItem);
+    }
 
-        if (!isTimeToReconnect(reconnectionInfo)) {
-            LogManager.i(LOG_TAG, accountItem.getAccount()
-                    + " not authenticated. State: " + accountItem.getState()
-                    + " waiting... seconds from last reconnection "
-                    + getTimeSinceLastReconnectionSeconds(reconnectionInfo));
-            return;
+    private void reconnect(String server, List<AccountItem> accountItems, ReconnectionInfo reconnectionInfo) {
+        boolean newThreadStarted = false;
+        for (AccountItem accountItem : accountItems) {
+            newThreadStarted |= accountItem.connect();
         }
 
-        boolean newThreadStarted = accountItem.connect();
+        long delay = backoff.getDelayMillis(reconnectionInfo.getReconnectAttempts() + 1);
+        reconnectionInfo.scheduleAttempt(delay);
         if (newThreadStarted) {
             reconnectionInfo.nextAttempt();
-            LogManager.i(LOG_TAG, accountItem.getAccount()
-                    + " not authenticated. new thread started. next attempt "
-                    + reconnectionInfo.getReconnectAttempts());
+            stats.onDelayScheduled(delay);
+            LogManager.i(LOG_TAG, server + " not authenticated. new attempt "
+                    + reconnectionInfo.getReconnectAttempts() + " started for " + accountItems.size()
+                    + " accounts, next one in " + delay + " ms");
         } else {
-            reconnectionInfo.resetReconnectionTime();
-            LogManager.i(LOG_TAG, accountItem.getAccount()
-                    + " not authenticated. already in progress. reset time. attempt "
-                    + reconnectionInfo.getReconnectAttempts());
+            LogManager.i(LOG_TAG, server + " not authenticated. already in progress. next attempt in "
+                    + delay + " ms");
         }
     }
 
@@ -101,53 +182,83 @@ public class ReconnectionManager implements OnConnectedListener,
                 && SyncManager.getInstance().isAccountNeedConnection(accountItem);
     }
 
-    private boolean isTimeToReconnect(ReconnectionInfo reconnectionInfo) {
-        int reconnectAfter;
-        if (reconnectionInfo.getReconnectAttempts() < RECONNECT_AFTER.length) {
-            reconnectAfter = RECONNECT_AFTER[reconnectionInfo.getReconnectAttempts()];
-        } else {
-            reconnectAfter = RECONNECT_AFTER[RECONNECT_AFTER.length - 1];
-        }
-
-        return getTimeSinceLastReconnectionSeconds(reconnectionInfo) >= reconnectAfter;
-    }
-
-    private long getTimeSinceLastReconnectionSeconds(ReconnectionInfo reconnectionInfo) {
-        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()
-                - reconnectionInfo.getLastReconnectionTimeMillis());
+    /**
+     * Allows immediate attempt to connect the account and the other accounts on its server.
+     * Used when user changes account or network becomes available.
+     */
+    public void requestReconnect(AccountJid accountJid) {
+        resetReconnectionInfo(accountJid);
+        requestCheck();
     }
 
-    public void requestReconnect(AccountJid accountJid) {
-        getReconnectionInfo(accountJid).reset();
+    /**
+     * Schedules reconnection after connection was closed on error.
+     * First attempt is jittered as well, because the other clients of the server
+     * were likely disconnected too.
+     */
+    synchronized void onConnectionLost(AccountJid accountJid) {
+        ReconnectionInfo reconnectionInfo = getReconnectionInfo(accountJid);
+        if (reconnectionInfo != null && reconnectionInfo.getReconnectAttempts() == 0) {
+            long delay = backoff.getDelayMillis(0);
+            reconnectionInfo.scheduleAttempt(delay);
+            stats.onDelayScheduled(delay);
+            LogManager.i(LOG_TAG, accountJid + " connection lost, reconnecting in " + delay + " ms");
+        }
+        requestCheck();
     }
 
     @NonNull
-    private ReconnectionInfo getReconnectionInfo(AccountJid accountJid) {
-        ReconnectionInfo reconnectionInfo = connections.get(accountJid);
+    private ReconnectionInfo getReconnectionInfo(String server) {
+        ReconnectionInfo reconnectionInfo = connections.get(server);
         if (reconnectionInfo == null) {
-            LogManager.i(LOG_TAG, "getReconnectionInfo new reconnection info for  " + accountJid);
+            LogManager.i(LOG_TAG, "getReconnectionInfo new reconnection info for  " + server);
             reconnectionInfo = new ReconnectionInfo();
-            connections.put(accountJid, reconnectionInfo);
+            connections.put(server, reconnectionInfo);
         }
         return reconnectionInfo;
     }
 
-    void resetReconnectionInfo(AccountJid accountJid) {
-        ReconnectionInfo info = connections.get(accountJid);
+    private ReconnectionInfo getReconnectionInfo(AccountJid accountJid) {
+        AccountItem accountItem = AccountManager.getInstance().getAccount(accountJid);
+        if (accountItem == null) {
+            return null;
+        }
+        return getReconnectionInfo(getServer(accountItem));
+    }
+
+    private static String getServer(AccountItem accountItem) {
+        ConnectionSettings settings = accountItem.getConnectionSettings();
+        String server = settings.isCustomHostAndPort() ? settings.getHost() : settings.getServerName().toString();
+        return server.toLowerCase(Locale.US);
+    }
+
+    synchronized void resetReconnectionInfo(AccountJid accountJid) {
+        ReconnectionInfo info = getReconnectionInfo(accountJid);
         if (info != null) {
             info.reset();
         }
     }
 
-    @Override
-    public void onConnected(ConnectionItem connection) {
-        LogManager.i(LOG_TAG, "onConnected " + connection.getAccount());
-        resetReconnectionInfo(connection.getAccount());
+    /**
+     * Called when account was authenticated, attempts made so far are considered successful.
+     * Attempts of the server are not reset, other accounts of the server can still be failing.
+     * Next check forgets them if no account of the server is waiting.
+     */
+    void onAuthorized(ConnectionItem connection) {
+        LogManager.i(LOG_TAG, "onAuthorized " + connection.getAccount());
+        synchronized (this) {
+            ReconnectionInfo info = getReconnectionInfo(connection.getAccount());
+            if (info != null) {
+                stats.onSuccess(info.getReconnectAttempts());
+            }
+        }
+        LogManager.i(LOG_TAG, "reconnection stats: " + stats);
+        requestCheck();
     }
 
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
-        connections.remove(accountItem.getAccount());
+        requestCheck();
     }
 
-}
\ No newline at end of file
+}
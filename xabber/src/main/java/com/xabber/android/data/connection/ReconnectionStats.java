@@ -0,0 +1,75 @@
+package com.xabber.android.data.connection;
+
+/**
+ * Histograms of reconnection delays and of the number of attempts made
+ * before successful connection.
+ */
+public class ReconnectionStats {
+
+    /**
+     * Upper bounds of delay buckets, last bucket is unbounded.
+     */
+    private static final long[] DELAY_BOUNDS_MILLIS = {1000, 2000, 5000, 10000, 30000, 60000, 120000};
+
+    /**
+     * Successes after that number of attempts and more share the last bucket.
+     */
+    private static final int MAX_ATTEMPTS_BUCKET = 6;
+
+    private final long[] delays = new long[DELAY_BOUNDS_MILLIS.length + 1];
+    private final long[] successes = new long[MAX_ATTEMPTS_BUCKET + 1];
+
+    synchronized void onDelayScheduled(long delayMillis) {
+        int bucket = 0;
+        while (bucket < DELAY_BOUNDS_MILLIS.length && delayMillis >= DELAY_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        delays[bucket]++;
+    }
+
+    /**
+     * @param attempts number of attempts made, zero if connection was established without
+     *                 reconnection manager.
+     */
+    synchronized void onSuccess(int attempts) {
+        successes[Math.min(attempts, MAX_ATTEMPTS_BUCKET)]++;
+    }
+
+    /**
+     * @return number of delays shorter than the bound with specified index
+     * and not shorter than the previous one.
+     */
+    public synchronized long getDelayCount(int bucket) {
+        return delays[bucket];
+    }
+
+    /**
+     * @return number of successful connections after specified number of attempts.
+     */
+    public synchronized long getSuccessCount(int attempts) {
+        return successes[Math.min(attempts, MAX_ATTEMPTS_BUCKET)];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("delays:");
+        for (int i = 0; i < delays.length; i++) {
+            sb.append(' ');
+            if (i < DELAY_BOUNDS_MILLIS.length) {
+                sb.append('<').append(DELAY_BOUNDS_MILLIS[i] / 1000).append("s");
+            } else {
+                sb.append(">=").append(DELAY_BOUNDS_MILLIS[i - 1] / 1000).append("s");
+            }
+            sb.append('=').append(delays[i]);
+        }
+        sb.append("; successes after attempts:");
+        for (int i = 0; i < successes.length; i++) {
+            sb.append(' ').append(i);
+            if (i == MAX_ATTEMPTS_BUCKET) {
+                sb.append('+');
+            }
+            sb.append('=').append(successes[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package com.xabber.android.data.connection;
+
+import com.xabber.android.data.extension.chat_markers.ChatMarkersElements;
+import com.xabber.xmpp.smack.AdaptiveBundleAndDeferCallback;
+import com.xabber.xmpp.smack.BundleAndDefer;
+
+import org.jivesoftware.smack.packet.Element;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jivesoftware.smackx.receipts.DeliveryReceipt;
+
+/**
+ * Bundles outgoing stanzas which are not urgent, so they share one flush and radio wake-up.
+ * <p/>
+ * Chat states, chat markers, delivery receipts and presence probes are deferred for
+ * {@link #DEFER_MILLIS}. Any other stanza, first of all message typed by user,
+ * is written immediately and stops current deferring, as well as
+ * {@link #MAX_BUNDLE_BYTES} of stanzas queued while deferring. Size of deferred stanzas is
+ * estimated without serializing them, as they are serialized only once by the writer.
+ * <p/>
+ * Counts flushes of the connection, so bundling can be measured.
+ */
+public class StanzaBundlingPolicy implements AdaptiveBundleAndDeferCallback {
+
+    static final int DEFER_MILLIS = 40;
+    static final int MAX_BUNDLE_BYTES = 8 * 1024;
+
+    /**
+     * Size of stanza element and of each extension without their variable parts.
+     */
+    private static final int STANZA_OVERHEAD_BYTES = 64;
+    private static final int EXTENSION_BYTES = 96;
+
+    private static final long MINUTE = 60 * 1000;
+
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * Bundle being deferred, <code>null</code> if stanzas are written immediately.
+     */
+    private BundleAndDefer bundle;
+    private int bundleBytes;
+    private boolean urgentQueued;
+
+    private long flushes;
+    private long flushedElements;
+    private long deferredBundles;
+
+    @Override
+    public synchronized int getBundleAndDeferMillis(BundleAndDefer bundleAndDefer) {
+        if (urgentQueued || !isDeferrable(bundleAndDefer.getElement())) return 0;
+
+        bundle = bundleAndDefer;
+        bundleBytes = 0;
+        deferredBundles++;
+        return DEFER_MILLIS;
+    }
+
+    @Override
+    public synchronized void onElementQueued(Element element) {
+        if (!isDeferrable(element)) {
+            urgentQueued = true;
+            stopBundle();
+        } else if (bundle != null) {
+            bundleBytes += estimateBytes(element);
+            if (bundleBytes >= MAX_BUNDLE_BYTES) stopBundle();
+        }
+    }
+
+    @Override
+    public synchronized void onFlush(int elements) {
+        bundle = null;
+        urgentQueued = false;
+        flushes++;
+        flushedElements += elements;
+    }
+
+    private void stopBundle() {
+        if (bundle != null) {
+            bundle.stopCurrentBundleAndDefer();
+            bundle = null;
+        }
+    }
+
+    /**
+     * @return approximate size of deferrable element, without building its XML.
+     */
+    static int estimateBytes(Element element) {
+        if (!(element instanceof Stanza)) return STANZA_OVERHEAD_BYTES;
+        Stanza stanza = (Stanza) element;
+        int bytes = STANZA_OVERHEAD_BYTES + stanza.getExtensions().size() * EXTENSION_BYTES;
+        if (stanza.getTo() != null) bytes += stanza.getTo().length();
+        if (stanza.getFrom() != null) bytes += stanza.getFrom().length();
+        if (stanza.getStanzaId() != null) bytes += stanza.getStanzaId().length();
+        return bytes;
+    }
+
+    static boolean isDeferrable(Element element) {
+        if (element instanceof Message) {
+            Message message = (Message) element;
+            return message.getBody() == null
+                    && (message.hasExtension(ChatStateExtension.NAMESPACE)
+                    || message.hasExtension(ChatMarkersElements.NAMESPACE)
+                    || message.hasExtension(DeliveryReceipt.NAMESPACE));
+        }
+        if (element instanceof Presence) {
+            return ((Presence) element).getType() == Presence.Type.probe;
+        }
+        return false;
+    }
+
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return average number of flushes per minute since the connection was created.
+     */
+    public synchronized double getFlushesPerMinute() {
+        long elapsed = Math.max(System.currentTimeMillis() - created, 1);
+        return (double) flushes * MINUTE / elapsed;
+    }
+
+    /**
+     * @return average number of stream elements written by one flush.
+     */
+    public synchronized double getStanzasPerFlush() {
+        return flushes == 0 ? 0 : (double) flushedElements / flushes;
+    }
+
+    public synchronized long getDeferredBundles() {
+        return deferredBundles;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "flushes: " + flushes
+                + ", flushes per minute: " + String.format("%.2f", getFlushesPerMinute())
+                + ", stanzas per flush: " + String.format("%.2f", getStanzasPerFlush())
+                + ", deferred bundles: " + deferredBundles;
+    }
+}
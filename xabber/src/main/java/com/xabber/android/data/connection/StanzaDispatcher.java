@@ -0,0 +1,218 @@
+package com.xabber.android.data.connection;
+
+import androidx.annotation.NonNull;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
+import com.xabber.android.data.log.LogManager;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Stanza;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers incoming stanzas to {@link OnPacketListener}s.
+ * <p/>
+ * Listeners are indexed by stanza kind and by namespaces of extensions they are interested in,
+ * see {@link OnSelectivePacketListener}, so a stanza wakes only interested listeners.
+ * Extensions of the stanza are listed once for all of them. Listeners are called in order
+ * of registration, time spent by each one is recorded.
+ * <p/>
+ * Must be used from UI thread.
+ */
+public class StanzaDispatcher {
+
+    private static final String LOG_TAG = StanzaDispatcher.class.getSimpleName();
+
+    /**
+     * Listener taking longer to process stanza is reported to the log.
+     */
+    private static final long SLOW_DISPATCH_NANOS = 50 * 1000000L;
+
+    private static final int[] NONE = new int[0];
+
+    private final OnPacketListener[] listeners;
+
+    /**
+     * Indexes of listeners receiving all stanzas of the kind, by kind ordinal.
+     */
+    private final int[][] allOf;
+
+    /**
+     * Indexes of listeners by namespace, by kind ordinal.
+     */
+    private final List<Map<String, int[]>> byNamespace;
+
+    /**
+     * Indexes of listeners receiving stanzas of unknown kind.
+     */
+    private final int[] unselective;
+
+    private final long[] counts;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+    private long dispatched;
+    private long skipped;
+
+    private static StanzaDispatcher instance;
+
+    public static StanzaDispatcher getInstance() {
+        if (instance == null) {
+            instance = new StanzaDispatcher(Application.getInstance().getManagers(OnPacketListener.class));
+        }
+
+        return instance;
+    }
+
+    StanzaDispatcher(Collection<OnPacketListener> listeners) {
+        this.listeners = listeners.toArray(new OnPacketListener[listeners.size()]);
+        counts = new long[this.listeners.length];
+        totalNanos = new long[this.listeners.length];
+        maxNanos = new long[this.listeners.length];
+
+        PacketInterest.Kind[] kinds = PacketInterest.Kind.values();
+        List<List<Integer>> allOfLists = new ArrayList<>(kinds.length);
+        List<Map<String, List<Integer>>> namespaceLists = new ArrayList<>(kinds.length);
+        for (int kind = 0; kind < kinds.length; kind++) {
+            allOfLists.add(new ArrayList<Integer>());
+            namespaceLists.add(new HashMap<String, List<Integer>>());
+        }
+        List<Integer> unselectiveList = new ArrayList<>();
+
+        for (int index = 0; index < this.listeners.length; index++) {
+            OnPacketListener listener = this.listeners[index];
+            if (!(listener instanceof OnSelectivePacketListener)) {
+                unselectiveList.add(index);
+                for (PacketInterest.Kind kind : kinds) {
+                    allOfLists.get(kind.ordinal()).add(index);
+                }
+                continue;
+            }
+
+            PacketInterest interest = ((OnSelectivePacketListener) listener).getPacketInterest();
+            for (PacketInterest.Kind kind : kinds) {
+                if (interest.isAllOf(kind)) {
+                    allOfLists.get(kind.ordinal()).add(index);
+                    continue;
+                }
+                for (String namespace : interest.getNamespaces(kind)) {
+                    Map<String, List<Integer>> kindNamespaces = namespaceLists.get(kind.ordinal());
+                    List<Integer> indexes = kindNamespaces.get(namespace);
+                    if (indexes == null) {
+                        indexes = new ArrayList<>();
+                        kindNamespaces.put(namespace, indexes);
+                    }
+                    indexes.add(index);
+                }
+            }
+        }
+
+        allOf = new int[kinds.length][];
+        byNamespace = new ArrayList<>(kinds.length);
+        for (int kind = 0; kind < kinds.length; kind++) {
+            allOf[kind] = toArray(allOfLists.get(kind));
+            Map<String, int[]> kindNamespaces = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : namespaceLists.get(kind).entrySet()) {
+                kindNamespaces.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            byNamespace.add(kindNamespaces);
+        }
+        unselective = toArray(unselectiveList);
+    }
+
+    public void dispatch(ConnectionItem connection, Stanza stanza) {
+        boolean[] selected = new boolean[listeners.length];
+        PacketInterest.Kind kind = PacketInterest.Kind.of(stanza);
+        if (kind == null) {
+            select(selected, unselective);
+        } else {
+            select(selected, allOf[kind.ordinal()]);
+            Map<String, int[]> kindNamespaces = byNamespace.get(kind.ordinal());
+            if (!kindNamespaces.isEmpty()) {
+                if (stanza instanceof IQ) {
+                    select(selected, kindNamespaces.get(((IQ) stanza).getChildElementNamespace()));
+                }
+                for (ExtensionElement extension : stanza.getExtensions()) {
+                    select(selected, kindNamespaces.get(extension.getNamespace()));
+                }
+            }
+        }
+
+        for (int index = 0; index < listeners.length; index++) {
+            if (!selected[index]) {
+                skipped++;
+                continue;
+            }
+            long start = System.nanoTime();
+            listeners[index].onStanza(connection, stanza);
+            long duration = System.nanoTime() - start;
+
+            counts[index]++;
+            totalNanos[index] += duration;
+            maxNanos[index] = Math.max(maxNanos[index], duration);
+            if (duration > SLOW_DISPATCH_NANOS) {
+                LogManager.w(LOG_TAG, listeners[index].getClass().getSimpleName() + " processed "
+                        + kind + " in " + duration / 1000000 + " ms");
+            }
+        }
+        dispatched++;
+    }
+
+    private static void select(boolean[] selected, int[] indexes) {
+        if (indexes == null) {
+            return;
+        }
+        for (int index : indexes) {
+            selected[index] = true;
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) {
+            return NONE;
+        }
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @return number of stanzas delivered to the listener.
+     */
+    long getCount(OnPacketListener listener) {
+        for (int index = 0; index < listeners.length; index++) {
+            if (listeners[index] == listener) {
+                return counts[index];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return dispatched stanzas and time spent by each listener.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("dispatched ").append(dispatched).append(" stanzas, skipped ")
+                .append(skipped).append(" deliveries\n");
+        for (int index = 0; index < listeners.length; index++) {
+            builder.append("  ").append(listeners[index].getClass().getSimpleName())
+                    .append(": ").append(counts[index]).append(" x avg ")
+                    .append(counts[index] > 0 ? totalNanos[index] / counts[index] / 1000 : 0)
+                    .append(" us, max ").append(maxNanos[index] / 1000).append(" us\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,282 @@
+package com.xabber.android.data.connection;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.AtomicFile;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.NetworkException;
+import com.xabber.android.data.OnClearListener;
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
+import com.xabber.android.data.roster.RosterContact;
+import com.xabber.android.data.roster.RosterManager;
+import com.xabber.xmpp.smack.StreamManagementState;
+import com.xabber.xmpp.smack.XMPPTCPConnection;
+
+import org.jivesoftware.smack.packet.Presence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists resumable Stream Management (XEP-0198) sessions of the accounts, so after the process
+ * was killed the connection resumes the session instead of full login, roster and history
+ * loading.
+ * <p/>
+ * State is saved in background {@link #SAVE_DELAY_MILLIS} after a stanza was handled, queued
+ * or acknowledged, and when connection is closed, so only stanzas of the last moment before the
+ * process was killed can be redelivered or lost.
+ * <p/>
+ * Saved session is restored by the connection thread before the first connection of the
+ * account, only if contacts of the account are stored locally. Server does not send presences
+ * of contacts again on resumption, so they are probed after restored session was resumed.
+ */
+public class StreamResumptionManager implements OnAccountRemovedListener, OnClearListener {
+
+    private static final String LOG_TAG = StreamResumptionManager.class.getSimpleName();
+
+    /**
+     * Resumption time requested from the server in seconds.
+     */
+    static final int RESUMPTION_TIME_SECONDS = 300;
+
+    private static final long SAVE_DELAY_MILLIS = 500;
+
+    private final File folder;
+    private final ScheduledExecutorService saveExecutor;
+
+    /**
+     * Accounts with save scheduled.
+     */
+    private final Set<AccountJid> pendingSaves = Collections.newSetFromMap(
+            new ConcurrentHashMap<AccountJid, Boolean>());
+
+    /**
+     * Accounts which saved session was looked for, it is done once.
+     */
+    private final Set<AccountJid> restoreChecked = Collections.newSetFromMap(
+            new ConcurrentHashMap<AccountJid, Boolean>());
+
+    /**
+     * Accounts which connection has restored session, not authenticated yet.
+     */
+    private final Set<AccountJid> restored = Collections.newSetFromMap(
+            new ConcurrentHashMap<AccountJid, Boolean>());
+
+    /**
+     * Last saved states by account, missed if there is no saved state.
+     */
+    private final Map<AccountJid, StreamManagementState> savedStates = new ConcurrentHashMap<>();
+
+    private static StreamResumptionManager instance;
+
+    public static StreamResumptionManager getInstance() {
+        if (instance == null) {
+            instance = new StreamResumptionManager();
+        }
+
+        return instance;
+    }
+
+    private StreamResumptionManager() {
+        folder = new File(Application.getInstance().getFilesDir(), "stream_management");
+        saveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Stream management state saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Schedules save of the session of the connection, several changes are saved at once.
+     * Called from reader and writer threads of the connection.
+     */
+    void onStateChanged(final ConnectionItem connectionItem, final XMPPTCPConnection connection) {
+        final AccountJid account = connectionItem.getAccount();
+        if (!pendingSaves.add(account)) {
+            return;
+        }
+        saveExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingSaves.remove(account);
+                saveState(account, connection);
+            }
+        }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves state of the connection in background, called when connection was closed.
+     */
+    void requestSave(final ConnectionItem connectionItem) {
+        final XMPPTCPConnection connection = connectionItem.getConnection();
+        saveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveState(connectionItem.getAccount(), connection);
+            }
+        });
+    }
+
+    /**
+     * Restores saved session of the account into its connection before the first connection
+     * of the account. Saved session is restored only once, the connection will save it again
+     * after resumption. MUST be called from connection thread.
+     */
+    void restoreOnce(@NonNull ConnectionItem connectionItem, @NonNull XMPPTCPConnection connection) {
+        AccountJid account = connectionItem.getAccount();
+        if (!restoreChecked.add(account)) {
+            return;
+        }
+        File file = getFile(account);
+        if (!file.exists()) {
+            return;
+        }
+
+        StreamManagementState state = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            state = StreamManagementState.read(in);
+        } catch (IOException e) {
+            LogManager.exception(LOG_TAG, e);
+        } finally {
+            closeQuietly(in);
+        }
+        deleteState(account);
+
+        if (state == null) {
+            return;
+        }
+        if (!state.getUser().startsWith(account.getFullJid().asBareJid().toString() + "/")) {
+            LogManager.w(LOG_TAG, "Saved session " + state + " does not belong to " + account);
+            return;
+        }
+        // presences can be probed only for known contacts, else new session gets them all
+        if (RosterManager.getInstance().getAccountRosterContacts(account).isEmpty()) {
+            LogManager.i(LOG_TAG, "No stored contacts, saved session is not restored: " + state);
+            return;
+        }
+        if (connection.restoreStreamManagementState(state)) {
+            restored.add(account);
+            LogManager.i(LOG_TAG, "Restored " + state);
+        } else {
+            LogManager.i(LOG_TAG, "Saved session is expired or can't be restored: " + state);
+        }
+    }
+
+    /**
+     * Probes presences of contacts if session restored after restart was resumed.
+     */
+    void onAuthenticated(ConnectionItem connectionItem, boolean resumed) {
+        AccountJid account = connectionItem.getAccount();
+        if (!restored.remove(account) || !resumed) {
+            return;
+        }
+        Collection<RosterContact> contacts = RosterManager.getInstance().getAccountRosterContacts(account);
+        LogManager.i(LOG_TAG, "Restored session of " + account + " resumed, probing "
+                + contacts.size() + " contacts");
+        for (RosterContact contact : contacts) {
+            Presence probe = new Presence(Presence.Type.probe);
+            probe.setTo(contact.getUser().getBareJid());
+            try {
+                StanzaSender.sendStanza(account, probe);
+            } catch (NetworkException e) {
+                LogManager.exception(LOG_TAG, e);
+                return;
+            }
+        }
+    }
+
+    private synchronized void saveState(AccountJid account, XMPPTCPConnection connection) {
+        StreamManagementState state = connection.getStreamManagementState();
+        if (state == null) {
+            if (savedStates.containsKey(account)) {
+                deleteState(account);
+            }
+            return;
+        }
+        if (state.isSameSessionPoint(savedStates.get(account))) {
+            return;
+        }
+
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        AtomicFile file = new AtomicFile(getFile(account));
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream dataOut = new DataOutputStream(out);
+            state.write(dataOut);
+            dataOut.flush();
+            file.finishWrite(out);
+            savedStates.put(account, state);
+        } catch (IOException e) {
+            LogManager.exception(LOG_TAG, e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    private synchronized void deleteState(AccountJid account) {
+        savedStates.remove(account);
+        new AtomicFile(getFile(account)).delete();
+    }
+
+    private File getFile(AccountJid account) {
+        return new File(folder, Integer.toHexString(account.getFullJid().asBareJid().toString().hashCode()));
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            LogManager.exception(LOG_TAG, e);
+        }
+    }
+
+    @Override
+    public void onAccountRemoved(final AccountItem accountItem) {
+        saveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteState(accountItem.getAccount());
+            }
+        });
+    }
+
+    @Override
+    public void onClear() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        savedStates.clear();
+    }
+}
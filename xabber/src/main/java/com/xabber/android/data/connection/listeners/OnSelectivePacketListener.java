@@ -0,0 +1,16 @@
+package com.xabber.android.data.connection.listeners;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Listener for incoming packets it is interested in. Other listeners receive all packets.
+ */
+public interface OnSelectivePacketListener extends OnPacketListener {
+
+    /**
+     * Asked once, the answer must not change.
+     */
+    @NonNull
+    PacketInterest getPacketInterest();
+
+}
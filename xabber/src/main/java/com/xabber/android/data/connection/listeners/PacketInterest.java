@@ -0,0 +1,73 @@
+package com.xabber.android.data.connection.listeners;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incoming stanzas {@link OnSelectivePacketListener} wants to receive: all stanzas of a kind
+ * or only those with an extension of certain namespace. Child element of IQ counts as extension.
+ */
+public final class PacketInterest {
+
+    public enum Kind {
+        message,
+        presence,
+        iq;
+
+        /**
+         * @return kind of the stanza or <code>null</code> for unknown stanza classes.
+         */
+        public static Kind of(Stanza stanza) {
+            if (stanza instanceof Message) {
+                return message;
+            } else if (stanza instanceof Presence) {
+                return presence;
+            } else if (stanza instanceof IQ) {
+                return iq;
+            }
+            return null;
+        }
+    }
+
+    private final Set<Kind> allOf = new HashSet<>();
+    private final Map<Kind, Set<String>> namespaces = new EnumMap<>(Kind.class);
+
+    /**
+     * Adds all stanzas of the kind.
+     */
+    public PacketInterest allOf(Kind kind) {
+        allOf.add(kind);
+        return this;
+    }
+
+    /**
+     * Adds stanzas of the kind with extension of the namespace.
+     */
+    public PacketInterest withNamespace(Kind kind, String namespace) {
+        Set<String> kindNamespaces = namespaces.get(kind);
+        if (kindNamespaces == null) {
+            kindNamespaces = new HashSet<>();
+            namespaces.put(kind, kindNamespaces);
+        }
+        kindNamespaces.add(namespace);
+        return this;
+    }
+
+    public boolean isAllOf(Kind kind) {
+        return allOf.contains(kind);
+    }
+
+    public Set<String> getNamespaces(Kind kind) {
+        Set<String> kindNamespaces = namespaces.get(kind);
+        return kindNamespaces != null ? Collections.unmodifiableSet(kindNamespaces)
+                : Collections.<String>emptySet();
+    }
+}
@@ -4,9 +4,12 @@ package com.xabber.android.data.database;
 import android.database.Cursor;
 import android.os.Looper;
 
+import androidx.annotation.Nullable;
+
 import com.xabber.android.data.Application;
 import com.xabber.android.data.database.messagerealm.Attachment;
 import com.xabber.android.data.database.messagerealm.ForwardId;
+import com.xabber.android.data.database.messagerealm.HistorySegment;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.database.messagerealm.SyncInfo;
 import com.xabber.android.data.database.realm.ContactGroup;
@@ -20,6 +23,7 @@ import org.jxmpp.stringprep.XmppStringprepException;
 
 import java.lang.reflect.Field;
 import java.util.Date;
+import java.util.Map;
 
 import io.realm.DynamicRealm;
 import io.realm.DynamicRealmObject;
@@ -36,12 +40,16 @@ import io.realm.annotations.RealmModule;
 
 public class MessageDatabaseManager {
     private static final String REALM_MESSAGE_DATABASE_NAME = "xabber.realm";
-    static final int REALM_MESSAGE_DATABASE_VERSION = 23;
+    static final int REALM_MESSAGE_DATABASE_VERSION = 27;
+    private static final float COMPACTION_WASTE_THRESHOLD = 0.5f;
+    private static final long COMPACTION_MIN_WASTE_BYTES = 16 * 1024 * 1024;
     private final RealmConfiguration realmConfiguration;
+    private final RealmCompactionPolicy compactionPolicy;
 
     private static MessageDatabaseManager instance;
 
     private Realm realmUiThread;
+    private final MessageWriteExecutor writeExecutor;
 
     public static MessageDatabaseManager getInstance() {
         if (instance == null) {
@@ -55,9 +63,71 @@ public class MessageDatabaseManager {
         Realm.init(Application.getInstance());
         realmConfiguration = createRealmConfiguration();
 
-        boolean success = Realm.compactRealm(realmConfiguration);
-        System.out.println("Realm message compact database file result: " + success);
+        compactionPolicy = new RealmCompactionPolicy(realmConfiguration,
+                COMPACTION_WASTE_THRESHOLD, COMPACTION_MIN_WASTE_BYTES);
+        compactionPolicy.compactIfScheduled();
+
+        writeExecutor = new MessageWriteExecutor(realmConfiguration);
+    }
+
+    /**
+     * Submits mutation to the single message realm writer.
+     * Mutations submitted at the same time are committed in one transaction,
+     * so mutation should be small and must not use realm objects from other threads.
+     *
+     * @param caller name of the caller for write metrics
+     */
+    public void executeWrite(String caller, Realm.Transaction transaction) {
+        writeExecutor.execute(caller, transaction);
+    }
+
+    /**
+     * Same as {@link #executeWrite(String, Realm.Transaction)}.
+     *
+     * @param onSuccess called from writer thread after commit
+     */
+    public void executeWrite(String caller, Realm.Transaction transaction,
+                             Realm.Transaction.OnSuccess onSuccess) {
+        writeExecutor.execute(caller, transaction, onSuccess);
+    }
+
+    /**
+     * Submits mutation to the single message realm writer and waits for commit.
+     * Should not be called from UI thread.
+     *
+     * @param caller name of the caller for write metrics
+     */
+    public void executeWriteAndWait(String caller, Realm.Transaction transaction) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Wait for message realm write from UI thread");
+        }
 
+        writeExecutor.executeAndWait(caller, transaction);
+    }
+
+    /**
+     * Moves background realm without looper to the latest version,
+     * so it can see data committed by writer.
+     */
+    public static void refreshBackgroundRealm(Realm realm) {
+        if (realm.isInTransaction()) return;
+        realm.beginTransaction();
+        realm.cancelTransaction();
+    }
+
+    /**
+     * @return write counters by caller name.
+     */
+    public Map<String, MessageWriteExecutor.WriteMetrics> getWriteMetrics() {
+        return writeExecutor.getMetricsByCaller();
+    }
+
+    public MessageWriteExecutor.WriteMetrics getTotalWriteMetrics() {
+        return writeExecutor.getTotalMetrics();
+    }
+
+    public long getWriteTransactionCount() {
+        return writeExecutor.getTransactionCount();
     }
 
     /**
@@ -105,24 +175,80 @@ public class MessageDatabaseManager {
     }
 
     public static RealmQuery<MessageItem> getChatMessagesQuery(Realm realm, AccountJid accountJid, UserJid userJid) {
-        return realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, accountJid.toString())
-                .equalTo(MessageItem.Fields.USER, userJid.toString())
+        return getChatQuery(realm, accountJid, userJid)
                 .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
                 .isNotNull(MessageItem.Fields.TEXT);
                 //.isNotEmpty(MessageItem.Fields.TEXT);
     }
 
 
+    /**
+     * @return query for all messages of the chat, including forwarded ones.
+     */
+    public static RealmQuery<MessageItem> getChatQuery(Realm realm, AccountJid accountJid, UserJid userJid) {
+        return getChatQuery(realm, MessageItem.getChatKey(accountJid, userJid));
+    }
+
+    public static RealmQuery<MessageItem> getChatQuery(Realm realm, String chatKey) {
+        return realm.where(MessageItem.class).equalTo(MessageItem.Fields.CHAT_KEY, chatKey);
+    }
+
+    /**
+     * Finds message with the greatest timestamp without sorting all found messages.
+     * Messages with equal timestamp are ordered by unique id, so the same one is found every time.
+     * Conditions of the query must be grouped, query is changed by this call.
+     *
+     * @return <code>null</code> if nothing was found.
+     */
+    @Nullable
+    public static MessageItem findLast(RealmQuery<MessageItem> query) {
+        Number timestamp = query.max(MessageItem.Fields.TIMESTAMP);
+        if (timestamp == null) return null;
+        return query.equalTo(MessageItem.Fields.TIMESTAMP, timestamp.longValue())
+                .findAllSorted(MessageItem.Fields.UNIQUE_ID, Sort.DESCENDING).first();
+    }
+
+    /**
+     * Finds message with the least timestamp without sorting all found messages.
+     * Messages with equal timestamp are ordered by unique id, so the same one is found every time.
+     * Conditions of the query must be grouped, query is changed by this call.
+     *
+     * @return <code>null</code> if nothing was found.
+     */
+    @Nullable
+    public static MessageItem findFirst(RealmQuery<MessageItem> query) {
+        Number timestamp = query.min(MessageItem.Fields.TIMESTAMP);
+        if (timestamp == null) return null;
+        return query.equalTo(MessageItem.Fields.TIMESTAMP, timestamp.longValue())
+                .findAllSorted(MessageItem.Fields.UNIQUE_ID, Sort.ASCENDING).first();
+    }
+
+    RealmCompactionPolicy getCompactionPolicy() {
+        return compactionPolicy;
+    }
+
+    /**
+     * Measures wasted space of realm file and schedules compaction for the next start.
+     * MUST be called from background thread.
+     */
+    void checkCompaction() {
+        Realm realm = getNewBackgroundRealm();
+        try {
+            compactionPolicy.check(realm);
+        } finally {
+            realm.close();
+        }
+    }
+
     void deleteRealm() {
+        writeExecutor.closeRealmAndWait();
         Realm realm = getNewBackgroundRealm();
         Realm.deleteRealm(realm.getConfiguration());
         realm.close();
     }
 
     public void removeAccountMessages(final AccountJid account) {
-        Realm realm = getNewBackgroundRealm();
-        realm.executeTransaction(new Realm.Transaction() {
+        executeWriteAndWait("MessageDatabaseManager.removeAccountMessages", new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 realm.where(MessageItem.class)
@@ -134,14 +260,18 @@ public class MessageDatabaseManager {
                         .equalTo(SyncInfo.FIELD_ACCOUNT, account.toString())
                         .findAll()
                         .deleteAllFromRealm();
+
+                realm.where(HistorySegment.class)
+                        .beginsWith(HistorySegment.Fields.CHAT_KEY, MessageItem.getChatKey(account.toString(), ""))
+                        .findAll()
+                        .deleteAllFromRealm();
             }
         });
-        realm.close();
     }
 
 
     @RealmModule(classes = {MessageItem.class, SyncInfo.class, Attachment.class, ForwardId.class,
-            ContactRealm.class, ContactGroup.class})
+            ContactRealm.class, ContactGroup.class, HistorySegment.class})
     static class MessageRealmDatabaseModule {
     }
 
@@ -366,6 +496,53 @@ public class MessageDatabaseManager {
                             oldVersion++;
                         }
 
+                        if (oldVersion == 23) {
+                            schema.get(MessageItem.class.getSimpleName())
+                                    .addField(MessageItem.Fields.CHAT_KEY, String.class, FieldAttribute.INDEXED)
+                                    .transform(new RealmObjectSchema.Function() {
+                                        @Override
+                                        public void apply(DynamicRealmObject obj) {
+                                            obj.setString(MessageItem.Fields.CHAT_KEY, MessageItem.getChatKey(
+                                                    obj.getString(MessageItem.Fields.ACCOUNT),
+                                                    obj.getString(MessageItem.Fields.USER)));
+                                        }
+                                    });
+                            oldVersion++;
+                        }
+
+                        if (oldVersion == 24) {
+                            schema.get(MessageItem.class.getSimpleName())
+                                    .addIndex(MessageItem.Fields.STANZA_ID)
+                                    .addIndex(MessageItem.Fields.ARCHIVED_ID);
+                            oldVersion++;
+                        }
+
+                        if (oldVersion == 25) {
+                            // last message id of old sync info is not a catch-up checkpoint
+                            schema.get(SyncInfo.class.getSimpleName())
+                                    .transform(new RealmObjectSchema.Function() {
+                                        @Override
+                                        public void apply(DynamicRealmObject obj) {
+                                            obj.setNull(SyncInfo.FIELD_LAST_MESSAGE_MAM_ID);
+                                            obj.setBoolean(SyncInfo.FIELD_REMOTE_HISTORY_COMPLETELY_LOADED, true);
+                                        }
+                                    });
+                            oldVersion++;
+                        }
+
+                        if (oldVersion == 26) {
+                            schema.create(HistorySegment.class.getSimpleName())
+                                    .addField(HistorySegment.Fields.ID, String.class,
+                                            FieldAttribute.PRIMARY_KEY, FieldAttribute.REQUIRED)
+                                    .addField(HistorySegment.Fields.CHAT_KEY, String.class, FieldAttribute.INDEXED)
+                                    .addField(HistorySegment.Fields.FIRST_ARCHIVED_ID, String.class)
+                                    .addField(HistorySegment.Fields.FIRST_TIMESTAMP, long.class)
+                                    .addField(HistorySegment.Fields.LAST_ARCHIVED_ID, String.class)
+                                    .addField(HistorySegment.Fields.LAST_TIMESTAMP, long.class)
+                                    .addField(HistorySegment.Fields.HISTORY_START, boolean.class);
+                            oldVersion++;
+                        }
+
                     }
                 })
                 .build();
@@ -0,0 +1,328 @@
+package com.xabber.android.data.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.xabber.android.data.Application;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Full-text index of message history.
+ * <p/>
+ * Kept in its own database file, so index does not grow main message realm
+ * and can be dropped and rebuilt at any time. Folded text is indexed by FTS4 table,
+ * original text and message info are kept in meta table with the same row id.
+ * <p/>
+ * All requests MUST be called from background thread.
+ */
+public class MessageSearchDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "message_search.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String FTS_TABLE = "message_fts";
+    private static final String META_TABLE = "message_meta";
+    private static final String STATE_TABLE = "search_state";
+
+    private static final class Fields {
+        static final String ID = "_id";
+        static final String DOC_ID = "docid";
+        static final String BODY = "body";
+        static final String UNIQUE_ID = "unique_id";
+        static final String MESSAGE_ID = "message_id";
+        static final String ACCOUNT = "account";
+        static final String USER = "user";
+        static final String TIMESTAMP = "timestamp";
+        static final String TEXT = "text";
+        static final String KEY = "key";
+        static final String VALUE = "value";
+    }
+
+    private static MessageSearchDatabase instance;
+
+    public static synchronized MessageSearchDatabase getInstance() {
+        if (instance == null) instance = new MessageSearchDatabase();
+        return instance;
+    }
+
+    private MessageSearchDatabase() {
+        super(Application.getInstance(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        DatabaseManager.execSQL(db, "CREATE VIRTUAL TABLE " + FTS_TABLE
+                + " USING fts4(" + Fields.BODY + ");");
+        DatabaseManager.execSQL(db, "CREATE TABLE " + META_TABLE + " ("
+                + Fields.ID + " INTEGER PRIMARY KEY,"
+                + Fields.UNIQUE_ID + " TEXT NOT NULL UNIQUE,"
+                + Fields.MESSAGE_ID + " TEXT NOT NULL,"
+                + Fields.ACCOUNT + " TEXT NOT NULL,"
+                + Fields.USER + " TEXT NOT NULL,"
+                + Fields.TIMESTAMP + " INTEGER NOT NULL,"
+                + Fields.TEXT + " TEXT NOT NULL);");
+        DatabaseManager.execSQL(db, "CREATE INDEX " + META_TABLE + "_chat ON " + META_TABLE
+                + " (" + Fields.ACCOUNT + ", " + Fields.USER + ");");
+        DatabaseManager.execSQL(db, "CREATE TABLE " + STATE_TABLE + " ("
+                + Fields.KEY + " TEXT PRIMARY KEY,"
+                + Fields.VALUE + " TEXT);");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // index can be rebuilt from message history
+        dropTables(db);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    private static void dropTables(SQLiteDatabase db) {
+        DatabaseManager.dropTable(db, FTS_TABLE);
+        DatabaseManager.dropTable(db, META_TABLE);
+        DatabaseManager.dropTable(db, STATE_TABLE);
+    }
+
+    /**
+     * Adds documents to the index. Document with the same unique id is replaced.
+     *
+     * @param stateKey   key of state value to be saved in the same transaction,
+     *                   can be <code>null</code>.
+     */
+    public void write(Collection<Document> documents, String stateKey, String stateValue) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement findId = db.compileStatement("SELECT " + Fields.ID + " FROM "
+                    + META_TABLE + " WHERE " + Fields.UNIQUE_ID + " = ?");
+            for (Document document : documents) {
+                ContentValues meta = new ContentValues();
+                meta.put(Fields.UNIQUE_ID, document.uniqueId);
+                meta.put(Fields.MESSAGE_ID, document.messageId);
+                meta.put(Fields.ACCOUNT, document.account);
+                meta.put(Fields.USER, document.user);
+                meta.put(Fields.TIMESTAMP, document.timestamp);
+                meta.put(Fields.TEXT, document.text);
+
+                Long id;
+                findId.bindString(1, document.uniqueId);
+                try {
+                    id = findId.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    id = null;
+                }
+
+                ContentValues fts = new ContentValues();
+                fts.put(Fields.BODY, document.body);
+                if (id == null) {
+                    id = db.insert(META_TABLE, null, meta);
+                    fts.put(Fields.DOC_ID, id);
+                    db.insert(FTS_TABLE, null, fts);
+                } else {
+                    String[] args = new String[]{String.valueOf(id)};
+                    db.update(META_TABLE, meta, Fields.ID + " = ?", args);
+                    db.update(FTS_TABLE, fts, Fields.DOC_ID + " = ?", args);
+                }
+            }
+            findId.close();
+            if (stateKey != null) putState(db, stateKey, stateValue);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes documents of the chat, or of all chats of the account if user is <code>null</code>.
+     */
+    public void delete(String account, String user) {
+        String where = Fields.ACCOUNT + " = ?" + (user != null ? " AND " + Fields.USER + " = ?" : "");
+        String[] args = user != null ? new String[]{account, user} : new String[]{account};
+        deleteWhere(where, args);
+    }
+
+    /**
+     * Removes documents of messages and of messages forwarded by them.
+     */
+    public void delete(Collection<String> messageIds) {
+        if (messageIds.isEmpty()) return;
+        String where = DatabaseManager.in(Fields.UNIQUE_ID, messageIds)
+                + " OR " + DatabaseManager.in(Fields.MESSAGE_ID, messageIds);
+        deleteWhere(where, null);
+    }
+
+    private void deleteWhere(String where, String[] args) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(FTS_TABLE, Fields.DOC_ID + " IN (SELECT " + Fields.ID + " FROM "
+                    + META_TABLE + " WHERE " + where + ")", args);
+            db.delete(META_TABLE, where, args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(FTS_TABLE, null, null);
+            db.delete(META_TABLE, null, null);
+            db.delete(STATE_TABLE, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param match     FTS4 match expression.
+     * @param account   account to search in, <code>null</code> for all accounts.
+     * @param user      chat to search in, <code>null</code> for all chats.
+     * @return number of matching documents.
+     */
+    public int count(String match, String account, String user) {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM " + FTS_TABLE + " f JOIN "
+                + META_TABLE + " m ON m." + Fields.ID + " = f." + Fields.DOC_ID);
+        List<String> args = appendMatch(sql, match, account, user);
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(), sql.toString(),
+                args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Reads matching documents page by page. FTS4 has no ranking function,
+     * so documents are returned in order of their ids, newest added first.
+     *
+     * @param match     FTS4 match expression.
+     * @param account   account to search in, <code>null</code> for all accounts.
+     * @param user      chat to search in, <code>null</code> for all chats.
+     * @param beforeId  id of the last document of the previous page,
+     *                  {@link Long#MAX_VALUE} for the first page.
+     * @param limit     max number of documents.
+     */
+    public List<Document> query(String match, String account, String user, long beforeId, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT m." + Fields.ID + ", m." + Fields.UNIQUE_ID
+                + ", m." + Fields.MESSAGE_ID + ", m." + Fields.ACCOUNT + ", m." + Fields.USER
+                + ", m." + Fields.TIMESTAMP + ", m." + Fields.TEXT + ", f." + Fields.BODY
+                + " FROM " + FTS_TABLE + " f JOIN " + META_TABLE + " m ON m." + Fields.ID
+                + " = f." + Fields.DOC_ID);
+        List<String> args = appendMatch(sql, match, account, user);
+        sql.append(" AND f." + Fields.DOC_ID + " < ?");
+        args.add(String.valueOf(beforeId));
+        sql.append(" ORDER BY f." + Fields.DOC_ID + " DESC LIMIT ").append(limit);
+
+        List<Document> documents = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(sql.toString(),
+                args.toArray(new String[args.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                documents.add(new Document(cursor.getLong(0), cursor.getString(1),
+                        cursor.getString(2), cursor.getString(3), cursor.getString(4),
+                        cursor.getLong(5), cursor.getString(6), cursor.getString(7)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return documents;
+    }
+
+    /**
+     * Appends where clause with match expression and chat filter.
+     *
+     * @return arguments of the clause.
+     */
+    private static List<String> appendMatch(StringBuilder sql, String match, String account, String user) {
+        List<String> args = new ArrayList<>();
+        sql.append(" WHERE f." + Fields.BODY + " MATCH ?");
+        args.add(match);
+        if (account != null) {
+            sql.append(" AND m." + Fields.ACCOUNT + " = ?");
+            args.add(account);
+        }
+        if (user != null) {
+            sql.append(" AND m." + Fields.USER + " = ?");
+            args.add(user);
+        }
+        return args;
+    }
+
+    public String getState(String key) {
+        Cursor cursor = getReadableDatabase().query(STATE_TABLE, new String[]{Fields.VALUE},
+                Fields.KEY + " = ?", new String[]{key}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void setState(String key, String value) {
+        putState(getWritableDatabase(), key, value);
+    }
+
+    private static void putState(SQLiteDatabase db, String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put(Fields.KEY, key);
+        values.put(Fields.VALUE, value);
+        db.insertWithOnConflict(STATE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Indexed part of the message.
+     */
+    public static class Document {
+        /**
+         * Row id in the index, 0 for document that was not read from the index.
+         */
+        public final long id;
+        /**
+         * Id of indexed message.
+         */
+        public final String uniqueId;
+        /**
+         * Id of message to be shown for this document: parent message for forwarded one.
+         */
+        public final String messageId;
+        public final String account;
+        public final String user;
+        public final long timestamp;
+        /**
+         * Original text.
+         */
+        public final String text;
+        /**
+         * Folded text of the same length as original.
+         */
+        public final String body;
+
+        public Document(String uniqueId, String messageId, String account, String user,
+                        long timestamp, String text, String body) {
+            this(0, uniqueId, messageId, account, user, timestamp, text, body);
+        }
+
+        private Document(long id, String uniqueId, String messageId, String account, String user,
+                         long timestamp, String text, String body) {
+            this.id = id;
+            this.uniqueId = uniqueId;
+            this.messageId = messageId;
+            this.account = account;
+            this.user = user;
+            this.timestamp = timestamp;
+            this.text = text;
+            this.body = body;
+        }
+    }
+}
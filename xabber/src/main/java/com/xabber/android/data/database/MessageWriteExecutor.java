@@ -0,0 +1,324 @@
+package com.xabber.android.data.database;
+
+import com.xabber.android.data.log.LogManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+
+/**
+ * Single writer for message realm.
+ * <p/>
+ * All mutations are executed on one thread with one long-lived realm instance.
+ * Mutations queued at the moment writer becomes free are coalesced into one transaction.
+ * If such transaction fails, mutations are replayed one by one,
+ * so a broken mutation does not cancel the others.
+ */
+public class MessageWriteExecutor {
+
+    private static final String LOG_TAG = MessageWriteExecutor.class.getSimpleName();
+    private static final int MAX_MUTATIONS_PER_TRANSACTION = 500;
+
+    private final RealmConfiguration realmConfiguration;
+    private final BlockingQueue<WriteTask> queue = new LinkedBlockingQueue<>();
+    private final Map<String, WriteMetrics> metricsByCaller = new HashMap<>();
+    private final WriteMetrics totalMetrics = new WriteMetrics("total");
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong commitMillis = new AtomicLong();
+    private final Thread writerThread;
+
+    /**
+     * Realm of the writer thread. Can be accessed only from {@link #writerThread}.
+     */
+    private Realm realm;
+
+    MessageWriteExecutor(RealmConfiguration realmConfiguration) {
+        this.realmConfiguration = realmConfiguration;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Message realm writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    void execute(String caller, Realm.Transaction transaction) {
+        execute(caller, transaction, null);
+    }
+
+    /**
+     * @param onSuccess called from writer thread after mutation was committed. Can be null.
+     */
+    void execute(String caller, Realm.Transaction transaction, Realm.Transaction.OnSuccess onSuccess) {
+        WriteTask task = new WriteTask(caller, transaction, null);
+        task.onSuccess = onSuccess;
+        queue.add(task);
+    }
+
+    /**
+     * Executes mutation and waits until it is committed.
+     * Exception thrown by mutation is rethrown to the caller.
+     */
+    void executeAndWait(String caller, Realm.Transaction transaction) {
+        if (Thread.currentThread() == writerThread) {
+            WriteTask task = new WriteTask(caller, transaction, null);
+            Realm writerRealm = getRealm();
+            if (writerRealm.isInTransaction()) {
+                // called from other mutation
+                runMutation(task);
+                return;
+            }
+            // called from success callback, previous transaction is already committed
+            try {
+                commit(writerRealm, Collections.singletonList(task));
+            } catch (RuntimeException e) {
+                if (writerRealm.isInTransaction()) writerRealm.cancelTransaction();
+                onMutationFailed(task, e);
+                throw e;
+            }
+            return;
+        }
+
+        WriteTask task = new WriteTask(caller, transaction, new CountDownLatch(1));
+        queue.add(task);
+        await(task);
+        if (task.error instanceof RuntimeException) throw (RuntimeException) task.error;
+        if (task.error != null) throw new IllegalStateException(task.error);
+    }
+
+    /**
+     * Closes writer realm and waits for it. Realm will be reopened by next mutation.
+     */
+    void closeRealmAndWait() {
+        WriteTask task = new WriteTask(LOG_TAG, null, new CountDownLatch(1));
+        queue.add(task);
+        await(task);
+    }
+
+    Map<String, WriteMetrics> getMetricsByCaller() {
+        synchronized (metricsByCaller) {
+            return Collections.unmodifiableMap(new HashMap<>(metricsByCaller));
+        }
+    }
+
+    WriteMetrics getTotalMetrics() {
+        return totalMetrics;
+    }
+
+    long getTransactionCount() {
+        return transactions.get();
+    }
+
+    long getCommitMillis() {
+        return commitMillis.get();
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    private void await(WriteTask task) {
+        try {
+            task.latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LogManager.exception(LOG_TAG, e);
+        }
+    }
+
+    private void writeLoop() {
+        List<WriteTask> tasks = new ArrayList<>();
+        while (true) {
+            try {
+                tasks.add(queue.take());
+                queue.drainTo(tasks, MAX_MUTATIONS_PER_TRANSACTION - 1);
+                writeTasks(tasks);
+            } catch (InterruptedException e) {
+                LogManager.exception(LOG_TAG, e);
+                return;
+            } catch (Throwable e) {
+                // realm could not be opened or transaction could not be started,
+                // waiting callers must not see it as success
+                LogManager.exception(LOG_TAG, e);
+                for (WriteTask task : tasks) {
+                    if (!task.committed && task.error == null) task.error = e;
+                }
+            } finally {
+                for (WriteTask task : tasks) {
+                    if (task.latch != null) task.latch.countDown();
+                }
+                tasks.clear();
+            }
+        }
+    }
+
+    private void writeTasks(List<WriteTask> tasks) {
+        boolean needClose = false;
+        List<WriteTask> mutations = new ArrayList<>(tasks.size());
+        for (WriteTask task : tasks) {
+            if (task.transaction == null) needClose = true;
+            else mutations.add(task);
+        }
+
+        if (!mutations.isEmpty()) {
+            Realm writerRealm = getRealm();
+            try {
+                commit(writerRealm, mutations);
+            } catch (Throwable e) {
+                if (writerRealm.isInTransaction()) writerRealm.cancelTransaction();
+                LogManager.exception(LOG_TAG, e);
+                if (mutations.size() > 1) {
+                    LogManager.w(LOG_TAG, "Coalesced transaction failed, replaying "
+                            + mutations.size() + " mutations one by one");
+                    for (WriteTask task : mutations) {
+                        try {
+                            commit(writerRealm, Collections.singletonList(task));
+                        } catch (Throwable error) {
+                            if (writerRealm.isInTransaction()) writerRealm.cancelTransaction();
+                            onMutationFailed(task, error);
+                        }
+                    }
+                } else onMutationFailed(mutations.get(0), e);
+            }
+        }
+
+        if (needClose && realm != null) {
+            realm.close();
+            realm = null;
+        }
+    }
+
+    private void commit(Realm writerRealm, List<WriteTask> mutations) {
+        long startTime = System.currentTimeMillis();
+        writerRealm.beginTransaction();
+        for (WriteTask task : mutations) {
+            runMutation(task);
+        }
+        long commitStartTime = System.currentTimeMillis();
+        writerRealm.commitTransaction();
+        long endTime = System.currentTimeMillis();
+
+        transactions.incrementAndGet();
+        commitMillis.addAndGet(endTime - commitStartTime);
+        for (WriteTask task : mutations) {
+            task.committed = true;
+            getMetrics(task.caller).onCommitted(task, startTime);
+            totalMetrics.onCommitted(task, startTime);
+        }
+        for (WriteTask task : mutations) {
+            if (task.onSuccess == null) continue;
+            try {
+                task.onSuccess.onSuccess();
+            } catch (Exception e) {
+                LogManager.exception(task.caller, e);
+            }
+        }
+    }
+
+    private void runMutation(WriteTask task) {
+        long startTime = System.currentTimeMillis();
+        task.transaction.execute(getRealm());
+        task.executionMillis = System.currentTimeMillis() - startTime;
+    }
+
+    private void onMutationFailed(WriteTask task, Throwable error) {
+        LogManager.exception(task.caller, error);
+        task.error = error;
+        getMetrics(task.caller).failures.incrementAndGet();
+        totalMetrics.failures.incrementAndGet();
+    }
+
+    private Realm getRealm() {
+        if (realm == null) realm = Realm.getInstance(realmConfiguration);
+        return realm;
+    }
+
+    private WriteMetrics getMetrics(String caller) {
+        synchronized (metricsByCaller) {
+            WriteMetrics metrics = metricsByCaller.get(caller);
+            if (metrics == null) {
+                metrics = new WriteMetrics(caller);
+                metricsByCaller.put(caller, metrics);
+            }
+            return metrics;
+        }
+    }
+
+    private static class WriteTask {
+        final String caller;
+        final Realm.Transaction transaction;
+        final CountDownLatch latch;
+        final long submitTime;
+        Realm.Transaction.OnSuccess onSuccess;
+        long executionMillis;
+        boolean committed;
+        Throwable error;
+
+        WriteTask(String caller, Realm.Transaction transaction, CountDownLatch latch) {
+            this.caller = caller;
+            this.transaction = transaction;
+            this.latch = latch;
+            this.submitTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Write counters of one caller.
+     */
+    public static class WriteMetrics {
+        private final String caller;
+        private final AtomicLong mutations = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong executionMillis = new AtomicLong();
+        private final AtomicLong queueMillis = new AtomicLong();
+
+        WriteMetrics(String caller) {
+            this.caller = caller;
+        }
+
+        void onCommitted(WriteTask task, long transactionStartTime) {
+            mutations.incrementAndGet();
+            executionMillis.addAndGet(task.executionMillis);
+            queueMillis.addAndGet(Math.max(0, transactionStartTime - task.submitTime));
+        }
+
+        public String getCaller() {
+            return caller;
+        }
+
+        public long getMutations() {
+            return mutations.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getExecutionMillis() {
+            return executionMillis.get();
+        }
+
+        public long getQueueMillis() {
+            return queueMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return caller + ": mutations " + getMutations()
+                    + ", failures " + getFailures()
+                    + ", execution ms " + getExecutionMillis()
+                    + ", queue ms " + getQueueMillis();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.xabber.android.data.database;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.OnTimerListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link RealmCompactionPolicy} checks of realm databases in maintenance window:
+ * while device is charging and its screen is off.
+ */
+public class RealmCompactionManager implements OnTimerListener {
+
+    private static final long CHECK_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final long WINDOW_POLL_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+
+    private static RealmCompactionManager instance;
+
+    private long lastPoll;
+    private boolean checking;
+
+    public static RealmCompactionManager getInstance() {
+        if (instance == null) {
+            instance = new RealmCompactionManager();
+        }
+
+        return instance;
+    }
+
+    private RealmCompactionManager() {
+        lastPoll = System.currentTimeMillis();
+    }
+
+    @Override
+    public void onTimer() {
+        long now = System.currentTimeMillis();
+        if (checking || now - lastPoll < WINDOW_POLL_INTERVAL) return;
+        lastPoll = now;
+
+        final boolean checkMessages = MessageDatabaseManager.getInstance()
+                .getCompactionPolicy().isCheckNeeded(CHECK_INTERVAL);
+        final boolean checkRealm = RealmManager.getInstance()
+                .getCompactionPolicy().isCheckNeeded(CHECK_INTERVAL);
+        if (!checkMessages && !checkRealm) return;
+        if (!isMaintenanceWindow()) return;
+
+        checking = true;
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (checkMessages) MessageDatabaseManager.getInstance().checkCompaction();
+                    if (checkRealm) RealmManager.getInstance().checkCompaction();
+                } finally {
+                    Application.getInstance().runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            checking = false;
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isMaintenanceWindow() {
+        Context context = Application.getInstance();
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) return false;
+
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return !powerManager.isInteractive();
+        } else {
+            return !powerManager.isScreenOn();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.xabber.android.data.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.log.LogManager;
+
+import java.io.File;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+
+/**
+ * Decides when realm file should be compacted.
+ * <p/>
+ * Realm can be compacted only while it has no open instances, that is before first use
+ * after process start. Compacting on every start rewrites the whole file, so instead
+ * live data size is measured in maintenance window by writing compacted copy of realm,
+ * and compaction is scheduled for the next start only if file wastes more than threshold.
+ * <p/>
+ * State is kept in own shared preferences file.
+ */
+public class RealmCompactionPolicy {
+
+    private static final String LOG_TAG = RealmCompactionPolicy.class.getSimpleName();
+    private static final String PREFERENCES = "realm_compaction";
+
+    private static final String KEY_SCHEDULED = "_scheduled";
+    private static final String KEY_CHECKED = "_checked";
+    private static final String KEY_LAST_REPORT = "_last_report";
+
+    private final RealmConfiguration configuration;
+    private final float wasteThreshold;
+    private final long minWasteBytes;
+
+    /**
+     * @param wasteThreshold part of the file not used by live data, from 0 to 1,
+     *                       after which file should be compacted.
+     * @param minWasteBytes  wasted bytes after which file should be compacted,
+     *                       so small files are not rewritten for a few kilobytes.
+     */
+    public RealmCompactionPolicy(RealmConfiguration configuration,
+                                 float wasteThreshold, long minWasteBytes) {
+        this.configuration = configuration;
+        this.wasteThreshold = wasteThreshold;
+        this.minWasteBytes = minWasteBytes;
+    }
+
+    /**
+     * Compacts realm if it was scheduled by {@link #check(Realm)}.
+     * MUST be called before realm is opened.
+     */
+    public void compactIfScheduled() {
+        if (!getPreferences().getBoolean(getKey(KEY_SCHEDULED), false)) return;
+
+        File file = new File(configuration.getPath());
+        long sizeBefore = file.length();
+        long start = System.currentTimeMillis();
+        boolean success = Realm.compactRealm(configuration);
+        long duration = System.currentTimeMillis() - start;
+        long reclaimed = sizeBefore - file.length();
+
+        String report = configuration.getRealmFileName() + " compaction "
+                + (success ? "succeeded" : "failed") + " in " + duration + " ms, reclaimed "
+                + reclaimed + " of " + sizeBefore + " bytes";
+        LogManager.i(LOG_TAG, report);
+
+        getPreferences().edit()
+                .putBoolean(getKey(KEY_SCHEDULED), false)
+                .putString(getKey(KEY_LAST_REPORT), report)
+                .apply();
+    }
+
+    /**
+     * @return whether {@link #check(Realm)} was not called for given time.
+     */
+    public boolean isCheckNeeded(long intervalMillis) {
+        long checked = getPreferences().getLong(getKey(KEY_CHECKED), 0);
+        return System.currentTimeMillis() - checked >= intervalMillis;
+    }
+
+    /**
+     * Measures live data size and schedules compaction if file wastes too much space.
+     * Writes copy of the whole realm, so should be called only in maintenance window
+     * from background thread.
+     */
+    public void check(Realm realm) {
+        File file = new File(configuration.getPath());
+        long fileSize = file.length();
+
+        boolean scheduled = false;
+        if (fileSize >= minWasteBytes) {
+            File copy = new File(Application.getInstance().getCacheDir(),
+                    configuration.getRealmFileName() + ".compaction");
+            if (copy.exists() && !copy.delete()) {
+                LogManager.w(LOG_TAG, "Could not delete " + copy);
+                return;
+            }
+            try {
+                realm.writeCopyTo(copy);
+                long waste = fileSize - copy.length();
+                scheduled = waste >= minWasteBytes && waste >= fileSize * wasteThreshold;
+                LogManager.i(LOG_TAG, configuration.getRealmFileName() + " uses " + copy.length()
+                        + " of " + fileSize + " bytes, compaction "
+                        + (scheduled ? "scheduled" : "not needed"));
+            } catch (RuntimeException e) {
+                LogManager.exception(LOG_TAG, e);
+                return;
+            } finally {
+                copy.delete();
+            }
+        }
+
+        getPreferences().edit()
+                .putBoolean(getKey(KEY_SCHEDULED), scheduled)
+                .putLong(getKey(KEY_CHECKED), System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @return description of the last compaction, <code>null</code> if there was no compaction.
+     */
+    public String getLastReport() {
+        return getPreferences().getString(getKey(KEY_LAST_REPORT), null);
+    }
+
+    private String getKey(String suffix) {
+        return configuration.getRealmFileName() + suffix;
+    }
+
+    private static SharedPreferences getPreferences() {
+        return Application.getInstance().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -39,7 +39,10 @@ public class RealmManager {
     private static final String REALM_DATABASE_NAME = "realm_database.realm";
     private static final int REALM_DATABASE_VERSION = 29;
     private static final String LOG_TAG = RealmManager.class.getSimpleName();
+    private static final float COMPACTION_WASTE_THRESHOLD = 0.5f;
+    private static final long COMPACTION_MIN_WASTE_BYTES = 4 * 1024 * 1024;
     private final RealmConfiguration realmConfiguration;
+    private final RealmCompactionPolicy compactionPolicy;
 
     private static RealmManager instance;
 
@@ -57,11 +60,29 @@ public class RealmManager {
         Realm.init(Application.getInstance());
         realmConfiguration = createRealmConfiguration();
 
-        boolean success = Realm.compactRealm(realmConfiguration);
-        System.out.println("Realm compact database file result: " + success);
+        compactionPolicy = new RealmCompactionPolicy(realmConfiguration,
+                COMPACTION_WASTE_THRESHOLD, COMPACTION_MIN_WASTE_BYTES);
+        compactionPolicy.compactIfScheduled();
 
     }
 
+    RealmCompactionPolicy getCompactionPolicy() {
+        return compactionPolicy;
+    }
+
+    /**
+     * Measures wasted space of realm file and schedules compaction for the next start.
+     * MUST be called from background thread.
+     */
+    void checkCompaction() {
+        Realm realm = getNewBackgroundRealm();
+        try {
+            compactionPolicy.check(realm);
+        } finally {
+            realm.close();
+        }
+    }
+
     void deleteRealm() {
         Realm realm = getNewBackgroundRealm();
         Realm.deleteRealm(realm.getConfiguration());
@@ -0,0 +1,92 @@
+package com.xabber.android.data.database.messagerealm;
+
+import java.util.UUID;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+import io.realm.annotations.Required;
+
+/**
+ * Contiguous range of message archive of a chat, all messages of which are stored locally.
+ * Segments of a chat don't overlap, holes between them are not loaded yet.
+ */
+public class HistorySegment extends RealmObject {
+
+    public static class Fields {
+        public static final String ID = "id";
+        public static final String CHAT_KEY = "chatKey";
+        public static final String FIRST_ARCHIVED_ID = "firstArchivedId";
+        public static final String FIRST_TIMESTAMP = "firstTimestamp";
+        public static final String LAST_ARCHIVED_ID = "lastArchivedId";
+        public static final String LAST_TIMESTAMP = "lastTimestamp";
+        public static final String HISTORY_START = "historyStart";
+    }
+
+    @PrimaryKey
+    @Required
+    private String id;
+
+    @Index
+    private String chatKey;
+
+    private String firstArchivedId;
+    private long firstTimestamp;
+    private String lastArchivedId;
+    private long lastTimestamp;
+
+    /**
+     * Whether archive has no messages before the first one.
+     */
+    private boolean historyStart;
+
+    public HistorySegment() {
+        this.id = UUID.randomUUID().toString();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getChatKey() {
+        return chatKey;
+    }
+
+    public void setChatKey(String chatKey) {
+        this.chatKey = chatKey;
+    }
+
+    public String getFirstArchivedId() {
+        return firstArchivedId;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public void setFirst(String archivedId, long timestamp) {
+        this.firstArchivedId = archivedId;
+        this.firstTimestamp = timestamp;
+    }
+
+    public String getLastArchivedId() {
+        return lastArchivedId;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLast(String archivedId, long timestamp) {
+        this.lastArchivedId = archivedId;
+        this.lastTimestamp = timestamp;
+    }
+
+    public boolean isHistoryStart() {
+        return historyStart;
+    }
+
+    public void setHistoryStart(boolean historyStart) {
+        this.historyStart = historyStart;
+    }
+}
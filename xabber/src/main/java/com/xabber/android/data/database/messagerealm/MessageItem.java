@@ -27,10 +27,12 @@ import com.xabber.android.data.message.ChatAction;
 import com.xabber.android.data.roster.RosterManager;
 import com.xabber.android.utils.StringUtils;
 
+import org.jivesoftware.smackx.forward.packet.Forwarded;
 import org.jxmpp.jid.parts.Resourcepart;
 import org.jxmpp.stringprep.XmppStringprepException;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import io.realm.RealmList;
@@ -48,6 +50,7 @@ public class MessageItem extends RealmObject {
         public static final String UNIQUE_ID = "uniqueId";
         public static final String ACCOUNT = "account";
         public static final String USER = "user";
+        public static final String CHAT_KEY = "chatKey";
         public static final String RESOURCE = "resource";
         public static final String TEXT = "text";
         public static final String MARKUP_TEXT = "markupText";
@@ -98,6 +101,11 @@ public class MessageItem extends RealmObject {
     private String account;
     @Index
     private String user;
+    /**
+     * Account and user of the chat, used to find messages of the chat by single index.
+     */
+    @Index
+    private String chatKey;
 
     /**
      * Contact's resource.
@@ -159,6 +167,7 @@ public class MessageItem extends RealmObject {
     /**
      * Outgoing packet id - usual message stanza (packet) id
      */
+    @Index
     private String stanzaId;
 
     /**
@@ -216,11 +225,19 @@ public class MessageItem extends RealmObject {
 
     private String originalStanza;
 
+    /**
+     * Messages forwarded by {@link #originalStanza}, extracted while it was parsed.
+     * Not stored, <code>null</code> if were not extracted.
+     */
+    @Ignore
+    private List<Forwarded> forwarded;
+
     /** If message was forwarded contains jid of original message author */
     private String originalFrom;
 
     private String parentMessageId;
     private String previousId;
+    @Index
     private String archivedId;
     @Ignore
     private String packetId;
@@ -257,6 +274,7 @@ public class MessageItem extends RealmObject {
 
     public void setAccount(AccountJid account) {
         this.account = account.toString();
+        this.chatKey = getChatKey(this.account, this.user);
     }
 
     public UserJid getUser() {
@@ -270,6 +288,19 @@ public class MessageItem extends RealmObject {
 
     public void setUser(UserJid user) {
         this.user = user.toString();
+        this.chatKey = getChatKey(this.account, this.user);
+    }
+
+    public String getChatKey() {
+        return chatKey;
+    }
+
+    public static String getChatKey(AccountJid account, UserJid user) {
+        return getChatKey(account.toString(), user.toString());
+    }
+
+    public static String getChatKey(String account, String user) {
+        return account + "/" + user;
     }
 
     public Resourcepart getResource() {
@@ -555,6 +586,15 @@ public class MessageItem extends RealmObject {
         this.originalStanza = originalStanza;
     }
 
+    @Nullable
+    public List<Forwarded> getForwarded() {
+        return forwarded;
+    }
+
+    public void setForwarded(List<Forwarded> forwarded) {
+        this.forwarded = forwarded;
+    }
+
     public String getOriginalFrom() {
         return originalFrom;
     }
@@ -22,7 +22,9 @@ public class SyncInfo extends RealmObject {
 
     private String firstMamMessageMamId;
     private String firstMamMessageStanzaId;
+    /** Archived id of the last message saved by catch-up of the chat */
     private String lastMessageMamId;
+    /** Whether catch-up of the chat reached the end of the archive */
     private boolean isRemoteHistoryCompletelyLoaded = false;
 
 
@@ -17,6 +17,8 @@ package com.xabber.android.data.extension.attention;
 import android.media.AudioManager;
 import android.net.Uri;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
@@ -26,7 +28,8 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.capability.CapabilitiesManager;
@@ -57,7 +60,7 @@ import org.jxmpp.jid.parts.Resourcepart;
  *
  * @author alexander.ivanov
  */
-public class AttentionManager implements OnPacketListener, OnLoadListener {
+public class AttentionManager implements OnSelectivePacketListener, OnLoadListener {
 
     @SuppressWarnings("WeakerAccess")
     final static Object enabledLock;
@@ -149,6 +152,12 @@ public class AttentionManager implements OnPacketListener, OnLoadListener {
                 attentionRequestProvider);
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.message, AttentionExtension.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         if (!(stanza instanceof Message)) {
@@ -39,7 +39,8 @@ import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.sqlite.AvatarTable;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
@@ -78,7 +79,7 @@ import java.util.Map;
  *
  * @author alexander.ivanov
  */
-public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPacketListener {
+public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnSelectivePacketListener {
 
     /**
      * Maximum image width / height to be loaded.
@@ -497,6 +498,12 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         setHash(jid, hash);
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.presence, VCardUpdate.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         if (!(stanza instanceof Presence)) {
@@ -5,6 +5,7 @@ import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.message.UnreadMessageCounter;
 import com.xabber.android.data.roster.AbstractContact;
 import com.xabber.android.data.roster.RosterManager;
 
@@ -56,13 +57,15 @@ public class BackpressureMessageReader {
 
                         Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
                         RealmResults<MessageItem> messages = getPreviousUnreadMessages(realm, message);
-                        realm.beginTransaction();
                         List<String> ids = new ArrayList<>();
+                        int unreadCount = 0;
                         for (MessageItem mes : messages) {
-                            mes.setRead(true);
+                            if (UnreadMessageCounter.isUnread(mes)) unreadCount++;
                             ids.add(mes.getUniqueId());
                         }
-                        realm.commitTransaction();
+                        setRead(ids);
+                        UnreadMessageCounter.getInstance().onMessagesRead(
+                                message.getAccount(), message.getUser(), unreadCount);
 
                         AbstractChat chat = MessageManager.getInstance().getOrCreateChat(message.getAccount(), message.getUser());
                         if (chat != null) chat.approveRead(ids);
@@ -79,10 +82,24 @@ public class BackpressureMessageReader {
         return subject;
     }
 
+    private void setRead(List<String> ids) {
+        if (ids.isEmpty()) return;
+        final String[] idsToRead = ids.toArray(new String[0]);
+        MessageDatabaseManager.getInstance().executeWrite("BackpressureMessageReader.markAsRead",
+                new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                RealmResults<MessageItem> messages = realm.where(MessageItem.class)
+                        .in(MessageItem.Fields.UNIQUE_ID, idsToRead).findAll();
+                for (MessageItem message : messages) {
+                    message.setRead(true);
+                }
+            }
+        });
+    }
+
     private RealmResults<MessageItem> getPreviousUnreadMessages(Realm realm, MessageItem messageItem) {
-        return realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, messageItem.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, messageItem.getUser().toString())
+        return MessageDatabaseManager.getChatQuery(realm, messageItem.getChatKey())
                 .equalTo(MessageItem.Fields.READ, false)
                 .lessThanOrEqualTo(MessageItem.Fields.TIMESTAMP, messageItem.getTimestamp())
                 .findAll();
@@ -1,12 +1,15 @@
 package com.xabber.android.data.extension.chat_markers;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.MessageDatabaseManager;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
@@ -45,7 +48,7 @@ import java.util.List;
 import io.realm.Realm;
 import io.realm.RealmResults;
 
-public class ChatMarkerManager implements OnPacketListener {
+public class ChatMarkerManager implements OnSelectivePacketListener {
 
     private static final StanzaFilter OUTGOING_MESSAGE_FILTER = new AndFilter(
             MessageTypeFilter.NORMAL_OR_CHAT,
@@ -56,6 +59,13 @@ public class ChatMarkerManager implements OnPacketListener {
 
     private static ChatMarkerManager instance;
 
+    private final Realm.Transaction.OnSuccess postMessageUpdateEvent = new Realm.Transaction.OnSuccess() {
+        @Override
+        public void onSuccess() {
+            EventBus.getDefault().post(new MessageUpdateEvent());
+        }
+    };
+
     public static ChatMarkerManager getInstance() {
         if (instance == null) instance = new ChatMarkerManager();
         return instance;
@@ -77,6 +87,12 @@ public class ChatMarkerManager implements OnPacketListener {
         });
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.message, ChatMarkersElements.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza packet) {
         if (packet instanceof Message) {
@@ -179,52 +195,50 @@ public class ChatMarkerManager implements OnPacketListener {
     }
 
     private void markAsDisplayed(final String messageID) {
-        Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-        MessageItem first = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.STANZA_ID, messageID).findFirst();
-
-        if (first != null) {
-            RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                    .equalTo(MessageItem.Fields.ACCOUNT, first.getAccount().toString())
-                    .equalTo(MessageItem.Fields.USER, first.getUser().toString())
-                    .equalTo(MessageItem.Fields.INCOMING, false)
-                    .equalTo(MessageItem.Fields.DISPLAYED, false)
-                    .lessThanOrEqualTo(MessageItem.Fields.TIMESTAMP, first.getTimestamp())
-                    .findAll();
-
-            if (results != null) {
-                realm.beginTransaction();
-                for (MessageItem item : results) {
-                    item.setDisplayed(true);
+        MessageDatabaseManager.getInstance().executeWrite("ChatMarkerManager.markAsDisplayed",
+                new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                MessageItem first = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.STANZA_ID, messageID).findFirst();
+
+                if (first != null) {
+                    RealmResults<MessageItem> results = MessageDatabaseManager
+                            .getChatQuery(realm, first.getChatKey())
+                            .equalTo(MessageItem.Fields.INCOMING, false)
+                            .equalTo(MessageItem.Fields.DISPLAYED, false)
+                            .lessThanOrEqualTo(MessageItem.Fields.TIMESTAMP, first.getTimestamp())
+                            .findAll();
+
+                    for (MessageItem item : results) {
+                        item.setDisplayed(true);
+                    }
                 }
-                realm.commitTransaction();
-                EventBus.getDefault().post(new MessageUpdateEvent());
             }
-        }
+        }, postMessageUpdateEvent);
     }
 
     private void markAsDelivered(final String stanzaID) {
-        Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-        MessageItem first = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.STANZA_ID, stanzaID).findFirst();
-
-        if (first != null) {
-            RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                    .equalTo(MessageItem.Fields.ACCOUNT, first.getAccount().toString())
-                    .equalTo(MessageItem.Fields.USER, first.getUser().toString())
-                    .equalTo(MessageItem.Fields.INCOMING, false)
-                    .equalTo(MessageItem.Fields.DELIVERED, false)
-                    .lessThanOrEqualTo(MessageItem.Fields.TIMESTAMP, first.getTimestamp())
-                    .findAll();
-
-            if (results != null) {
-                realm.beginTransaction();
-                for (MessageItem item : results) {
-                    item.setDelivered(true);
+        MessageDatabaseManager.getInstance().executeWrite("ChatMarkerManager.markAsDelivered",
+                new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                MessageItem first = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.STANZA_ID, stanzaID).findFirst();
+
+                if (first != null) {
+                    RealmResults<MessageItem> results = MessageDatabaseManager
+                            .getChatQuery(realm, first.getChatKey())
+                            .equalTo(MessageItem.Fields.INCOMING, false)
+                            .equalTo(MessageItem.Fields.DELIVERED, false)
+                            .lessThanOrEqualTo(MessageItem.Fields.TIMESTAMP, first.getTimestamp())
+                            .findAll();
+
+                    for (MessageItem item : results) {
+                        item.setDelivered(true);
+                    }
                 }
-                realm.commitTransaction();
-                EventBus.getDefault().post(new MessageUpdateEvent());
             }
-        }
+        }, postMessageUpdateEvent);
     }
 }
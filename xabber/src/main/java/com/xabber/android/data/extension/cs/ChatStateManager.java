@@ -21,6 +21,8 @@ import android.content.Intent;
 import android.os.Handler;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.OnCloseListener;
@@ -31,7 +33,8 @@ import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.StanzaSender;
 import com.xabber.android.data.connection.listeners.OnDisconnectListener;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.entity.NestedNestedMaps;
@@ -69,7 +72,7 @@ import java.util.Map;
  * @author alexander.ivanov
  */
 public class ChatStateManager implements OnDisconnectListener,
-        OnPacketListener, OnCloseListener {
+        OnSelectivePacketListener, OnCloseListener {
 
     private static ChatStateManager instance;
 
@@ -295,6 +298,14 @@ public class ChatStateManager implements OnDisconnectListener,
         }
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest()
+                .allOf(PacketInterest.Kind.message)
+                .allOf(PacketInterest.Kind.presence);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         if (stanza.getFrom() == null) {
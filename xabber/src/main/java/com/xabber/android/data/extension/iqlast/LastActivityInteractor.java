@@ -1,9 +1,12 @@
 package com.xabber.android.data.extension.iqlast;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.log.LogManager;
@@ -16,7 +19,7 @@ import org.jxmpp.jid.Jid;
 
 import java.util.HashMap;
 
-public class LastActivityInteractor implements OnPacketListener {
+public class LastActivityInteractor implements OnSelectivePacketListener {
 
     private static LastActivityInteractor instance;
     private HashMap<UserJid, Long> lastActivities = new HashMap<>();
@@ -26,6 +29,12 @@ public class LastActivityInteractor implements OnPacketListener {
         return instance;
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.iq, LastActivity.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza packet) {
         if (packet instanceof LastActivity) {
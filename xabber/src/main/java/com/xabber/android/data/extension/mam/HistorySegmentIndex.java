@@ -0,0 +1,286 @@
+package com.xabber.android.data.extension.mam;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.HistorySegment;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.realm.Realm;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * Keeps {@link HistorySegment}s of chats: ranges of message archive which are stored locally.
+ * <p/>
+ * Every loaded page of chat archive is added as a {@link Range}, which is merged with segments
+ * it overlaps. Range should include the local message the page was requested after or before,
+ * so it is joined with segment of that message. Segments of chat loaded before segments were
+ * introduced are built once from previous id links of its messages.
+ * <p/>
+ * Ranges are written by message realm writer, so they must be added after their messages
+ * were saved. Must not be called from UI thread, except {@link #getCompleteness(Realm, String)}.
+ */
+public class HistorySegmentIndex {
+
+    private static final String LOG_TAG = HistorySegmentIndex.class.getSimpleName();
+
+    private static HistorySegmentIndex instance;
+
+    public static HistorySegmentIndex getInstance() {
+        if (instance == null) {
+            instance = new HistorySegmentIndex();
+        }
+
+        return instance;
+    }
+
+    private HistorySegmentIndex() {
+    }
+
+    /**
+     * Archived messages known to be contiguous in chat archive.
+     */
+    public static class Range {
+
+        private final String firstArchivedId;
+        private final long firstTimestamp;
+        private final String lastArchivedId;
+        private final long lastTimestamp;
+        private final boolean historyStart;
+
+        private Range(String firstArchivedId, long firstTimestamp, String lastArchivedId, long lastTimestamp,
+                      boolean historyStart) {
+            this.firstArchivedId = firstArchivedId;
+            this.firstTimestamp = firstTimestamp;
+            this.lastArchivedId = lastArchivedId;
+            this.lastTimestamp = lastTimestamp;
+            this.historyStart = historyStart;
+        }
+
+        /**
+         * @param messages page of archive, can contain messages without archived id.
+         * @return range of the page or <code>null</code> if there are no archived messages.
+         */
+        @Nullable
+        public static Range of(Collection<MessageItem> messages) {
+            Range range = null;
+            for (MessageItem message : messages) {
+                if (message.getArchivedId() == null) continue;
+                range = range == null ? single(message.getArchivedId(), message.getTimestamp())
+                        : range.extendTo(message.getArchivedId(), message.getTimestamp());
+            }
+            return range;
+        }
+
+        public static Range single(String archivedId, long timestamp) {
+            return new Range(archivedId, timestamp, archivedId, timestamp, false);
+        }
+
+        /**
+         * @return range which also includes archived message next to this range.
+         */
+        public Range extendTo(String archivedId, long timestamp) {
+            if (timestamp < firstTimestamp) {
+                return new Range(archivedId, timestamp, lastArchivedId, lastTimestamp, historyStart);
+            } else if (timestamp > lastTimestamp) {
+                return new Range(firstArchivedId, firstTimestamp, archivedId, timestamp, historyStart);
+            }
+            return this;
+        }
+
+        /**
+         * @return range with mark that archive has no messages before it.
+         */
+        public Range startingHistory() {
+            return new Range(firstArchivedId, firstTimestamp, lastArchivedId, lastTimestamp, true);
+        }
+    }
+
+    /**
+     * Loaded part of chat history.
+     */
+    public static class Completeness {
+
+        /**
+         * Number of not loaded ranges between loaded ones.
+         */
+        public final int gaps;
+
+        /**
+         * Whether history is loaded down to the first archived message.
+         */
+        public final boolean reachesStart;
+
+        Completeness(int gaps, boolean reachesStart) {
+            this.gaps = gaps;
+            this.reachesStart = reachesStart;
+        }
+
+        public boolean isComplete() {
+            return gaps == 0 && reachesStart;
+        }
+    }
+
+    public void addRange(String chatKey, @Nullable Range range) {
+        if (range != null) {
+            addRanges(Collections.singletonMap(chatKey, range));
+        }
+    }
+
+    /**
+     * Adds ranges of many chats in one transaction.
+     */
+    public void addRanges(final Map<String, Range> rangesByChat) {
+        if (rangesByChat.isEmpty()) return;
+
+        MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                for (Map.Entry<String, Range> entry : rangesByChat.entrySet()) {
+                    buildIfNeeded(realm, entry.getKey());
+                    merge(realm, entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds archived messages received live. They follow the last archived messages of their chats,
+     * so they continue segments of these messages. Must be called inside transaction of message
+     * realm writer, before the messages are written.
+     */
+    public void addLiveMessages(Realm realm, Collection<MessageItem> messages) {
+        Map<String, Range> rangesByChat = new HashMap<>();
+        for (MessageItem message : messages) {
+            if (message.getArchivedId() == null || message.getParentMessageId() != null) continue;
+            String chatKey = message.getChatKey();
+            Range range = rangesByChat.get(chatKey);
+            if (range == null) {
+                range = Range.single(message.getArchivedId(), message.getTimestamp());
+                MessageItem previous = MessageDatabaseManager.findLast(MessageDatabaseManager
+                        .getChatQuery(realm, chatKey)
+                        .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
+                        .isNotNull(MessageItem.Fields.ARCHIVED_ID));
+                if (previous != null) range = range.extendTo(previous.getArchivedId(), previous.getTimestamp());
+            } else range = range.extendTo(message.getArchivedId(), message.getTimestamp());
+            rangesByChat.put(chatKey, range);
+        }
+        for (Map.Entry<String, Range> entry : rangesByChat.entrySet()) {
+            buildIfNeeded(realm, entry.getKey());
+            merge(realm, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Marks that archive has no messages before the segment.
+     */
+    public void setHistoryStart(final String segmentId) {
+        MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                HistorySegment segment = realm.where(HistorySegment.class)
+                        .equalTo(HistorySegment.Fields.ID, segmentId).findFirst();
+                if (segment != null) segment.setHistoryStart(true);
+            }
+        });
+    }
+
+    /**
+     * @return detached segments of the chat from the oldest one.
+     */
+    @NonNull
+    public List<HistorySegment> getSegments(Realm realm, final String chatKey) {
+        if (getSegmentQuery(realm, chatKey).count() == 0
+                && MessageDatabaseManager.getChatQuery(realm, chatKey)
+                        .isNotNull(MessageItem.Fields.ARCHIVED_ID).count() > 0) {
+            MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, new Realm.Transaction() {
+                @Override
+                public void execute(Realm realm) {
+                    buildIfNeeded(realm, chatKey);
+                }
+            });
+            MessageDatabaseManager.refreshBackgroundRealm(realm);
+        }
+        return realm.copyFromRealm(getSegmentQuery(realm, chatKey)
+                .findAllSorted(HistorySegment.Fields.FIRST_TIMESTAMP, Sort.ASCENDING));
+    }
+
+    /**
+     * Can be called from UI thread, doesn't build segments of old chat.
+     */
+    public Completeness getCompleteness(Realm realm, String chatKey) {
+        RealmResults<HistorySegment> segments = getSegmentQuery(realm, chatKey)
+                .findAllSorted(HistorySegment.Fields.FIRST_TIMESTAMP, Sort.ASCENDING);
+        if (segments.isEmpty()) {
+            return new Completeness(0, false);
+        }
+        return new Completeness(segments.size() - 1, segments.first().isHistoryStart());
+    }
+
+    private static void merge(Realm realm, String chatKey, Range range) {
+        RealmResults<HistorySegment> overlapping = getSegmentQuery(realm, chatKey)
+                .lessThanOrEqualTo(HistorySegment.Fields.FIRST_TIMESTAMP, range.lastTimestamp)
+                .greaterThanOrEqualTo(HistorySegment.Fields.LAST_TIMESTAMP, range.firstTimestamp)
+                .findAll();
+
+        HistorySegment merged = new HistorySegment();
+        merged.setChatKey(chatKey);
+        merged.setFirst(range.firstArchivedId, range.firstTimestamp);
+        merged.setLast(range.lastArchivedId, range.lastTimestamp);
+        merged.setHistoryStart(range.historyStart);
+        for (HistorySegment segment : overlapping) {
+            if (segment.getFirstTimestamp() < merged.getFirstTimestamp()) {
+                merged.setFirst(segment.getFirstArchivedId(), segment.getFirstTimestamp());
+                merged.setHistoryStart(segment.isHistoryStart());
+            } else if (segment.getFirstTimestamp() == merged.getFirstTimestamp() && segment.isHistoryStart()) {
+                merged.setHistoryStart(true);
+            }
+            if (segment.getLastTimestamp() > merged.getLastTimestamp()) {
+                merged.setLast(segment.getLastArchivedId(), segment.getLastTimestamp());
+            }
+        }
+        overlapping.deleteAllFromRealm();
+        realm.copyToRealm(merged);
+    }
+
+    /**
+     * Builds segments of chat without them from previous id links of its archived messages.
+     */
+    private static void buildIfNeeded(Realm realm, String chatKey) {
+        if (getSegmentQuery(realm, chatKey).count() > 0) return;
+
+        RealmResults<MessageItem> messages = MessageDatabaseManager.getChatQuery(realm, chatKey)
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
+                .isNotNull(MessageItem.Fields.ARCHIVED_ID)
+                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+
+        HistorySegment segment = null;
+        for (MessageItem message : messages) {
+            if (segment != null && segment.getLastArchivedId().equals(message.getPreviousId())) {
+                segment.setLast(message.getArchivedId(), message.getTimestamp());
+                continue;
+            }
+            if (segment != null) realm.copyToRealm(segment);
+            segment = new HistorySegment();
+            segment.setChatKey(chatKey);
+            segment.setFirst(message.getArchivedId(), message.getTimestamp());
+            segment.setLast(message.getArchivedId(), message.getTimestamp());
+            // first message used to link to itself when history was loaded completely
+            segment.setHistoryStart(message.getArchivedId().equals(message.getPreviousId()));
+        }
+        if (segment != null) realm.copyToRealm(segment);
+    }
+
+    private static RealmQuery<HistorySegment> getSegmentQuery(Realm realm, String chatKey) {
+        return realm.where(HistorySegment.class).equalTo(HistorySegment.Fields.CHAT_KEY, chatKey);
+    }
+}
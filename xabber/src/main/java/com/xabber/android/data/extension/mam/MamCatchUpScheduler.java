@@ -0,0 +1,377 @@
+package com.xabber.android.data.extension.mam;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.log.LogManager;
+
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.realm.Realm;
+
+/**
+ * Catches up archived history of many chats of the accounts at once.
+ * <p/>
+ * Each chat is a {@link Task}, which fetches pages of its archive one after another.
+ * At most {@link #MAX_QUERIES_PER_ACCOUNT} queries of an account are in flight, waiting
+ * chats are started visible one first, then by time of the last message. Fetched pages are
+ * parsed and saved in order by a single saver thread, while fetch threads already request
+ * next pages. Queue of fetched pages is bounded, so fetching waits for slow saving.
+ * <p/>
+ * Progress of a chat is kept by its task when a page is saved, so new catch-up of
+ * the account can continue it. If a page can't be saved, the chat is stopped and its
+ * later pages are dropped, so its progress stays before that page.
+ * Catch-up of the account replaces the previous one.
+ */
+class MamCatchUpScheduler {
+
+    private static final String LOG_TAG = MamCatchUpScheduler.class.getSimpleName();
+
+    static final int MAX_QUERIES_PER_ACCOUNT = 3;
+    private static final int FETCH_THREADS = 6;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int SAVE_QUEUE_CAPACITY = 16;
+
+    private static final Comparator<Task> PRIORITY = new Comparator<Task>() {
+        @Override
+        public int compare(Task task1, Task task2) {
+            if (task1.visible != task2.visible) {
+                return task1.visible ? -1 : 1;
+            }
+            if (task1.lastTime != task2.lastTime) {
+                return task1.lastTime > task2.lastTime ? -1 : 1;
+            }
+            return task1.user.toString().compareTo(task2.user.toString());
+        }
+    };
+
+    private final Listener listener;
+    private final ThreadPoolExecutor fetchExecutor;
+    private final BlockingQueue<FetchedPage> saveQueue = new ArrayBlockingQueue<>(SAVE_QUEUE_CAPACITY);
+    private final Map<AccountJid, Session> sessions = new HashMap<>();
+
+    interface Listener {
+
+        /**
+         * Called when all chats of the catch-up were processed, from any thread.
+         *
+         * @param complete whether all chats were caught up without failures.
+         */
+        void onCatchUpFinished(AccountJid account, boolean complete);
+    }
+
+    /**
+     * Archived history of a chat to be fetched page by page.
+     */
+    abstract static class Task {
+
+        final AccountJid account;
+        final UserJid user;
+        final long lastTime;
+        private boolean visible;
+        /**
+         * Page of the chat was not saved, the next pages must not move its progress past that page.
+         */
+        private volatile boolean saveFailed;
+
+        Task(AccountJid account, UserJid user, boolean visible, long lastTime) {
+            this.account = account;
+            this.user = user;
+            this.visible = visible;
+            this.lastTime = lastTime;
+        }
+
+        /**
+         * Requests the next page, on fetch thread.
+         *
+         * @return <code>null</code> if request failed.
+         */
+        @Nullable
+        abstract Page fetchNextPage();
+
+        /**
+         * Parses and saves the page, on saver thread. Pages are saved in order they were fetched.
+         */
+        abstract void savePage(Realm realm, Page page);
+
+        /**
+         * Called on fetch thread when request failed while account was still connected.
+         */
+        void onFailed() {
+        }
+
+        @Override
+        public String toString() {
+            return user + (visible ? " (visible chat)" : "");
+        }
+    }
+
+    static class Page {
+
+        final List<Forwarded> messages;
+
+        /**
+         * Archived id the page was requested after, <code>null</code> for most recent page.
+         */
+        @Nullable
+        final String afterId;
+
+        /**
+         * Whether there are no more messages in the archive after this page.
+         */
+        final boolean complete;
+
+        Page(List<Forwarded> messages, @Nullable String afterId, boolean complete) {
+            this.messages = messages;
+            this.afterId = afterId;
+            this.complete = complete;
+        }
+    }
+
+    private static class Session {
+        private final PriorityQueue<Task> waiting = new PriorityQueue<>(16, PRIORITY);
+        private final long startTime = System.currentTimeMillis();
+        private final int chats;
+        private int fetching;
+        private int saving;
+        private int pages;
+        private int messages;
+        private int failed;
+
+        Session(int chats) {
+            this.chats = chats;
+        }
+    }
+
+    private static class FetchedPage {
+        private final Session session;
+        private final Task task;
+        private final Page page;
+
+        FetchedPage(Session session, Task task, Page page) {
+            this.session = session;
+            this.task = task;
+            this.page = page;
+        }
+    }
+
+    MamCatchUpScheduler(Listener listener) {
+        this.listener = listener;
+        fetchExecutor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "MAM catch-up fetch #" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        fetchExecutor.allowCoreThreadTimeOut(true);
+
+        Thread saverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                saveLoop();
+            }
+        }, "MAM catch-up saver");
+        saverThread.setDaemon(true);
+        saverThread.start();
+    }
+
+    /**
+     * Starts catch-up of the chats of the account. Waiting chats of the previous catch-up
+     * are dropped, pages already fetched by it are still saved.
+     */
+    synchronized void start(AccountJid account, Collection<? extends Task> tasks) {
+        Session session = new Session(tasks.size());
+        Session previous = sessions.put(account, session);
+        if (previous != null) {
+            LogManager.i(LOG_TAG, "Catch-up of " + account + " is restarted, "
+                    + previous.waiting.size() + " chats were waiting");
+            previous.waiting.clear();
+        }
+        session.waiting.addAll(tasks);
+        LogManager.i(LOG_TAG, "Catch-up of " + account + " started for " + tasks.size() + " chats");
+        startFetching(account, session);
+        finishIfDone(account, session);
+    }
+
+    /**
+     * Moves waiting chat ahead of the others. Should be called when chat becomes visible.
+     */
+    synchronized void prioritize(AccountJid account, UserJid user) {
+        Session session = sessions.get(account);
+        if (session == null) {
+            return;
+        }
+        Iterator<Task> iterator = session.waiting.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (!task.visible && task.user.equals(user)) {
+                iterator.remove();
+                task.visible = true;
+                session.waiting.add(task);
+                LogManager.i(LOG_TAG, "Prioritizing " + task);
+                return;
+            }
+        }
+    }
+
+    private void startFetching(AccountJid account, Session session) {
+        while (session.fetching < MAX_QUERIES_PER_ACCOUNT && !session.waiting.isEmpty()) {
+            session.fetching++;
+            fetchExecutor.execute(new FetchRunnable(account, session, session.waiting.poll()));
+        }
+    }
+
+    private class FetchRunnable implements Runnable {
+        private final AccountJid account;
+        private final Session session;
+        private final Task task;
+
+        FetchRunnable(AccountJid account, Session session, Task task) {
+            this.account = account;
+            this.session = session;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            Page page = null;
+            try {
+                page = task.fetchNextPage();
+            } catch (Exception e) {
+                LogManager.exception(LOG_TAG, e);
+            }
+
+            if (page == null) {
+                onFetchFailed();
+                return;
+            }
+
+            synchronized (MamCatchUpScheduler.this) {
+                session.saving++;
+            }
+            // page goes to saver before the next page of the chat can be fetched
+            try {
+                saveQueue.put(new FetchedPage(session, task, page));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (MamCatchUpScheduler.this) {
+                    session.saving--;
+                }
+            }
+
+            synchronized (MamCatchUpScheduler.this) {
+                session.fetching--;
+                if (!page.complete && !task.saveFailed && sessions.get(account) == session) {
+                    session.waiting.add(task);
+                }
+                startFetching(account, session);
+                finishIfDone(account, session);
+            }
+        }
+
+        private void onFetchFailed() {
+            boolean connected = isConnected(account);
+            if (connected) {
+                task.onFailed();
+            }
+            synchronized (MamCatchUpScheduler.this) {
+                session.fetching--;
+                session.failed++;
+                if (!connected && !session.waiting.isEmpty()) {
+                    // the rest is continued by the next catch-up
+                    LogManager.i(LOG_TAG, "Catch-up of " + account + " is interrupted, "
+                            + session.waiting.size() + " chats were waiting");
+                    session.waiting.clear();
+                }
+                startFetching(account, session);
+                finishIfDone(account, session);
+            }
+        }
+    }
+
+    private void saveLoop() {
+        while (true) {
+            FetchedPage fetchedPage;
+            try {
+                fetchedPage = saveQueue.take();
+            } catch (InterruptedException e) {
+                LogManager.exception(LOG_TAG, e);
+                return;
+            }
+
+            Task task = fetchedPage.task;
+            boolean saved = false;
+            boolean failed = false;
+            if (!task.saveFailed) {
+                Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+                try {
+                    task.savePage(realm, fetchedPage.page);
+                    saved = true;
+                } catch (Exception e) {
+                    LogManager.exception(LOG_TAG, e);
+                    // progress stays before this page, so the next catch-up fetches it again
+                    LogManager.w(LOG_TAG, "Catch-up of " + task + " is stopped, page was not saved");
+                    task.saveFailed = true;
+                    failed = true;
+                } finally {
+                    realm.close();
+                }
+            }
+
+            synchronized (this) {
+                Session session = fetchedPage.session;
+                session.saving--;
+                if (saved) {
+                    session.pages++;
+                    session.messages += fetchedPage.page.messages.size();
+                }
+                if (failed) session.failed++;
+                finishIfDone(task.account, session);
+            }
+        }
+    }
+
+    private void finishIfDone(AccountJid account, Session session) {
+        if (sessions.get(account) != session || session.fetching > 0 || session.saving > 0
+                || !session.waiting.isEmpty()) {
+            return;
+        }
+        sessions.remove(account);
+        LogManager.i(LOG_TAG, "Catch-up of " + account + " finished in "
+                + (System.currentTimeMillis() - session.startTime) + " ms: " + session.chats + " chats, "
+                + session.pages + " pages, " + session.messages + " messages, "
+                + session.failed + " failed chats");
+        listener.onCatchUpFinished(account, session.failed == 0);
+    }
+
+    private static boolean isConnected(AccountJid account) {
+        AccountItem accountItem = AccountManager.getInstance().getAccount(account);
+        return accountItem != null && accountItem.getConnection().isAuthenticated();
+    }
+}
@@ -5,11 +5,10 @@ import android.util.Pair;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
-import com.xabber.android.data.connection.ConnectionItem;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
 import com.xabber.android.data.database.MessageDatabaseManager;
 import com.xabber.android.data.database.messagerealm.Attachment;
 import com.xabber.android.data.database.messagerealm.ForwardId;
+import com.xabber.android.data.database.messagerealm.HistorySegment;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.database.messagerealm.SyncInfo;
 import com.xabber.android.data.entity.AccountJid;
@@ -23,8 +22,11 @@ import com.xabber.android.data.groupchat.GroupchatUserManager;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.ForwardManager;
+import com.xabber.android.data.message.MessageDedupIndex;
 import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.message.MessageSearchManager;
 import com.xabber.android.data.message.NewMessageEvent;
+import com.xabber.android.data.message.UnreadMessageCounter;
 import com.xabber.android.data.notification.NotificationManager;
 import com.xabber.android.data.push.SyncManager;
 import com.xabber.android.data.roster.OnRosterReceivedListener;
@@ -37,22 +39,15 @@ import net.java.otr4j.io.messages.PlainTextMessage;
 import org.greenrobot.eventbus.EventBus;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPException;
-import org.jivesoftware.smack.packet.ExtensionElement;
-import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.XMPPError;
 import org.jivesoftware.smack.packet.Stanza;
 import com.xabber.xmpp.smack.XMPPTCPConnection;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smackx.delay.packet.DelayInformation;
 import org.jivesoftware.smackx.forward.packet.Forwarded;
 import org.jivesoftware.smackx.mam.MamManager;
-import org.jivesoftware.smackx.mam.element.MamElements;
-import org.jivesoftware.smackx.mam.element.MamFinIQ;
 import org.jivesoftware.smackx.mam.element.MamPrefsIQ;
-import org.jivesoftware.smackx.mam.element.MamQueryIQ;
-import org.jivesoftware.smackx.rsm.packet.RSMSet;
-import org.jivesoftware.smackx.xdata.FormField;
-import org.jivesoftware.smackx.xdata.packet.DataForm;
 import org.jxmpp.jid.Jid;
 
 import java.io.IOException;
@@ -60,13 +55,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -74,18 +71,37 @@ import androidx.annotation.Nullable;
 import io.realm.Realm;
 import io.realm.RealmList;
 import io.realm.RealmResults;
-import io.realm.Sort;
 
-public class NextMamManager implements OnRosterReceivedListener, OnPacketListener {
+public class NextMamManager implements OnRosterReceivedListener {
 
     private static final String LOG_TAG = NextMamManager.class.getSimpleName();
 
     private static NextMamManager instance;
 
+    /** Number of pages of all chats requested before catch-up of each chat */
+    private static final int ACCOUNT_PAGES = 1;
+    /** Number of pages of all chats requested backwards on first sync before
+     *  last messages of the remaining chats are requested one by one */
+    private static final int BOOTSTRAP_PAGES = 20;
+    /** Number of pages of gaps in history of a chat requested when chat is opened,
+     *  the rest is loaded while user scrolls */
+    private static final int GAP_PAGES_PER_OPEN = 20;
+    private static final int PAGE_SIZE = 50;
+
     private Map<AccountJid, Boolean> supportedByAccount = new ConcurrentHashMap<>();
     private boolean isRequested = false;
     private final Object lock = new Object();
-    private Map<String, UserJid> waitingRequests = new HashMap<>();
+    private final MamCatchUpScheduler catchUpScheduler = new MamCatchUpScheduler(
+            new MamCatchUpScheduler.Listener() {
+        @Override
+        public void onCatchUpFinished(AccountJid account, boolean complete) {
+            if (complete) liveAccounts.add(account);
+        }
+    });
+    /** Accounts which archive is caught up in the current XMPP session,
+     *  so messages received live follow the last archived messages of their chats */
+    private final Set<AccountJid> liveAccounts =
+            Collections.newSetFromMap(new ConcurrentHashMap<AccountJid, Boolean>());
 
     public static NextMamManager getInstance() {
         if (instance == null)
@@ -98,25 +114,40 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         onAccountConnected(accountItem);
     }
 
+    /** Messages could be missed between sessions, so they are not live until the next catch-up */
+    public void onAuthenticated(AccountJid account, boolean resumed) {
+        if (!resumed) liveAccounts.remove(account);
+    }
+
+    /** @return archived id of message received live, if it follows loaded archive of the account */
+    public @Nullable String getLiveArchivedId(AccountJid account, Stanza stanza) {
+        if (!liveAccounts.contains(account)) return null;
+        String archivedBy = ArchivedHelper.getArchivedBy(stanza);
+        if (archivedBy == null || !archivedBy.equals(account.getFullJid().asBareJid().toString())) return null;
+        return ArchivedHelper.getArchivedId(stanza);
+    }
+
     public void onAccountConnected(AccountItem accountItem) {
+        liveAccounts.remove(accountItem.getAccount());
         updateIsSupported(accountItem);
         updatePreferencesFromServer(accountItem);
         Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
         accountItem.setStartHistoryTimestamp(getLastMessageTimestamp(accountItem, realm));
         if (accountItem.getStartHistoryTimestamp() == 0) {
-            initializeStartTimestamp(realm, accountItem);
-            loadLastMessagesAsync(accountItem);
+            if (accountItem.getLoadHistorySettings() == LoadHistorySettings.all
+                    && isSupported(accountItem.getAccount())) {
+                Set<UserJid> loadedChats = bootstrapLastMessages(realm, accountItem);
+                if (loadedChats != null) startCatchUp(realm, accountItem, true, loadedChats);
+                else liveAccounts.add(accountItem.getAccount());
+            } else initializeStartTimestamp(realm, accountItem);
         } else {
             if (isNeedMigration(accountItem, realm)) {
                 runMigrationToNewArchive(accountItem, realm);
             }
             String lastArchivedId = getLastMessageArchivedId(accountItem, realm);
-            if (lastArchivedId != null) {
-                boolean historyCompleted = loadAllNewMessages(realm, accountItem, lastArchivedId);
-                if (!historyCompleted) loadLastMessagesAsync(accountItem);
-            } else loadLastMessagesAsync(accountItem);
-
-            loadLastMessagesInMissedChatsAsync(realm, accountItem);
+            boolean historyCompleted = lastArchivedId != null
+                    && loadAllNewMessages(realm, accountItem, lastArchivedId);
+            startCatchUp(realm, accountItem, !historyCompleted, null);
         }
         realm.close();
      }
@@ -126,6 +157,8 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         if (accountItem == null || accountItem.getLoadHistorySettings() == LoadHistorySettings.none
                 || !isSupported(accountItem.getAccount())) return;
 
+        catchUpScheduler.prioritize(chat.getAccount(), chat.getUser());
+
         Application.getInstance().runInBackground(new Runnable() {
             @Override
             public void run() {
@@ -147,12 +180,15 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
                     EventBus.getDefault().post(new LastHistoryLoadFinishedEvent(chat));
                 }
 
-                // load missed messages if need
-                List<MessageItem> messages = findMissedMessages(realm, chat);
-                if (messages != null && !messages.isEmpty() && accountItem != null) {
-                    for (MessageItem message : messages) {
-                        loadMissedMessages(realm, accountItem, chat, message);
-                    }
+                // load gaps between loaded segments of history, from the newest one
+                String chatKey = MessageItem.getChatKey(chat.getAccount(), chat.getUser());
+                List<HistorySegment> segments = HistorySegmentIndex.getInstance().getSegments(realm, chatKey);
+                int pages = 0;
+                while (segments.size() > 1 && pages < GAP_PAGES_PER_OPEN) {
+                    if (!loadNewestGapPage(realm, accountItem, chat, segments)) break;
+                    pages++;
+                    MessageDatabaseManager.refreshBackgroundRealm(realm);
+                    segments = HistorySegmentIndex.getInstance().getSegments(realm, chatKey);
                 }
 
                 synchronized (lock) {
@@ -168,7 +204,7 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         if (accountItem == null || accountItem.getLoadHistorySettings() == LoadHistorySettings.none
                 || !isSupported(accountItem.getAccount())) return;
 
-        if (chat.historyIsFull()) return;
+        if (chat.historyIsFull() && getHistoryCompleteness(chat).gaps == 0) return;
         Application.getInstance().runInBackground(new Runnable() {
             @Override
             public void run() {
@@ -218,78 +254,65 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         });
     }
 
-    @Override
-    public void onStanza(ConnectionItem connection, Stanza packet) {
-        if (packet instanceof Message) {
-            for (ExtensionElement packetExtension : packet.getExtensions()) {
-                if (packetExtension instanceof MamElements.MamResultExtension) {
-                    MamElements.MamResultExtension resultExtension =
-                            (MamElements.MamResultExtension) packetExtension;
-                    String resultID = resultExtension.getQueryId();
-                    if (waitingRequests.containsKey(resultID)) {
-                        Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-                        parseAndSaveMessageFromMamResult(realm, connection.getAccount(), resultExtension.getForwarded());
-                        UserJid userJid = waitingRequests.get(resultID);
-                        AbstractChat chat = MessageManager.getInstance().getChat(connection.getAccount(), userJid);
-                        if (chat != null && !chat.isHistoryRequestedAtStart())
-                            chat.setHistoryRequestedAtStart(true);
-                        waitingRequests.remove(resultID);
-                    }
-                }
-            }
-        }
-        if (packet instanceof MamFinIQ) {
-            MamFinIQ finIQ = (MamFinIQ) packet;
-            if (finIQ.isComplete() && waitingRequests.containsKey(finIQ.getQueryId())) {
-                UserJid userJid = waitingRequests.get(finIQ.getQueryId());
-                AbstractChat chat = MessageManager.getInstance().getChat(connection.getAccount(), userJid);
-                if (chat != null) {
-                    if (!chat.isHistoryRequestedAtStart())
-                        chat.setHistoryRequestedAtStart(true);
-                }
-            }
-        }
-    }
-
     public boolean isSupported(AccountJid accountJid) {
         Boolean isSupported = supportedByAccount.get(accountJid);
         if (isSupported != null) return isSupported;
         else return false;
     }
 
+    /** @return how much of archived history of the chat is loaded, MUST be called from UI thread */
+    public HistorySegmentIndex.Completeness getHistoryCompleteness(AbstractChat chat) {
+        return HistorySegmentIndex.getInstance().getCompleteness(
+                MessageDatabaseManager.getInstance().getRealmUiThread(),
+                MessageItem.getChatKey(chat.getAccount(), chat.getUser()));
+    }
+
     /** MAIN */
 
-    /** For load messages that was missed because of errors or crash */
-    private void loadLastMessagesInMissedChatsAsync(Realm realm, AccountItem accountItem) {
+    /** Catches up chats in parallel, continuing interrupted catch-ups of chats.
+     *  @param allChats whether new messages can be in any chat, else only chats without history
+     *                  and chats with interrupted catch-up are caught up
+     *  @param loadedChats chats which last messages are already loaded */
+    private void startCatchUp(Realm realm, AccountItem accountItem, boolean allChats,
+                              @Nullable Set<UserJid> loadedChats) {
         if (accountItem.getLoadHistorySettings() != LoadHistorySettings.all
                 || !isSupported(accountItem.getAccount())) return;
 
-        Collection<RosterContact> contacts = RosterManager.getInstance()
-                .getAccountRosterContacts(accountItem.getAccount());
+        AccountJid account = accountItem.getAccount();
+        Map<UserJid, String> checkpoints = getUnfinishedCheckpoints(realm, account);
+        Map<UserJid, String> newCheckpoints = new HashMap<>();
+        List<ChatCatchUpTask> tasks = new ArrayList<>();
 
+        Collection<RosterContact> contacts = RosterManager.getInstance().getAccountRosterContacts(account);
         for (RosterContact contact : contacts) {
             AbstractChat chat = MessageManager.getInstance()
                     .getOrCreateChat(contact.getAccount(), contact.getUser());
-            if (getFirstMessage(chat, realm) == null && !chat.isHistoryRequestedAtStart()) {
-                LogManager.d(LOG_TAG, "load missed messages in: " + contact.getUser());
-                requestLastMessageAsync(accountItem, chat);
+            MessageItem lastMessage = getLastArchivedMessage(chat, realm);
+            long lastTime = lastMessage != null ? lastMessage.getTimestamp() : 0;
+            String afterId = checkpoints.remove(chat.getUser());
+            if (afterId == null) {
+                if (loadedChats != null && loadedChats.contains(chat.getUser())) continue;
+                if (lastMessage != null) {
+                    if (!allChats) continue;
+                    afterId = lastMessage.getArchivedId();
+                    newCheckpoints.put(chat.getUser(), afterId);
+                } else if (!allChats && chat.isHistoryRequestedAtStart()) continue;
             }
+            tasks.add(new ChatCatchUpTask(accountItem, chat, afterId, lastTime));
         }
-    }
-
-    private void loadLastMessagesAsync(AccountItem accountItem) {
-        if (accountItem.getLoadHistorySettings() != LoadHistorySettings.all
-                || !isSupported(accountItem.getAccount())) return;
-
-        LogManager.d(LOG_TAG, "load last messages in each chat");
-        Collection<RosterContact> contacts = RosterManager.getInstance()
-                .getAccountRosterContacts(accountItem.getAccount());
 
-        for (RosterContact contact : contacts) {
-            AbstractChat chat = MessageManager.getInstance()
-                    .getOrCreateChat(contact.getAccount(), contact.getUser());
-            requestLastMessageAsync(accountItem, chat);
+        // interrupted catch-ups of chats outside of roster
+        for (Map.Entry<UserJid, String> entry : checkpoints.entrySet()) {
+            AbstractChat chat = MessageManager.getInstance().getOrCreateChat(account, entry.getKey());
+            if (chat == null) continue;
+            MessageItem lastMessage = getLastArchivedMessage(chat, realm);
+            long lastTime = lastMessage != null ? lastMessage.getTimestamp() : 0;
+            tasks.add(new ChatCatchUpTask(accountItem, chat, entry.getValue(), lastTime));
         }
+
+        // so the catch-up continues from here if interrupted, even if newer messages come meanwhile
+        if (!newCheckpoints.isEmpty()) saveCheckpoints(account, newCheckpoints, false);
+        catchUpScheduler.start(account, tasks);
     }
 
     private void loadLastMessage(Realm realm, AccountItem accountItem, AbstractChat chat) {
@@ -297,7 +320,17 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         MamManager.MamQueryResult queryResult = requestLastMessage(accountItem, chat);
         if (queryResult != null) {
             List<Forwarded> messages = new ArrayList<>(queryResult.forwardedMessages);
-            saveOrUpdateMessages(realm, parseMessage(accountItem, chat.getAccount(), chat.getUser(), messages, null));
+            List<MessageItem> parsedMessages = parseMessage(accountItem, chat.getAccount(), chat.getUser(), messages, null);
+            MessageItem lastArchived = getLastArchivedMessage(chat, realm);
+            saveOrUpdateMessages(realm, parsedMessages);
+            HistorySegmentIndex.Range range = HistorySegmentIndex.Range.of(parsedMessages);
+            if (range != null && queryResult.mamFin.isComplete()) {
+                // the whole archive of the chat was loaded, local archived messages are in it
+                if (lastArchived != null) range = range.extendTo(lastArchived.getArchivedId(), lastArchived.getTimestamp());
+                range = range.startingHistory();
+            }
+            HistorySegmentIndex.getInstance().addRange(
+                    MessageItem.getChatKey(chat.getAccount(), chat.getUser()), range);
         }
         updateLastMessageId(chat, realm);
     }
@@ -311,8 +344,8 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         boolean complete = false;
         String id = lastArchivedId;
         int pageLoaded = 0;
-        // Request all new messages after last archived id
-        while (!complete && id != null && pageLoaded < 2) {
+        // Request new messages after last archived id, the rest is loaded by catch-up of each chat
+        while (!complete && id != null && pageLoaded < ACCOUNT_PAGES) {
             MamManager.MamQueryResult queryResult = requestMessagesFromId(accountItem, null, id);
             if (queryResult != null) {
                 messages.addAll(queryResult.forwardedMessages);
@@ -322,135 +355,204 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
             } else complete = true;
         }
 
-        if (!messages.isEmpty()) {
-            HashMap<String, ArrayList<Forwarded>> messagesByChat = new HashMap<>();
-            List<MessageItem> parsedMessages = new ArrayList<>();
-            List<AbstractChat> chatsNeedUpdateLastMessageId = new ArrayList<>();
-
-            // Sort messages by chat to separate lists
-            for (Forwarded forwarded : messages) {
-                Stanza stanza = forwarded.getForwardedStanza();
-                Jid user = stanza.getFrom().asBareJid();
-                if (user.equals(accountItem.getAccount().getFullJid().asBareJid()))
-                    user = stanza.getTo().asBareJid();
+        if (!messages.isEmpty()) saveMessagesOfAllChats(realm, accountItem, messages, true, false);
+        return complete;
+    }
 
-                if (!messagesByChat.containsKey(user.toString())) {
-                    messagesByChat.put(user.toString(), new ArrayList<Forwarded>());
-                }
-                ArrayList<Forwarded> list = messagesByChat.get(user.toString());
-                if (list != null) list.add(forwarded);
-            }
-
-            // parse message lists
-            for (Map.Entry<String, ArrayList<Forwarded>> entry : messagesByChat.entrySet()) {
-                ArrayList<Forwarded> list = entry.getValue();
-                if (list != null) {
-                    try {
-                        AbstractChat chat = MessageManager.getInstance()
-                                .getOrCreateChat(accountItem.getAccount(), UserJid.from(entry.getKey()));
-
-                        // sort messages in list by timestamp
-                        Collections.sort(list, new Comparator<Forwarded>() {
-                            @Override
-                            public int compare(Forwarded o1, Forwarded o2) {
-                                DelayInformation delayInformation1 = o1.getDelayInformation();
-                                long time1 = delayInformation1.getStamp().getTime();
-
-                                DelayInformation delayInformation2 = o2.getDelayInformation();
-                                long time2 = delayInformation2.getStamp().getTime();
-
-                                return Long.valueOf(time1).compareTo(time2);
-                            }
-                        });
-
-                        // parse messages and set previous id
-                        parsedMessages.addAll(
-                                parseMessage(accountItem, accountItem.getAccount(),
-                                        chat.getUser(), list, chat.getLastMessageId()));
-                        chatsNeedUpdateLastMessageId.add(chat);
-
-                    } catch (UserJid.UserJidCreateException e) {
-                        LogManager.d(LOG_TAG, e.toString());
-                        continue;
-                    }
-                }
+    /** Pages archive of all chats backwards from the most recent message, so last messages
+     *  of chats with recent traffic are loaded by a few queries. Sets start history timestamp.
+     *  @return chats which got messages or null if the whole archive was loaded */
+    private @Nullable Set<UserJid> bootstrapLastMessages(Realm realm, AccountItem accountItem) {
+        LogManager.d(LOG_TAG, "bootstrap last messages");
+        long startHistoryTimestamp = System.currentTimeMillis();
+        List<Forwarded> messages = new ArrayList<>();
+        boolean complete = false;
+        String id = null;
+        int pageLoaded = 0;
+        while (!complete && pageLoaded < BOOTSTRAP_PAGES) {
+            MamManager.MamQueryResult queryResult = pageLoaded == 0
+                    ? requestLastMessages(accountItem, PAGE_SIZE)
+                    : requestMessagesBeforeId(accountItem, null, id);
+            if (queryResult == null) break;
+
+            List<Forwarded> page = queryResult.forwardedMessages;
+            if (pageLoaded == 0 && !page.isEmpty()) {
+                startHistoryTimestamp = page.get(page.size() - 1).getDelayInformation().getStamp().getTime();
             }
-
-            // save messages to Realm
-            saveOrUpdateMessages(realm, parsedMessages);
-            for (AbstractChat chat : chatsNeedUpdateLastMessageId) {
-                updateLastMessageId(chat, realm);
+            messages.addAll(page);
+            pageLoaded++;
+            complete = queryResult.mamFin.isComplete() || page.isEmpty();
+            if (!complete) {
+                id = ArchivedHelper.getArchivedId(page.get(0).getForwardedStanza());
+                if (id == null) break;
             }
         }
-        return complete;
+        accountItem.setStartHistoryTimestamp(startHistoryTimestamp);
+
+        Set<UserJid> loadedChats = saveMessagesOfAllChats(realm, accountItem, messages, false, complete);
+        for (UserJid user : loadedChats) {
+            AbstractChat chat = MessageManager.getInstance().getOrCreateChat(accountItem.getAccount(), user);
+            if (chat != null && !chat.isHistoryRequestedAtStart()) chat.setHistoryRequestedAtStart(true);
+        }
+        LogManager.d(LOG_TAG, "bootstrap loaded " + messages.size() + " messages of "
+                + loadedChats.size() + " chats in " + pageLoaded + " pages, complete: " + complete);
+        return complete ? null : loadedChats;
     }
 
-    private boolean loadNextHistory(Realm realm, AccountItem accountItem, AbstractChat chat) {
-        LogManager.d(LOG_TAG, "load next history in chat: " + chat.getUser());
-        MessageItem firstMessage = getFirstMessage(chat, realm);
-        if (firstMessage != null) {
-            if (firstMessage.getArchivedId().equals(firstMessage.getPreviousId())) {
-                chat.setHistoryIsFull();
-                return true;
+    /** Saves messages of many chats in one batch
+     *  @param continueChats whether messages follow the last messages of their chats
+     *  @param historyStart whether there are no messages in the archive before these ones
+     *  @return chats of the messages */
+    private Set<UserJid> saveMessagesOfAllChats(Realm realm, AccountItem accountItem, List<Forwarded> messages,
+                                                boolean continueChats, boolean historyStart) {
+        HashMap<String, ArrayList<Forwarded>> messagesByChat = new HashMap<>();
+        List<MessageItem> parsedMessages = new ArrayList<>();
+        List<AbstractChat> chatsNeedUpdateLastMessageId = new ArrayList<>();
+        Set<UserJid> chats = new HashSet<>();
+        Map<String, HistorySegmentIndex.Range> ranges = new HashMap<>();
+        long firstTimestamp = Long.MAX_VALUE;
+
+        // Sort messages by chat to separate lists
+        for (Forwarded forwarded : messages) {
+            firstTimestamp = Math.min(firstTimestamp, forwarded.getDelayInformation().getStamp().getTime());
+            Stanza stanza = forwarded.getForwardedStanza();
+            Jid user = stanza.getFrom().asBareJid();
+            if (user.equals(accountItem.getAccount().getFullJid().asBareJid()))
+                user = stanza.getTo().asBareJid();
+
+            if (!messagesByChat.containsKey(user.toString())) {
+                messagesByChat.put(user.toString(), new ArrayList<Forwarded>());
             }
+            ArrayList<Forwarded> list = messagesByChat.get(user.toString());
+            if (list != null) list.add(forwarded);
+        }
 
-            MamManager.MamQueryResult queryResult = requestMessagesBeforeId(accountItem, chat, firstMessage.getArchivedId());
-            if (queryResult != null) {
-                List<Forwarded> messages = new ArrayList<>(queryResult.forwardedMessages);
-                if (!messages.isEmpty()) {
-                    List<MessageItem> savedMessages = saveOrUpdateMessages(realm,
-                            parseMessage(accountItem, chat.getAccount(), chat.getUser(), messages, null));
-
-                    if (savedMessages != null && !savedMessages.isEmpty()) {
-                        realm.beginTransaction();
-                        firstMessage.setPreviousId(savedMessages.get(savedMessages.size() - 1).getArchivedId());
-                        realm.commitTransaction();
-                        return false;
+        // parse message lists
+        for (Map.Entry<String, ArrayList<Forwarded>> entry : messagesByChat.entrySet()) {
+            ArrayList<Forwarded> list = entry.getValue();
+            if (list != null) {
+                try {
+                    AbstractChat chat = MessageManager.getInstance()
+                            .getOrCreateChat(accountItem.getAccount(), UserJid.from(entry.getKey()));
+
+                    // sort messages in list by timestamp
+                    Collections.sort(list, new Comparator<Forwarded>() {
+                        @Override
+                        public int compare(Forwarded o1, Forwarded o2) {
+                            DelayInformation delayInformation1 = o1.getDelayInformation();
+                            long time1 = delayInformation1.getStamp().getTime();
+
+                            DelayInformation delayInformation2 = o2.getDelayInformation();
+                            long time2 = delayInformation2.getStamp().getTime();
+
+                            return Long.valueOf(time1).compareTo(time2);
+                        }
+                    });
+
+                    // parse messages and set previous id
+                    List<MessageItem> chatMessages = parseMessage(accountItem, accountItem.getAccount(),
+                            chat.getUser(), list, continueChats ? chat.getLastMessageId() : null);
+                    parsedMessages.addAll(chatMessages);
+                    HistorySegmentIndex.Range range = HistorySegmentIndex.Range.of(chatMessages);
+                    // all messages of the account since the first one are loaded, so the range
+                    // continues the last archived message of the chat, if it is not older
+                    MessageItem lastArchived = getLastArchivedMessage(chat, realm);
+                    if (range != null && lastArchived != null
+                            && (continueChats || lastArchived.getTimestamp() >= firstTimestamp)) {
+                        range = range.extendTo(lastArchived.getArchivedId(), lastArchived.getTimestamp());
+                    }
+                    if (range != null) {
+                        ranges.put(MessageItem.getChatKey(chat.getAccount(), chat.getUser()),
+                                historyStart ? range.startingHistory() : range);
                     }
-                } else if (queryResult.mamFin.isComplete()) {
-                    realm.beginTransaction();
-                    firstMessage.setPreviousId(firstMessage.getArchivedId());
-                    realm.commitTransaction();
+                    chatsNeedUpdateLastMessageId.add(chat);
+                    chats.add(chat.getUser());
+
+                } catch (UserJid.UserJidCreateException e) {
+                    LogManager.d(LOG_TAG, e.toString());
+                    continue;
                 }
             }
         }
-        return true;
+
+        // save messages to Realm
+        if (!parsedMessages.isEmpty()) saveOrUpdateMessages(realm, parsedMessages);
+        HistorySegmentIndex.getInstance().addRanges(ranges);
+        for (AbstractChat chat : chatsNeedUpdateLastMessageId) {
+            updateLastMessageId(chat, realm);
+        }
+        return chats;
     }
 
-    private void loadMissedMessages(Realm realm, AccountItem accountItem, AbstractChat chat, MessageItem m1) {
-        LogManager.d(LOG_TAG, "load missed messages in chat: " + chat.getUser());
-        MessageItem m2 = getMessageForCloseMissedMessages(realm, m1);
-        if (m2 != null && !m2.getUniqueId().equals(m1.getUniqueId())) {
-            Date startDate = new Date(m2.getTimestamp());
-            Date endDate = new Date(m1.getTimestamp());
+    private boolean loadNextHistory(Realm realm, AccountItem accountItem, AbstractChat chat) {
+        LogManager.d(LOG_TAG, "load next history in chat: " + chat.getUser());
+        String chatKey = MessageItem.getChatKey(chat.getAccount(), chat.getUser());
+        List<HistorySegment> segments = HistorySegmentIndex.getInstance().getSegments(realm, chatKey);
+        if (segments.isEmpty()) return true;
 
-            List<Forwarded> messages = new ArrayList<>();
-            boolean complete = false;
+        // messages next to the visible ones are missed first
+        if (segments.size() > 1) return !loadNewestGapPage(realm, accountItem, chat, segments);
 
-            while (!complete && startDate != null) {
-                MamManager.MamQueryResult queryResult = requestMissedMessages(accountItem, chat, startDate, endDate);
-                if (queryResult != null) {
-                    messages.addAll(queryResult.forwardedMessages);
-                    complete = queryResult.mamFin.isComplete();
-                    startDate = getNextDate(queryResult);
-                } else complete = true;
-            }
+        HistorySegment oldest = segments.get(0);
+        if (oldest.isHistoryStart()) {
+            chat.setHistoryIsFull();
+            return true;
+        }
 
-            if (!messages.isEmpty()) {
-                List<MessageItem> savedMessages = saveOrUpdateMessages(realm,
-                        parseMessage(accountItem, chat.getAccount(), chat.getUser(), messages, m2.getArchivedId()));
+        MamManager.MamQueryResult queryResult = requestMessagesBeforeId(accountItem, chat, oldest.getFirstArchivedId());
+        if (queryResult == null) return true;
 
-                if (savedMessages != null && !savedMessages.isEmpty()) {
-                    realm.beginTransaction();
-                    m1.setPreviousId(savedMessages.get(savedMessages.size() - 1).getArchivedId());
-                    realm.commitTransaction();
-                }
-            } else {
-                realm.beginTransaction();
-                m1.setPreviousId(m2.getArchivedId());
-                realm.commitTransaction();
+        List<Forwarded> messages = new ArrayList<>(queryResult.forwardedMessages);
+        boolean historyStart = queryResult.mamFin.isComplete();
+        if (messages.isEmpty()) {
+            if (historyStart) {
+                HistorySegmentIndex.getInstance().setHistoryStart(oldest.getId());
+                chat.setHistoryIsFull();
             }
+            return true;
         }
+
+        List<MessageItem> parsedMessages = parseMessage(accountItem, chat.getAccount(), chat.getUser(), messages, null);
+        saveOrUpdateMessages(realm, parsedMessages);
+        HistorySegmentIndex.Range range = HistorySegmentIndex.Range.of(parsedMessages);
+        if (range != null) {
+            range = range.extendTo(oldest.getFirstArchivedId(), oldest.getFirstTimestamp());
+            HistorySegmentIndex.getInstance().addRange(chatKey, historyStart ? range.startingHistory() : range);
+        }
+        if (historyStart) chat.setHistoryIsFull();
+        return historyStart;
+    }
+
+    /** Loads one page before the newest segment, towards the segment before it
+     *  @param segments segments of the chat, at least two
+     *  @return whether page was loaded */
+    private boolean loadNewestGapPage(Realm realm, AccountItem accountItem, AbstractChat chat,
+                                      List<HistorySegment> segments) {
+        HistorySegment newer = segments.get(segments.size() - 1);
+        HistorySegment older = segments.get(segments.size() - 2);
+        LogManager.d(LOG_TAG, "load gap in chat: " + chat.getUser() + " before " + newer.getFirstArchivedId());
+        MamManager.MamQueryResult queryResult = requestMessagesBeforeId(accountItem, chat, newer.getFirstArchivedId());
+        if (queryResult == null) return false;
+
+        List<Forwarded> messages = new ArrayList<>(queryResult.forwardedMessages);
+        List<MessageItem> parsedMessages = parseMessage(accountItem, chat.getAccount(), chat.getUser(), messages, null);
+        if (!parsedMessages.isEmpty()) saveOrUpdateMessages(realm, parsedMessages);
+
+        boolean closed = messages.isEmpty() || queryResult.mamFin.isComplete();
+        HistorySegmentIndex.Range range = HistorySegmentIndex.Range.single(
+                newer.getFirstArchivedId(), newer.getFirstTimestamp());
+        boolean extended = false;
+        for (MessageItem message : parsedMessages) {
+            if (message.getArchivedId() == null) continue;
+            extended = true;
+            if (message.getTimestamp() <= older.getLastTimestamp()
+                    || older.getLastArchivedId().equals(message.getArchivedId())) closed = true;
+            range = range.extendTo(message.getArchivedId(), message.getTimestamp());
+        }
+        // page without archived ids can't be paged further
+        if (closed || !extended) range = range.extendTo(older.getLastArchivedId(), older.getLastTimestamp());
+        HistorySegmentIndex.getInstance().addRange(MessageItem.getChatKey(chat.getAccount(), chat.getUser()), range);
+        return true;
     }
 
     /** Request most recent message from all history and save it timestamp to startHistoryTimestamp
@@ -526,25 +628,14 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         });
     }
 
-    /** Send async request for recent message from chat history */
-    private void requestLastMessageAsync(@NonNull final AccountItem accountItem, @NonNull final AbstractChat chat) {
-        requestToMessageArchive(accountItem, new MamRequest<MamManager.MamQueryResult>() {
+    /** Request most recent messages from all history */
+    private @Nullable MamManager.MamQueryResult requestLastMessages(
+            @NonNull AccountItem accountItem, final int count) {
+
+        return requestToMessageArchive(accountItem, new MamRequest<MamManager.MamQueryResult>() {
             @Override
             MamManager.MamQueryResult execute(MamManager manager) throws Exception {
-                // add request id to waiting list
-                String queryID = UUID.randomUUID().toString();
-                waitingRequests.put(queryID, chat.getUser());
-
-                // send request stanza
-                RSMSet rsmSet = new RSMSet(null, "", -1, -1, null, 1, null, -1);
-                DataForm dataForm = getNewMamForm();
-                addWithJid(chat.getUser().getJid(), dataForm);
-                MamQueryIQ mamQueryIQ = new MamQueryIQ(queryID, null, dataForm);
-                mamQueryIQ.setType(IQ.Type.set);
-                mamQueryIQ.setTo((Jid) null);
-                mamQueryIQ.addExtension(rsmSet);
-                accountItem.getConnection().sendStanza(mamQueryIQ);
-                return null;
+                return manager.mostRecentPage(null, count);
             }
         });
     }
@@ -553,37 +644,41 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
     *  Else request messages after archivedID from all history */
     private @Nullable MamManager.MamQueryResult requestMessagesFromId(
             @NonNull AccountItem accountItem, @Nullable final AbstractChat chat, final String archivedId) {
-
-        return requestToMessageArchive(accountItem, new MamRequest<MamManager.MamQueryResult>() {
-            @Override
-            MamManager.MamQueryResult execute(MamManager manager) throws Exception {
-                if (chat != null) return manager.pageAfter(chat.getUser().getJid(), archivedId, 50);
-                else return manager.pageAfter(null, archivedId, 50);
-            }
-        });
+        return requestMessagesFromId(accountItem, chat, archivedId, null);
     }
 
-    /** Request messages before archivedID from chat history */
-    private @Nullable MamManager.MamQueryResult requestMessagesBeforeId(
-            @NonNull AccountItem accountItem, @NonNull final AbstractChat chat, final String archivedId) {
+    /** @param itemNotFound set if server does not know the archived id anymore */
+    private @Nullable MamManager.MamQueryResult requestMessagesFromId(
+            @NonNull AccountItem accountItem, @Nullable final AbstractChat chat, final String archivedId,
+            @Nullable final AtomicBoolean itemNotFound) {
 
         return requestToMessageArchive(accountItem, new MamRequest<MamManager.MamQueryResult>() {
             @Override
             MamManager.MamQueryResult execute(MamManager manager) throws Exception {
-                return manager.pageBefore(chat.getUser().getJid(), archivedId, 50);
+                try {
+                    if (chat != null) return manager.pageAfter(chat.getUser().getJid(), archivedId, PAGE_SIZE);
+                    else return manager.pageAfter(null, archivedId, PAGE_SIZE);
+                } catch (XMPPException.XMPPErrorException e) {
+                    if (itemNotFound != null && e.getXMPPError() != null
+                            && e.getXMPPError().getCondition() == XMPPError.Condition.item_not_found) {
+                        itemNotFound.set(true);
+                    }
+                    throw e;
+                }
             }
         });
     }
 
-    /** Request messages started with startID and ending with endID from chat history */
-    private @Nullable MamManager.MamQueryResult requestMissedMessages(
-            @NonNull AccountItem accountItem, @NonNull final AbstractChat chat,
-            final Date startDate, final Date endDate) {
+    /** Request messages before archivedID from chat history
+     *  Else request messages before archivedID from all history */
+    private @Nullable MamManager.MamQueryResult requestMessagesBeforeId(
+            @NonNull AccountItem accountItem, @Nullable final AbstractChat chat, final String archivedId) {
 
         return requestToMessageArchive(accountItem, new MamRequest<MamManager.MamQueryResult>() {
             @Override
             MamManager.MamQueryResult execute(MamManager manager) throws Exception {
-                return manager.queryArchive(50, startDate, endDate, chat.getUser().getJid(), null);
+                if (chat != null) return manager.pageBefore(chat.getUser().getJid(), archivedId, PAGE_SIZE);
+                else return manager.pageBefore(null, archivedId, PAGE_SIZE);
             }
         });
     }
@@ -622,6 +717,10 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
             MessageItem messageItem = parseMessage(accountItem, account, chat.getUser(), forwarded, null);
             if (messageItem != null) {
                 saveOrUpdateMessages(realm, Collections.singletonList(messageItem), true);
+                if (messageItem.getArchivedId() != null) {
+                    HistorySegmentIndex.getInstance().addRange(messageItem.getChatKey(),
+                            HistorySegmentIndex.Range.single(messageItem.getArchivedId(), messageItem.getTimestamp()));
+                }
                 updateLastMessageId(chat, realm);
             }
         } catch (UserJid.UserJidCreateException e) {
@@ -736,6 +835,7 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
 
         // forwarded
         messageItem.setOriginalStanza(message.toXML().toString());
+        messageItem.setForwarded(AbstractChat.getForwarded(message));
         messageItem.setOriginalFrom(message.getFrom().toString());
 
         // groupchat
@@ -756,37 +856,67 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
 
     private List<MessageItem> saveOrUpdateMessages(Realm realm, final Collection<MessageItem> messages, boolean ui) {
         List<MessageItem> messagesToSave = new ArrayList<>();
+        final List<MessageItem> newMessages = new ArrayList<>();
+        final Map<String, String> archivedIdsOfLocalMessages = new HashMap<>();
         if (messages != null && !messages.isEmpty()) {
             Iterator<MessageItem> iterator = messages.iterator();
             while (iterator.hasNext()) {
-                MessageItem newMessage = determineSaveOrUpdate(realm, iterator.next(), ui);
-                if (newMessage != null) messagesToSave.add(newMessage);
+                MessageItem message = iterator.next();
+                MessageItem newMessage = determineSaveOrUpdate(realm, message, ui);
+                if (newMessage == null) continue;
+                messagesToSave.add(newMessage);
+                // local messages are returned as updated copies
+                if (newMessage == message) newMessages.add(message);
+                else archivedIdsOfLocalMessages.put(newMessage.getUniqueId(), newMessage.getArchivedId());
+            }
+        }
+        // later messages of the same batch are checked against these ones too
+        MessageDedupIndex.getInstance().onMessagesSaved(messagesToSave);
+        final List<MessageItem> messagesToWrite = messagesToSave;
+        Realm.Transaction transaction = new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                realm.copyToRealmOrUpdate(newMessages);
+                // only archived id is set, local message could be changed after it was read here
+                for (Map.Entry<String, String> entry : archivedIdsOfLocalMessages.entrySet()) {
+                    MessageItem localMessage = realm.where(MessageItem.class)
+                            .equalTo(MessageItem.Fields.UNIQUE_ID, entry.getKey()).findFirst();
+                    if (localMessage != null) localMessage.setArchivedId(entry.getValue());
+                }
             }
+        };
+        if (ui) {
+            MessageDatabaseManager.getInstance().executeWrite(LOG_TAG, transaction,
+                    new Realm.Transaction.OnSuccess() {
+                @Override
+                public void onSuccess() {
+                    UnreadMessageCounter.getInstance().onMessagesSaved(newMessages);
+                    MessageSearchManager.getInstance().onMessagesSaved(messagesToWrite);
+                    SyncManager.getInstance().onMessageSaved();
+                    EventBus.getDefault().post(new NewMessageEvent());
+                }
+            });
+        } else {
+            MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, transaction);
+            MessageDatabaseManager.refreshBackgroundRealm(realm);
+            UnreadMessageCounter.getInstance().onMessagesSaved(newMessages);
+            MessageSearchManager.getInstance().onMessagesSaved(messagesToWrite);
+            SyncManager.getInstance().onMessageSaved();
+            EventBus.getDefault().post(new NewMessageEvent());
         }
-        realm.beginTransaction();
-        realm.copyToRealmOrUpdate(messagesToSave);
-        realm.commitTransaction();
-        SyncManager.getInstance().onMessageSaved();
-        EventBus.getDefault().post(new NewMessageEvent());
         return messagesToSave;
     }
 
     private MessageItem determineSaveOrUpdate(Realm realm, final MessageItem message, boolean ui) {
-        Message originalMessage = null;
-        try {
-            originalMessage = (Message) PacketParserUtils.parseStanza(message.getOriginalStanza());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
         AbstractChat chat = MessageManager.getInstance().getOrCreateChat(message.getAccount(), message.getUser());
         if (chat == null) return null;
 
-        MessageItem localMessage = findSameLocalMessage(realm, chat, message);
+        MessageItem localMessage = MessageDedupIndex.getInstance().findSameLocalMessage(realm, message);
         if (localMessage == null) {
             // forwarded
-            if (originalMessage != null) {
-                RealmList<ForwardId> forwardIds = chat.parseForwardedMessage(ui, originalMessage, message.getUniqueId());
+            List<Forwarded> forwarded = getForwarded(message);
+            if (forwarded != null) {
+                RealmList<ForwardId> forwardIds = chat.parseForwardedMessage(ui, forwarded, message.getUniqueId());
                 if (forwardIds != null && !forwardIds.isEmpty())
                     message.setForwardedIds(forwardIds);
             }
@@ -802,30 +932,29 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
 
             return message;
         } else {
-            realm.beginTransaction();
-            localMessage.setArchivedId(message.getArchivedId());
-            realm.commitTransaction();
-            return localMessage;
+            // detached copy for indexes, realm writer sets only archived id of the local message
+            MessageItem updatedMessage = realm.copyFromRealm(localMessage);
+            updatedMessage.setArchivedId(message.getArchivedId());
+            return updatedMessage;
         }
     }
 
-    /** UTILS */
-
-    private static DataForm getNewMamForm() {
-        FormField field = new FormField(FormField.FORM_TYPE);
-        field.setType(FormField.Type.hidden);
-        field.addValue(MamElements.NAMESPACE);
-        DataForm form = new DataForm(DataForm.Type.submit);
-        form.addField(field);
-        return form;
+    /**
+     * @return forwarded messages extracted by parser, or parsed from original stanza if message
+     * was not parsed here.
+     */
+    private static @Nullable List<Forwarded> getForwarded(MessageItem message) {
+        if (message.getForwarded() != null) return message.getForwarded();
+        if (message.getOriginalStanza() == null) return null;
+        try {
+            return AbstractChat.getForwarded(PacketParserUtils.parseStanza(message.getOriginalStanza()));
+        } catch (Exception e) {
+            LogManager.exception(LOG_TAG, e);
+            return null;
+        }
     }
 
-    private static void addWithJid(Jid withJid, DataForm dataForm) {
-        if (withJid == null) return;
-        FormField formField = new FormField("with");
-        formField.addValue(withJid.toString());
-        dataForm.addField(formField);
-    }
+    /** UTILS */
 
     private String getNextId(MamManager.MamQueryResult queryResult) {
         String archivedId = null;
@@ -836,44 +965,6 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
         return archivedId;
     }
 
-    private Date getNextDate(MamManager.MamQueryResult queryResult) {
-        Date date = null;
-        if (queryResult.forwardedMessages != null && !queryResult.forwardedMessages.isEmpty()) {
-            Forwarded forwarded = queryResult.forwardedMessages.get(queryResult.forwardedMessages.size() - 1);
-            DelayInformation delayInformation = forwarded.getDelayInformation();
-            date = new Date(delayInformation.getStamp().getTime() + 1);
-        }
-        return date;
-    }
-
-    @Nullable private List<MessageItem> findMissedMessages(Realm realm, AbstractChat chat) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .isNotNull(MessageItem.Fields.ARCHIVED_ID)
-                .isNull(MessageItem.Fields.PREVIOUS_ID)
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.DESCENDING);
-
-        if (results != null && !results.isEmpty()) {
-            return new ArrayList<>(results);
-        } else return null;
-    }
-
-    private MessageItem getMessageForCloseMissedMessages(Realm realm, MessageItem messageItem) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, messageItem.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, messageItem.getUser().toString())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .isNotNull(MessageItem.Fields.ARCHIVED_ID)
-                .lessThan(MessageItem.Fields.TIMESTAMP, messageItem.getTimestamp())
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.DESCENDING);
-
-        if (results != null && !results.isEmpty()) {
-            return results.first();
-        } else return null;
-    }
-
     private boolean isNeedMigration(AccountItem account, Realm realm) {
         MessageItem result = realm.where(MessageItem.class)
                 .equalTo(MessageItem.Fields.ACCOUNT, account.getAccount().toString())
@@ -883,107 +974,58 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
     }
 
     private boolean historyIsNotEnough(Realm realm, AbstractChat chat) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
+        return MessageDatabaseManager.getChatQuery(realm, chat.getAccount(), chat.getUser())
                 .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .findAll();
-        return results.size() < 30;
+                .count() < 30;
     }
 
     private String getLastMessageArchivedId(AccountItem account, Realm realm) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
+        MessageItem lastMessage = MessageDatabaseManager.findLast(realm.where(MessageItem.class)
                 .equalTo(MessageItem.Fields.ACCOUNT, account.getAccount().toString())
                 .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .isNotNull(MessageItem.Fields.ARCHIVED_ID)
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+                .isNotNull(MessageItem.Fields.ARCHIVED_ID));
+        return lastMessage != null ? lastMessage.getArchivedId() : null;
+    }
 
-        if (results != null && !results.isEmpty()) {
-            MessageItem lastMessage = results.last();
-            return lastMessage.getArchivedId();
-        } else return null;
+    private MessageItem getLastArchivedMessage(AbstractChat chat, Realm realm) {
+        return MessageDatabaseManager.findLast(MessageDatabaseManager
+                .getChatQuery(realm, chat.getAccount(), chat.getUser())
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
+                .isNotNull(MessageItem.Fields.ARCHIVED_ID));
     }
 
     private MessageItem getFirstMessage(AbstractChat chat, Realm realm) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
+        return MessageDatabaseManager.findFirst(MessageDatabaseManager
+                .getChatQuery(realm, chat.getAccount(), chat.getUser())
                 .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .isNotNull(MessageItem.Fields.ARCHIVED_ID)
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
-
-        if (results != null && !results.isEmpty()) {
-            return results.first();
-        } else return null;
+                .isNotNull(MessageItem.Fields.ARCHIVED_ID));
     }
 
     private MessageItem getFirstMessageForMigration(AbstractChat chat, Realm realm) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
-
-        if (results != null && !results.isEmpty()) {
-            return results.first();
-        } else return null;
+        return MessageDatabaseManager.findFirst(MessageDatabaseManager
+                .getChatQuery(realm, chat.getAccount(), chat.getUser())
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID));
     }
 
     private long getLastMessageTimestamp(AccountItem account, Realm realm) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
+        MessageItem lastMessage = MessageDatabaseManager.findLast(realm.where(MessageItem.class)
                 .equalTo(MessageItem.Fields.ACCOUNT, account.getAccount().toString())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
-
-        if (results != null && !results.isEmpty()) {
-            MessageItem lastMessage = results.last();
-            return lastMessage.getTimestamp();
-        } else return 0;
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID));
+        return lastMessage != null ? lastMessage.getTimestamp() : 0;
     }
 
     private void updateLastMessageId(AbstractChat chat, Realm realm) {
-        RealmResults<MessageItem> results = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+        MessageItem lastMessage = MessageDatabaseManager.findLast(MessageDatabaseManager
+                .getChatQuery(realm, chat.getAccount(), chat.getUser())
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID));
 
-        if (results != null && !results.isEmpty()) {
-            MessageItem lastMessage = results.last();
+        if (lastMessage != null) {
             String id = lastMessage.getArchivedId();
             if (id == null) id = lastMessage.getStanzaId();
             chat.setLastMessageId(id);
         }
     }
 
-    private MessageItem findSameLocalMessage(Realm realm, AbstractChat chat, MessageItem message) {
-        return realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .equalTo(MessageItem.Fields.TEXT, message.getText())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .equalTo(MessageItem.Fields.STANZA_ID, message.getStanzaId())
-                .or()
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .equalTo(MessageItem.Fields.TEXT, message.getText())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .equalTo(MessageItem.Fields.STANZA_ID, message.getPacketId())
-                .or()
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .equalTo(MessageItem.Fields.TEXT, message.getText())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .equalTo(MessageItem.Fields.STANZA_ID, message.getArchivedId())
-                .or()
-                .equalTo(MessageItem.Fields.ACCOUNT, chat.getAccount().toString())
-                .equalTo(MessageItem.Fields.USER, chat.getUser().toString())
-                .equalTo(MessageItem.Fields.TEXT, message.getText())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .equalTo(MessageItem.Fields.ARCHIVED_ID, message.getArchivedId())
-                .findFirst();
-    }
-
     private void runMigrationToNewArchive(AccountItem accountItem, Realm realm) {
         LogManager.d(LOG_TAG, "run migration for account: " + accountItem.getAccount().toString());
         Collection<RosterContact> contacts = RosterManager.getInstance()
@@ -998,11 +1040,147 @@ public class NextMamManager implements OnRosterReceivedListener, OnPacketListene
                     .equalTo(SyncInfo.FIELD_ACCOUNT, accountItem.getAccount().toString())
                     .equalTo(SyncInfo.FIELD_USER, chat.getUser().toString()).findFirst();
 
-            if (firstMessage != null && syncInfo != null) {
-                realm.beginTransaction();
-                firstMessage.setArchivedId(syncInfo.getFirstMamMessageMamId());
-                firstMessage.setPreviousId(null);
-                realm.commitTransaction();
+            if (firstMessage != null && syncInfo != null && syncInfo.getFirstMamMessageMamId() != null) {
+                final String uniqueId = firstMessage.getUniqueId();
+                final String archivedId = syncInfo.getFirstMamMessageMamId();
+                MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, new Realm.Transaction() {
+                    @Override
+                    public void execute(Realm realm) {
+                        MessageItem message = realm.where(MessageItem.class)
+                                .equalTo(MessageItem.Fields.UNIQUE_ID, uniqueId).findFirst();
+                        if (message == null) return;
+                        message.setArchivedId(archivedId);
+                        message.setPreviousId(null);
+                    }
+                });
+                MessageDatabaseManager.refreshBackgroundRealm(realm);
+                MessageDedupIndex.getInstance().onMessagesSaved(Collections.singletonList(firstMessage));
+            }
+        }
+    }
+
+    /** CATCH-UP CHECKPOINTS */
+
+    /** @return archived ids to continue interrupted catch-ups of chats from */
+    private static Map<UserJid, String> getUnfinishedCheckpoints(Realm realm, AccountJid account) {
+        RealmResults<SyncInfo> results = realm.where(SyncInfo.class)
+                .equalTo(SyncInfo.FIELD_ACCOUNT, account.toString())
+                .equalTo(SyncInfo.FIELD_REMOTE_HISTORY_COMPLETELY_LOADED, false)
+                .isNotNull(SyncInfo.FIELD_LAST_MESSAGE_MAM_ID)
+                .findAll();
+
+        Map<UserJid, String> checkpoints = new HashMap<>();
+        for (SyncInfo syncInfo : results) {
+            try {
+                checkpoints.put(UserJid.from(syncInfo.getUser()), syncInfo.getLastMessageMamId());
+            } catch (UserJid.UserJidCreateException e) {
+                LogManager.exception(LOG_TAG, e);
+            }
+        }
+        return checkpoints;
+    }
+
+    private static void saveCheckpoints(final AccountJid account, final Map<UserJid, String> archivedIds,
+                                        final boolean caughtUp) {
+        MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                for (Map.Entry<UserJid, String> entry : archivedIds.entrySet()) {
+                    SyncInfo syncInfo = realm.where(SyncInfo.class)
+                            .equalTo(SyncInfo.FIELD_ACCOUNT, account.toString())
+                            .equalTo(SyncInfo.FIELD_USER, entry.getKey().toString())
+                            .findFirst();
+                    if (syncInfo == null) {
+                        syncInfo = realm.createObject(SyncInfo.class);
+                        syncInfo.setAccount(account);
+                        syncInfo.setUser(entry.getKey());
+                    }
+                    syncInfo.setLastMessageMamId(entry.getValue());
+                    syncInfo.setRemoteHistoryCompletelyLoaded(caughtUp);
+                }
+            }
+        });
+    }
+
+    /** Loads chat history after archived id page by page, or only the last message
+     *  if chat has no archived history */
+    private class ChatCatchUpTask extends MamCatchUpScheduler.Task {
+
+        private final AccountItem accountItem;
+        private final AbstractChat chat;
+        private @Nullable String afterId;
+        private final AtomicBoolean itemNotFound = new AtomicBoolean();
+
+        ChatCatchUpTask(AccountItem accountItem, AbstractChat chat, @Nullable String afterId, long lastTime) {
+            super(accountItem.getAccount(), chat.getUser(), MessageManager.getInstance().isVisibleChat(chat), lastTime);
+            this.accountItem = accountItem;
+            this.chat = chat;
+            this.afterId = afterId;
+        }
+
+        @Override
+        @Nullable MamCatchUpScheduler.Page fetchNextPage() {
+            itemNotFound.set(false);
+            MamManager.MamQueryResult queryResult = afterId != null
+                    ? requestMessagesFromId(accountItem, chat, afterId, itemNotFound)
+                    : requestLastMessage(accountItem, chat);
+            if (queryResult == null) return null;
+
+            List<Forwarded> messages = new ArrayList<>(queryResult.forwardedMessages);
+            boolean complete = afterId == null || messages.isEmpty() || queryResult.mamFin.isComplete();
+            MamCatchUpScheduler.Page page = new MamCatchUpScheduler.Page(messages, afterId, complete);
+            String nextId = getNextId(queryResult);
+            if (nextId != null) afterId = nextId;
+            return page;
+        }
+
+        @Override
+        void savePage(Realm realm, MamCatchUpScheduler.Page page) {
+            if (!page.messages.isEmpty()) {
+                List<MessageItem> parsedMessages = parseMessage(accountItem, account, user, page.messages, page.afterId);
+                saveOrUpdateMessages(realm, parsedMessages);
+                addPageRange(realm, parsedMessages, page.afterId);
+                updateLastMessageId(chat, realm);
+            }
+
+            if (page.afterId == null) {
+                if (!chat.isHistoryRequestedAtStart()) chat.setHistoryRequestedAtStart(true);
+            } else {
+                String lastId = page.afterId;
+                if (!page.messages.isEmpty()) {
+                    Forwarded last = page.messages.get(page.messages.size() - 1);
+                    lastId = ArchivedHelper.getArchivedId(last.getForwardedStanza());
+                }
+                if (lastId != null) saveCheckpoints(account, Collections.singletonMap(user, lastId), page.complete);
+            }
+        }
+
+        /** Page after archived id continues the segment of that message */
+        private void addPageRange(Realm realm, List<MessageItem> parsedMessages, @Nullable String afterId) {
+            HistorySegmentIndex.Range range = HistorySegmentIndex.Range.of(parsedMessages);
+            if (range == null) return;
+            String chatKey = MessageItem.getChatKey(account, user);
+            if (afterId != null) {
+                // indexed id goes first, so realm starts from the index
+                MessageItem afterMessage = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.ARCHIVED_ID, afterId)
+                        .equalTo(MessageItem.Fields.CHAT_KEY, chatKey)
+                        .findFirst();
+                if (afterMessage != null) range = range.extendTo(afterId, afterMessage.getTimestamp());
+            }
+            HistorySegmentIndex.getInstance().addRange(chatKey, range);
+        }
+
+        @Override
+        void onFailed() {
+            if (afterId == null) return;
+            if (itemNotFound.get()) {
+                // archived id is not known by server anymore, don't repeat it on every connect
+                LogManager.w(LOG_TAG, "Catch-up of " + user + " failed, server has no " + afterId);
+                saveCheckpoints(account, Collections.singletonMap(user, afterId), true);
+            } else {
+                // timeout or server error, the saved checkpoint is continued on the next connect
+                LogManager.w(LOG_TAG, "Catch-up of " + user + " failed after " + afterId + ", will be continued");
             }
         }
     }
@@ -16,6 +16,8 @@ package com.xabber.android.data.extension.muc;
 
 import android.database.Cursor;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
@@ -24,7 +26,8 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.sqlite.RoomTable;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
@@ -34,6 +37,7 @@ import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.ChatAction;
 import com.xabber.android.data.message.ChatData;
 import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.message.UnreadMessageCounter;
 import com.xabber.android.data.message.chat.ChatManager;
 import com.xabber.android.data.notification.EntityNotificationProvider;
 import com.xabber.android.data.notification.NotificationManager;
@@ -69,7 +73,7 @@ import java.util.Collections;
  *
  * @author alexander.ivanov
  */
-public class MUCManager implements OnLoadListener, OnPacketListener {
+public class MUCManager implements OnLoadListener, OnSelectivePacketListener {
 
     private static MUCManager instance;
 
@@ -118,6 +122,8 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
                                     roomChat.setLastPosition(chatData.getLastPosition());
                                     roomChat.setArchived(chatData.isArchived(), false);
                                     roomChat.setNotificationState(chatData.getNotificationState(), false);
+                                    UnreadMessageCounter.getInstance().restore(account,
+                                            roomChat.getUser(), chatData.getUnreadCount());
                                 }
 
                                 roomChats.add(roomChat);
@@ -472,6 +478,12 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
         }
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.message, MUCUser.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         if (!(connection instanceof AccountItem)) {
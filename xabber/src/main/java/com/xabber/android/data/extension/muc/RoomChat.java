@@ -412,20 +412,17 @@ public class RoomChat extends AbstractChat {
         return uid;
     }
 
-        private void markMessageAsDelivered(final String messageUId, final String originalFrom) {
-        Application.getInstance().runInBackground(new Runnable() {
+    private void markMessageAsDelivered(final String messageUId, final String originalFrom) {
+        MessageDatabaseManager.getInstance().executeWrite("RoomChat.markMessageAsDelivered",
+                new Realm.Transaction() {
             @Override
-            public void run() {
-                Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-                realm.executeTransaction(new Realm.Transaction() {
-                    @Override
-                    public void execute(Realm realm) {
-                        MessageItem message = realm.where(MessageItem.class)
-                                .equalTo(MessageItem.Fields.UNIQUE_ID, messageUId).findFirst();
-                        message.setDelivered(true);
-                        message.setOriginalFrom(originalFrom);
-                    }
-                });
+            public void execute(Realm realm) {
+                MessageItem message = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.UNIQUE_ID, messageUId).findFirst();
+                if (message != null) {
+                    message.setDelivered(true);
+                    message.setOriginalFrom(originalFrom);
+                }
             }
         });
     }
@@ -14,6 +14,8 @@
  */
 package com.xabber.android.data.extension.ssn;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
@@ -21,7 +23,8 @@ import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
 import com.xabber.android.data.connection.TLSMode;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.log.LogManager;
@@ -48,7 +51,7 @@ import java.util.Collection;
  *
  * @author alexander.ivanov
  */
-public class SSNManager implements OnPacketListener, OnAccountRemovedListener {
+public class SSNManager implements OnSelectivePacketListener, OnAccountRemovedListener {
 
     /**
      * Session state for the session id in account.
@@ -81,6 +84,12 @@ public class SSNManager implements OnPacketListener, OnAccountRemovedListener {
         sessionOtrs.clear(accountItem.getAccount().toString());
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.message, Feature.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         Jid from = stanza.getFrom();
@@ -16,6 +16,8 @@ package com.xabber.android.data.extension.vcard;
 
 import android.database.Cursor;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.OnLoadListener;
@@ -25,7 +27,8 @@ import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.sqlite.VCardTable;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
@@ -66,7 +69,7 @@ import java.util.concurrent.ConcurrentSkipListSet;
  *
  * @author alexander.ivanov
  */
-public class VCardManager implements OnLoadListener, OnPacketListener,
+public class VCardManager implements OnLoadListener, OnSelectivePacketListener,
         OnRosterReceivedListener, OnAccountRemovedListener {
 
     private static final StructuredName EMPTY_STRUCTURED_NAME = new StructuredName(
@@ -294,6 +297,14 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
         }
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest()
+                .allOf(PacketInterest.Kind.presence)
+                .withNamespace(PacketInterest.Kind.iq, VCard.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         if (!(connection instanceof AccountItem)) {
@@ -2,12 +2,14 @@ package com.xabber.android.data.extension.xtoken;
 
 import android.os.Build;
 
+import androidx.annotation.NonNull;
 import androidx.core.util.Pair;
 
 import com.xabber.android.data.Application;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.realm.XTokenRealm;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.log.LogManager;
@@ -26,7 +28,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 
-public class XTokenManager implements OnPacketListener {
+public class XTokenManager implements OnSelectivePacketListener {
 
     private static final String LOG_TAG = XTokenManager.class.getSimpleName();
     private static XTokenManager instance;
@@ -37,6 +39,12 @@ public class XTokenManager implements OnPacketListener {
         return instance;
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.iq, XTokenIQ.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza packet) {
         if (packet instanceof XTokenIQ) {
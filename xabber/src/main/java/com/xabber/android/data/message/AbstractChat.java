@@ -39,7 +39,6 @@ import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.otr.OTRManager;
 import com.xabber.android.data.extension.references.ReferenceElement;
 import com.xabber.android.data.extension.references.ReferencesManager;
-import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.chat.ChatManager;
 import com.xabber.android.data.notification.MessageNotificationManager;
 import com.xabber.android.data.notification.NotificationManager;
@@ -62,6 +61,7 @@ import org.jxmpp.jid.parts.Resourcepart;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -315,16 +315,23 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
     }
 
     public void saveMessageItem(boolean ui, final MessageItem messageItem) {
-        if (ui) BackpressureMessageSaver.getInstance().saveMessageItem(messageItem);
+        if (ui) MessageIngestPipeline.getInstance().saveMessageItem(messageItem);
         else {
-            final long startTime = System.currentTimeMillis();
-            Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-            realm.executeTransactionAsync(new Realm.Transaction() {
+            MessageDatabaseManager.getInstance().executeWrite("AbstractChat.saveMessageItem",
+                    new Realm.Transaction() {
                 @Override
                 public void execute(Realm realm) {
                     realm.copyToRealm(messageItem);
-                    LogManager.d("REALM", Thread.currentThread().getName()
-                            + " save message item: " + (System.currentTimeMillis() - startTime));
+                }
+            }, new Realm.Transaction.OnSuccess() {
+                @Override
+                public void onSuccess() {
+                    UnreadMessageCounter.getInstance()
+                            .onMessagesSaved(Collections.singletonList(messageItem));
+                    MessageSearchManager.getInstance()
+                            .onMessagesSaved(Collections.singletonList(messageItem));
+                    MessageDedupIndex.getInstance()
+                            .onMessagesSaved(Collections.singletonList(messageItem));
                     EventBus.getDefault().post(new NewMessageEvent());
                 }
             });
@@ -445,16 +452,16 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
     }
 
     public String newFileMessage(final List<File> files, final List<Uri> uris) {
-        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
         final String messageId = UUID.randomUUID().toString();
+        // files are read before writer transaction
+        final RealmList<Attachment> attachments;
+        if (files != null) attachments = attachmentsFromFiles(files);
+        else attachments = attachmentsFromUris(uris);
 
-        realm.executeTransaction(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWriteAndWait("AbstractChat.newFileMessage",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
-                RealmList<Attachment> attachments;
-                if (files != null) attachments = attachmentsFromFiles(files);
-                else attachments = attachmentsFromUris(uris);
-
                 MessageItem messageItem = new MessageItem(messageId);
                 messageItem.setAccount(account);
                 messageItem.setUser(user);
@@ -468,6 +475,7 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
                 messageItem.setInProgress(true);
                 messageItem.setStanzaId(UUID.randomUUID().toString());
                 realm.copyToRealm(messageItem);
+                MessageDedupIndex.getInstance().onMessagesSaved(Collections.singletonList(messageItem));
             }
         });
 
@@ -527,19 +535,14 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
 
     private void updateLastMessage() {
         Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-        lastMessage = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
-                .equalTo(MessageItem.Fields.USER, user.toString())
+        lastMessage = MessageDatabaseManager.findLast(MessageDatabaseManager.getChatQuery(realm, account, user)
                 .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
                 .isNotNull(MessageItem.Fields.TEXT)
-                .isNull(MessageItem.Fields.ACTION)
-                .or()
-                .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
-                .equalTo(MessageItem.Fields.USER, user.toString())
-                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
-                .isNotNull(MessageItem.Fields.TEXT)
-                .equalTo(MessageItem.Fields.ACTION, ChatAction.available.toString())
-                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING).last(null);
+                .beginGroup()
+                    .isNull(MessageItem.Fields.ACTION)
+                    .or()
+                    .equalTo(MessageItem.Fields.ACTION, ChatAction.available.toString())
+                .endGroup());
     }
 
     /**
@@ -618,25 +621,23 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
         Application.getInstance().runInBackgroundUserRequest(new Runnable() {
             @Override
             public void run() {
-                Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-
-                RealmResults<MessageItem> messagesToSend = realm.where(MessageItem.class)
-                        .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
-                        .equalTo(MessageItem.Fields.USER, user.toString())
-                        .equalTo(MessageItem.Fields.SENT, false)
-                        .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
-
-                realm.beginTransaction();
-
-                for (final MessageItem messageItem : messagesToSend) {
-                    if (messageItem.isInProgress()) continue;
-                    if (!sendMessage(messageItem)) {
-                        break;
+                MessageDatabaseManager.getInstance().executeWriteAndWait("AbstractChat.sendMessages",
+                        new Realm.Transaction() {
+                    @Override
+                    public void execute(Realm realm) {
+                        RealmResults<MessageItem> messagesToSend = MessageDatabaseManager
+                                .getChatQuery(realm, account, user)
+                                .equalTo(MessageItem.Fields.SENT, false)
+                                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+
+                        for (final MessageItem messageItem : messagesToSend) {
+                            if (messageItem.isInProgress()) continue;
+                            if (!sendMessage(messageItem)) {
+                                break;
+                            }
+                        }
                     }
-                }
-                realm.commitTransaction();
-
-                realm.close();
+                });
             }
         });
     }
@@ -708,8 +709,8 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
                 StanzaSender.sendStanza(account, message, new StanzaListener() {
                     @Override
                     public void processStanza(Stanza packet) throws SmackException.NotConnectedException {
-                        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-                        realm.executeTransaction(new Realm.Transaction() {
+                        MessageDatabaseManager.getInstance().executeWrite("AbstractChat.acknowledge",
+                                new Realm.Transaction() {
                                 @Override
                                 public void execute(Realm realm) {
                                     MessageItem acknowledgedMessage = realm
@@ -722,7 +723,6 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
                                     }
                                 }
                             });
-                        realm.close();
                     }
                 });
             } catch (NetworkException e) {
@@ -803,25 +803,19 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
     @Override
     public void onChange(RealmResults<MessageItem> messageItems) {
         updateLastMessage();
-        RosterCacheManager.saveLastMessageToContact(
-                MessageDatabaseManager.getInstance().getRealmUiThread(), lastMessage);
+        RosterCacheManager.saveLastMessageToContact(lastMessage);
     }
 
     /** UNREAD MESSAGES */
 
     public String getFirstUnreadMessageId() {
-        String id = null;
-        RealmResults<MessageItem> results = getAllUnreadAscending();
-        if (results != null && !results.isEmpty()) {
-            MessageItem firstUnreadMessage = results.first();
-            if (firstUnreadMessage != null)
-                id = firstUnreadMessage.getUniqueId();
-        }
-        return id;
+        MessageItem firstUnreadMessage = MessageDatabaseManager.findFirst(getAllUnreadQuery());
+        return firstUnreadMessage != null ? firstUnreadMessage.getUniqueId() : null;
     }
 
     public int getUnreadMessageCount() {
-        int unread = ((int) getAllUnreadQuery().count()) - waitToMarkAsRead.size();
+        int unread = UnreadMessageCounter.getInstance().getUnreadCount(account, user)
+                - waitToMarkAsRead.size();
         if (unread < 0) unread = 0;
         return unread;
     }
@@ -861,9 +855,11 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
     }
 
     private RealmQuery<MessageItem> getAllUnreadQuery() {
-        return MessageDatabaseManager.getInstance().getRealmUiThread().where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
-                .equalTo(MessageItem.Fields.USER, user.toString())
+        return getAllUnreadQuery(MessageDatabaseManager.getInstance().getRealmUiThread(), account, user);
+    }
+
+    static RealmQuery<MessageItem> getAllUnreadQuery(Realm realm, AccountJid account, UserJid user) {
+        return MessageDatabaseManager.getChatQuery(realm, account, user)
                 .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
                 .isNotNull(MessageItem.Fields.TEXT)
                 .equalTo(MessageItem.Fields.INCOMING, true)
@@ -928,8 +924,13 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
     }
 
     public RealmList<ForwardId> parseForwardedMessage(boolean ui, Stanza packet, String parentMessageId) {
-        List<Forwarded> forwarded = ReferencesManager.getForwardedFromReferences(packet);
-        if (forwarded.isEmpty()) forwarded = ForwardManager.getForwardedFromStanza(packet);
+        return parseForwardedMessage(ui, getForwarded(packet), parentMessageId);
+    }
+
+    /**
+     * @param forwarded messages forwarded by the parent one, see {@link #getForwarded(Stanza)}.
+     */
+    public RealmList<ForwardId> parseForwardedMessage(boolean ui, List<Forwarded> forwarded, String parentMessageId) {
         if (forwarded.isEmpty()) return null;
 
         RealmList<ForwardId> forwardedIds = new RealmList<>();
@@ -944,6 +945,15 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
         return forwardedIds;
     }
 
+    /**
+     * @return messages forwarded by references or by previous forwarding xep.
+     */
+    public static List<Forwarded> getForwarded(Stanza packet) {
+        List<Forwarded> forwarded = ReferencesManager.getForwardedFromReferences(packet);
+        if (forwarded.isEmpty()) forwarded = ForwardManager.getForwardedFromStanza(packet);
+        return forwarded;
+    }
+
     protected abstract String parseInnerMessage(boolean ui, Message message, Date timestamp, String parentMessageId);
 
     public String getLastMessageId() {
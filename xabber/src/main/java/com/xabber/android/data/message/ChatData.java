@@ -13,10 +13,11 @@ public class ChatData {
     private NotificationState notificationState;
     private int lastPosition;
     private boolean historyRequestedAtStart;
+    private int unreadCount;
 
     public ChatData(String subject, String accountJid, String userJid,
                     boolean archived, NotificationState notificationState, int lastPosition,
-                    boolean historyRequestedAtStart) {
+                    boolean historyRequestedAtStart, int unreadCount) {
         this.subject = subject;
         this.accountJid = accountJid;
         this.userJid = userJid;
@@ -24,6 +25,7 @@ public class ChatData {
         this.notificationState = notificationState;
         this.lastPosition = lastPosition;
         this.historyRequestedAtStart = historyRequestedAtStart;
+        this.unreadCount = unreadCount;
     }
 
     public String getSubject() {
@@ -77,4 +79,8 @@ public class ChatData {
     public boolean isHistoryRequestedAtStart() {
         return historyRequestedAtStart;
     }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
 }
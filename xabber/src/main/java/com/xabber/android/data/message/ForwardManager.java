@@ -35,11 +35,19 @@ public class ForwardManager {
 
         messageItem.setForwardedIds(ids);
 
-        MessageDatabaseManager.getInstance().getRealmUiThread()
-                .executeTransactionAsync(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWrite("ForwardManager.forwardMessage",
+                new Realm.Transaction() {
                     @Override
                     public void execute(Realm realm) {
                         realm.copyToRealm(messageItem);
+                    }
+                }, new Realm.Transaction.OnSuccess() {
+                    @Override
+                    public void onSuccess() {
+                        MessageSearchManager.getInstance()
+                                .onMessagesSaved(Collections.singletonList(messageItem));
+                        MessageDedupIndex.getInstance()
+                                .onMessagesSaved(Collections.singletonList(messageItem));
                         EventBus.getDefault().post(new NewMessageEvent());
                         chat.sendMessages();
                     }
@@ -0,0 +1,206 @@
+package com.xabber.android.data.message;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.utils.BloomFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+/**
+ * Finds local copy of archived message.
+ * <p/>
+ * Local message is the same if it has the same text and its stanza id equals to stanza id,
+ * packet id or archived id of the archived message, or its archived id equals to archived id
+ * of the archived message. For each recently used chat a {@link BloomFilter} of stanza and
+ * archived ids of its messages answers "definitely new" for most archived messages without
+ * any query. Otherwise the candidates are looked up by indexed id fields one by one.
+ * <p/>
+ * Filter of a chat is built from realm on first lookup and is kept up to date by
+ * {@link #onMessagesSaved(Collection)}, which must be called for every saved message and for
+ * message which ids were changed. Ids saved recently are also kept as is, in case realm used
+ * to build the filter did not see the last commit yet.
+ */
+public class MessageDedupIndex {
+
+    private static final int MAX_CHATS = 64;
+    private static final int MAX_RECENT_IDS = 4096;
+    private static final int MIN_EXPECTED_IDS = 256;
+
+    private static MessageDedupIndex instance;
+
+    private final Map<String, BloomFilter> filters = new LinkedHashMap<String, BloomFilter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BloomFilter> eldest) {
+            return size() > MAX_CHATS;
+        }
+    };
+
+    private final Map<String, Boolean> recentIds = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RECENT_IDS;
+        }
+    };
+
+    private long lookups;
+    private long definitelyNew;
+    private long found;
+    private long builds;
+
+    public static MessageDedupIndex getInstance() {
+        if (instance == null) {
+            instance = new MessageDedupIndex();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Separate index, used by benchmark.
+     */
+    public MessageDedupIndex() {
+    }
+
+    /**
+     * @param message archived message with account, user and ids set.
+     * @return local message managed by the realm or <code>null</code> if message is new.
+     */
+    @Nullable
+    public MessageItem findSameLocalMessage(Realm realm, MessageItem message) {
+        String chatKey = message.getChatKey();
+        String[] stanzaIds = {message.getStanzaId(), message.getPacketId(), message.getArchivedId()};
+        String archivedId = message.getArchivedId();
+
+        synchronized (this) {
+            lookups++;
+        }
+        if (!mightContain(realm, chatKey, stanzaIds)) {
+            synchronized (this) {
+                definitelyNew++;
+            }
+            return null;
+        }
+
+        for (String id : stanzaIds) {
+            MessageItem localMessage = findByField(realm, chatKey, MessageItem.Fields.STANZA_ID, id, message.getText());
+            if (localMessage != null) {
+                onFound();
+                return localMessage;
+            }
+        }
+        MessageItem localMessage = findByField(realm, chatKey, MessageItem.Fields.ARCHIVED_ID, archivedId, message.getText());
+        if (localMessage != null) {
+            onFound();
+        }
+        return localMessage;
+    }
+
+    /**
+     * Adds stanza and archived ids of the messages. Can be called before the messages
+     * were committed, but not after any other thread could look them up.
+     */
+    public void onMessagesSaved(Collection<MessageItem> messageItems) {
+        synchronized (this) {
+            for (MessageItem messageItem : messageItems) {
+                BloomFilter filter = filters.get(messageItem.getChatKey());
+                addId(filter, messageItem.getStanzaId());
+                addId(filter, messageItem.getArchivedId());
+            }
+        }
+    }
+
+    private void addId(@Nullable BloomFilter filter, @Nullable String id) {
+        if (id == null) {
+            return;
+        }
+        recentIds.put(id, Boolean.TRUE);
+        if (filter != null) {
+            filter.add(id);
+        }
+    }
+
+    private boolean mightContain(Realm realm, String chatKey, String[] ids) {
+        BloomFilter filter;
+        synchronized (this) {
+            filter = filters.get(chatKey);
+            if (filter != null && filter.isOverloaded()) {
+                filter = null;
+            }
+        }
+        if (filter == null) {
+            filter = build(realm, chatKey);
+        }
+
+        synchronized (this) {
+            for (String id : ids) {
+                if (id != null && (filter.mightContain(id) || recentIds.containsKey(id))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads ids of all messages of the chat, only once in a while for a chat.
+     */
+    private BloomFilter build(Realm realm, String chatKey) {
+        RealmResults<MessageItem> messages = MessageDatabaseManager.getChatQuery(realm, chatKey).findAll();
+        List<String> ids = new ArrayList<>(messages.size() * 2);
+        for (MessageItem messageItem : messages) {
+            if (messageItem.getStanzaId() != null) {
+                ids.add(messageItem.getStanzaId());
+            }
+            if (messageItem.getArchivedId() != null) {
+                ids.add(messageItem.getArchivedId());
+            }
+        }
+
+        // room for twice as many ids before the filter is rebuilt
+        BloomFilter filter = new BloomFilter(Math.max(MIN_EXPECTED_IDS, ids.size() * 2));
+        for (String id : ids) {
+            filter.add(id);
+        }
+        synchronized (this) {
+            filters.put(chatKey, filter);
+            builds++;
+        }
+        return filter;
+    }
+
+    @Nullable
+    private static MessageItem findByField(Realm realm, String chatKey, String field,
+                                           @Nullable String id, String text) {
+        if (id == null) {
+            return null;
+        }
+        // indexed id goes first, so realm starts from the index
+        return realm.where(MessageItem.class)
+                .equalTo(field, id)
+                .equalTo(MessageItem.Fields.CHAT_KEY, chatKey)
+                .equalTo(MessageItem.Fields.TEXT, text)
+                .isNull(MessageItem.Fields.PARENT_MESSAGE_ID)
+                .findFirst();
+    }
+
+    private synchronized void onFound() {
+        found++;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "lookups " + lookups + ", definitely new " + definitelyNew + ", found " + found
+                + ", false positives " + (lookups - definitelyNew - found) + ", filters built " + builds;
+    }
+}
@@ -0,0 +1,250 @@
+package com.xabber.android.data.message;
+
+import android.os.Looper;
+
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.extension.mam.HistorySegmentIndex;
+import com.xabber.android.data.log.LogManager;
+import com.xabber.android.data.push.SyncManager;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.realm.Realm;
+
+/** Saves incoming messages to Realm on a dedicated writer thread.
+ *
+ * Messages are put to a bounded queue and written in batches: a batch is committed
+ * when it reaches {@link #MAX_BATCH_SIZE} messages or when {@link #FLUSH_INTERVAL_MILLIS}
+ * passed since the first message of the batch was taken. Every batch is written in
+ * a single Realm transaction.
+ *
+ * When the queue is full, background producers are blocked until the writer frees space,
+ * so the reader threads are slowed down instead of messages being lost. UI thread is never
+ * blocked: its message bypasses the queue and is submitted to the realm writer directly.
+ * */
+public class MessageIngestPipeline {
+
+    private static final String LOG_TAG = MessageIngestPipeline.class.getSimpleName();
+
+    static final int QUEUE_CAPACITY = 1024;
+    static final int MAX_BATCH_SIZE = 200;
+    static final long FLUSH_INTERVAL_MILLIS = 300;
+    private static final int STATS_LOG_PERIOD = 50;
+
+    private static MessageIngestPipeline instance;
+
+    private final BlockingQueue<MessageItem> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Counters counters = new Counters();
+
+    public static synchronized MessageIngestPipeline getInstance() {
+        if (instance == null) instance = new MessageIngestPipeline();
+        return instance;
+    }
+
+    private MessageIngestPipeline() {
+        Thread writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Message ingest writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Puts message to the ingest queue.
+     * Blocks the caller while queue is full, unless it is UI thread.
+     */
+    public void saveMessageItem(MessageItem messageItem) {
+        if (queue.offer(messageItem)) return;
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            counters.directWrites.incrementAndGet();
+            writeDirectly(messageItem);
+            return;
+        }
+
+        counters.blockedProducers.incrementAndGet();
+        try {
+            queue.put(messageItem);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LogManager.exception(LOG_TAG, e);
+        }
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+
+    private void writeLoop() {
+        List<MessageItem> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    if (queue.drainTo(batch, MAX_BATCH_SIZE - batch.size()) > 0) continue;
+                    long timeLeft = deadline - System.currentTimeMillis();
+                    if (timeLeft <= 0) break;
+                    MessageItem next = queue.poll(timeLeft, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                LogManager.exception(LOG_TAG, e);
+                return;
+            } catch (Exception e) {
+                // do not stop pipeline because of one broken batch
+                counters.failedBatches.incrementAndGet();
+                LogManager.exception(LOG_TAG, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(final List<MessageItem> messageItems) {
+        final long startTime = System.currentTimeMillis();
+        MessageDatabaseManager.getInstance().executeWriteAndWait(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                HistorySegmentIndex.getInstance().addLiveMessages(realm, messageItems);
+                realm.copyToRealmOrUpdate(messageItems);
+            }
+        });
+        counters.onBatchCommitted(messageItems.size(), System.currentTimeMillis() - startTime,
+                queue.size());
+        if (counters.getBatches() % STATS_LOG_PERIOD == 0) LogManager.d(LOG_TAG, counters.toString());
+        onCommitted(messageItems);
+    }
+
+    /**
+     * Writes message of UI thread which did not fit into full queue, without waiting.
+     */
+    private void writeDirectly(final MessageItem messageItem) {
+        MessageDatabaseManager.getInstance().executeWrite(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                HistorySegmentIndex.getInstance().addLiveMessages(realm, Collections.singletonList(messageItem));
+                realm.copyToRealmOrUpdate(messageItem);
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                onCommitted(Collections.singletonList(messageItem));
+            }
+        });
+    }
+
+    private void onCommitted(List<MessageItem> messageItems) {
+        UnreadMessageCounter.getInstance().onMessagesSaved(messageItems);
+        MessageSearchManager.getInstance().onMessagesSaved(messageItems);
+        MessageDedupIndex.getInstance().onMessagesSaved(messageItems);
+
+        EventBus.getDefault().post(new NewMessageEvent());
+        SyncManager.getInstance().onMessageSaved();
+    }
+
+    /** Ingest throughput counters. Values are updated by writer thread
+     * and can be read from any thread. */
+    public class Counters {
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong failedBatches = new AtomicLong();
+        private final AtomicLong blockedProducers = new AtomicLong();
+        private final AtomicLong directWrites = new AtomicLong();
+        private final AtomicLong maxBatchSize = new AtomicLong();
+        private final AtomicLong lastCommitMillis = new AtomicLong();
+        private final AtomicLong totalCommitMillis = new AtomicLong();
+        private final AtomicLong maxCommitMillis = new AtomicLong();
+        private final AtomicLong maxQueueDepth = new AtomicLong();
+
+        void onBatchCommitted(int batchSize, long commitMillis, int queueDepth) {
+            messages.addAndGet(batchSize);
+            batches.incrementAndGet();
+            lastCommitMillis.set(commitMillis);
+            totalCommitMillis.addAndGet(commitMillis);
+            if (batchSize > maxBatchSize.get()) maxBatchSize.set(batchSize);
+            if (commitMillis > maxCommitMillis.get()) maxCommitMillis.set(commitMillis);
+            if (queueDepth > maxQueueDepth.get()) maxQueueDepth.set(queueDepth);
+        }
+
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public long getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        public long getMessages() {
+            return messages.get();
+        }
+
+        public long getBatches() {
+            return batches.get();
+        }
+
+        public long getFailedBatches() {
+            return failedBatches.get();
+        }
+
+        public long getBlockedProducers() {
+            return blockedProducers.get();
+        }
+
+        public long getDirectWrites() {
+            return directWrites.get();
+        }
+
+        public long getMaxBatchSize() {
+            return maxBatchSize.get();
+        }
+
+        public float getAverageBatchSize() {
+            long batches = this.batches.get();
+            return batches == 0 ? 0 : (float) messages.get() / batches;
+        }
+
+        public long getLastCommitMillis() {
+            return lastCommitMillis.get();
+        }
+
+        public long getMaxCommitMillis() {
+            return maxCommitMillis.get();
+        }
+
+        public float getAverageCommitMillis() {
+            long batches = this.batches.get();
+            return batches == 0 ? 0 : (float) totalCommitMillis.get() / batches;
+        }
+
+        @Override
+        public String toString() {
+            return "messages: " + getMessages()
+                    + ", batches: " + getBatches()
+                    + ", failed batches: " + getFailedBatches()
+                    + ", avg batch: " + getAverageBatchSize()
+                    + ", max batch: " + getMaxBatchSize()
+                    + ", queue depth: " + getQueueDepth()
+                    + ", max queue depth: " + getMaxQueueDepth()
+                    + ", blocked producers: " + getBlockedProducers()
+                    + ", direct writes: " + getDirectWrites()
+                    + ", avg commit ms: " + getAverageCommitMillis()
+                    + ", max commit ms: " + getMaxCommitMillis();
+        }
+    }
+
+}
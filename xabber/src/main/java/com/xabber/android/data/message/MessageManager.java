@@ -16,7 +16,6 @@ package com.xabber.android.data.message;
 
 import android.net.Uri;
 import android.os.Environment;
-import android.os.Looper;
 import androidx.annotation.Nullable;
 import android.util.Pair;
 
@@ -32,12 +31,14 @@ import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.account.listeners.OnAccountDisabledListener;
 import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
+import com.xabber.android.data.connection.ConnectionScheduler;
 import com.xabber.android.data.connection.StanzaSender;
 import com.xabber.android.data.connection.listeners.OnDisconnectListener;
 import com.xabber.android.data.connection.listeners.OnPacketListener;
 import com.xabber.android.data.database.MessageDatabaseManager;
 import com.xabber.android.data.database.messagerealm.Attachment;
 import com.xabber.android.data.database.messagerealm.ForwardId;
+import com.xabber.android.data.database.messagerealm.HistorySegment;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.BaseEntity;
@@ -113,7 +114,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      * <p/>
      * Will be <code>null</code> if there is no one.
      */
-    private AbstractChat visibleChat;
+    private volatile AbstractChat visibleChat;
 
     public static MessageManager getInstance() {
         if (instance == null) {
@@ -135,25 +136,21 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     public void onLoad() {
         Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
 
-        realm.executeTransaction(new Realm.Transaction() {
-            @Override
-            public void execute(Realm realm) {
-                RealmResults<MessageItem> messagesToSend = realm.where(MessageItem.class)
-                        .equalTo(MessageItem.Fields.SENT, false)
-                        .findAll();
+        // only reads messages, no transaction needed
+        RealmResults<MessageItem> messagesToSend = realm.where(MessageItem.class)
+                .equalTo(MessageItem.Fields.SENT, false)
+                .findAll();
 
-                for (MessageItem messageItem : messagesToSend) {
-                    AccountJid account = messageItem.getAccount();
-                    UserJid user = messageItem.getUser();
+        for (MessageItem messageItem : messagesToSend) {
+            AccountJid account = messageItem.getAccount();
+            UserJid user = messageItem.getUser();
 
-                    if (account != null && user != null) {
-                        if (getChat(account, user) == null) {
-                            createChat(account, user);
-                        }
-                    }
+            if (account != null && user != null) {
+                if (getChat(account, user) == null) {
+                    createChat(account, user);
                 }
             }
-        });
+        }
         realm.close();
 
         NotificationManager.getInstance().registerNotificationProvider(mucPrivateChatRequestProvider);
@@ -214,6 +211,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             chat.setArchived(chatData.isArchived(), false);
             chat.setNotificationState(chatData.getNotificationState(), false);
             if (chatData.isHistoryRequestedAtStart()) chat.setHistoryRequestedAtStart(false);
+            UnreadMessageCounter.getInstance().restore(chat.getAccount(), chat.getUser(),
+                    chatData.getUnreadCount());
         }
         addChat(chat);
         return chat;
@@ -227,6 +226,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             chat.setArchived(chatData.isArchived(), false);
             chat.setNotificationState(chatData.getNotificationState(), false);
             if (chatData.isHistoryRequestedAtStart()) chat.setHistoryRequestedAtStart(false);
+            UnreadMessageCounter.getInstance().restore(chat.getAccount(), chat.getUser(),
+                    chatData.getUnreadCount());
         }
         addChat(chat);
         return chat;
@@ -271,12 +272,20 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
 
     private void sendMessage(final String text, final AbstractChat chat) {
-        MessageDatabaseManager.getInstance().getRealmUiThread()
-                .executeTransactionAsync(new Realm.Transaction() {
+        final MessageItem newMessageItem = chat.createNewMessageItem(text);
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.sendMessage",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
-                MessageItem newMessageItem = chat.createNewMessageItem(text);
                 realm.copyToRealm(newMessageItem);
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                MessageSearchManager.getInstance()
+                        .onMessagesSaved(Collections.singletonList(newMessageItem));
+                MessageDedupIndex.getInstance()
+                        .onMessagesSaved(Collections.singletonList(newMessageItem));
                 if (chat.canSendMessage())
                     chat.sendMessages();
             }
@@ -305,9 +314,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             return;
         }
 
-        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-
-        realm.executeTransaction(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWriteAndWait("MessageManager.updateFileMessage",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 MessageItem messageItem = realm.where(MessageItem.class)
@@ -340,13 +348,12 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             }
         });
 
-        realm.close();
         chat.sendMessages();
     }
 
     public void updateMessageWithNewAttachments(final String messageId, final List<File> files) {
-        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-        realm.executeTransaction(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWriteAndWait("MessageManager.updateMessageWithNewAttachments",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 MessageItem messageItem = realm.where(MessageItem.class)
@@ -383,23 +390,13 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
 
     public void updateMessageWithError(final String messageId, final String errorDescription) {
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-            realm.executeTransactionAsync(new Realm.Transaction() {
-                @Override
-                public void execute(Realm realm) {
-                    updateMessageWithError(realm, messageId, errorDescription);
-                }
-            });
-        } else {
-            Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-            realm.executeTransaction(new Realm.Transaction() {
-                @Override
-                public void execute(Realm realm) {
-                    updateMessageWithError(realm, messageId, errorDescription);
-                }
-            });
-        }
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.updateMessageWithError",
+                new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                updateMessageWithError(realm, messageId, errorDescription);
+            }
+        });
     }
 
     private void updateMessageWithError(Realm realm, final String messageId, final String errorDescription) {
@@ -420,8 +417,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             return;
         }
 
-        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-        realm.executeTransaction(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.removeErrorAndResendMessage",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 MessageItem messageItem = realm.where(MessageItem.class)
@@ -434,10 +431,12 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
                     messageItem.setErrorDescription("");
                 }
             }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                chat.sendMessages();
+            }
         });
-
-        realm.close();
-        chat.sendMessages();
     }
 
     /**
@@ -534,6 +533,15 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         if (chat == null)
             chat = createChat(visibleChat.getAccount(), visibleChat.getUser());
         this.visibleChat = chat;
+        ConnectionScheduler.getInstance().prioritize(chat.getAccount());
+    }
+
+    /**
+     * @return currently visible chat or <code>null</code>.
+     */
+    @Nullable
+    public AbstractChat getVisibleChat() {
+        return visibleChat;
     }
 
     /**
@@ -558,18 +566,21 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      * @param user
      */
     public void clearHistory(final AccountJid account, final UserJid user) {
-        final long startTime = System.currentTimeMillis();
-
-        MessageDatabaseManager.getInstance().getRealmUiThread()
-                .executeTransactionAsync(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.clearHistory",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
-                realm.where(MessageItem.class)
-                        .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
-                        .equalTo(MessageItem.Fields.USER, user.toString())
+                MessageDatabaseManager.getChatQuery(realm, account, user)
                         .findAll().deleteAllFromRealm();
-                LogManager.d("REALM", Thread.currentThread().getName()
-                        + " clear history: " + (System.currentTimeMillis() - startTime));
+                realm.where(HistorySegment.class)
+                        .equalTo(HistorySegment.Fields.CHAT_KEY, MessageItem.getChatKey(account, user))
+                        .findAll().deleteAllFromRealm();
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                UnreadMessageCounter.getInstance().onHistoryCleared(account, user);
+                MessageSearchManager.getInstance().onHistoryCleared(account, user);
             }
         });
     }
@@ -579,20 +590,27 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      *
      */
     public void removeMessage(final String messageItemId) {
-        Application.getInstance().runInBackgroundUserRequest(new Runnable() {
+        final AccountJid[] account = new AccountJid[1];
+        final UserJid[] user = new UserJid[1];
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.removeMessage",
+                new Realm.Transaction() {
             @Override
-            public void run() {
-                Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-
+            public void execute(Realm realm) {
                 MessageItem messageItem = realm.where(MessageItem.class)
                         .equalTo(MessageItem.Fields.UNIQUE_ID, messageItemId).findFirst();
                 if (messageItem != null) {
-                    realm.beginTransaction();
+                    account[0] = messageItem.getAccount();
+                    user[0] = messageItem.getUser();
                     messageItem.deleteFromRealm();
-                    realm.commitTransaction();
                 }
-
-                realm.close();
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                if (account[0] == null) return;
+                UnreadMessageCounter.getInstance().invalidate(account[0], user[0]);
+                MessageSearchManager.getInstance()
+                        .onMessagesRemoved(Collections.singletonList(messageItemId));
             }
         });
     }
@@ -603,19 +621,17 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      */
     public void removeMessage(final List<String> messageIDs) {
         final String[] ids = messageIDs.toArray(new String[0]);
-        Application.getInstance().runInBackgroundUserRequest(new Runnable() {
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.removeMessages",
+                new Realm.Transaction() {
             @Override
-            public void run() {
-                Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-                RealmResults<MessageItem> items = realm.where(MessageItem.class)
-                        .in(MessageItem.Fields.UNIQUE_ID, ids).findAll();
-
-                if (items != null && !items.isEmpty()) {
-                    realm.beginTransaction();
-                    items.deleteAllFromRealm();
-                    realm.commitTransaction();
-                }
-                realm.close();
+            public void execute(Realm realm) {
+                realm.where(MessageItem.class)
+                        .in(MessageItem.Fields.UNIQUE_ID, ids).findAll().deleteAllFromRealm();
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                MessageSearchManager.getInstance().onMessagesRemoved(messageIDs);
             }
         });
     }
@@ -825,7 +841,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
                 newMessageItem.setGroupchatUserId(groupchatUser.getId());
             }
 
-            BackpressureMessageSaver.getInstance().saveMessageItem(newMessageItem);
+            MessageIngestPipeline.getInstance().saveMessageItem(newMessageItem);
 
             // mark incoming messages as read
             finalChat.markAsReadAll(false);
@@ -1027,8 +1043,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
 
     public static void setAttachmentLocalPathToNull(final String uniqId) {
-        final Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-        realm.executeTransactionAsync(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWrite("MessageManager.setAttachmentLocalPathToNull",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 Attachment first = realm.where(Attachment.class)
@@ -0,0 +1,80 @@
+package com.xabber.android.data.message;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+
+/**
+ * Message found by {@link MessageSearchManager}.
+ */
+public class MessageSearchHit {
+
+    private final AccountJid account;
+    private final UserJid user;
+    private final String messageId;
+    private final String matchedMessageId;
+    private final long timestamp;
+    private final double score;
+    private final String snippet;
+    private final int[] highlights;
+
+    MessageSearchHit(AccountJid account, UserJid user, String messageId, String matchedMessageId,
+                     long timestamp, double score, String snippet, int[] highlights) {
+        this.account = account;
+        this.user = user;
+        this.messageId = messageId;
+        this.matchedMessageId = matchedMessageId;
+        this.timestamp = timestamp;
+        this.score = score;
+        this.snippet = snippet;
+        this.highlights = highlights;
+    }
+
+    public AccountJid getAccount() {
+        return account;
+    }
+
+    public UserJid getUser() {
+        return user;
+    }
+
+    /**
+     * @return unique id of the message to be shown in chat.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return unique id of the message containing the text. Differs from
+     * {@link #getMessageId()} when text was found in forwarded message.
+     */
+    public String getMatchedMessageId() {
+        return matchedMessageId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return relevance of the hit, greater is better.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @return part of the message text around the found words.
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    /**
+     * @return pairs of start (inclusive) and end (exclusive) positions
+     * of found words in the snippet.
+     */
+    public int[] getHighlights() {
+        return highlights;
+    }
+}
@@ -0,0 +1,457 @@
+package com.xabber.android.data.message;
+
+import com.xabber.android.data.OnClearListener;
+import com.xabber.android.data.OnLoadListener;
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.MessageSearchDatabase;
+import com.xabber.android.data.database.MessageSearchDatabase.Document;
+import com.xabber.android.data.database.messagerealm.Attachment;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.log.LogManager;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * Full-text search over message history.
+ * <p/>
+ * Text of messages, titles of attachments and text of forwarded messages are indexed
+ * in {@link MessageSearchDatabase}. New messages are indexed when they are saved,
+ * existing history is indexed in background in batches, starting from the newest message.
+ * Progress of the backfill is saved with every batch, so it is continued after restart.
+ * Every batch is read by its own realm, which is closed before the batch is written to index.
+ * <p/>
+ * All matching documents are scored by search, reading them from index page by page.
+ * <p/>
+ * Text is folded before indexing: converted to lower case and stripped of diacritics,
+ * punctuation is replaced with spaces. Every char is folded to a single char, so positions
+ * in folded text match positions in original text.
+ */
+public class MessageSearchManager implements OnLoadListener, OnAccountRemovedListener, OnClearListener {
+
+    private static final String LOG_TAG = MessageSearchManager.class.getSimpleName();
+
+    /**
+     * Timestamp of the oldest indexed message of the history.
+     */
+    private static final String BACKFILL_STATE_KEY = "backfill_before";
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    /**
+     * Number of matching documents read from index at once.
+     */
+    private static final int CANDIDATES_PAGE_SIZE = 500;
+    private static final int SNIPPET_BEFORE = 30;
+    private static final int SNIPPET_LENGTH = 120;
+    private static final String ELLIPSIS = "…";
+
+    private static final char[] FOLDED_CHARS = new char[Character.MAX_VALUE + 1];
+
+    private static MessageSearchManager instance;
+
+    private final ExecutorService indexExecutor;
+
+    public static MessageSearchManager getInstance() {
+        if (instance == null) instance = new MessageSearchManager();
+        return instance;
+    }
+
+    private MessageSearchManager() {
+        indexExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Message search indexer");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void onLoad() {
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                backfill();
+            }
+        });
+    }
+
+    @Override
+    public void onAccountRemoved(final AccountItem accountItem) {
+        final String account = accountItem.getAccount().toString();
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MessageSearchDatabase.getInstance().delete(account, null);
+            }
+        });
+    }
+
+    @Override
+    public void onClear() {
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MessageSearchDatabase.getInstance().clear();
+            }
+        });
+    }
+
+    /**
+     * Should be called after messages were committed.
+     * Messages must be unmanaged or belong to realm of the calling thread.
+     */
+    public void onMessagesSaved(Collection<MessageItem> messageItems) {
+        if (messageItems.isEmpty()) return;
+        final List<Document> documents = getDocuments(messageItems);
+        if (documents.isEmpty()) return;
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MessageSearchDatabase.getInstance().write(documents, null, null);
+                } catch (Exception e) {
+                    LogManager.exception(LOG_TAG, e);
+                }
+            }
+        });
+    }
+
+    public void onMessagesRemoved(Collection<String> messageIds) {
+        final List<String> ids = new ArrayList<>(messageIds);
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MessageSearchDatabase.getInstance().delete(ids);
+            }
+        });
+    }
+
+    public void onHistoryCleared(AccountJid account, UserJid user) {
+        final String accountString = account.toString();
+        final String userString = user.toString();
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MessageSearchDatabase.getInstance().delete(accountString, userString);
+            }
+        });
+    }
+
+    /**
+     * Searches messages containing words started with every word of the query.
+     * <p/>
+     * MUST be called from background thread.
+     *
+     * @param account account to search in, <code>null</code> for all accounts.
+     * @param user    chat to search in, <code>null</code> for all chats of the account.
+     * @param limit   max number of hits.
+     * @return hits sorted by relevance, newer messages first for equal relevance.
+     */
+    public List<MessageSearchHit> search(String query, AccountJid account, UserJid user, int limit) {
+        List<String> words = getWords(fold(query));
+        if (words.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (match.length() > 0) match.append(' ');
+            match.append(word).append('*');
+        }
+        String accountString = account != null ? account.toString() : null;
+        String userString = account != null && user != null ? user.toString() : null;
+        MessageSearchDatabase database = MessageSearchDatabase.getInstance();
+        int total = database.count(match.toString(), accountString, userString);
+        if (total == 0) return Collections.emptyList();
+
+        // words found in fewer messages are more important
+        Map<String, Double> weights = new HashMap<>();
+        for (String word : words) {
+            int count = words.size() == 1 ? total
+                    : database.count(word + '*', accountString, userString);
+            weights.put(word, Math.log(1.0 + (double) total / Math.max(count, 1)));
+        }
+
+        // best hits so far, the worst one on top
+        PriorityQueue<Candidate> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder(CANDIDATES_ORDER));
+        long beforeId = Long.MAX_VALUE;
+        List<Document> page;
+        do {
+            page = database.query(match.toString(), accountString, userString, beforeId, CANDIDATES_PAGE_SIZE);
+            for (Document document : page) {
+                best.add(new Candidate(document, getScore(document.body, words, weights)));
+                if (best.size() > limit) best.poll();
+            }
+            if (!page.isEmpty()) beforeId = page.get(page.size() - 1).id;
+        } while (page.size() == CANDIDATES_PAGE_SIZE);
+
+        List<Candidate> candidates = new ArrayList<>(best);
+        Collections.sort(candidates, CANDIDATES_ORDER);
+        List<MessageSearchHit> hits = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            MessageSearchHit hit = createHit(candidate.document, words, candidate.score);
+            if (hit != null) hits.add(hit);
+        }
+        return hits;
+    }
+
+    /**
+     * Higher score first, newer messages first for equal score.
+     */
+    private static final Comparator<Candidate> CANDIDATES_ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate candidate1, Candidate candidate2) {
+            int result = Double.compare(candidate2.score, candidate1.score);
+            if (result != 0) return result;
+            return Long.compare(candidate2.document.timestamp, candidate1.document.timestamp);
+        }
+    };
+
+    private static class Candidate {
+        final Document document;
+        final double score;
+
+        Candidate(Document document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+
+    private static MessageSearchHit createHit(Document document, List<String> words, double score) {
+        Snippet snippet = getSnippet(document.text, document.body, words);
+        try {
+            return new MessageSearchHit(AccountJid.from(document.account), UserJid.from(document.user),
+                    document.messageId, document.uniqueId, document.timestamp,
+                    score, snippet.text, snippet.highlights);
+        } catch (Exception e) {
+            LogManager.exception(LOG_TAG, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param body folded text.
+     * @return sum of weights of found words, more for repeated and whole words.
+     */
+    static double getScore(String body, List<String> words, Map<String, Double> weights) {
+        double score = 0;
+        for (String word : words) {
+            int count = 0;
+            boolean whole = false;
+            int index = indexOfWord(body, word, 0);
+            while (index >= 0) {
+                count++;
+                int end = index + word.length();
+                if (end == body.length() || body.charAt(end) == ' ') whole = true;
+                index = indexOfWord(body, word, end);
+            }
+            if (count > 0) score += weights.get(word) * (1 + Math.log(count) + (whole ? 0.5 : 0));
+        }
+        return score;
+    }
+
+    /**
+     * Part of the original text around the first found word.
+     */
+    static class Snippet {
+        final String text;
+
+        /**
+         * Start and end positions of found words in the snippet text.
+         */
+        final int[] highlights;
+
+        Snippet(String text, int[] highlights) {
+            this.text = text;
+            this.highlights = highlights;
+        }
+    }
+
+    /**
+     * @param text original text.
+     * @param body folded text, of the same length.
+     */
+    static Snippet getSnippet(String text, String body, List<String> words) {
+        int first = -1;
+        for (String word : words) {
+            int index = indexOfWord(body, word, 0);
+            if (index >= 0 && (first < 0 || index < first)) first = index;
+        }
+
+        int start = Math.max(0, first - SNIPPET_BEFORE);
+        while (start > 0 && start < first && body.charAt(start - 1) != ' ') start++;
+        int end = Math.min(text.length(), start + SNIPPET_LENGTH);
+        while (end < text.length() && end > first && body.charAt(end) != ' ') end--;
+
+        String prefix = start > 0 ? ELLIPSIS : "";
+        List<int[]> ranges = new ArrayList<>();
+        for (String word : words) {
+            int index = indexOfWord(body, word, start);
+            while (index >= 0 && index + word.length() <= end) {
+                ranges.add(new int[]{index - start + prefix.length(),
+                        index - start + prefix.length() + word.length()});
+                index = indexOfWord(body, word, index + word.length());
+            }
+        }
+        int[] highlights = new int[ranges.size() * 2];
+        for (int i = 0; i < ranges.size(); i++) {
+            highlights[i * 2] = ranges.get(i)[0];
+            highlights[i * 2 + 1] = ranges.get(i)[1];
+        }
+        return new Snippet(prefix + text.substring(start, end) + (end < text.length() ? ELLIPSIS : ""),
+                highlights);
+    }
+
+    /**
+     * @return position of the word start in the folded text, -1 if not found.
+     */
+    private static int indexOfWord(String body, String word, int from) {
+        int index = body.indexOf(word, from);
+        while (index > 0 && body.charAt(index - 1) != ' ') {
+            index = body.indexOf(word, index + 1);
+        }
+        return index;
+    }
+
+    static List<String> getWords(String folded) {
+        List<String> words = new ArrayList<>();
+        for (String word : folded.split(" ")) {
+            if (!word.isEmpty() && !words.contains(word)) words.add(word);
+        }
+        return words;
+    }
+
+    /**
+     * Indexes part of message history older than all indexed messages.
+     * Next part is queued after current one, so new messages are indexed in between.
+     */
+    private void backfill() {
+        MessageSearchDatabase database = MessageSearchDatabase.getInstance();
+        List<Document> documents;
+        long last = 0;
+        boolean finished;
+        Realm realm = null;
+        try {
+            String state = database.getState(BACKFILL_STATE_KEY);
+            long before = state != null ? Long.parseLong(state) : Long.MAX_VALUE;
+            realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+            RealmResults<MessageItem> results = realm.where(MessageItem.class)
+                    .lessThan(MessageItem.Fields.TIMESTAMP, before)
+                    .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.DESCENDING);
+
+            // batch ends on timestamp change, so saved timestamp is enough to continue
+            List<MessageItem> batch = new ArrayList<>(BACKFILL_BATCH_SIZE);
+            int size = results.size();
+            int position = 0;
+            while (position < size) {
+                MessageItem messageItem = results.get(position);
+                long timestamp = messageItem.getTimestamp();
+                if (batch.size() >= BACKFILL_BATCH_SIZE && timestamp != last) break;
+                batch.add(messageItem);
+                last = timestamp;
+                position++;
+            }
+            finished = position >= size;
+            documents = batch.isEmpty() ? null : getDocuments(batch);
+        } catch (Exception e) {
+            LogManager.exception(LOG_TAG, e);
+            return;
+        } finally {
+            if (realm != null) realm.close();
+        }
+
+        try {
+            if (documents != null) database.write(documents, BACKFILL_STATE_KEY, String.valueOf(last));
+        } catch (Exception e) {
+            LogManager.exception(LOG_TAG, e);
+            return;
+        }
+
+        if (finished) {
+            LogManager.d(LOG_TAG, "Message history indexed");
+        } else indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                backfill();
+            }
+        });
+    }
+
+    private static List<Document> getDocuments(Collection<MessageItem> messageItems) {
+        List<Document> documents = new ArrayList<>(messageItems.size());
+        for (MessageItem messageItem : messageItems) {
+            if (!messageItem.isValid() || messageItem.getAction() != null) continue;
+
+            StringBuilder text = new StringBuilder();
+            if (messageItem.getText() != null) text.append(messageItem.getText().trim());
+            if (messageItem.haveAttachments()) {
+                for (Attachment attachment : messageItem.getAttachments()) {
+                    if (attachment.getTitle() == null) continue;
+                    if (text.length() > 0) text.append('\n');
+                    text.append(attachment.getTitle());
+                }
+            }
+            if (text.length() == 0) continue;
+
+            String uniqueId = messageItem.getUniqueId();
+            String messageId = messageItem.isForwarded() && messageItem.getParentMessageId() != null
+                    ? messageItem.getParentMessageId() : uniqueId;
+            Long timestamp = messageItem.getTimestamp();
+            documents.add(new Document(uniqueId, messageId, messageItem.getAccount().toString(),
+                    messageItem.getUser().toString(), timestamp != null ? timestamp : 0,
+                    text.toString(), fold(text)));
+        }
+        return documents;
+    }
+
+    /**
+     * @return text in lower case without diacritics and punctuation, of the same length.
+     */
+    static String fold(CharSequence text) {
+        if (text == null) return "";
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(text.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    private static char fold(char c) {
+        char folded = FOLDED_CHARS[c];
+        if (folded != 0) return folded;
+
+        if (!Character.isLetterOrDigit(c)) {
+            folded = ' ';
+        } else {
+            folded = Character.toLowerCase(c);
+            if (folded >= 0x80) {
+                String decomposed = Normalizer.normalize(String.valueOf(folded), Normalizer.Form.NFD);
+                if (decomposed.length() > 0 && Character.isLetterOrDigit(decomposed.charAt(0))) {
+                    folded = decomposed.charAt(0);
+                }
+            }
+        }
+        // racing threads write the same value
+        FOLDED_CHARS[c] = folded;
+        return folded;
+    }
+}
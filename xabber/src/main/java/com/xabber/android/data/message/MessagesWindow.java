@@ -0,0 +1,153 @@
+package com.xabber.android.data.message;
+
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+
+import java.util.concurrent.TimeUnit;
+
+import io.realm.Realm;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * Newest part of chat history shown in chat.
+ * <p/>
+ * Window contains all messages with timestamp not less than its start, so new messages
+ * get to the window without reloading. Only messages of the window are sorted and shown,
+ * older messages are added by pages when user scrolls up. Start of the page is found
+ * by counting messages in growing time spans, which does not need sorting whole history.
+ * <p/>
+ * Should be used from UI thread.
+ */
+public class MessagesWindow {
+
+    public static final int PAGE_SIZE = 100;
+
+    private static final long INITIAL_SPAN_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final int SPAN_MULTIPLIER = 4;
+
+    private final AccountJid account;
+    private final UserJid user;
+
+    /**
+     * Timestamp of the oldest message in the window, {@link Long#MIN_VALUE} when
+     * window contains whole history.
+     */
+    private long start = Long.MIN_VALUE;
+
+    /**
+     * Number of messages older than the window.
+     */
+    private int offset;
+    private boolean offsetChanged;
+
+    public MessagesWindow(AccountJid account, UserJid user) {
+        this.account = account;
+        this.user = user;
+    }
+
+    /**
+     * Loads window with the newest page of messages, the first unread message and
+     * the message at saved position.
+     *
+     * @param position position of message in whole history, 0 if not known.
+     * @return messages of the window sorted by timestamp.
+     */
+    public RealmResults<MessageItem> open(int position) {
+        Number newest = getQuery().max(MessageItem.Fields.TIMESTAMP);
+        if (newest == null) {
+            start = Long.MIN_VALUE;
+        } else {
+            long needed = PAGE_SIZE;
+            if (position > 0) needed = Math.max(needed, getQuery().count() - position + PAGE_SIZE / 2);
+            start = findStart(newest.longValue() + 1, needed);
+
+            Number firstUnread = AbstractChat.getAllUnreadQuery(getRealm(), account, user)
+                    .min(MessageItem.Fields.TIMESTAMP);
+            if (firstUnread != null) {
+                start = Math.min(start, findStart(firstUnread.longValue(), PAGE_SIZE / 2));
+            }
+        }
+        return load();
+    }
+
+    /**
+     * @return whether there are messages older than the window.
+     */
+    public boolean hasOlderMessages() {
+        if (start == Long.MIN_VALUE) return false;
+        if (offsetChanged) {
+            offset = (int) getQuery().lessThan(MessageItem.Fields.TIMESTAMP, start).count();
+            offsetChanged = false;
+        }
+        return offset > 0;
+    }
+
+    /**
+     * Adds page of older messages to the window.
+     *
+     * @return messages of the window sorted by timestamp,
+     * <code>null</code> if there are no older messages.
+     */
+    public RealmResults<MessageItem> extend() {
+        if (!hasOlderMessages()) return null;
+        start = findStart(start, PAGE_SIZE);
+        return load();
+    }
+
+    /**
+     * Should be called when messages older than the window could be added,
+     * for example when previous history was loaded from server.
+     */
+    public void onHistoryChanged() {
+        offsetChanged = true;
+    }
+
+    /**
+     * @return number of messages older than the window.
+     * Position in window plus offset gives position in whole history.
+     */
+    public int getOffset() {
+        hasOlderMessages();
+        return offset;
+    }
+
+    private RealmResults<MessageItem> load() {
+        RealmQuery<MessageItem> query = getQuery();
+        if (start != Long.MIN_VALUE) query.greaterThanOrEqualTo(MessageItem.Fields.TIMESTAMP, start);
+        offset = 0;
+        offsetChanged = start != Long.MIN_VALUE;
+        return query.findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.ASCENDING);
+    }
+
+    /**
+     * @return timestamp from which at least needed number of messages is older than given one,
+     * {@link Long#MIN_VALUE} if there are not enough messages.
+     */
+    private long findStart(long before, long needed) {
+        Number oldest = getQuery().min(MessageItem.Fields.TIMESTAMP);
+        if (oldest == null) return Long.MIN_VALUE;
+
+        long span = INITIAL_SPAN_MILLIS;
+        while (before - span > oldest.longValue()) {
+            long count = getQuery()
+                    .greaterThanOrEqualTo(MessageItem.Fields.TIMESTAMP, before - span)
+                    .lessThan(MessageItem.Fields.TIMESTAMP, before)
+                    .count();
+            if (count >= needed) return before - span;
+            span *= SPAN_MULTIPLIER;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private RealmQuery<MessageItem> getQuery() {
+        return MessageDatabaseManager.getChatMessagesQuery(getRealm(), account, user);
+    }
+
+    private static Realm getRealm() {
+        return MessageDatabaseManager.getInstance().getRealmUiThread();
+    }
+}
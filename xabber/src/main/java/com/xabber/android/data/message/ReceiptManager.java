@@ -14,12 +14,15 @@
  */
 package com.xabber.android.data.message;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.MessageDatabaseManager;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
@@ -46,7 +49,7 @@ import io.realm.Realm;
  *
  * @author alexander.ivanov
  */
-public class ReceiptManager implements OnPacketListener, ReceiptReceivedListener {
+public class ReceiptManager implements OnSelectivePacketListener, ReceiptReceivedListener {
 
     private static ReceiptManager instance;
 
@@ -75,6 +78,12 @@ public class ReceiptManager implements OnPacketListener, ReceiptReceivedListener
 
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().allOf(PacketInterest.Kind.message);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza packet) {
         if (!(connection instanceof AccountItem)) {
@@ -120,23 +129,29 @@ public class ReceiptManager implements OnPacketListener, ReceiptReceivedListener
     }
 
     private void markAsError(final AccountJid account, final Message message) {
-        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-        realm.beginTransaction();
-        MessageItem first = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
-                .equalTo(MessageItem.Fields.STANZA_ID, AbstractChat.getStanzaId(message)).findFirst();
-        if (first != null) {
-            first.setError(true);
-            XMPPError error = message.getError();
-            if (error != null) {
-                String errorStr = error.toString();
-                String descr = error.getDescriptiveText(null);
-                first.setErrorDescription(errorStr + "\n" + descr);
+        MessageDatabaseManager.getInstance().executeWrite("ReceiptManager.markAsError",
+                new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                MessageItem first = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
+                        .equalTo(MessageItem.Fields.STANZA_ID, AbstractChat.getStanzaId(message)).findFirst();
+                if (first != null) {
+                    first.setError(true);
+                    XMPPError error = message.getError();
+                    if (error != null) {
+                        String errorStr = error.toString();
+                        String descr = error.getDescriptiveText(null);
+                        first.setErrorDescription(errorStr + "\n" + descr);
+                    }
+                }
             }
-        }
-        realm.commitTransaction();
-        realm.close();
-        EventBus.getDefault().post(new MessageUpdateEvent(account));
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                EventBus.getDefault().post(new MessageUpdateEvent(account));
+            }
+        });
     }
 
     @Override
@@ -151,15 +166,21 @@ public class ReceiptManager implements OnPacketListener, ReceiptReceivedListener
     }
 
     private void markAsDelivered(final Jid toJid, final String receiptId) {
-        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
-        realm.beginTransaction();
-        MessageItem first = realm.where(MessageItem.class)
-                .equalTo(MessageItem.Fields.STANZA_ID, receiptId).findFirst();
-        if (first != null) {
-            first.setDelivered(true);
-        }
-        realm.commitTransaction();
-        realm.close();
-        EventBus.getDefault().post(new MessageUpdateEvent());
+        MessageDatabaseManager.getInstance().executeWrite("ReceiptManager.markAsDelivered",
+                new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                MessageItem first = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.STANZA_ID, receiptId).findFirst();
+                if (first != null) {
+                    first.setDelivered(true);
+                }
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                EventBus.getDefault().post(new MessageUpdateEvent());
+            }
+        });
     }
 }
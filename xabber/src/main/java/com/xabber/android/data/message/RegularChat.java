@@ -27,6 +27,7 @@ import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
+import com.xabber.android.data.extension.mam.NextMamManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.otr.OTRManager;
 import com.xabber.android.data.extension.otr.OTRUnencryptedException;
@@ -249,19 +250,28 @@ public class RegularChat extends AbstractChat {
             String markupText = bodies.second;
 
             // create message with file-attachments
+            MessageItem messageItem;
             if (attachments.size() > 0)
-                createAndSaveFileMessage(true, uid, resource, text, markupText, null,
+                messageItem = createMessageItem(uid, resource, text, markupText, null,
                         null, getDelayStamp(message), true, true, encrypted,
                         isOfflineMessage(account.getFullJid().getDomain(), packet),
                         getStanzaId(message), attachments, originalStanza, null,
-                        originalFrom, false, false, gropchatUserId);
+                        originalFrom, null, false, false, gropchatUserId);
 
                 // create message without attachments
-            else createAndSaveNewMessage(true, uid, resource, text, markupText, null,
+            else messageItem = createMessageItem(uid, resource, text, markupText, null,
                     null, getDelayStamp(message), true, true, encrypted,
                     isOfflineMessage(account.getFullJid().getDomain(), packet),
-                    getStanzaId(message), originalStanza, null,
-                    originalFrom, forwardIds,false, false, gropchatUserId);
+                    getStanzaId(message), null, originalStanza, null,
+                    originalFrom, forwardIds, false, false, gropchatUserId);
+
+            // archived id of live message, when it follows archive loaded in this session
+            String archivedId = NextMamManager.getInstance().getLiveArchivedId(account, packet);
+            if (archivedId != null) {
+                messageItem.setArchivedId(archivedId);
+                setLastMessageId(archivedId);
+            }
+            saveMessageItem(true, messageItem);
 
             EventBus.getDefault().post(new NewIncomingMessageEvent(account, user));
         }
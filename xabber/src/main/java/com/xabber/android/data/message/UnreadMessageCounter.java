@@ -0,0 +1,216 @@
+package com.xabber.android.data.message;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.OnTimerListener;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.NestedMap;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.message.chat.ChatManager;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import io.realm.Realm;
+
+/**
+ * Keeps count of unread messages for each chat in memory.
+ * <p/>
+ * Counters are changed incrementally when messages are saved, read or removed,
+ * and are saved to {@link com.xabber.android.data.database.realm.ChatDataRealm}
+ * so they survive restart. Counter restored from disk or changed in a way that can't
+ * be tracked exactly is marked as dirty and is recounted in background on next request.
+ */
+public class UnreadMessageCounter implements OnTimerListener {
+
+    private static UnreadMessageCounter instance;
+
+    private final NestedMap<Counter> counters = new NestedMap<>();
+
+    public static UnreadMessageCounter getInstance() {
+        if (instance == null) instance = new UnreadMessageCounter();
+        return instance;
+    }
+
+    private UnreadMessageCounter() {
+    }
+
+    /**
+     * @return number of unread messages in chat. If counter is dirty, last known value is returned
+     * and recount is started.
+     */
+    public int getUnreadCount(AccountJid account, UserJid user) {
+        Counter counter;
+        boolean needReconcile = false;
+        synchronized (counters) {
+            counter = getOrCreate(account, user);
+            if (counter.dirty && !counter.reconciling) {
+                counter.reconciling = true;
+                needReconcile = true;
+            }
+        }
+        if (needReconcile) reconcile(account, user, counter);
+        return counter.count;
+    }
+
+    /**
+     * @return last known number of unread messages without recount.
+     */
+    public int getLastKnownCount(AccountJid account, UserJid user) {
+        Counter counter = counters.get(account.toString(), user.toString());
+        return counter != null ? counter.count : 0;
+    }
+
+    /**
+     * Sets counter saved in chat data. It will be recounted on first request.
+     */
+    public void restore(AccountJid account, UserJid user, int count) {
+        synchronized (counters) {
+            Counter counter = getOrCreate(account, user);
+            counter.count = count;
+            counter.dirty = true;
+        }
+    }
+
+    /**
+     * Should be called after new messages were committed.
+     */
+    public void onMessagesSaved(Collection<MessageItem> messageItems) {
+        synchronized (counters) {
+            for (MessageItem messageItem : messageItems) {
+                if (isUnread(messageItem))
+                    change(messageItem.getAccount(), messageItem.getUser(), 1);
+            }
+        }
+    }
+
+    /**
+     * Should be called after messages were marked as read.
+     */
+    public void onMessagesRead(AccountJid account, UserJid user, int count) {
+        if (count == 0) return;
+        synchronized (counters) {
+            change(account, user, -count);
+        }
+    }
+
+    /**
+     * Should be called after chat history was removed.
+     */
+    public void onHistoryCleared(AccountJid account, UserJid user) {
+        synchronized (counters) {
+            Counter counter = getOrCreate(account, user);
+            counter.count = 0;
+            counter.version++;
+            counter.dirty = false;
+            counter.needSave = true;
+        }
+    }
+
+    /**
+     * Marks counter to be recounted, for changes that can't be tracked exactly.
+     */
+    public void invalidate(AccountJid account, UserJid user) {
+        synchronized (counters) {
+            Counter counter = getOrCreate(account, user);
+            counter.version++;
+            counter.dirty = true;
+        }
+    }
+
+    public void onAccountRemoved(AccountJid account) {
+        counters.clear(account.toString());
+    }
+
+    /**
+     * Saves changed counters to chat data.
+     */
+    @Override
+    public void onTimer() {
+        List<AbstractChat> chatsToSave = new ArrayList<>();
+        synchronized (counters) {
+            for (NestedMap.Entry<Counter> entry : counters) {
+                Counter counter = entry.getValue();
+                if (!counter.needSave) continue;
+                counter.needSave = false;
+                AbstractChat chat = MessageManager.getInstance()
+                        .getChat(counter.account, counter.user);
+                if (chat != null) chatsToSave.add(chat);
+            }
+        }
+        for (AbstractChat chat : chatsToSave) {
+            ChatManager.getInstance().saveOrUpdateChatDataToRealm(chat);
+        }
+    }
+
+    /**
+     * Matches {@link AbstractChat#getAllUnreadQuery(Realm, AccountJid, UserJid)}.
+     */
+    public static boolean isUnread(MessageItem messageItem) {
+        return messageItem.isIncoming() && !messageItem.isRead()
+                && messageItem.getParentMessageId() == null
+                && messageItem.getText() != null;
+    }
+
+    private void change(AccountJid account, UserJid user, int delta) {
+        Counter counter = getOrCreate(account, user);
+        counter.count = Math.max(0, counter.count + delta);
+        counter.version++;
+        counter.needSave = true;
+    }
+
+    private Counter getOrCreate(AccountJid account, UserJid user) {
+        Counter counter = counters.get(account.toString(), user.toString());
+        if (counter == null) {
+            counter = new Counter(account, user);
+            counters.put(account.toString(), user.toString(), counter);
+        }
+        return counter;
+    }
+
+    private void reconcile(final AccountJid account, final UserJid user, final Counter counter) {
+        final int version;
+        synchronized (counters) {
+            version = counter.version;
+        }
+        Application.getInstance().runInBackgroundUserRequest(new Runnable() {
+            @Override
+            public void run() {
+                Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+                int count = (int) AbstractChat.getAllUnreadQuery(realm, account, user).count();
+                realm.close();
+
+                boolean changed;
+                synchronized (counters) {
+                    counter.reconciling = false;
+                    // counter was changed while counting, recount on next request
+                    if (counter.version != version) return;
+                    changed = counter.count != count;
+                    counter.count = count;
+                    counter.dirty = false;
+                    if (changed) counter.needSave = true;
+                }
+                if (changed) EventBus.getDefault().post(new MessageUpdateEvent(account, user));
+            }
+        });
+    }
+
+    private static class Counter {
+        final AccountJid account;
+        final UserJid user;
+        volatile int count;
+        int version;
+        boolean dirty = true;
+        boolean reconciling;
+        boolean needSave;
+
+        Counter(AccountJid account, UserJid user) {
+            this.account = account;
+            this.user = user;
+        }
+    }
+}
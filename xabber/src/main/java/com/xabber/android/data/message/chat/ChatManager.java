@@ -39,6 +39,7 @@ import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.ChatData;
+import com.xabber.android.data.message.UnreadMessageCounter;
 import com.xabber.android.data.message.NotificationState;
 import com.xabber.android.data.roster.RosterManager;
 
@@ -243,6 +244,7 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
         makeVibro.clear(accountItem.getAccount().toString());
         notifyVisible.clear(accountItem.getAccount().toString());
         suppress100.clear(accountItem.getAccount().toString());
+        UnreadMessageCounter.getInstance().onAccountRemoved(accountItem.getAccount());
     }
 
     /**
@@ -512,6 +514,8 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
                         chatRealm.setLastPosition(chat.getLastPosition());
                         chatRealm.setArchived(chat.isArchived());
                         chatRealm.setHistoryRequestedAtStart(chat.isHistoryRequestedAtStart());
+                        chatRealm.setUnreadCount(UnreadMessageCounter.getInstance()
+                                .getLastKnownCount(chat.getAccount(), chat.getUser()));
 
                         NotificationStateRealm notificationStateRealm = chatRealm.getNotificationState();
                         if (notificationStateRealm == null)
@@ -559,7 +563,8 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
                     realmChat.isArchived(),
                     notificationState,
                     realmChat.getLastPosition(),
-                    realmChat.isHistoryRequestedAtStart());
+                    realmChat.isHistoryRequestedAtStart(),
+                    realmChat.getUnreadCount());
         }
 
         realm.close();
@@ -5,6 +5,8 @@ import android.content.Context;
 import android.provider.Settings;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.BuildConfig;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.SettingsManager;
@@ -12,7 +14,8 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.listeners.OnConnectedListener;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.database.RealmManager;
 import com.xabber.android.data.database.realm.PushLogRecord;
 import com.xabber.android.data.entity.AccountJid;
@@ -50,7 +53,7 @@ import rx.functions.Action1;
 import rx.schedulers.Schedulers;
 import rx.subscriptions.CompositeSubscription;
 
-public class PushManager implements OnConnectedListener, OnPacketListener {
+public class PushManager implements OnConnectedListener, OnSelectivePacketListener {
 
     private static final String LOG_TAG = PushManager.class.getSimpleName();
 
@@ -126,6 +129,12 @@ public class PushManager implements OnConnectedListener, OnPacketListener {
         if (BuildConfig.FLAVOR.equals("dev")) addToPushLog(message);
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().allOf(PacketInterest.Kind.iq);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza packet) {
         if (packet instanceof IQ && ((IQ) packet).getType() != IQ.Type.error) {
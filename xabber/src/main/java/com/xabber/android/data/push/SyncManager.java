@@ -6,6 +6,7 @@ import android.os.Parcelable;
 
 import com.xabber.android.data.OnTimerListener;
 import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.connection.ReconnectionManager;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.service.XabberService;
 
@@ -108,6 +109,7 @@ public class SyncManager implements OnTimerListener {
         this.syncPeriod = true;
         this.syncActionDone = false;
         this.syncNotifActionDone = true;
+        ReconnectionManager.getInstance().requestCheck();
     }
 
     private void startSyncMode(AccountJid accountJid) {
@@ -118,6 +120,7 @@ public class SyncManager implements OnTimerListener {
         this.syncPeriod = true;
         this.syncActionDone = true;
         this.syncNotifActionDone = false;
+        ReconnectionManager.getInstance().requestCheck();
     }
 
     private void stopSyncMode() {
@@ -125,6 +128,7 @@ public class SyncManager implements OnTimerListener {
         this.pushNodes.clear();
         this.accountJids.clear();
         this.syncPeriod = false;
+        ReconnectionManager.getInstance().requestCheck();
     }
 
     private void stopSyncPeriod() {
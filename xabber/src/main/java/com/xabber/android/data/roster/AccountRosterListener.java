@@ -5,6 +5,7 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.log.LogManager;
+import com.xabber.xmpp.smack.ConnectionTimings;
 
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.roster.Roster;
@@ -66,6 +67,10 @@ public class AccountRosterListener implements RosterListener, RosterLoadedListen
         final AccountItem accountItem = AccountManager.getInstance().getAccount(AccountRosterListener.this.account);
 
         if (accountItem != null) {
+            ConnectionTimings timings = accountItem.getConnection().getTimings();
+            timings.finish(ConnectionTimings.Phase.ROSTER);
+            LogManager.i(getLogTag(), "Connection timings: " + timings + ", total " + timings.getTotal() + " ms");
+
             for (OnRosterReceivedListener listener : Application.getInstance().getManagers(OnRosterReceivedListener.class)) {
                 listener.onRosterReceived(accountItem);
             }
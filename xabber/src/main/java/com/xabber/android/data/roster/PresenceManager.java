@@ -14,6 +14,7 @@
  */
 package com.xabber.android.data.roster;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.xabber.android.R;
@@ -27,7 +28,8 @@ import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.account.listeners.OnAccountDisabledListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.avatar.AvatarManager;
@@ -65,7 +67,7 @@ import java.util.Set;
  * @author alexander.ivanov
  */
 public class PresenceManager implements OnLoadListener, OnAccountDisabledListener,
-        OnPacketListener {
+        OnSelectivePacketListener {
 
     private static PresenceManager instance;
 
@@ -291,6 +293,12 @@ public class PresenceManager implements OnLoadListener, OnAccountDisabledListene
         StanzaSender.sendStanza(account, presence);
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().allOf(PacketInterest.Kind.presence);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza stanza) {
         if (!(connection instanceof AccountItem)) {
@@ -18,6 +18,8 @@ import io.realm.RealmResults;
 
 public class RosterCacheManager {
 
+    private static final String LOG_TAG = RosterCacheManager.class.getSimpleName();
+
     private static RosterCacheManager instance;
     private Map<Long, String> lastActivityCache = new HashMap<>();
 
@@ -32,84 +34,93 @@ public class RosterCacheManager {
         return realm.where(ContactRealm.class).findAll();
     }
 
-    public static void saveContact(AccountJid accountJid, Collection<RosterContact> contacts) {
-        Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-
-        realm.beginTransaction();
-        if (contacts.size() > 1) {
-            RealmResults<ContactRealm> results = realm.where(ContactRealm.class)
-                    .equalTo(ContactRealm.Fields.ACCOUNT,
-                            accountJid.getFullJid().asBareJid().toString()).findAll();
-            results.deleteAllFromRealm();
-        }
-
-        List<ContactRealm> newContacts = new ArrayList<>();
-        for (RosterContact contact : contacts) {
-            String account = contact.getAccount().getFullJid().asBareJid().toString();
-            String user = contact.getUser().getBareJid().toString();
-
-            ContactRealm contactRealm = realm.where(ContactRealm.class).equalTo(ContactRealm.Fields.ID,
-                    account + "/" + user).findFirst();
-            if (contactRealm == null) {
-                contactRealm = new ContactRealm(account + "/" + user);
-            }
+    public static void saveContact(final AccountJid accountJid, Collection<RosterContact> contacts) {
+        final List<RosterContact> contactsToSave = new ArrayList<>(contacts);
+        MessageDatabaseManager.getInstance().executeWrite(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                if (contactsToSave.size() > 1) {
+                    RealmResults<ContactRealm> results = realm.where(ContactRealm.class)
+                            .equalTo(ContactRealm.Fields.ACCOUNT,
+                                    accountJid.getFullJid().asBareJid().toString()).findAll();
+                    results.deleteAllFromRealm();
+                }
 
-            RealmList<ContactGroup> groups = new RealmList<>();
-            for (String groupName : contact.getGroupNames()) {
-                ContactGroup group = realm.copyToRealmOrUpdate(new ContactGroup(groupName));
-                if (group.isManaged() && group.isValid())
-                    groups.add(group);
+                List<ContactRealm> newContacts = new ArrayList<>();
+                for (RosterContact contact : contactsToSave) {
+                    String account = contact.getAccount().getFullJid().asBareJid().toString();
+                    String user = contact.getUser().getBareJid().toString();
+
+                    ContactRealm contactRealm = realm.where(ContactRealm.class).equalTo(ContactRealm.Fields.ID,
+                            account + "/" + user).findFirst();
+                    if (contactRealm == null) {
+                        contactRealm = new ContactRealm(account + "/" + user);
+                    }
+
+                    RealmList<ContactGroup> groups = new RealmList<>();
+                    for (String groupName : contact.getGroupNames()) {
+                        ContactGroup group = realm.copyToRealmOrUpdate(new ContactGroup(groupName));
+                        if (group.isManaged() && group.isValid())
+                            groups.add(group);
+                    }
+
+                    contactRealm.setGroups(groups);
+                    contactRealm.setAccount(account);
+                    contactRealm.setUser(user);
+                    contactRealm.setName(contact.getName());
+                    contactRealm.setAccountResource(contact.getAccount().getFullJid().getResourcepart().toString());
+                    newContacts.add(contactRealm);
+                }
+                realm.copyToRealmOrUpdate(newContacts);
             }
-
-            contactRealm.setGroups(groups);
-            contactRealm.setAccount(account);
-            contactRealm.setUser(user);
-            contactRealm.setName(contact.getName());
-            contactRealm.setAccountResource(contact.getAccount().getFullJid().getResourcepart().toString());
-            newContacts.add(contactRealm);
-        }
-        realm.copyToRealmOrUpdate(newContacts);
-        realm.commitTransaction();
+        });
     }
 
     public static void removeContact(Collection<RosterContact> contacts) {
-        Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-        realm.beginTransaction();
+        final List<String> ids = new ArrayList<>();
         for (RosterContact contact : contacts) {
             String account = contact.getAccount().getFullJid().asBareJid().toString();
             String user = contact.getUser().getBareJid().toString();
-
-            ContactRealm contactRealm = realm.where(ContactRealm.class).equalTo(ContactRealm.Fields.ID,
-                    account + "/" + user).findFirst();
-            if (contactRealm != null)
-                contactRealm.deleteFromRealm();
+            ids.add(account + "/" + user);
         }
-        realm.commitTransaction();
+
+        MessageDatabaseManager.getInstance().executeWrite(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                for (String id : ids) {
+                    ContactRealm contactRealm = realm.where(ContactRealm.class)
+                            .equalTo(ContactRealm.Fields.ID, id).findFirst();
+                    if (contactRealm != null)
+                        contactRealm.deleteFromRealm();
+                }
+            }
+        });
     }
 
     public static void removeContacts(AccountJid account) {
-        String accountJid = account.getFullJid().asBareJid().toString();
-        Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-        RealmResults<ContactRealm> results = realm.where(ContactRealm.class)
-                .equalTo(ContactRealm.Fields.ACCOUNT, accountJid).findAll();
-        realm.beginTransaction();
-        results.deleteAllFromRealm();
-        realm.commitTransaction();
+        final String accountJid = account.getFullJid().asBareJid().toString();
+        MessageDatabaseManager.getInstance().executeWrite(LOG_TAG, new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                realm.where(ContactRealm.class)
+                        .equalTo(ContactRealm.Fields.ACCOUNT, accountJid).findAll()
+                        .deleteAllFromRealm();
+            }
+        });
     }
 
-    public static void saveLastMessageToContact(Realm realm, MessageItem messageItem) {
+    public static void saveLastMessageToContact(MessageItem messageItem) {
         if (messageItem == null) return;
         final String account = messageItem.getAccount().getFullJid().asBareJid().toString();
         final String user = messageItem.getUser().getBareJid().toString();
         final String messageID = messageItem.getUniqueId();
-        realm.executeTransactionAsync(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWrite(LOG_TAG, new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 ContactRealm contactRealm = realm.where(ContactRealm.class).equalTo(ContactRealm.Fields.ID, account + "/" + user).findFirst();
                 MessageItem message = realm.where(MessageItem.class).equalTo(MessageItem.Fields.UNIQUE_ID, messageID).findFirst();
-                if (contactRealm != null && message.isValid() && message.isManaged()) {
+                if (contactRealm != null && message != null) {
                     contactRealm.setLastMessage(message);
-                    realm.copyToRealmOrUpdate(contactRealm);
                 }
             }
         });
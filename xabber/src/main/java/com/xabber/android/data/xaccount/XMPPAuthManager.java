@@ -2,13 +2,16 @@ package com.xabber.android.data.xaccount;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
 import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.listeners.OnConnectedListener;
-import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.privatestorage.PrivateStorageManager;
@@ -30,7 +33,7 @@ import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
 import rx.schedulers.Schedulers;
 
-public class XMPPAuthManager implements OnPacketListener, OnConnectedListener {
+public class XMPPAuthManager implements OnSelectivePacketListener, OnConnectedListener {
 
     private static final String LOG_TAG = XMPPAuthManager.class.getSimpleName();
     private static final String URL_AUTH = "https://www.xabber.com/account/auth/login/";
@@ -56,6 +59,12 @@ public class XMPPAuthManager implements OnPacketListener, OnConnectedListener {
         return requests.containsKey(stanzaId);
     }
 
+    @NonNull
+    @Override
+    public PacketInterest getPacketInterest() {
+        return new PacketInterest().withNamespace(PacketInterest.Kind.iq, HttpConfirmIq.NAMESPACE);
+    }
+
     @Override
     public void onStanza(ConnectionItem connection, Stanza packet) {
         if (packet instanceof HttpConfirmIq && URL_AUTH.equals(((HttpConfirmIq) packet).getUrl())) {
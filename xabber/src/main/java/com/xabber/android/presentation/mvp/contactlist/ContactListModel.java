@@ -0,0 +1,371 @@
+package com.xabber.android.presentation.mvp.contactlist;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.roster.AbstractContact;
+import com.xabber.android.data.roster.RosterContact;
+import com.xabber.android.utils.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.davidea.flexibleadapter.items.IFlexible;
+
+/**
+ * Contact list items kept between updates of {@link ContactListPresenter}.
+ * <p/>
+ * Converted items and sorted order of every section are reused by the next update.
+ * Only contacts reported as changed, or whose chat has changed, are converted and
+ * placed to sorted order again. Items get stable ids, so adapter can find
+ * inserted, moved and changed items instead of replacing the whole list.
+ * <p/>
+ * Search index over names and addresses of contacts is kept the same way:
+ * only entries of changed and new contacts are refreshed before search.
+ * Contacts available for search are kept while contacts and chats are not changed,
+ * so new query only filters them.
+ * <p/>
+ * Changes can be reported from any thread. Updates are made on contact list builder thread.
+ */
+class ContactListModel {
+
+    /**
+     * Converted items older than this are converted again,
+     * because they contain time dependent text like last activity.
+     */
+    private static final long ITEM_TTL_MILLIS = 60000;
+
+    interface Converter {
+        /**
+         * @return new item for contact with given id.
+         */
+        IFlexible convert(ContactListSnapshot snapshot, AbstractContact contact, String id);
+    }
+
+    /**
+     * Entities reported as changed since last update. Guarded by this.
+     */
+    private final Set<String> changedEntities = new HashSet<>();
+    private final Set<AccountJid> changedAccounts = new HashSet<>();
+    private boolean allChanged = true;
+
+    /**
+     * Entities changed in current update, calculated on first request.
+     */
+    private final Map<String, Boolean> updateChanges = new HashMap<>();
+    private final Set<String> updateEntities = new HashSet<>();
+    private final Set<AccountJid> updateAccounts = new HashSet<>();
+    private boolean updateAll;
+    private ContactListSnapshot snapshot;
+
+    private final Map<String, ChatSignature> chatSignatures = new HashMap<>();
+    private final Map<String, CachedItem> items = new HashMap<>();
+    private final Map<String, List<AbstractContact>> sections = new HashMap<>();
+    private final Set<String> usedItems = new HashSet<>();
+    private final Set<String> usedSections = new HashSet<>();
+    private Comparator<AbstractContact> sectionsComparator;
+
+    /**
+     * Entities which search entries must be refreshed. Guarded by this.
+     */
+    private final Set<String> staleSearchEntities = new HashSet<>();
+    private boolean searchAllStale = true;
+    private final SearchIndex<String> searchIndex = new SearchIndex<>();
+    private final Map<String, AbstractContact> searchContacts = new HashMap<>();
+    private int searchContactsVersion;
+    private boolean hasSearchContacts;
+
+    synchronized void onContactsChanged(Collection<RosterContact> contacts) {
+        // empty collection is used when changed contacts are unknown
+        if (contacts.isEmpty()) {
+            allChanged = true;
+            searchAllStale = true;
+            return;
+        }
+        for (RosterContact contact : contacts) {
+            String entityKey = getEntityKey(contact.getAccount(), contact.getUser());
+            changedEntities.add(entityKey);
+            staleSearchEntities.add(entityKey);
+        }
+    }
+
+    synchronized void onChatChanged(AccountJid account, UserJid user) {
+        if (account == null) allChanged = true;
+        else if (user == null) changedAccounts.add(account);
+        else changedEntities.add(getEntityKey(account, user));
+    }
+
+    /**
+     * Drops all items and sorted order, next update will rebuild the list.
+     */
+    synchronized void invalidate() {
+        allChanged = true;
+        searchAllStale = true;
+    }
+
+    /**
+     * Should be called before list is built.
+     */
+    void beginUpdate(ContactListSnapshot snapshot) {
+        this.snapshot = snapshot;
+        synchronized (this) {
+            updateAll = allChanged;
+            updateEntities.clear();
+            updateEntities.addAll(changedEntities);
+            updateAccounts.clear();
+            updateAccounts.addAll(changedAccounts);
+
+            allChanged = false;
+            changedEntities.clear();
+            changedAccounts.clear();
+        }
+        updateChanges.clear();
+        usedItems.clear();
+        usedSections.clear();
+
+        if (updateAll) {
+            items.clear();
+            sections.clear();
+            chatSignatures.clear();
+        }
+    }
+
+    /**
+     * Should be called after list is built. Removes items and sections that were not used.
+     */
+    void endUpdate() {
+        items.keySet().retainAll(usedItems);
+        sections.keySet().retainAll(usedSections);
+        snapshot = null;
+    }
+
+    /**
+     * Should be called when build was cancelled.
+     * Changes taken by this update are returned to be applied by the next one.
+     */
+    void cancelUpdate() {
+        synchronized (this) {
+            allChanged |= updateAll;
+            changedEntities.addAll(updateEntities);
+            changedAccounts.addAll(updateAccounts);
+            // signatures of these entities are already replaced with new ones
+            for (Map.Entry<String, Boolean> entry : updateChanges.entrySet()) {
+                if (entry.getValue()) changedEntities.add(entry.getKey());
+            }
+        }
+        snapshot = null;
+    }
+
+    /**
+     * @return id of the item of contact in the section.
+     */
+    static String getItemId(String section, AbstractContact contact) {
+        return section + '/' + getEntityKey(contact.getAccount(), contact.getUser());
+    }
+
+    /**
+     * @param section name of the list section. Items of the same contact in different sections
+     *                are different items.
+     * @return item converted in previous update if contact was not changed, new item otherwise.
+     */
+    IFlexible getItem(String section, AbstractContact contact, Converter converter) {
+        snapshot.checkCancelled();
+        String entityKey = getEntityKey(contact.getAccount(), contact.getUser());
+        String id = getItemId(section, contact);
+        usedItems.add(id);
+
+        boolean changed = isChanged(contact, entityKey);
+        long now = System.currentTimeMillis();
+        CachedItem cachedItem = items.get(id);
+        if (!changed && cachedItem != null && cachedItem.converter == converter
+                && now - cachedItem.created < ITEM_TTL_MILLIS) {
+            return cachedItem.item;
+        }
+
+        IFlexible item = converter.convert(snapshot, contact, id);
+        items.put(id, new CachedItem(item, converter, now));
+        return item;
+    }
+
+    /**
+     * Sorts contacts of the section.
+     * <p/>
+     * Order from previous update is reused for contacts that were not changed.
+     * Changed and new contacts are inserted using binary search.
+     *
+     * @return sorted contacts.
+     */
+    List<AbstractContact> sort(String section, Collection<AbstractContact> contacts,
+                               Comparator<AbstractContact> comparator) {
+        snapshot.checkCancelled();
+        usedSections.add(section);
+        if (comparator != sectionsComparator) {
+            sections.clear();
+            sectionsComparator = comparator;
+        }
+
+        List<AbstractContact> previous = sections.get(section);
+        List<AbstractContact> sorted;
+        if (previous == null) {
+            sorted = new ArrayList<>(contacts);
+            Collections.sort(sorted, comparator);
+        } else {
+            Map<String, AbstractContact> unsorted = new LinkedHashMap<>();
+            for (AbstractContact contact : contacts) {
+                unsorted.put(getEntityKey(contact.getAccount(), contact.getUser()), contact);
+            }
+            sorted = new ArrayList<>(contacts.size());
+            for (AbstractContact contact : previous) {
+                String entityKey = getEntityKey(contact.getAccount(), contact.getUser());
+                AbstractContact current = unsorted.get(entityKey);
+                if (current == null || isChanged(current, entityKey)) continue;
+                sorted.add(current);
+                unsorted.remove(entityKey);
+            }
+            for (AbstractContact contact : unsorted.values()) {
+                int index = Collections.binarySearch(sorted, contact, comparator);
+                sorted.add(index < 0 ? -index - 1 : index, contact);
+            }
+        }
+        sections.put(section, sorted);
+        return sorted;
+    }
+
+    /**
+     * @return whether contacts available for search were set from snapshot
+     * with the same version of contacts and chats.
+     */
+    boolean hasSearchContacts() {
+        return hasSearchContacts && searchContactsVersion == snapshot.contactsVersion;
+    }
+
+    /**
+     * Sets contacts available for search. Entries of other contacts are removed.
+     */
+    void setSearchContacts(Collection<AbstractContact> contacts) {
+        Set<String> stale = takeStaleSearchEntities();
+        searchContacts.clear();
+        for (AbstractContact contact : contacts) {
+            String entityKey = getEntityKey(contact.getAccount(), contact.getUser());
+            searchContacts.put(entityKey, contact);
+            if (stale == null || stale.contains(entityKey) || !searchIndex.contains(entityKey)) {
+                searchIndex.put(entityKey, snapshot.getSearchTexts(contact));
+            }
+        }
+        if (searchIndex.size() > searchContacts.size()) searchIndex.retainAll(searchContacts.keySet());
+        searchContactsVersion = snapshot.contactsVersion;
+        hasSearchContacts = true;
+    }
+
+    /**
+     * Finds contacts which name, address or vCard nickname contains the query,
+     * ignoring case and diacritics.
+     *
+     * @return matching contacts of {@link #setSearchContacts(Collection)}, not sorted.
+     */
+    List<AbstractContact> search(String query) {
+        Set<String> stale = takeStaleSearchEntities();
+        Collection<String> refreshed = stale == null ? searchContacts.keySet() : stale;
+        for (String entityKey : refreshed) {
+            AbstractContact contact = searchContacts.get(entityKey);
+            if (contact != null) searchIndex.put(entityKey, snapshot.getSearchTexts(contact));
+        }
+
+        Set<String> found = searchIndex.search(query);
+        List<AbstractContact> result = new ArrayList<>(found.size());
+        for (String entityKey : found) {
+            AbstractContact contact = searchContacts.get(entityKey);
+            if (contact != null) result.add(contact);
+        }
+        return result;
+    }
+
+    /**
+     * @return entities which search entries must be refreshed,
+     * or null if all entries are stale and search index was cleared.
+     */
+    private Set<String> takeStaleSearchEntities() {
+        Set<String> stale;
+        boolean allStale;
+        synchronized (this) {
+            stale = new HashSet<>(staleSearchEntities);
+            allStale = searchAllStale;
+            staleSearchEntities.clear();
+            searchAllStale = false;
+        }
+        if (allStale) {
+            searchIndex.clear();
+            return null;
+        }
+        return stale;
+    }
+
+    private boolean isChanged(AbstractContact contact, String entityKey) {
+        Boolean changed = updateChanges.get(entityKey);
+        if (changed != null) return changed;
+
+        ChatSignature signature = new ChatSignature(snapshot,
+                snapshot.getChat(contact.getAccount(), contact.getUser()));
+        ChatSignature previousSignature = chatSignatures.put(entityKey, signature);
+        changed = updateAll || updateEntities.contains(entityKey)
+                || updateAccounts.contains(contact.getAccount())
+                || !signature.equals(previousSignature);
+        updateChanges.put(entityKey, changed);
+        return changed;
+    }
+
+    static String getEntityKey(AccountJid account, UserJid user) {
+        return account + "/" + user;
+    }
+
+    /**
+     * Changes when chat gets new last message, unread count or archive state.
+     * Used to track chats changed by {@link com.xabber.android.data.message.NewMessageEvent},
+     * which does not say which chat was changed.
+     */
+    private static class ChatSignature {
+        private final Object lastMessageVersion;
+        private final int unreadCount;
+        private final boolean archived;
+
+        ChatSignature(ContactListSnapshot snapshot, AbstractChat chat) {
+            lastMessageVersion = snapshot.getLastMessageVersion(chat);
+            unreadCount = snapshot.getUnreadCount(chat);
+            archived = snapshot.isArchived(chat);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ChatSignature)) return false;
+            ChatSignature signature = (ChatSignature) o;
+            return lastMessageVersion == signature.lastMessageVersion
+                    && unreadCount == signature.unreadCount
+                    && archived == signature.archived;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * unreadCount + (archived ? 1 : 0);
+        }
+    }
+
+    private static class CachedItem {
+        final IFlexible item;
+        final Converter converter;
+        final long created;
+
+        CachedItem(IFlexible item, Converter converter, long created) {
+            this.item = item;
+            this.converter = converter;
+            this.created = created;
+        }
+    }
+}
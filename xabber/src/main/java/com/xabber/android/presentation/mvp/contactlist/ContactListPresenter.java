@@ -5,21 +5,17 @@ import android.view.View;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
-import com.xabber.android.data.SettingsManager;
-import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.CommonState;
 import com.xabber.android.data.account.listeners.OnAccountChangedListener;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.database.realm.CrowdfundingMessage;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
-import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.muc.RoomChat;
-import com.xabber.android.data.extension.muc.RoomContact;
 import com.xabber.android.data.http.CrowdfundingManager;
+import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.AbstractChat;
-import com.xabber.android.data.message.ChatContact;
 import com.xabber.android.data.message.CrowdfundingChat;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.message.MessageUpdateEvent;
@@ -43,7 +39,6 @@ import com.xabber.android.presentation.ui.contactlist.viewobjects.CrowdfundingCh
 import com.xabber.android.presentation.ui.contactlist.viewobjects.ExtContactVO;
 import com.xabber.android.presentation.ui.contactlist.viewobjects.GroupVO;
 import com.xabber.android.presentation.ui.contactlist.viewobjects.ToolbarVO;
-import com.xabber.android.ui.adapter.ChatComparator;
 import com.xabber.android.ui.adapter.contactlist.AccountConfiguration;
 import com.xabber.android.ui.adapter.contactlist.ContactListGroupUtils;
 import com.xabber.android.ui.adapter.contactlist.GroupConfiguration;
@@ -57,10 +52,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.davidea.flexibleadapter.items.IFlexible;
 
@@ -72,15 +73,76 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
         ContactVO.ContactClickListener, AccountVO.AccountClickListener, ToolbarVO.OnClickListener,
         GroupVO.GroupClickListener, UpdateBackpressure.UpdatableObject {
 
+    private static final String LOG_TAG = ContactListPresenter.class.getSimpleName();
     private static final int MAX_RECENT_ITEMS = 12;
+    private static final String RECENT_SECTION = "recent";
+    private static final String CONTACTS_SECTION = "contacts";
+    private static final String SEARCH_SECTION = "search";
 
     private static ContactListPresenter instance;
     private ContactListView view;
 
     private UpdateBackpressure updateBackpressure;
+    private final ContactListModel model = new ContactListModel();
+
+    /**
+     * Builds contact list in background. Only the last requested build is applied to view.
+     */
+    private final ExecutorService buildExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Contact list builder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicInteger buildGeneration = new AtomicInteger();
+
+    /**
+     * Copies of last messages of chats, can be accessed from UI thread only.
+     */
+    private final Map<AbstractChat, ContactListSnapshot.LastMessage> lastMessageCache = new HashMap<>();
+
+    /**
+     * Contacts of chats, can be accessed from UI thread only.
+     */
+    private final Map<AbstractChat, AbstractContact> chatContactCache = new HashMap<>();
+
+    /**
+     * Version of contacts and chats, see {@link ContactListSnapshot#contactsVersion}.
+     * Can be accessed from UI thread only.
+     */
+    private int contactsVersion;
+
+    private final ContactListModel.Converter contactConverter = new ContactListModel.Converter() {
+        @Override
+        public IFlexible convert(ContactListSnapshot snapshot, AbstractContact contact, String id) {
+            ContactVO item = convertContact(snapshot, contact);
+            if (snapshot.showMessages) item = ExtContactVO.convert(item);
+            item.setId(id);
+            return item;
+        }
+    };
+
+    private final ContactListModel.Converter chatConverter = new ContactListModel.Converter() {
+        @Override
+        public IFlexible convert(ContactListSnapshot snapshot, AbstractContact contact, String id) {
+            ContactVO item = ChatVO.convert(convertContact(snapshot, contact), null);
+            item.setId(id);
+            return item;
+        }
+    };
+
+    private final ContactListModel.Converter chatWithButtonConverter = new ContactListModel.Converter() {
+        @Override
+        public IFlexible convert(ContactListSnapshot snapshot, AbstractContact contact, String id) {
+            ContactVO item = ChatWithButtonVO.convert(ChatVO.convert(convertContact(snapshot, contact), null));
+            item.setId(id);
+            return item;
+        }
+    };
 
     private String filterString = null;
-    protected Locale locale = Locale.getDefault();
     private ChatListState currentChatsState = ChatListState.recent;
 
     public static ContactListPresenter getInstance() {
@@ -97,6 +159,9 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
         Application.getInstance().addUIListener(OnAccountChangedListener.class, this);
         Application.getInstance().addUIListener(OnContactChangedListener.class, this);
         EventBus.getDefault().register(this);
+        // settings could be changed while view was not bound
+        model.invalidate();
+        contactsVersion++;
         updateBackpressure.build();
     }
 
@@ -109,9 +174,12 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
         Application.getInstance().removeUIListener(OnContactChangedListener.class, this);
         EventBus.getDefault().unregister(this);
         updateBackpressure.removeRefreshRequests();
+        // cancel build in progress
+        buildGeneration.incrementAndGet();
     }
 
     public void updateContactList() {
+        contactsVersion++;
         updateBackpressure.refreshRequest();
     }
 
@@ -196,57 +264,109 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
 
     @Override
     public void onAccountsChanged(Collection<AccountJid> accounts) {
+        model.invalidate();
+        contactsVersion++;
         updateBackpressure.refreshRequest();
     }
 
     @Override
     public void onContactsChanged(Collection<RosterContact> entities) {
+        model.onContactsChanged(entities);
+        contactsVersion++;
         updateBackpressure.refreshRequest();
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
     public void onNewMessageEvent(NewMessageEvent event) {
+        contactsVersion++;
         updateBackpressure.refreshRequest();
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEvent(MessageUpdateEvent event) {
+        model.onChatChanged(event.getAccount(), event.getUser());
+        contactsVersion++;
         updateBackpressure.refreshRequest();
     }
 
+    /**
+     * Takes snapshot of current state and builds the list on builder thread.
+     * Build that is still in progress is cancelled.
+     */
     @Override
     public void update() {
-//        listener.hidePlaceholder();
+        buildGeneration.incrementAndGet();
+        final ContactListSnapshot snapshot = takeSnapshot();
+        buildExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (snapshot.isCancelled()) return;
+                final BuildResult result;
+                model.beginUpdate(snapshot);
+                try {
+                    result = build(snapshot);
+                    model.endUpdate();
+                } catch (CancellationException e) {
+                    model.cancelUpdate();
+                    return;
+                } catch (Exception e) {
+                    model.cancelUpdate();
+                    model.invalidate();
+                    LogManager.exception(LOG_TAG, e);
+                    return;
+                }
+                Application.getInstance().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!snapshot.isCancelled()) applyResult(result, snapshot.unreadCount);
+                    }
+                });
+            }
+        });
+    }
 
-        List<IFlexible> items = new ArrayList<>();
+    private ContactListSnapshot takeSnapshot() {
+        return new ContactListSnapshot(filterString, currentChatsState, lastMessageCache,
+                chatContactCache, contactsVersion, buildGeneration);
+    }
 
-        final Collection<RosterContact> allRosterContacts = RosterManager.getInstance().getAllContacts();
+    private void applyResult(BuildResult result, int unreadCount) {
+        if (view != null) view.onContactListChanged(result.commonState, result.hasContacts,
+                result.hasVisibleContacts, result.filterString != null);
 
-        Map<AccountJid, Collection<UserJid>> blockedContacts = new TreeMap<>();
-        for (AccountJid account : AccountManager.getInstance().getEnabledAccounts()) {
-            blockedContacts.put(account, BlockingManager.getInstance().getCachedBlockedContacts(account));
+        if (view != null) {
+            if (result.items.size() == 1 && (result.filterString == null || result.filterString.isEmpty())) {
+                if (result.chatsState == ChatListState.unread)
+                    view.showPlaceholder(Application.getInstance().getApplicationContext().getString(R.string.placeholder_no_unread));
+                if (result.chatsState == ChatListState.archived)
+                    view.showPlaceholder(Application.getInstance().getApplicationContext().getString(R.string.placeholder_no_archived));
+            } else view.hidePlaceholder();
+            view.updateItems(result.items);
         }
+        EventBus.getDefault().post(new UpdateUnreadCountEvent(unreadCount));
+    }
+
+    /**
+     * Builds the list from snapshot. Called from builder thread.
+     */
+    private BuildResult build(ContactListSnapshot snapshot) {
+        List<IFlexible> items = new ArrayList<>();
 
         final Collection<RosterContact> rosterContacts = new ArrayList<>();
-        for (RosterContact contact : allRosterContacts) {
-            if (blockedContacts.containsKey(contact.getAccount())) {
-                Collection<UserJid> blockedUsers = blockedContacts.get(contact.getAccount());
-                if (blockedUsers != null) {
-                    if (!blockedUsers.contains(contact.getUser()))
-                        rosterContacts.add(contact);
-                } else rosterContacts.add(contact);
-            } else rosterContacts.add(contact);
+        for (RosterContact contact : snapshot.rosterContacts) {
+            Collection<UserJid> blockedUsers = snapshot.blockedContacts.get(contact.getAccount());
+            if (blockedUsers == null || !blockedUsers.contains(contact.getUser()))
+                rosterContacts.add(contact);
         }
 
-        final boolean showOffline = SettingsManager.contactsShowOffline();
-        final boolean showGroups = SettingsManager.contactsShowGroups();
-        final boolean showEmptyGroups = SettingsManager.contactsShowEmptyGroups();
-        final boolean showActiveChats = false;
-        final boolean stayActiveChats = true;
-        final boolean showAccounts = SettingsManager.contactsShowAccounts();
-        final Comparator<AbstractContact> comparator = SettingsManager.contactsOrder();
-        final CommonState commonState = AccountManager.getInstance().getCommonState();
-        final AccountJid selectedAccount = AccountManager.getInstance().getSelectedAccount();
+        final boolean showOffline = snapshot.showOffline;
+        final boolean showGroups = snapshot.showGroups;
+        final boolean showEmptyGroups = snapshot.showEmptyGroups;
+        final boolean showAccounts = snapshot.showAccounts;
+        final Comparator<AbstractContact> comparator = snapshot.comparator;
+        final AccountJid selectedAccount = snapshot.selectedAccount;
+        final String filterString = snapshot.filterString;
+        final ChatListState currentChatsState = snapshot.chatsState;
 
 
         /**
@@ -276,7 +396,7 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
 
         final Map<AccountJid, AccountConfiguration> accounts = new TreeMap<>();
 
-        for (AccountJid account : AccountManager.getInstance().getEnabledAccounts()) {
+        for (AccountJid account : snapshot.enabledAccounts) {
             accounts.put(account, null);
         }
 
@@ -285,7 +405,7 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
          */
         final Map<AccountJid, Map<UserJid, AbstractChat>> abstractChats = new TreeMap<>();
 
-        for (AbstractChat abstractChat : MessageManager.getInstance().getChats()) {
+        for (AbstractChat abstractChat : snapshot.chats) {
             if ((abstractChat instanceof RoomChat || abstractChat.isActive())
                     && accounts.containsKey(abstractChat.getAccount())) {
                 final AccountJid account = abstractChat.getAccount();
@@ -321,12 +441,12 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
             }
 
             // chats on top
-            Collection<AbstractChat> chats = MessageManager.getInstance().getChatsOfEnabledAccount();
-            chatsGroup = getChatsGroup(chats, currentChatsState);
+            chatsGroup = getChatsGroup(snapshot, currentChatsState);
             if (!chatsGroup.isEmpty()) hasVisibleContacts = true;
 
             // Build structure.
             for (RosterContact rosterContact : rosterContacts) {
+                snapshot.checkCancelled();
                 if (!rosterContact.isEnabled()) {
                     continue;
                 }
@@ -351,12 +471,7 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
             }
             for (Map<UserJid, AbstractChat> users : abstractChats.values())
                 for (AbstractChat abstractChat : users.values()) {
-                    final AbstractContact abstractContact;
-                    if (abstractChat instanceof RoomChat) {
-                        abstractContact = new RoomContact((RoomChat) abstractChat);
-                    } else {
-                        abstractContact = new ChatContact(abstractChat);
-                    }
+                    final AbstractContact abstractContact = snapshot.getChatContact(abstractChat);
                     if (selectedAccount != null && !selectedAccount.equals(abstractChat.getAccount())) {
                         continue;
                     }
@@ -381,11 +496,13 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
 
             // Remove empty groups, sort and apply structure.
             items.clear();
-            items.add(new ToolbarVO(Application.getInstance().getApplicationContext(), this, currentChatsState));
+            ToolbarVO toolbar = new ToolbarVO(Application.getInstance().getApplicationContext(),
+                    this, currentChatsState);
+            toolbar.setId("toolbar");
+            items.add(toolbar);
 
             // set hasVisibleContacts as true if have crowdfunding message
-            CrowdfundingMessage message = CrowdfundingManager.getInstance().getLastNotDelayedMessageFromRealm();
-            if (message != null) hasVisibleContacts = true;
+            if (snapshot.crowdfundingMessage != null) hasVisibleContacts = true;
 
             if (hasVisibleContacts) {
 
@@ -395,12 +512,12 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
                     int i = 0;
                     for (AbstractContact contact : chatsGroup.getAbstractContacts()) {
                         if (contact instanceof CrowdfundingContact) {
-                            items.add(CrowdfundingChatVO.convert((CrowdfundingContact) contact));
+                            items.add(convertCrowdfundingChat((CrowdfundingContact) contact));
                         } else if (i == MAX_RECENT_ITEMS - 1) {
-                            if (getAllChatsSize() > MAX_RECENT_ITEMS)
-                                items.add(ChatWithButtonVO.convert(contact, this));
-                            else items.add(ChatVO.convert(contact, this, null));
-                        } else items.add(ChatVO.convert(contact, this, null));
+                            if (getAllChatsSize(snapshot) > MAX_RECENT_ITEMS)
+                                items.add(model.getItem(RECENT_SECTION, contact, chatWithButtonConverter));
+                            else items.add(model.getItem(RECENT_SECTION, contact, chatConverter));
+                        } else items.add(model.getItem(RECENT_SECTION, contact, chatConverter));
                         i++;
                     }
 
@@ -414,8 +531,10 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
                                 }
                             } else {
                                 AccountWithButtonsVO account = AccountWithButtonsVO.convert(rosterAccount, this);
+                                account.setId(getAccountItemId(rosterAccount));
                                 ButtonVO button = ButtonVO.convert(rosterAccount,
                                         Application.getInstance().getApplicationContext().getString(R.string.contact_add), ButtonVO.ACTION_ADD_CONTACT);
+                                button.setId("button/" + rosterAccount.getAccount());
                                 account.addSubItem(button);
                                 items.add(account);
                             }
@@ -430,62 +549,55 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
                 } else {
                     for (AbstractContact contact : chatsGroup.getAbstractContacts()) {
                         if (contact instanceof CrowdfundingContact)
-                            items.add(CrowdfundingChatVO.convert((CrowdfundingContact) contact));
-                        else items.add(ChatVO.convert(contact, this, null));
+                            items.add(convertCrowdfundingChat((CrowdfundingContact) contact));
+                        else items.add(model.getItem(RECENT_SECTION, contact, chatConverter));
                     }
                 }
             }
         } else { // Search
-            final ArrayList<AbstractContact> baseEntities = getSearchResults(rosterContacts, comparator, abstractChats);
+            final ArrayList<AbstractContact> baseEntities = getSearchResults(snapshot, rosterContacts,
+                    comparator, abstractChats, filterString);
             items.clear();
 
-            items.add(new CategoryVO(Application.getInstance().getApplicationContext().getString(R.string.category_title_contacts)));
-            items.addAll(SettingsManager.contactsShowMessages()
-                    ? ExtContactVO.convert(baseEntities, this)
-                    : ContactVO.convert(baseEntities, this));
+            CategoryVO category = new CategoryVO(Application.getInstance().getApplicationContext()
+                    .getString(R.string.category_title_contacts));
+            category.setId("category/" + SEARCH_SECTION);
+            items.add(category);
+            for (AbstractContact contact : baseEntities) {
+                items.add(model.getItem(SEARCH_SECTION, contact, contactConverter));
+            }
             hasVisibleContacts = baseEntities.size() > 0;
         }
 
-        if (view != null) view.onContactListChanged(commonState, hasContacts, hasVisibleContacts,
-                    filterString != null);
-
-        if (view != null) {
-            if (items.size() == 1 && (filterString == null || filterString.isEmpty())) {
-                if (currentChatsState == ChatListState.unread)
-                    view.showPlaceholder(Application.getInstance().getApplicationContext().getString(R.string.placeholder_no_unread));
-                if (currentChatsState == ChatListState.archived)
-                    view.showPlaceholder(Application.getInstance().getApplicationContext().getString(R.string.placeholder_no_archived));
-            } else view.hidePlaceholder();
-            view.updateItems(items);
-        }
-        updateUnreadCount();
+        return new BuildResult(items, snapshot.commonState, hasContacts, hasVisibleContacts,
+                filterString, currentChatsState);
     }
 
     /**
-     * @param chats which must be filtered
+     * @param snapshot with chats which must be filtered
      * @param state for which you want to filter
      * @return GroupConfiguration that may contains recent, unread or archived chats.
      */
-    private GroupConfiguration getChatsGroup(Collection<AbstractChat> chats, ChatListState state) {
+    private GroupConfiguration getChatsGroup(final ContactListSnapshot snapshot, ChatListState state) {
         GroupConfiguration chatsGroup = new GroupConfiguration(GroupManager.NO_ACCOUNT,
                 GroupVO.RECENT_CHATS_TITLE, GroupManager.getInstance());
 
         List<AbstractChat> newChats = new ArrayList<>();
 
-        for (AbstractChat abstractChat : chats) {
-            MessageItem lastMessage = abstractChat.getLastMessage();
+        for (AbstractChat abstractChat : snapshot.chatsOfEnabledAccount) {
+            MessageItem lastMessage = snapshot.getLastMessage(abstractChat);
             if (lastMessage != null) {
                 switch (state) {
                     case unread:
-                        if (!abstractChat.isArchived() && abstractChat.getUnreadMessageCount() > 0)
+                        if (!snapshot.isArchived(abstractChat) && snapshot.getUnreadCount(abstractChat) > 0)
                             newChats.add(abstractChat);
                         break;
                     case archived:
-                        if (abstractChat.isArchived()) newChats.add(abstractChat);
+                        if (snapshot.isArchived(abstractChat)) newChats.add(abstractChat);
                         break;
                     default:
                         // recent
-                        if (!abstractChat.isArchived()) newChats.add(abstractChat);
+                        if (!snapshot.isArchived(abstractChat)) newChats.add(abstractChat);
                         break;
                 }
             }
@@ -493,23 +605,41 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
 
 
         // crowdfunding chat
-        int unreadCount = CrowdfundingManager.getInstance().getUnreadMessageCount();
-        CrowdfundingMessage message = CrowdfundingManager.getInstance().getLastNotDelayedMessageFromRealm();
+        int unreadCount = snapshot.crowdfundingUnreadCount;
+        CrowdfundingMessage message = snapshot.crowdfundingMessage;
+        CrowdfundingChat crowdfundingChat = null;
         if (message != null) {
             switch (state) {
                 case unread:
-                    if (unreadCount > 0) newChats.add(CrowdfundingChat.createCrowdfundingChat(unreadCount, message));
+                    if (unreadCount > 0) crowdfundingChat = CrowdfundingChat.createCrowdfundingChat(unreadCount, message);
                     break;
                 case archived:
                     break;
                 default:
                     // recent
-                    newChats.add(CrowdfundingChat.createCrowdfundingChat(unreadCount, message));
+                    crowdfundingChat = CrowdfundingChat.createCrowdfundingChat(unreadCount, message);
                     break;
             }
         }
 
-        Collections.sort(newChats, ChatComparator.CHAT_COMPARATOR);
+        // same order as ChatComparator, but with times of copied last messages
+        Collections.sort(newChats, new Comparator<AbstractChat>() {
+            @Override
+            public int compare(AbstractChat chat1, AbstractChat chat2) {
+                return Long.compare(snapshot.getLastMessage(chat2).getTimestamp(),
+                        snapshot.getLastMessage(chat1).getTimestamp());
+            }
+        });
+        if (crowdfundingChat != null) {
+            int index = newChats.size();
+            Date crowdfundingTime = crowdfundingChat.getLastTime();
+            if (crowdfundingTime != null) {
+                index = 0;
+                while (index < newChats.size() && snapshot.getLastMessage(newChats.get(index))
+                        .getTimestamp() >= crowdfundingTime.getTime()) index++;
+            }
+            newChats.add(index, crowdfundingChat);
+        }
         chatsGroup.setNotEmpty();
 
         int itemsCount = 0;
@@ -533,18 +663,19 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
     private void createContactListWithAccountsAndGroups(List<IFlexible> items, AccountConfiguration rosterAccount,
                                                         boolean showEmptyGroups, Comparator<AbstractContact> comparator) {
         AccountWithGroupsVO account = AccountWithGroupsVO.convert(rosterAccount, this);
+        account.setId(getAccountItemId(rosterAccount));
         boolean firstGroupInAccount = true;
         for (GroupConfiguration rosterConfiguration : rosterAccount
                 .getSortedGroupConfigurations()) {
             if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
                 GroupVO group = GroupVO.convert(rosterConfiguration, firstGroupInAccount, this);
                 firstGroupInAccount = false;
-                rosterConfiguration.sortAbstractContacts(comparator);
+                String section = getSection(rosterConfiguration);
+                group.setId(section);
 
-                for (AbstractContact contact : rosterConfiguration.getAbstractContacts()) {
-                    group.addSubItem(SettingsManager.contactsShowMessages()
-                            ? ExtContactVO.convert(contact, this)
-                            : ContactVO.convert(contact, this));
+                for (AbstractContact contact : model.sort(section,
+                        rosterConfiguration.getAbstractContacts(), comparator)) {
+                    group.addSubItem((ContactVO) model.getItem(section, contact, contactConverter));
                 }
                 account.addSubItem(group);
             }
@@ -555,12 +686,12 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
     private void createContactListWithAccounts(List<IFlexible> items, AccountConfiguration rosterAccount,
                                                Comparator<AbstractContact> comparator) {
         AccountWithContactsVO account = AccountWithContactsVO.convert(rosterAccount, this);
-        rosterAccount.sortAbstractContacts(comparator);
+        account.setId(getAccountItemId(rosterAccount));
+        String section = getSection(rosterAccount);
 
-        for (AbstractContact contact : rosterAccount.getAbstractContacts()) {
-            account.addSubItem(SettingsManager.contactsShowMessages()
-                    ? ExtContactVO.convert(contact, this)
-                    : ContactVO.convert(contact, this));
+        for (AbstractContact contact : model.sort(section,
+                rosterAccount.getAbstractContacts(), comparator)) {
+            account.addSubItem((ContactVO) model.getItem(section, contact, contactConverter));
         }
         items.add(account);
     }
@@ -571,12 +702,12 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
         for (GroupConfiguration rosterConfiguration : groups.values()) {
             if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
                 GroupVO group = GroupVO.convert(rosterConfiguration, false, this);
-                rosterConfiguration.sortAbstractContacts(comparator);
+                String section = getSection(rosterConfiguration);
+                group.setId(section);
 
-                for (AbstractContact contact : rosterConfiguration.getAbstractContacts()) {
-                    group.addSubItem(SettingsManager.contactsShowMessages()
-                            ? ExtContactVO.convert(contact, this)
-                            : ContactVO.convert(contact, this));
+                for (AbstractContact contact : model.sort(section,
+                        rosterConfiguration.getAbstractContacts(), comparator)) {
+                    group.addSubItem((ContactVO) model.getItem(section, contact, contactConverter));
                 }
                 items.add(group);
             }
@@ -585,44 +716,60 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
 
     private void createContactList(List<IFlexible> items, List<AbstractContact> contacts,
                                    Comparator<AbstractContact> comparator) {
-        Collections.sort(contacts, comparator);
-        items.addAll(SettingsManager.contactsShowMessages()
-                ? ExtContactVO.convert(contacts, this)
-                : ContactVO.convert(contacts, this));
+        for (AbstractContact contact : model.sort(CONTACTS_SECTION, contacts, comparator)) {
+            items.add(model.getItem(CONTACTS_SECTION, contact, contactConverter));
+        }
+    }
+
+    private IFlexible convertCrowdfundingChat(CrowdfundingContact contact) {
+        CrowdfundingChatVO item = CrowdfundingChatVO.convert(contact);
+        item.setId(RECENT_SECTION + "/crowdfunding");
+        return item;
+    }
+
+    /**
+     * @return id of the list section with contacts of the group.
+     */
+    private static String getSection(GroupConfiguration configuration) {
+        return "group/" + configuration.getAccount() + "/" + configuration.getGroup();
     }
 
-    private ArrayList<AbstractContact> getSearchResults(Collection<RosterContact> rosterContacts,
+    private static String getAccountItemId(AccountConfiguration configuration) {
+        return "account/" + configuration.getAccount();
+    }
+
+    /**
+     * Contacts available for search are set to model only if contacts or chats were changed
+     * since the previous search, otherwise only the new query is applied.
+     */
+    private ArrayList<AbstractContact> getSearchResults(ContactListSnapshot snapshot,
+                                                        Collection<RosterContact> rosterContacts,
                                                         Comparator<AbstractContact> comparator,
-                                                        Map<AccountJid, Map<UserJid, AbstractChat>> abstractChats) {
-        final ArrayList<AbstractContact> baseEntities = new ArrayList<>();
+                                                        Map<AccountJid, Map<UserJid, AbstractChat>> abstractChats,
+                                                        String filterString) {
+        if (!model.hasSearchContacts()) {
+            final ArrayList<AbstractContact> candidates = new ArrayList<>();
 
-        // Build structure.
-        for (RosterContact rosterContact : rosterContacts) {
-            if (!rosterContact.isEnabled()) {
-                continue;
-            }
-            final AccountJid account = rosterContact.getAccount();
-            final Map<UserJid, AbstractChat> users = abstractChats.get(account);
-            if (users != null) {
-                users.remove(rosterContact.getUser());
-            }
-            if (rosterContact.getName().toLowerCase(locale).contains(filterString)) {
-                baseEntities.add(rosterContact);
-            }
-        }
-        for (Map<UserJid, AbstractChat> users : abstractChats.values()) {
-            for (AbstractChat abstractChat : users.values()) {
-                final AbstractContact abstractContact;
-                if (abstractChat instanceof RoomChat) {
-                    abstractContact = new RoomContact((RoomChat) abstractChat);
-                } else {
-                    abstractContact = new ChatContact(abstractChat);
+            // Build structure.
+            for (RosterContact rosterContact : rosterContacts) {
+                if (!rosterContact.isEnabled()) {
+                    continue;
                 }
-                if (abstractContact.getName().toLowerCase(locale).contains(filterString)) {
-                    baseEntities.add(abstractContact);
+                final AccountJid account = rosterContact.getAccount();
+                final Map<UserJid, AbstractChat> users = abstractChats.get(account);
+                if (users != null) {
+                    users.remove(rosterContact.getUser());
+                }
+                candidates.add(rosterContact);
+            }
+            for (Map<UserJid, AbstractChat> users : abstractChats.values()) {
+                for (AbstractChat abstractChat : users.values()) {
+                    candidates.add(snapshot.getChatContact(abstractChat));
                 }
             }
+            model.setSearchContacts(candidates);
         }
+        final ArrayList<AbstractContact> baseEntities = new ArrayList<>(model.search(filterString));
         Collections.sort(baseEntities, comparator);
         return baseEntities;
     }
@@ -632,27 +779,41 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
     }
 
     public int getAllChatsSize() {
-        Collection<AbstractChat> chats = MessageManager.getInstance().getChatsOfEnabledAccount();
-        GroupConfiguration chatsGroup = getChatsGroup(chats, ChatListState.all);
+        return getAllChatsSize(takeSnapshot());
+    }
+
+    private int getAllChatsSize(ContactListSnapshot snapshot) {
+        GroupConfiguration chatsGroup = getChatsGroup(snapshot, ChatListState.all);
         return chatsGroup.getTotal();
     }
 
     public ArrayList<IFlexible> getTwoNextRecentChat() {
-        Collection<AbstractChat> chats = MessageManager.getInstance().getChatsOfEnabledAccount();
-
-        GroupConfiguration chatsGroup = getChatsGroup(chats, currentChatsState);
+        ContactListSnapshot snapshot = takeSnapshot();
+        GroupConfiguration chatsGroup = getChatsGroup(snapshot, currentChatsState);
         ArrayList<AbstractContact> contacts = (ArrayList<AbstractContact>) chatsGroup.getAbstractContacts();
 
+        // model belongs to builder thread, so items are converted without it
         ArrayList<IFlexible> items = new ArrayList<>();
         if (contacts != null && contacts.size() >= MAX_RECENT_ITEMS) {
-            items.add(ChatVO.convert(contacts.get(MAX_RECENT_ITEMS - 2), this, null));
-            if (getAllChatsSize() > MAX_RECENT_ITEMS)
-                items.add(ChatWithButtonVO.convert(contacts.get(MAX_RECENT_ITEMS - 1), this));
-            else items.add(ChatVO.convert(contacts.get(MAX_RECENT_ITEMS - 1), this));
+            AbstractContact contact = contacts.get(MAX_RECENT_ITEMS - 2);
+            items.add(chatConverter.convert(snapshot, contact,
+                    ContactListModel.getItemId(RECENT_SECTION, contact)));
+            contact = contacts.get(MAX_RECENT_ITEMS - 1);
+            ContactListModel.Converter converter = getAllChatsSize(snapshot) > MAX_RECENT_ITEMS
+                    ? chatWithButtonConverter : chatConverter;
+            items.add(converter.convert(snapshot, contact,
+                    ContactListModel.getItemId(RECENT_SECTION, contact)));
         }
         return items;
     }
 
+    private ContactVO convertContact(ContactListSnapshot snapshot, AbstractContact contact) {
+        AbstractChat chat = snapshot.getChat(contact.getAccount(), contact.getUser());
+        return ContactVO.convert(contact, snapshot.getName(contact), chat,
+                snapshot.getUnreadCount(chat), snapshot.isArchived(chat),
+                snapshot.getLastMessage(chat), snapshot.getForwardedText(chat), this);
+    }
+
     public void updateUnreadCount() {
         int unreadMessageCount = 0;
 
@@ -665,6 +826,28 @@ public class ContactListPresenter implements OnContactChangedListener, OnAccount
         EventBus.getDefault().post(new UpdateUnreadCountEvent(unreadMessageCount));
     }
 
+    /**
+     * Contact list built from snapshot.
+     */
+    private static class BuildResult {
+        final List<IFlexible> items;
+        final CommonState commonState;
+        final boolean hasContacts;
+        final boolean hasVisibleContacts;
+        final String filterString;
+        final ChatListState chatsState;
+
+        BuildResult(List<IFlexible> items, CommonState commonState, boolean hasContacts,
+                         boolean hasVisibleContacts, String filterString, ChatListState chatsState) {
+            this.items = items;
+            this.commonState = commonState;
+            this.hasContacts = hasContacts;
+            this.hasVisibleContacts = hasVisibleContacts;
+            this.filterString = filterString;
+            this.chatsState = chatsState;
+        }
+    }
+
     public enum ChatListState {
         recent,
         unread,
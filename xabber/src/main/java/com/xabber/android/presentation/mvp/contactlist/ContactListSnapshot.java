@@ -0,0 +1,320 @@
+package com.xabber.android.presentation.mvp.contactlist;
+
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.CommonState;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.RealmManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.database.realm.CrowdfundingMessage;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.extension.blocking.BlockingManager;
+import com.xabber.android.data.extension.muc.RoomChat;
+import com.xabber.android.data.extension.muc.RoomContact;
+import com.xabber.android.data.extension.vcard.VCardManager;
+import com.xabber.android.data.http.CrowdfundingManager;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.message.ChatContact;
+import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.roster.AbstractContact;
+import com.xabber.android.data.roster.RosterContact;
+import com.xabber.android.data.roster.RosterManager;
+import com.xabber.android.data.roster.StructuredName;
+import com.xabber.android.presentation.ui.contactlist.viewobjects.ContactVO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.realm.Realm;
+
+/**
+ * State of accounts, roster and chats used to build the contact list.
+ * <p/>
+ * Taken on UI thread and then used by contact list builder thread. Last messages of chats
+ * are copied from UI thread realm, so builder does not touch realm objects of other threads.
+ * Unread counts, archive state of chats and names of contacts are taken as well,
+ * so builder does not read them from managers while UI thread changes them.
+ */
+class ContactListSnapshot {
+
+    final String filterString;
+    final ContactListPresenter.ChatListState chatsState;
+    final boolean showOffline;
+    final boolean showGroups;
+    final boolean showEmptyGroups;
+    final boolean showAccounts;
+    final boolean showMessages;
+    final Comparator<AbstractContact> comparator;
+    final CommonState commonState;
+    final AccountJid selectedAccount;
+    final Collection<AccountJid> enabledAccounts;
+    final Map<AccountJid, Collection<UserJid>> blockedContacts;
+    final Collection<RosterContact> rosterContacts;
+    final Collection<AbstractChat> chats;
+    final Collection<AbstractChat> chatsOfEnabledAccount;
+    final CrowdfundingMessage crowdfundingMessage;
+    final int crowdfundingUnreadCount;
+    /**
+     * Unread messages of enabled accounts to show on the badge.
+     */
+    final int unreadCount;
+    /**
+     * Changes when contacts or chats could be changed, but not when only filter string
+     * or chat list state are changed.
+     */
+    final int contactsVersion;
+
+    private final Map<AbstractChat, LastMessage> lastMessages;
+    private final Map<String, AbstractChat> chatsByEntity;
+    private final Map<AbstractChat, ChatState> chatStates;
+    private final Map<AbstractChat, AbstractContact> chatContacts;
+    private final Map<String, String> names;
+    /**
+     * Texts to search contacts by, taken only if filter string is not empty.
+     */
+    private final Map<String, Collection<String>> searchTexts;
+    private final int generation;
+    private final AtomicInteger currentGeneration;
+
+    /**
+     * Takes snapshot. Should be called from UI thread.
+     *
+     * @param lastMessageCache copies of last messages from previous snapshot,
+     *                         copy is reused while chat keeps the same last message object.
+     * @param chatContactCache contacts of chats from previous snapshot, reused while chat exists.
+     * @param contactsVersion see {@link #contactsVersion}.
+     * @param currentGeneration number of the latest requested build. Snapshot becomes cancelled
+     *                          when it differs from number of this snapshot.
+     */
+    ContactListSnapshot(String filterString, ContactListPresenter.ChatListState chatsState,
+                        Map<AbstractChat, LastMessage> lastMessageCache,
+                        Map<AbstractChat, AbstractContact> chatContactCache,
+                        int contactsVersion, AtomicInteger currentGeneration) {
+        this.filterString = filterString;
+        this.chatsState = chatsState;
+        this.contactsVersion = contactsVersion;
+        this.currentGeneration = currentGeneration;
+        this.generation = currentGeneration.get();
+
+        showOffline = SettingsManager.contactsShowOffline();
+        showGroups = SettingsManager.contactsShowGroups();
+        showEmptyGroups = SettingsManager.contactsShowEmptyGroups();
+        showAccounts = SettingsManager.contactsShowAccounts();
+        showMessages = SettingsManager.contactsShowMessages();
+        comparator = SettingsManager.contactsOrder();
+
+        AccountManager accountManager = AccountManager.getInstance();
+        commonState = accountManager.getCommonState();
+        selectedAccount = accountManager.getSelectedAccount();
+        enabledAccounts = new ArrayList<>(accountManager.getEnabledAccounts());
+
+        Map<AccountJid, Collection<UserJid>> blockedContacts = new TreeMap<>();
+        for (AccountJid account : enabledAccounts) {
+            blockedContacts.put(account, new ArrayList<>(
+                    BlockingManager.getInstance().getCachedBlockedContacts(account)));
+        }
+        this.blockedContacts = Collections.unmodifiableMap(blockedContacts);
+
+        rosterContacts = RosterManager.getInstance().getAllContacts();
+        chats = Collections.unmodifiableCollection(MessageManager.getInstance().getChats());
+        chatsOfEnabledAccount = Collections.unmodifiableCollection(
+                MessageManager.getInstance().getChatsOfEnabledAccount());
+
+        CrowdfundingMessage crowdfundingMessage = CrowdfundingManager.getInstance()
+                .getLastNotDelayedMessageFromRealm();
+        if (crowdfundingMessage != null) {
+            Realm realm = RealmManager.getInstance().getNewRealm();
+            crowdfundingMessage = realm.copyFromRealm(crowdfundingMessage);
+            realm.close();
+        }
+        this.crowdfundingMessage = crowdfundingMessage;
+        crowdfundingUnreadCount = CrowdfundingManager.getInstance().getUnreadMessageCount();
+
+        Map<AbstractChat, LastMessage> lastMessages = new HashMap<>();
+        for (AbstractChat chat : chats) {
+            MessageItem source = chat.getLastMessage();
+            if (source == null) continue;
+
+            LastMessage lastMessage = lastMessageCache.get(chat);
+            if (lastMessage == null || lastMessage.source != source) {
+                if (!source.isValid()) continue;
+                MessageItem message = source.isManaged()
+                        ? MessageDatabaseManager.getInstance().getRealmUiThread().copyFromRealm(source)
+                        : source;
+                lastMessage = new LastMessage(source, message,
+                        ContactVO.getForwardedText(chat.getAccount(), source));
+            }
+            lastMessages.put(chat, lastMessage);
+        }
+        lastMessageCache.clear();
+        lastMessageCache.putAll(lastMessages);
+        this.lastMessages = lastMessages;
+
+        Map<String, AbstractChat> chatsByEntity = new HashMap<>();
+        Map<AbstractChat, ChatState> chatStates = new HashMap<>();
+        Map<AbstractChat, AbstractContact> chatContacts = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+        for (AbstractChat chat : chats) {
+            String entityKey = ContactListModel.getEntityKey(chat.getAccount(), chat.getUser());
+            chatsByEntity.put(entityKey, chat);
+            chatStates.put(chat, new ChatState(chat.getUnreadMessageCount(), chat.isArchived()));
+
+            AbstractContact contact = chatContactCache.get(chat);
+            if (contact == null) {
+                contact = chat instanceof RoomChat
+                        ? new RoomContact((RoomChat) chat) : new ChatContact(chat);
+            }
+            chatContacts.put(chat, contact);
+            names.put(entityKey, contact.getName());
+        }
+        chatContactCache.clear();
+        chatContactCache.putAll(chatContacts);
+        for (RosterContact contact : rosterContacts) {
+            names.put(ContactListModel.getEntityKey(contact.getAccount(), contact.getUser()),
+                    contact.getName());
+        }
+        this.chatsByEntity = chatsByEntity;
+        this.chatStates = chatStates;
+        this.chatContacts = chatContacts;
+        this.names = names;
+
+        int unreadCount = crowdfundingUnreadCount;
+        for (AbstractChat chat : chatsOfEnabledAccount) {
+            ChatState state = chatStates.get(chat);
+            if (state != null && !state.archived && chat.notifyAboutMessage())
+                unreadCount += state.unreadCount;
+        }
+        this.unreadCount = unreadCount;
+
+        if (filterString == null || filterString.isEmpty()) {
+            searchTexts = Collections.emptyMap();
+        } else {
+            Map<String, Collection<String>> searchTexts = new HashMap<>();
+            for (AbstractChat chat : chats) putSearchTexts(searchTexts, chat.getAccount(), chat.getUser());
+            for (RosterContact contact : rosterContacts)
+                putSearchTexts(searchTexts, contact.getAccount(), contact.getUser());
+            this.searchTexts = searchTexts;
+        }
+    }
+
+    private void putSearchTexts(Map<String, Collection<String>> searchTexts,
+                                AccountJid account, UserJid user) {
+        String entityKey = ContactListModel.getEntityKey(account, user);
+        List<String> texts = new ArrayList<>(4);
+        texts.add(names.get(entityKey));
+        texts.add(user.toString());
+        StructuredName name = VCardManager.getInstance().getStructuredName(user.getJid());
+        if (name != null) {
+            texts.add(name.getNickName());
+            texts.add(name.getFormattedName());
+        }
+        searchTexts.put(entityKey, texts);
+    }
+
+    /**
+     * @return unmanaged copy of the last message of the chat.
+     */
+    MessageItem getLastMessage(AbstractChat chat) {
+        LastMessage lastMessage = chat == null ? null : lastMessages.get(chat);
+        return lastMessage == null ? null : lastMessage.message;
+    }
+
+    /**
+     * @return the same object while last message of the chat is not changed.
+     */
+    Object getLastMessageVersion(AbstractChat chat) {
+        return chat == null ? null : lastMessages.get(chat);
+    }
+
+    String getForwardedText(AbstractChat chat) {
+        LastMessage lastMessage = chat == null ? null : lastMessages.get(chat);
+        return lastMessage == null ? null : lastMessage.forwardedText;
+    }
+
+    /**
+     * @return chat of the contact, or null if there was no chat when snapshot was taken.
+     */
+    AbstractChat getChat(AccountJid account, UserJid user) {
+        return chatsByEntity.get(ContactListModel.getEntityKey(account, user));
+    }
+
+    int getUnreadCount(AbstractChat chat) {
+        ChatState state = chat == null ? null : chatStates.get(chat);
+        return state == null ? 0 : state.unreadCount;
+    }
+
+    boolean isArchived(AbstractChat chat) {
+        ChatState state = chat == null ? null : chatStates.get(chat);
+        return state != null && state.archived;
+    }
+
+    /**
+     * @return contact to show the chat, the same object is returned by the next snapshots.
+     */
+    AbstractContact getChatContact(AbstractChat chat) {
+        return chatContacts.get(chat);
+    }
+
+    /**
+     * @return name of roster contact or chat.
+     */
+    String getName(AbstractContact contact) {
+        String name = names.get(ContactListModel.getEntityKey(contact.getAccount(), contact.getUser()));
+        return name == null ? contact.getUser().toString() : name;
+    }
+
+    /**
+     * @return name, address and vCard names of the contact, or empty collection if snapshot
+     * was taken without filter string.
+     */
+    Collection<String> getSearchTexts(AbstractContact contact) {
+        Collection<String> texts = searchTexts.get(
+                ContactListModel.getEntityKey(contact.getAccount(), contact.getUser()));
+        return texts == null ? Collections.<String>emptyList() : texts;
+    }
+
+    boolean isCancelled() {
+        return generation != currentGeneration.get();
+    }
+
+    /**
+     * Stops build of the list if newer build was requested.
+     */
+    void checkCancelled() {
+        if (isCancelled()) throw new CancellationException();
+    }
+
+    private static class ChatState {
+        private final int unreadCount;
+        private final boolean archived;
+
+        private ChatState(int unreadCount, boolean archived) {
+            this.unreadCount = unreadCount;
+            this.archived = archived;
+        }
+    }
+
+    static class LastMessage {
+        /**
+         * Message kept by the chat on UI thread.
+         */
+        private final MessageItem source;
+        private final MessageItem message;
+        private final String forwardedText;
+
+        private LastMessage(MessageItem source, MessageItem message, String forwardedText) {
+            this.source = source;
+            this.message = message;
+            this.forwardedText = forwardedText;
+        }
+    }
+}
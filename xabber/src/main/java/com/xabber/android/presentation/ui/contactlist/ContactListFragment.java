@@ -185,6 +185,8 @@ public class ContactListFragment extends Fragment implements ContactListView,
         recyclerView.setAdapter(adapter);
 
         adapter.setSwipeEnabled(true);
+        adapter.setNotifyChangeOfUnfilteredItems(true);
+        adapter.setNotifyMoveOfFilteredItems(true);
         adapter.expandItemsAtStartUp();
         adapter.addListener(this);
         ((SimpleItemAnimator) recyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
@@ -220,7 +222,8 @@ public class ContactListFragment extends Fragment implements ContactListView,
     public void updateItems(List<IFlexible> items) {
         this.items.clear();
         this.items.addAll(items);
-        adapter.updateDataSet(this.items);
+        // items keep ids between updates, so adapter notifies only inserted, moved and changed items
+        adapter.updateDataSet(new ArrayList<>(this.items), true);
     }
 
     /**
@@ -82,6 +82,10 @@ public class AccountVO extends AbstractHeaderItem<AccountVO.ViewHolder> {
         this.listener = listener;
     }
 
+    public void setId(String id) {
+        this.id = id;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof AccountVO) {
@@ -41,6 +41,10 @@ public class ButtonVO extends AbstractFlexibleItem<ButtonVO.ViewHolder> {
         this.account = account;
     }
 
+    public void setId(String id) {
+        this.id = id;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof ButtonVO) {
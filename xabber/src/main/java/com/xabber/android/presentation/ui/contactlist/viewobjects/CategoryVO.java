@@ -19,7 +19,7 @@ import eu.davidea.viewholders.FlexibleViewHolder;
 
 public class CategoryVO extends AbstractFlexibleItem<CategoryVO.ViewHolder> {
 
-    private final String id;
+    private String id;
     private final String title;
 
     public CategoryVO(String title) {
@@ -27,6 +27,10 @@ public class CategoryVO extends AbstractFlexibleItem<CategoryVO.ViewHolder> {
         this.title = title;
     }
 
+    public void setId(String id) {
+        this.id = id;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof CategoryVO) {
@@ -54,7 +54,10 @@ public class ChatVO extends ExtContactVO {
 
     public static ChatVO convert(AbstractContact contact, ContactClickListener listener,
                                  @Nullable IsCurrentChatListener currentChatListener) {
-        ExtContactVO contactVO = ExtContactVO.convert(contact, listener);
+        return convert(ExtContactVO.convert(contact, listener), currentChatListener);
+    }
+
+    public static ChatVO convert(ContactVO contactVO, @Nullable IsCurrentChatListener currentChatListener) {
         return new ChatVO(
                 contactVO.getAccountColorIndicator(), contactVO.getAccountColorIndicatorBack(),
                 contactVO.getName(), contactVO.getStatus(), contactVO.getStatusId(),
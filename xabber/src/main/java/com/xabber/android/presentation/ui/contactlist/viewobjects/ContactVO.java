@@ -18,6 +18,7 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.xabber.android.R;
@@ -53,7 +54,7 @@ import eu.davidea.viewholders.FlexibleViewHolder;
 
 public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
 
-    private final String id;
+    private String id;
 
     private int accountColorIndicator;
     private int accountColorIndicatorBack;
@@ -124,6 +125,26 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
     }
 
     public static ContactVO convert(AbstractContact contact, ContactClickListener listener) {
+        AbstractChat chat = MessageManager.getInstance()
+                .getOrCreateChat(contact.getAccount(), contact.getUser());
+        MessageItem lastMessage = chat.getLastMessage();
+        return convert(contact, contact.getName(), chat, chat.getUnreadMessageCount(), chat.isArchived(),
+                lastMessage, getForwardedText(contact.getAccount(), lastMessage), listener);
+    }
+
+    /**
+     * Converts contact with given name, chat state and last message instead of the ones
+     * kept by contact and chat. Does not access realm, so can be used from background thread
+     * with unmanaged copy of message.
+     *
+     * @param chat chat of the contact, if null chat is taken from {@link MessageManager}.
+     * @param unreadCount unread messages of the chat.
+     * @param forwardedText text to show if last message has only forwarded messages,
+     *                      see {@link #getForwardedText(AccountJid, MessageItem)}.
+     */
+    public static ContactVO convert(AbstractContact contact, String name, @Nullable AbstractChat chat,
+                                    int unreadCount, boolean archived, @Nullable MessageItem lastMessage,
+                                    @Nullable String forwardedText, ContactClickListener listener) {
         int accountColorIndicator;
         int accountColorIndicatorBack;
         Drawable avatar;
@@ -132,7 +153,6 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
         boolean isOutgoing = false;
         Date time = null;
         int messageStatus = 0;
-        int unreadCount = 0;
         int forwardedCount = 0;
         String messageOwner = null;
 
@@ -142,9 +162,6 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
                 .getAccountIndicatorBackColor(contact.getAccount());
         avatar = contact.getAvatar();
 
-
-        String name = contact.getName();
-
         if (MUCManager.getInstance().hasRoom(contact.getAccount(), contact.getUser())) {
             mucIndicatorLevel = 1;
         } else if (MUCManager.getInstance().isMucPrivateChat(contact.getAccount(), contact.getUser())) {
@@ -162,9 +179,8 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
         if (contact instanceof RosterContact)
              lastActivity = ((RosterContact) contact).getLastActivity();
 
-        MessageManager messageManager = MessageManager.getInstance();
-        AbstractChat chat = messageManager.getOrCreateChat(contact.getAccount(), contact.getUser());
-        MessageItem lastMessage = chat.getLastMessage();
+        if (chat == null) chat = MessageManager.getInstance()
+                .getOrCreateChat(contact.getAccount(), contact.getUser());
 
         if (lastMessage == null || lastMessage.getText() == null) {
             messageText = statusText;
@@ -207,14 +223,11 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
             // forwarded
             if (lastMessage.haveForwardedMessages()) {
                 forwardedCount = lastMessage.getForwardedIds().size();
-                if (messageText.isEmpty()) {
-                    String forwardText = lastMessage.getFirstForwardedMessageText(accountColorIndicator);
-                    if (forwardText != null) messageText = forwardText;
-                }
+                if (messageText.isEmpty() && forwardedText != null) messageText = forwardedText;
             }
         }
 
-        if (!isOutgoing) unreadCount = chat.getUnreadMessageCount();
+        if (isOutgoing) unreadCount = 0;
 
         // notification icon
         NotificationState.NotificationMode mode =
@@ -228,10 +241,23 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
                 name, statusText, statusId,
                 statusLevel, avatar, mucIndicatorLevel, contact.getUser(), contact.getAccount(),
                 unreadCount, !chat.notifyAboutMessage(), mode, messageText, isOutgoing, time,
-                messageStatus, messageOwner, chat.isArchived(), lastActivity, listener, forwardedCount,
+                messageStatus, messageOwner, archived, lastActivity, listener, forwardedCount,
                 isCustomNotification, chat.isGroupchat() );
     }
 
+    /**
+     * @return text of the first forwarded message, if last message has forwarded messages
+     * and no own text. Reads forwarded messages from UI thread realm.
+     */
+    @Nullable
+    public static String getForwardedText(AccountJid account, @Nullable MessageItem lastMessage) {
+        if (lastMessage == null || !lastMessage.haveForwardedMessages()
+                || lastMessage.getText() == null || !lastMessage.getText().trim().isEmpty())
+            return null;
+        return lastMessage.getFirstForwardedMessageText(ColorManager.getInstance()
+                .getAccountPainter().getAccountMainColor(account));
+    }
+
     public static ArrayList<IFlexible> convert(Collection<AbstractContact> contacts, ContactClickListener listener) {
         ArrayList<IFlexible> items = new ArrayList<>();
         for (AbstractContact contact : contacts) {
@@ -354,6 +380,14 @@ public class ContactVO extends AbstractFlexibleItem<ContactVO.ViewHolder> {
         return id;
     }
 
+    /**
+     * Sets id that is kept between contact list updates,
+     * so adapter treats converted item as the same item.
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public String getName() {
         return name;
     }
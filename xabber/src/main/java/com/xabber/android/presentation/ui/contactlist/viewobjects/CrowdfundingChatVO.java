@@ -22,7 +22,7 @@ import eu.davidea.viewholders.FlexibleViewHolder;
 
 public class CrowdfundingChatVO extends AbstractFlexibleItem<CrowdfundingChatVO.ViewHolder> {
 
-    private final String id;
+    private String id;
     private final Date time;
     private final int unreadCount;
     private final String messageText;
@@ -47,6 +47,10 @@ public class CrowdfundingChatVO extends AbstractFlexibleItem<CrowdfundingChatVO.
                 accountColorIndicator, accountColorIndicatorBack);
     }
 
+    public void setId(String id) {
+        this.id = id;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof CrowdfundingChatVO) {
@@ -42,7 +42,10 @@ public class ExtContactVO extends ContactVO {
     }
 
     public static ExtContactVO convert(AbstractContact contact, ContactClickListener listener) {
-        ContactVO contactVO = ContactVO.convert(contact, listener);
+        return convert(ContactVO.convert(contact, listener));
+    }
+
+    public static ExtContactVO convert(ContactVO contactVO) {
         return new ExtContactVO(
                 contactVO.getAccountColorIndicator(), contactVO.getAccountColorIndicatorBack(),
                 contactVO.getName(), contactVO.getStatus(), contactVO.getStatusId(),
@@ -77,6 +77,10 @@ public class GroupVO extends AbstractFlexibleItem<GroupVO.ViewHolder>
         this.listener = listener;
     }
 
+    public void setId(String id) {
+        this.id = id;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof GroupVO) {
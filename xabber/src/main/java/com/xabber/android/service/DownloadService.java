@@ -135,15 +135,16 @@ public class DownloadService extends IntentService {
     }
 
     private void saveAttachmentPathToRealm(final String path) {
-        MessageDatabaseManager.getInstance().getNewBackgroundRealm().executeTransaction(new Realm.Transaction() {
+        MessageDatabaseManager.getInstance().executeWriteAndWait("DownloadService.saveAttachmentPath",
+                new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 Attachment attachment = realm.where(Attachment.class)
                         .equalTo(Attachment.Fields.UNIQUE_ID, attachmentId).findFirst();
                 attachment.setFilePath(path);
-                publishCompleted();
             }
         });
+        publishCompleted();
     }
 
     private void publishProgress(long downloadedBytes, long fileSize) {
@@ -156,8 +156,8 @@ public class FileMessageVH extends MessageVH
             if (result) {
                 messageImage.setVisibility(View.VISIBLE);
             } else {
-                final Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-                realm.executeTransactionAsync(new Realm.Transaction() {
+                MessageDatabaseManager.getInstance().executeWrite("FileMessageVH.setUpImage",
+                        new Realm.Transaction() {
                     @Override
                     public void execute(Realm realm) {
                         MessageItem first = realm.where(MessageItem.class)
@@ -225,8 +225,8 @@ public class FileMessageVH extends MessageVH
                                     return;
                                 }
 
-                                final Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-                                realm.executeTransactionAsync(new Realm.Transaction() {
+                                MessageDatabaseManager.getInstance().executeWrite("FileMessageVH.setUpImage",
+                                        new Realm.Transaction() {
                                     @Override
                                     public void execute(Realm realm) {
                                         MessageItem first = realm.where(MessageItem.class)
@@ -29,6 +29,7 @@ import org.jxmpp.jid.parts.Resourcepart;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.realm.OrderedCollectionChangeSet;
 import io.realm.RealmRecyclerViewAdapter;
 import io.realm.RealmResults;
 
@@ -252,6 +253,38 @@ public class MessagesAdapter extends RealmRecyclerViewAdapter<MessageItem, Basic
         }
     }
 
+    @Override
+    public void onChange(@Nullable OrderedCollectionChangeSet changeSet) {
+        if (changeSet == null) {
+            onChange();
+            return;
+        }
+
+        int lastPosition = listener.getLastVisiblePosition();
+        OrderedCollectionChangeSet.Range[] deletions = changeSet.getDeletionRanges();
+        for (int i = deletions.length - 1; i >= 0; i--) {
+            notifyItemRangeRemoved(deletions[i].startIndex, deletions[i].length);
+        }
+        int itemCount = getItemCount();
+        for (OrderedCollectionChangeSet.Range range : changeSet.getInsertionRanges()) {
+            notifyItemRangeInserted(range.startIndex, range.length);
+            // tail and date of neighbours depend on inserted messages
+            if (range.startIndex > 0) notifyItemChanged(range.startIndex - 1);
+            if (range.startIndex + range.length < itemCount)
+                notifyItemChanged(range.startIndex + range.length);
+        }
+        for (OrderedCollectionChangeSet.Range range : changeSet.getChangeRanges()) {
+            notifyItemRangeChanged(range.startIndex, range.length);
+        }
+        listener.onMessagesUpdated();
+
+        if (prevItemCount != itemCount) {
+            if (lastPosition == prevItemCount - 1) listener.scrollTo(itemCount - 1);
+            prevItemCount = itemCount;
+            prevFirstItemId = getFirstMessageId();
+        }
+    }
+
     @Override
     public void onChange() {
         int lastPosition = listener.getLastVisiblePosition();
@@ -271,6 +304,23 @@ public class MessagesAdapter extends RealmRecyclerViewAdapter<MessageItem, Basic
         }
     }
 
+    /**
+     * Replaces messages with window extended by older messages.
+     */
+    public void addOlderMessages(RealmResults<MessageItem> messageItems) {
+        int previousCount = getItemCount();
+        updateRealmResults(messageItems);
+        int added = getItemCount() - previousCount;
+        if (added > 0) {
+            notifyItemRangeInserted(0, added);
+            // date of previously first message depends on added messages
+            if (previousCount > 0) notifyItemChanged(added);
+        } else if (added < 0) notifyDataSetChanged();
+
+        prevItemCount = getItemCount();
+        prevFirstItemId = getFirstMessageId();
+    }
+
     @Nullable
     public MessageItem getMessageItem(int position) {
         if (position == RecyclerView.NO_POSITION) return null;
@@ -70,6 +70,7 @@ import com.xabber.android.data.message.ClipManager;
 import com.xabber.android.data.message.ForwardManager;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.message.MessageUpdateEvent;
+import com.xabber.android.data.message.MessagesWindow;
 import com.xabber.android.data.message.NewIncomingMessageEvent;
 import com.xabber.android.data.message.NewMessageEvent;
 import com.xabber.android.data.message.RegularChat;
@@ -170,6 +171,7 @@ public class ChatFragment extends FileInteractionFragment implements PopupMenu.O
 
     private boolean historyIsLoading = false;
     private RealmResults<MessageItem> messageItems;
+    private MessagesWindow messagesWindow;
 
     private List<HashMap<String, String>> menuItems = null;
 
@@ -364,9 +366,11 @@ public class ChatFragment extends FileInteractionFragment implements PopupMenu.O
         showSecurityButton(true);
 
         if (abstractChat != null) {
-            messageItems = abstractChat.getMessages();
+            messagesWindow = new MessagesWindow(account, user);
+            messageItems = messagesWindow.open(abstractChat.getLastPosition());
         }
 
+        if (chatMessageAdapter != null) chatMessageAdapter.release();
         chatMessageAdapter = new MessagesAdapter(getActivity(), messageItems, abstractChat,
                 this, this, this, this, this,
                 this);
@@ -600,8 +604,14 @@ public class ChatFragment extends FileInteractionFragment implements PopupMenu.O
         if (!historyIsLoading) {
             int invisibleMessagesCount = layoutManager.findFirstVisibleItemPosition();
             if (invisibleMessagesCount <= 15) {
+                if (messagesWindow != null && messagesWindow.hasOlderMessages()) {
+                    chatMessageAdapter.addOlderMessages(messagesWindow.extend());
+                    return;
+                }
                 AbstractChat chat = getChat();
-                if (chat != null) NextMamManager.getInstance().onScrollInChat(chat);
+                if (chat != null && !NextMamManager.getInstance().getHistoryCompleteness(chat).isComplete()) {
+                    NextMamManager.getInstance().onScrollInChat(chat);
+                }
             }
         }
     }
@@ -643,6 +653,10 @@ public class ChatFragment extends FileInteractionFragment implements PopupMenu.O
             LogManager.i(this, "PreviousHistoryLoadFinishedEvent");
             historyIsLoading = false;
             previousHistoryProgressBar.setVisibility(View.GONE);
+            if (messagesWindow != null) {
+                messagesWindow.onHistoryChanged();
+                loadHistoryIfNeed();
+            }
         }
     }
 
@@ -1230,6 +1244,7 @@ public class ChatFragment extends FileInteractionFragment implements PopupMenu.O
 
         if (position == -1) return;
         if (position == chatMessageAdapter.getItemCount() - 1) position = 0;
+        else if (messagesWindow != null) position += messagesWindow.getOffset();
         if (chat != null) chat.saveLastPosition(position);
     }
 
@@ -1240,8 +1255,10 @@ public class ChatFragment extends FileInteractionFragment implements PopupMenu.O
             int unread = chat.getUnreadMessageCount();
             if ((position == 0 || fromNotification) && unread > 0)
                 scrollToFirstUnread(unread);
-            else if (position > 0)
-                layoutManager.scrollToPosition(position);
+            else if (position > 0) {
+                if (messagesWindow != null) position -= messagesWindow.getOffset();
+                if (position >= 0) layoutManager.scrollToPosition(position);
+            }
             setFirstUnreadMessageId(chat.getFirstUnreadMessageId());
             updateNewReceivedMessageCounter(unread);
         }
@@ -1,5 +1,6 @@
 package com.xabber.android.ui.preferences;
 
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.os.Bundle;
 import android.preference.Preference;
@@ -10,8 +11,10 @@ import com.xabber.android.BuildConfig;
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.connection.ConnectionMetricsManager;
 import com.xabber.android.data.extension.mam.NextMamManager;
 import com.xabber.android.data.http.CrowdfundingManager;
+import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.ui.activity.PreferenceSummaryHelperActivity;
@@ -20,6 +23,8 @@ import java.util.Collection;
 
 public class DebugSettingsFragment extends android.preference.PreferenceFragment {
 
+    private static final String LOG_TAG = DebugSettingsFragment.class.getSimpleName();
+
     private ProgressDialog progressDialog;
 
     @Override
@@ -55,6 +60,19 @@ public class DebugSettingsFragment extends android.preference.PreferenceFragment
             });
         }
 
+        DebugBenchmarks.setupPreferences(preferenceScreen);
+
+        Preference prefConnectionMetrics = preferenceScreen.findPreference(getString(R.string.debug_connection_metrics_key));
+        if (prefConnectionMetrics != null) {
+            prefConnectionMetrics.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    showConnectionMetrics();
+                    return true;
+                }
+            });
+        }
+
         if (!BuildConfig.DEBUG) {
             preferenceScreen.removePreference(prefDownloadArchive);
         }
@@ -96,6 +114,16 @@ public class DebugSettingsFragment extends android.preference.PreferenceFragment
         });
     }
 
+    private void showConnectionMetrics() {
+        String dump = ConnectionMetricsManager.getInstance().dump();
+        LogManager.i(LOG_TAG, dump);
+        new AlertDialog.Builder(getActivity())
+                .setTitle("Connection metrics")
+                .setMessage(dump)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
     private void startMessageArchiveDownload() {
         Application.getInstance().runInBackground(new Runnable() {
             @Override
@@ -111,8 +111,8 @@ public class ImageGridBuilder {
                                     return;
                                 }
 
-                                final Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-                                realm.executeTransactionAsync(new Realm.Transaction() {
+                                MessageDatabaseManager.getInstance().executeWrite("ImageGridBuilder.setUpImage",
+                                        new Realm.Transaction() {
                                     @Override
                                     public void execute(Realm realm) {
                                         Attachment first = realm.where(Attachment.class)
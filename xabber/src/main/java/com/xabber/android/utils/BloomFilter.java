@@ -0,0 +1,78 @@
+package com.xabber.android.utils;
+
+/**
+ * Set of strings which can answer "definitely not added" without keeping the strings.
+ * <p/>
+ * {@link #mightContain(String)} never returns false for added string and returns true
+ * for not added one with probability about 1% while number of added strings doesn't exceed
+ * expected one. Uses {@link #BITS_PER_ENTRY} bits per expected string.
+ * <p/>
+ * Not thread safe.
+ */
+public class BloomFilter {
+
+    static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_COUNT = 7;
+    private static final int MIN_BITS = 64;
+
+    private final long[] words;
+    private final int bitCount;
+    private final int expectedEntries;
+    private int size;
+
+    public BloomFilter(int expectedEntries) {
+        this.expectedEntries = Math.max(1, expectedEntries);
+        long bits = Math.max(MIN_BITS, (long) this.expectedEntries * BITS_PER_ENTRY);
+        words = new long[(int) Math.min(Integer.MAX_VALUE / 64, (bits + 63) / 64)];
+        bitCount = words.length * 64;
+    }
+
+    public void add(String key) {
+        int hash1 = key.hashCode();
+        int hash2 = secondHash(key);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+            words[bit >>> 6] |= 1L << bit;
+        }
+        size++;
+    }
+
+    public boolean mightContain(String key) {
+        int hash1 = key.hashCode();
+        int hash2 = secondHash(key);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of {@link #add(String)} calls.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether more strings were added than expected, so false positives are more frequent.
+     */
+    public boolean isOverloaded() {
+        return size > expectedEntries;
+    }
+
+    /**
+     * FNV-1a, independent enough from {@link String#hashCode()}. Always odd,
+     * so probes don't repeat when bit count is a power of two.
+     */
+    private static int secondHash(String key) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
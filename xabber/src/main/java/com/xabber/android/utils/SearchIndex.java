@@ -0,0 +1,152 @@
+package com.xabber.android.utils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory substring search over short texts like names and addresses.
+ * <p/>
+ * Texts are folded once when entry is put: converted to lower case and stripped of diacritics.
+ * Every folded text is split to trigrams, and for each trigram the index keeps list of keys
+ * which texts contain it. Query of three or more characters is checked only against keys
+ * from the shortest list of its trigrams. Shorter queries are checked against all entries,
+ * but without folding texts again.
+ * <p/>
+ * Not thread safe.
+ *
+ * @param <K> key of the entry.
+ */
+public class SearchIndex<K> {
+
+    private static final int GRAM_LENGTH = 3;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final Map<K, Entry> entries = new HashMap<>();
+    private final Map<String, List<K>> grams = new HashMap<>();
+
+    /**
+     * @return text in lower case without diacritics.
+     */
+    public static String fold(String text) {
+        if (text == null) return "";
+        String normalized = Normalizer.normalize(text.toLowerCase(Locale.getDefault()), Normalizer.Form.NFD);
+        return DIACRITICS.matcher(normalized).replaceAll("");
+    }
+
+    /**
+     * Adds entry or replaces texts of existing one.
+     */
+    public void put(K key, Collection<String> texts) {
+        remove(key);
+
+        List<String> foldedTexts = new ArrayList<>(texts.size());
+        Set<String> entryGrams = new HashSet<>();
+        for (String text : texts) {
+            String folded = fold(text);
+            if (folded.isEmpty() || foldedTexts.contains(folded)) continue;
+            foldedTexts.add(folded);
+            for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+                entryGrams.add(folded.substring(i, i + GRAM_LENGTH));
+            }
+        }
+
+        for (String gram : entryGrams) {
+            List<K> keys = grams.get(gram);
+            if (keys == null) {
+                keys = new ArrayList<>();
+                grams.put(gram, keys);
+            }
+            keys.add(key);
+        }
+        entries.put(key, new Entry(foldedTexts.toArray(new String[foldedTexts.size()]), entryGrams));
+    }
+
+    public void remove(K key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) return;
+        for (String gram : entry.grams) {
+            List<K> keys = grams.get(gram);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) grams.remove(gram);
+        }
+    }
+
+    /**
+     * Removes entries with keys not from the collection.
+     */
+    public void retainAll(Collection<K> keys) {
+        Iterator<K> iterator = new ArrayList<>(entries.keySet()).iterator();
+        while (iterator.hasNext()) {
+            K key = iterator.next();
+            if (!keys.contains(key)) remove(key);
+        }
+    }
+
+    public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+        grams.clear();
+    }
+
+    /**
+     * @return keys of entries with at least one text containing the query.
+     * All entries are returned for empty query.
+     */
+    public Set<K> search(String query) {
+        String folded = fold(query);
+        if (folded.isEmpty()) return new HashSet<>(entries.keySet());
+
+        Collection<K> candidates;
+        if (folded.length() < GRAM_LENGTH) {
+            candidates = entries.keySet();
+        } else {
+            candidates = null;
+            for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+                List<K> keys = grams.get(folded.substring(i, i + GRAM_LENGTH));
+                if (keys == null) return Collections.emptySet();
+                if (candidates == null || keys.size() < candidates.size()) candidates = keys;
+            }
+        }
+
+        Set<K> result = new HashSet<>();
+        for (K key : candidates) {
+            if (entries.get(key).matches(folded)) result.add(key);
+        }
+        return result;
+    }
+
+    private static class Entry {
+        private final String[] texts;
+        private final Set<String> grams;
+
+        Entry(String[] texts, Set<String> grams) {
+            this.texts = texts;
+            this.grams = grams;
+        }
+
+        boolean matches(String query) {
+            for (String text : texts) {
+                if (text.contains(query)) return true;
+            }
+            return false;
+        }
+    }
+}
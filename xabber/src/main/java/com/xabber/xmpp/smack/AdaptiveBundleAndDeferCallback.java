@@ -0,0 +1,27 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.packet.Element;
+
+/**
+ * {@link BundleAndDeferCallback} which is informed about queued elements and flushes,
+ * so it can choose the defer period by the content of the bundle and stop deferring early.
+ */
+public interface AdaptiveBundleAndDeferCallback extends BundleAndDeferCallback {
+
+    /**
+     * Called from the sending thread right before element is put to the writer queue,
+     * so the flush which writes the element is always reported after this call.
+     * Must not serialize the element.
+     *
+     * @param element the queued element.
+     */
+    void onElementQueued(Element element);
+
+    /**
+     * Called from the writer thread after the writer was flushed.
+     *
+     * @param elements number of elements written since the previous flush.
+     */
+    void onFlush(int elements);
+
+}
@@ -0,0 +1,22 @@
+package com.xabber.xmpp.smack;
+
+import java.net.InetAddress;
+
+/**
+ * Address family which should be tried first by {@link HappyEyeballsConnector}, usually
+ * the family which won the last race on the current network.
+ */
+public interface AddressFamilyPreference {
+
+    /**
+     * @return {@link java.net.Inet6Address} or {@link java.net.Inet4Address} class,
+     * <code>null</code> to prefer IPv6 as RFC 8305 suggests.
+     */
+    Class<? extends InetAddress> getPreferredFamily();
+
+    /**
+     * Called when connection to the address won the race.
+     */
+    void onConnected(InetAddress address);
+
+}
@@ -16,15 +16,29 @@
  */
 package com.xabber.xmpp.smack;
 
+import org.jivesoftware.smack.packet.Element;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class BundleAndDefer {
 
     private final AtomicBoolean isStopped;
+    private final Element element;
 
-    BundleAndDefer(AtomicBoolean isStopped) {
+    BundleAndDefer(AtomicBoolean isStopped, Element element) {
         this.isStopped = isStopped;
+        this.element = element;
+    }
+
+    /**
+     * Get the element which starts the bundle. It is written together with the elements
+     * queued during the defer period.
+     *
+     * @return the first element of the bundle.
+     */
+    public Element getElement() {
+        return element;
     }
 
     /**
@@ -0,0 +1,367 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.packet.Element;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.sm.packet.StreamManagement.AckRequest;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic and latency counters of {@link XMPPTCPConnection}. Counters are cumulative and
+ * survive reconnection, so the owner can keep one instance for the lifetime of the account.
+ * <p>
+ * Bytes are counted on the socket side of the stream compression ("wire") and on the XML side
+ * ("stream"), they are equal without compression. TLS overhead is not counted.
+ * Stanzas are counted by direction, element and namespace of the first extension,
+ * IQs of type get or set additionally by namespace of their child element.
+ * </p>
+ */
+public class ConnectionMetrics {
+
+    /**
+     * Maximum number of sent IQs waiting for response. The oldest one is forgotten
+     * when the limit is reached, since IQs without response are never removed otherwise.
+     */
+    private static final int MAX_PENDING_IQS = 256;
+
+    /**
+     * Key of SM ack latency in {@link #getLatencies()}.
+     */
+    public static final String SM_ACK = "sm-ack";
+
+    public enum Direction {
+        in,
+        out
+    }
+
+    /**
+     * Count, total and maximum of latencies in milliseconds.
+     */
+    public static class Latency {
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void add(long millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getAverageMillis() {
+            return count > 0 ? totalMillis / count : 0;
+        }
+
+        public synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return count + " x avg " + getAverageMillis() + " ms, max " + maxMillis + " ms";
+        }
+    }
+
+    private static class PendingIq {
+        final String namespace;
+        final long sentNanos;
+
+        PendingIq(String namespace, long sentNanos) {
+            this.namespace = namespace;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private final AtomicLong wireBytesIn = new AtomicLong();
+    private final AtomicLong wireBytesOut = new AtomicLong();
+    private final AtomicLong streamBytesIn = new AtomicLong();
+    private final AtomicLong streamBytesOut = new AtomicLong();
+    private final AtomicLong stanzasIn = new AtomicLong();
+    private final AtomicLong stanzasOut = new AtomicLong();
+    private final AtomicLong connectionAttempts = new AtomicLong();
+    private final AtomicLong connectionsLost = new AtomicLong();
+
+    private final ConcurrentMap<String, AtomicLong> stanzaCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    private final Map<String, PendingIq> pendingIqs = new LinkedHashMap<String, PendingIq>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PendingIq> eldest) {
+            return size() > MAX_PENDING_IQS;
+        }
+    };
+
+    /**
+     * Time when the oldest unanswered ack request was sent, 0 if there is none.
+     */
+    private volatile long ackRequestNanos;
+
+    /**
+     * Wraps stream of the socket, before decompression.
+     */
+    InputStream countWire(InputStream in) {
+        return new CountingInputStream(in, wireBytesIn);
+    }
+
+    OutputStream countWire(OutputStream out) {
+        return new CountingOutputStream(out, wireBytesOut);
+    }
+
+    /**
+     * Wraps stream of the XML, after decompression.
+     */
+    InputStream countStream(InputStream in) {
+        return new CountingInputStream(in, streamBytesIn);
+    }
+
+    OutputStream countStream(OutputStream out) {
+        return new CountingOutputStream(out, streamBytesOut);
+    }
+
+    /**
+     * Called by the writer thread before the element is written.
+     */
+    void onElementSent(Element element) {
+        if (element instanceof Stanza) {
+            onStanzaSent((Stanza) element);
+        } else if (element instanceof AckRequest && ackRequestNanos == 0) {
+            ackRequestNanos = System.nanoTime();
+        }
+    }
+
+    private void onStanzaSent(Stanza stanza) {
+        stanzasOut.incrementAndGet();
+        increment(stanzaCounts, getKey(Direction.out, stanza));
+        if (stanza instanceof IQ && stanza.getStanzaId() != null) {
+            IQ iq = (IQ) stanza;
+            if (iq.getType() == IQ.Type.get || iq.getType() == IQ.Type.set) {
+                String namespace = iq.getChildElementNamespace();
+                synchronized (pendingIqs) {
+                    pendingIqs.put(iq.getStanzaId(), new PendingIq(namespace != null ? namespace : "",
+                            System.nanoTime()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the reader thread when stanza was parsed.
+     */
+    void onStanzaReceived(Stanza stanza) {
+        stanzasIn.incrementAndGet();
+        increment(stanzaCounts, getKey(Direction.in, stanza));
+        if (stanza instanceof IQ && stanza.getStanzaId() != null) {
+            IQ iq = (IQ) stanza;
+            if (iq.getType() == IQ.Type.result || iq.getType() == IQ.Type.error) {
+                PendingIq pendingIq;
+                synchronized (pendingIqs) {
+                    pendingIq = pendingIqs.remove(iq.getStanzaId());
+                }
+                if (pendingIq != null) {
+                    addLatency(pendingIq.namespace, System.nanoTime() - pendingIq.sentNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the reader thread when SM ack answer was received.
+     */
+    void onAckReceived() {
+        long sent = ackRequestNanos;
+        if (sent != 0) {
+            ackRequestNanos = 0;
+            addLatency(SM_ACK, System.nanoTime() - sent);
+        }
+    }
+
+    /**
+     * Forgets requests sent over the closed stream, their responses will never come.
+     */
+    void onStreamClosed() {
+        ackRequestNanos = 0;
+        synchronized (pendingIqs) {
+            pendingIqs.clear();
+        }
+    }
+
+    public void onConnectionAttempt() {
+        connectionAttempts.incrementAndGet();
+    }
+
+    public void onConnectionLost() {
+        connectionsLost.incrementAndGet();
+    }
+
+    private void addLatency(String key, long nanos) {
+        Latency latency = latencies.get(key);
+        if (latency == null) {
+            Latency newLatency = new Latency();
+            latency = latencies.putIfAbsent(key, newLatency);
+            if (latency == null) {
+                latency = newLatency;
+            }
+        }
+        latency.add(nanos / 1000000);
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counts, String key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static String getKey(Direction direction, Stanza stanza) {
+        String element;
+        String namespace = null;
+        if (stanza instanceof IQ) {
+            element = IQ.IQ_ELEMENT;
+            namespace = ((IQ) stanza).getChildElementNamespace();
+        } else if (stanza instanceof Message) {
+            element = Message.ELEMENT;
+        } else if (stanza instanceof Presence) {
+            element = Presence.ELEMENT;
+        } else {
+            element = stanza.getClass().getSimpleName();
+        }
+        if (namespace == null) {
+            List<ExtensionElement> extensions = stanza.getExtensions();
+            if (!extensions.isEmpty()) {
+                namespace = extensions.get(0).getNamespace();
+            }
+        }
+        return direction + " " + element + (namespace != null ? " " + namespace : "");
+    }
+
+    public long getWireBytesIn() {
+        return wireBytesIn.get();
+    }
+
+    public long getWireBytesOut() {
+        return wireBytesOut.get();
+    }
+
+    public long getStreamBytesIn() {
+        return streamBytesIn.get();
+    }
+
+    public long getStreamBytesOut() {
+        return streamBytesOut.get();
+    }
+
+    public long getStanzasIn() {
+        return stanzasIn.get();
+    }
+
+    public long getStanzasOut() {
+        return stanzasOut.get();
+    }
+
+    public long getConnectionAttempts() {
+        return connectionAttempts.get();
+    }
+
+    public long getConnectionsLost() {
+        return connectionsLost.get();
+    }
+
+    /**
+     * @return stanza counts by "direction element [namespace]", sorted by key.
+     */
+    public Map<String, Long> getStanzaCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : stanzaCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return IQ round-trip latencies by namespace and SM ack latency by {@link #SM_ACK}, sorted by key.
+     */
+    public Map<String, Latency> getLatencies() {
+        return Collections.unmodifiableMap(new TreeMap<>(latencies));
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final AtomicLong count;
+
+        CountingOutputStream(OutputStream out, AtomicLong count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream writes arrays byte by byte
+            out.write(b, off, len);
+            count.addAndGet(len);
+        }
+    }
+}
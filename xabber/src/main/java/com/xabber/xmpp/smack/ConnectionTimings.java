@@ -0,0 +1,89 @@
+package com.xabber.xmpp.smack;
+
+/**
+ * Durations of the phases of the last connection attempt of {@link XMPPTCPConnection}.
+ */
+public class ConnectionTimings {
+
+    public enum Phase {
+        DNS,
+        TCP,
+        TLS,
+        SASL,
+        BIND,
+        /**
+         * Started by the connection after login, should be finished by the roster listener.
+         */
+        ROSTER
+    }
+
+    private static final long NOT_MEASURED = -1;
+
+    private final long[] starts = new long[Phase.values().length];
+    private final long[] durations = new long[Phase.values().length];
+
+    public ConnectionTimings() {
+        reset();
+    }
+
+    /**
+     * Forgets all durations, called when new connection attempt starts.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < durations.length; i++) {
+            starts[i] = NOT_MEASURED;
+            durations[i] = NOT_MEASURED;
+        }
+    }
+
+    public synchronized void start(Phase phase) {
+        starts[phase.ordinal()] = System.currentTimeMillis();
+        durations[phase.ordinal()] = NOT_MEASURED;
+    }
+
+    /**
+     * Finishes the phase. Does nothing if the phase was not started or was already finished.
+     */
+    public synchronized void finish(Phase phase) {
+        long start = starts[phase.ordinal()];
+        if (start == NOT_MEASURED) {
+            return;
+        }
+        durations[phase.ordinal()] = System.currentTimeMillis() - start;
+        starts[phase.ordinal()] = NOT_MEASURED;
+    }
+
+    /**
+     * @return duration of the phase in milliseconds, negative if the phase was not finished.
+     */
+    public synchronized long getDuration(Phase phase) {
+        return durations[phase.ordinal()];
+    }
+
+    /**
+     * @return sum of durations of finished phases in milliseconds.
+     */
+    public synchronized long getTotal() {
+        long total = 0;
+        for (long duration : durations) {
+            if (duration != NOT_MEASURED) {
+                total += duration;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(phase).append(": ");
+            long duration = durations[phase.ordinal()];
+            sb.append(duration == NOT_MEASURED ? "-" : duration + " ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,272 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.util.dns.HostAddress;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.SocketFactory;
+
+/**
+ * Races TCP connections to the server addresses in the spirit of RFC 8305 (Happy Eyeballs).
+ * <p>
+ * Addresses of each host are interleaved by family, preferred family first, and hosts are taken
+ * in the order of the SRV records. Next connection attempt starts when the previous one fails
+ * or after the attempt delay, at most {@link #MAX_RUNNING_ATTEMPTS} attempts run at once.
+ * Every address is tried until one connects. The first established connection wins,
+ * the others are closed.
+ * </p>
+ */
+public class HappyEyeballsConnector {
+
+    private static final Logger LOGGER = Logger.getLogger(HappyEyeballsConnector.class.getName());
+
+    /**
+     * Maximum number of connection attempts running at once, the rest wait for them to fail.
+     */
+    static final int MAX_RUNNING_ATTEMPTS = 8;
+
+    /**
+     * Established connection which won the race.
+     */
+    public static final class Winner {
+        private final Socket socket;
+        private final HostAddress hostAddress;
+        private final InetAddress address;
+
+        private Winner(Socket socket, HostAddress hostAddress, InetAddress address) {
+            this.socket = socket;
+            this.hostAddress = hostAddress;
+            this.address = address;
+        }
+
+        public Socket getSocket() {
+            return socket;
+        }
+
+        public HostAddress getHostAddress() {
+            return hostAddress;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+    }
+
+    static final class Candidate {
+        final HostAddress hostAddress;
+        final InetAddress address;
+
+        Candidate(HostAddress hostAddress, InetAddress address) {
+            this.hostAddress = hostAddress;
+            this.address = address;
+        }
+
+        @Override
+        public String toString() {
+            return address + " at port " + hostAddress.getPort();
+        }
+    }
+
+    private final SocketFactory socketFactory;
+    private final int timeout;
+    private final int attemptDelay;
+    private final Class<? extends InetAddress> preferredFamily;
+
+    private final List<Socket> sockets = new ArrayList<>();
+    private boolean finished;
+
+    /**
+     * @param timeout         connect timeout of each attempt in milliseconds.
+     * @param attemptDelay    delay before the next attempt in milliseconds.
+     * @param preferredFamily family to try first, <code>null</code> for IPv6.
+     */
+    public HappyEyeballsConnector(SocketFactory socketFactory, int timeout, int attemptDelay,
+                                  Class<? extends InetAddress> preferredFamily) {
+        this.socketFactory = socketFactory;
+        this.timeout = timeout;
+        this.attemptDelay = attemptDelay;
+        this.preferredFamily = preferredFamily != null ? preferredFamily : Inet6Address.class;
+    }
+
+    /**
+     * Races connections to the addresses. Failed attempts are reported to their host addresses.
+     * Can be called once.
+     *
+     * @return the established connection or <code>null</code> if all attempts failed.
+     */
+    public Winner connect(List<HostAddress> hostAddresses) throws InterruptedException {
+        List<Candidate> candidates = orderCandidates(hostAddresses, preferredFamily);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private int count;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Happy Eyeballs attempt #" + ++count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Attempt> completion = new ExecutorCompletionService<>(executor);
+        Attempt winner = null;
+        try {
+            int next = 0;
+            int running = 0;
+            completion.submit(new Attempt(candidates.get(next++)));
+            running++;
+            while (running > 0) {
+                Future<Attempt> future = next < candidates.size() && running < MAX_RUNNING_ATTEMPTS
+                        ? completion.poll(attemptDelay, TimeUnit.MILLISECONDS)
+                        : completion.take();
+                if (future == null) {
+                    // previous attempts are still running, start the next one
+                    completion.submit(new Attempt(candidates.get(next++)));
+                    running++;
+                    continue;
+                }
+
+                running--;
+                Attempt attempt = getAttempt(future);
+                if (attempt.socket != null) {
+                    winner = attempt;
+                    break;
+                }
+                LOGGER.log(Level.FINER, "Connection attempt to " + attempt.candidate + " failed", attempt.exception);
+                attempt.candidate.hostAddress.setException(attempt.candidate.address, attempt.exception);
+                if (next < candidates.size()) {
+                    completion.submit(new Attempt(candidates.get(next++)));
+                    running++;
+                }
+            }
+        } finally {
+            finish(winner != null ? winner.socket : null);
+            executor.shutdownNow();
+        }
+
+        if (winner == null) {
+            return null;
+        }
+        LOGGER.finer("Connection to " + winner.candidate + " won the race");
+        return new Winner(winner.socket, winner.candidate.hostAddress, winner.candidate.address);
+    }
+
+    /**
+     * Orders addresses for the race: hosts in the given order, addresses of each host interleaved
+     * by family starting with the preferred one.
+     */
+    static List<Candidate> orderCandidates(List<HostAddress> hostAddresses,
+                                           Class<? extends InetAddress> preferredFamily) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (HostAddress hostAddress : hostAddresses) {
+            List<InetAddress> preferred = new ArrayList<>();
+            List<InetAddress> other = new ArrayList<>();
+            for (InetAddress address : hostAddress.getInetAddresses()) {
+                if (preferredFamily.isInstance(address)) {
+                    preferred.add(address);
+                } else {
+                    other.add(address);
+                }
+            }
+            for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+                if (i < preferred.size()) {
+                    candidates.add(new Candidate(hostAddress, preferred.get(i)));
+                }
+                if (i < other.size()) {
+                    candidates.add(new Candidate(hostAddress, other.get(i)));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static Attempt getAttempt(Future<Attempt> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // Attempt catches everything itself
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return false if the race is over and the socket should not connect.
+     */
+    private boolean register(Socket socket) {
+        synchronized (sockets) {
+            if (finished) {
+                return false;
+            }
+            sockets.add(socket);
+            return true;
+        }
+    }
+
+    /**
+     * Closes all sockets except the winner, which interrupts their connection attempts.
+     */
+    private void finish(Socket winner) {
+        synchronized (sockets) {
+            finished = true;
+            for (Socket socket : sockets) {
+                if (socket != winner) {
+                    closeQuietly(socket);
+                }
+            }
+            sockets.clear();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, "Failed to close socket of lost connection attempt", e);
+        }
+    }
+
+    private final class Attempt implements Callable<Attempt> {
+        final Candidate candidate;
+        Socket socket;
+        Exception exception;
+
+        Attempt(Candidate candidate) {
+            this.candidate = candidate;
+        }
+
+        @Override
+        public Attempt call() {
+            try {
+                Socket socket = socketFactory.createSocket();
+                if (!register(socket)) {
+                    closeQuietly(socket);
+                    throw new IOException("Connection race is over");
+                }
+                socket.connect(new InetSocketAddress(candidate.address, candidate.hostAddress.getPort()), timeout);
+                this.socket = socket;
+            } catch (Exception e) {
+                exception = e;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * UTF-8 writer of stream elements to the socket or compression stream.
+ * <p>
+ * Unlike {@link java.io.OutputStreamWriter} it does not allocate anything per write:
+ * characters of strings and other char sequences are copied in chunks to the reusable
+ * char buffer, and encoded by the reusable encoder to the reusable byte buffer,
+ * which is written to the stream when it is full or flushed.
+ * {@link XmlStringBuilder} given to {@link #append(CharSequence)} is written part by part,
+ * without building the whole element string.
+ * </p>
+ */
+public class StanzaWriter extends Writer {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final char[] chunk = new char[CHUNK_SIZE];
+    private final CharBuffer chars = CharBuffer.wrap(chunk);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Number of characters at the start of chunk not encoded by the previous write,
+     * that is high surrogate waiting for its pair.
+     */
+    private int carried;
+
+    public StanzaWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            chunk[carried] = (char) c;
+            encodeChunk(carried + 1);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        synchronized (lock) {
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE - carried);
+                System.arraycopy(cbuf, off, chunk, carried, count);
+                encodeChunk(carried + count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        synchronized (lock) {
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE - carried);
+                str.getChars(off, off + count, chunk, carried);
+                encodeChunk(carried + count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if (csq == null) {
+            write("null");
+        } else if (csq instanceof XmlStringBuilder) {
+            ((XmlStringBuilder) csq).write(this);
+        } else if (csq instanceof String) {
+            write((String) csq, 0, csq.length());
+        } else {
+            append(csq, 0, csq.length());
+        }
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) csq = "null";
+        if (csq instanceof String) {
+            write((String) csq, start, end - start);
+            return this;
+        }
+        synchronized (lock) {
+            while (start < end) {
+                int count = Math.min(end - start, CHUNK_SIZE - carried);
+                for (int i = 0; i < count; i++) {
+                    chunk[carried + i] = csq.charAt(start + i);
+                }
+                encodeChunk(carried + count);
+                start += count;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            writeBytes();
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            chars.clear();
+            chars.limit(carried);
+            carried = 0;
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            encoder.reset();
+            flush();
+            out.close();
+        }
+    }
+
+    private void encodeChunk(int length) throws IOException {
+        chars.clear();
+        chars.limit(length);
+        encode(false);
+
+        carried = chars.remaining();
+        if (carried > 0) {
+            System.arraycopy(chunk, chars.position(), chunk, 0, carried);
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                writeBytes();
+            } else if (result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.xabber.xmpp.smack;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the resumable Stream Management (XEP-0198) session of {@link XMPPTCPConnection},
+ * which can be stored and restored by the new connection to resume the session after restart.
+ */
+public class StreamManagementState {
+
+    private static final int VERSION = 1;
+
+    private final String sessionId;
+    private final String user;
+    private final long clientHandledCount;
+    private final long serverHandledCount;
+    private final int maxResumptionTime;
+    private final long timestamp;
+    private final List<String> unacknowledgedStanzas;
+
+    /**
+     * @param user                  full jid bound to the session.
+     * @param maxResumptionTime     maximum resumption time in seconds.
+     * @param timestamp             time when the session was known to be alive.
+     * @param unacknowledgedStanzas XML of the stanzas not yet acknowledged by the server.
+     */
+    public StreamManagementState(String sessionId, String user, long clientHandledCount,
+                                 long serverHandledCount, int maxResumptionTime, long timestamp,
+                                 List<String> unacknowledgedStanzas) {
+        this.sessionId = sessionId;
+        this.user = user;
+        this.clientHandledCount = clientHandledCount;
+        this.serverHandledCount = serverHandledCount;
+        this.maxResumptionTime = maxResumptionTime;
+        this.timestamp = timestamp;
+        this.unacknowledgedStanzas = Collections.unmodifiableList(unacknowledgedStanzas);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public long getClientHandledCount() {
+        return clientHandledCount;
+    }
+
+    public long getServerHandledCount() {
+        return serverHandledCount;
+    }
+
+    public int getMaxResumptionTime() {
+        return maxResumptionTime;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<String> getUnacknowledgedStanzas() {
+        return unacknowledgedStanzas;
+    }
+
+    /**
+     * @return whether server has probably dropped the session by now.
+     */
+    public boolean isExpired(long now) {
+        return now > timestamp + maxResumptionTime * 1000L;
+    }
+
+    /**
+     * @return whether the other state describes the same point of the same session,
+     * regardless of time it was taken.
+     */
+    public boolean isSameSessionPoint(StreamManagementState other) {
+        return other != null && sessionId.equals(other.sessionId) && user.equals(other.user)
+                && clientHandledCount == other.clientHandledCount
+                && serverHandledCount == other.serverHandledCount
+                && unacknowledgedStanzas.equals(other.unacknowledgedStanzas);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(sessionId);
+        out.writeUTF(user);
+        out.writeLong(clientHandledCount);
+        out.writeLong(serverHandledCount);
+        out.writeInt(maxResumptionTime);
+        out.writeLong(timestamp);
+        out.writeInt(unacknowledgedStanzas.size());
+        for (String stanza : unacknowledgedStanzas) {
+            // writeUTF is limited to 64K, stanzas can be longer
+            byte[] bytes = stanza.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static StreamManagementState read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported stream management state version " + version);
+        }
+        String sessionId = in.readUTF();
+        String user = in.readUTF();
+        long clientHandledCount = in.readLong();
+        long serverHandledCount = in.readLong();
+        int maxResumptionTime = in.readInt();
+        long timestamp = in.readLong();
+        int count = in.readInt();
+        List<String> stanzas = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            stanzas.add(new String(bytes, "UTF-8"));
+        }
+        return new StreamManagementState(sessionId, user, clientHandledCount, serverHandledCount,
+                maxResumptionTime, timestamp, stanzas);
+    }
+
+    @Override
+    public String toString() {
+        return "session " + sessionId + " of " + user + ", h " + clientHandledCount + "/" + serverHandledCount
+                + ", " + unacknowledgedStanzas.size() + " unacknowledged stanzas";
+    }
+}
@@ -0,0 +1,17 @@
+package com.xabber.xmpp.smack;
+
+/**
+ * Informed when the resumable Stream Management (XEP-0198) session of {@link XMPPTCPConnection}
+ * changes: a stanza was handled by either side or was queued as unacknowledged.
+ */
+public interface StreamManagementStateListener {
+
+    /**
+     * Called from the reader or writer thread of the connection, must return quickly.
+     *
+     * @param connection connection which state can be taken by
+     *                   {@link XMPPTCPConnection#getStreamManagementState()}.
+     */
+    void onStreamManagementStateChanged(XMPPTCPConnection connection);
+
+}
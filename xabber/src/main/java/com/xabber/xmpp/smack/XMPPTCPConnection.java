@@ -69,6 +69,7 @@ import org.jivesoftware.smack.util.XmlStringBuilder;
 import org.jivesoftware.smack.util.dns.HostAddress;
 import org.jivesoftware.smack.util.dns.SmackDaneProvider;
 import org.jivesoftware.smack.util.dns.SmackDaneVerifier;
+import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.jid.parts.Resourcepart;
 import org.jxmpp.stringprep.XmppStringprepException;
@@ -89,14 +90,12 @@ import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.PasswordCallback;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
@@ -163,6 +162,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     protected XMPPTCPConnection.PacketReader packetReader;
 
+    private final ConnectionTimings timings = new ConnectionTimings();
+
+    private volatile ConnectionMetrics metrics = new ConnectionMetrics();
+
     private final SynchronizationPoint<Exception> initalOpenStreamSend = new SynchronizationPoint<>(
             this, "initial open stream element send to server");
 
@@ -256,6 +259,14 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     private boolean smWasEnabledAtLeastOnce = false;
 
+    /**
+     * Time the restored stream management state was taken, used while this connection has
+     * no packet writer and so no shutdown timestamp.
+     */
+    private long restoredSmStateTimestamp;
+
+    private volatile StreamManagementStateListener streamManagementStateListener;
+
     /**
      * This listeners are invoked for every stanza that got acknowledged.
      * <p>
@@ -370,7 +381,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             SmackException, IOException, InterruptedException {
         // Authenticate using SASL
         SSLSession sslSession = secureSocket != null ? secureSocket.getSession() : null;
+        timings.start(ConnectionTimings.Phase.SASL);
         saslAuthentication.authenticate(username, password, config.getAuthzid(), sslSession);
+        timings.finish(ConnectionTimings.Phase.SASL);
 
         // If compression is enabled then request the server to use stream compression. XEP-170
         // recommends to perform stream compression before resource binding.
@@ -413,7 +426,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         // Now bind the resource. It is important to do this *after* we dropped an eventually
         // existing Stream Management state. As otherwise <bind/> and <session/> may end up in
         // unacknowledgedStanzas and become duplicated on reconnect. See SMACK-706.
+        timings.start(ConnectionTimings.Phase.BIND);
         bindResourceAndEstablishSession(resource);
+        timings.finish(ConnectionTimings.Phase.BIND);
 
         if (isSmAvailable() && useSm) {
             // Remove what is maybe left from previously stream managed sessions
@@ -435,9 +450,31 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             sendStanzaInternal(stanza);
         }
 
+        timings.start(ConnectionTimings.Phase.ROSTER);
         afterSuccessfulLogin(false);
     }
 
+    /**
+     * @return durations of the phases of the last connection attempt.
+     */
+    public ConnectionTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return traffic and latency counters of the connection.
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets counters to use from the next stream, so they can outlive the connection.
+     */
+    public void setMetrics(ConnectionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public boolean isSecureConnection() {
         return secureSocket != null;
@@ -522,6 +559,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         secureSocket = null;
         reader = null;
         writer = null;
+        metrics.onStreamClosed();
 
         maybeCompressFeaturesReceived.init();
         compressSyncPoint.init();
@@ -549,13 +587,20 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     }
 
     private void connectUsingConfiguration() throws ConnectionException, IOException {
+        timings.start(ConnectionTimings.Phase.DNS);
         List<HostAddress> failedAddresses = populateHostAddresses();
+        timings.finish(ConnectionTimings.Phase.DNS);
+        timings.start(ConnectionTimings.Phase.TCP);
         SocketFactory socketFactory = config.getSocketFactory();
         ProxyInfo proxyInfo = config.getProxyInfo();
         int timeout = config.getConnectTimeout();
         if (socketFactory == null) {
             socketFactory = SocketFactory.getDefault();
         }
+        if (proxyInfo == null && config.isParallelConnectEnabled()) {
+            connectInParallel(failedAddresses, socketFactory, timeout);
+            return;
+        }
         for (HostAddress hostAddress : hostAddresses) {
             Iterator<InetAddress> inetAddresses = null;
             String host = hostAddress.getFQDN();
@@ -574,6 +619,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                     LOGGER.finer("Trying to establish TCP connection to " + inetAddressAndPort);
                     try {
                         socket.connect(new InetSocketAddress(inetAddress, port), timeout);
+                        timings.finish(ConnectionTimings.Phase.TCP);
                     } catch (Exception e) {
                         hostAddress.setException(inetAddress, e);
                         if (inetAddresses.hasNext()) {
@@ -609,6 +655,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 LOGGER.finer("Trying to establish TCP connection via Proxy to " + hostAndPort);
                 try {
                     proxyInfo.getProxySocketConnection().connect(socket, host, port, timeout);
+                    timings.finish(ConnectionTimings.Phase.TCP);
                 } catch (IOException e) {
                     hostAddress.setException(e);
                     continue;
@@ -626,6 +673,51 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         throw ConnectionException.from(failedAddresses);
     }
 
+    private void connectInParallel(List<HostAddress> failedAddresses, SocketFactory socketFactory, int timeout)
+            throws ConnectionException, IOException {
+        AddressFamilyPreference familyPreference = config.getAddressFamilyPreference();
+        HappyEyeballsConnector connector = new HappyEyeballsConnector(socketFactory, timeout,
+                config.getConnectionAttemptDelay(),
+                familyPreference != null ? familyPreference.getPreferredFamily() : null);
+
+        HappyEyeballsConnector.Winner winner;
+        try {
+            winner = connector.connect(hostAddresses);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        }
+
+        if (winner == null) {
+            for (HostAddress hostAddress : hostAddresses) {
+                if (!hostAddress.getExceptions().isEmpty()) {
+                    failedAddresses.add(hostAddress);
+                }
+            }
+            throw ConnectionException.from(failedAddresses);
+        }
+
+        socket = winner.getSocket();
+        timings.finish(ConnectionTimings.Phase.TCP);
+        if (familyPreference != null) {
+            familyPreference.onConnected(winner.getAddress());
+        }
+
+        // support legacy SSL
+        if (ConnectionConfiguration.SecurityMode.legacy == config.getSecurityMode()) {
+            try {
+                proceedTLSReceived();
+            } catch (Exception e) {
+                throw ConnectionException.from(failedAddresses);
+            }
+        }
+
+        LOGGER.finer("Established TCP connection to " + winner.getAddress() + " at port "
+                + winner.getHostAddress().getPort());
+        this.host = winner.getHostAddress().getFQDN();
+        this.port = winner.getHostAddress().getPort();
+    }
+
     /**
      * Initializes the connection by creating a stanza(/packet) reader and writer and opening a
      * XMPP stream to the server.
@@ -662,15 +754,17 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     }
 
     private void initReaderAndWriter() throws IOException {
-        InputStream is = socket.getInputStream();
-        OutputStream os = socket.getOutputStream();
+        InputStream is = metrics.countWire(socket.getInputStream());
+        OutputStream os = metrics.countWire(socket.getOutputStream());
         if (compressionHandler != null) {
             is = compressionHandler.getInputStream(is);
             os = compressionHandler.getOutputStream(os);
         }
-        // OutputStreamWriter is already buffered, no need to wrap it into a BufferedWriter
-        writer = new OutputStreamWriter(os, "UTF-8");
-        reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        is = metrics.countStream(is);
+        os = metrics.countStream(os);
+        // StanzaWriter is already buffered, no need to wrap it into a BufferedWriter
+        writer = new StanzaWriter(os);
+        reader = XmppStreamReader.newReader(is, config.getReadBufferSize());
 
         // If debugging is enabled, we open a window and write out all network traffic.
         initDebugger();
@@ -690,6 +784,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @throws SmackException
      */
     private void proceedTLSReceived() throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException, NoSuchProviderException, UnrecoverableKeyException, KeyManagementException, SmackException {
+        timings.start(ConnectionTimings.Phase.TLS);
         SSLContext context = this.config.getCustomSSLContext();
         KeyStore ks = null;
         KeyManager[] kms = null;
@@ -806,6 +901,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         if (daneVerifier != null) {
             daneVerifier.finish(sslSocket);
         }
+        timings.finish(ConnectionTimings.Phase.TLS);
 
         final HostnameVerifier verifier = getConfiguration().getHostnameVerifier();
         if (verifier == null) {
@@ -889,6 +985,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     @Override
     protected void connectInternal() throws SmackException, IOException, XMPPException, InterruptedException {
         closingStreamReceived.init();
+        timings.reset();
         // Establishes the TCP connection to the server and does setup the reader and writer. Throws an exception if
         // there is an error establishing the connection
         connectUsingConfiguration();
@@ -917,6 +1014,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         callConnectionClosedOnErrorListener(e);
     }
 
+    @Override
+    protected void processStanza(Stanza stanza) throws InterruptedException {
+        metrics.onStanzaReceived(stanza);
+        super.processStanza(stanza);
+    }
+
     /**
      * For unit testing purposes
      *
@@ -975,7 +1078,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         String id = getStreamId();
         sendNonza(new StreamOpen(to, from, id));
         try {
-            packetReader.parser = PacketParserUtils.newXmppParser(reader);
+            // Stream restarts after TLS, SASL and compression happen on the reader thread and
+            // can reuse its parser. A new connection gets a new parser, as the reader thread
+            // of the previous one could still use the old parser.
+            XmlPullParser parser = Thread.currentThread() == packetReader.thread ? packetReader.parser : null;
+            packetReader.parser = XmppStreamReader.resetParser(parser, reader);
         }
         catch (XmlPullParserException e) {
             throw new SmackException(e);
@@ -986,6 +1093,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
         XmlPullParser parser;
 
+        /**
+         * Thread parsing the stream, <code>null</code> if it was not started yet.
+         */
+        volatile Thread thread;
+
         private volatile boolean done;
 
         /**
@@ -1015,6 +1127,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          *
          */
         private void parsePackets() {
+            thread = Thread.currentThread();
             try {
                 initalOpenStreamSend.checkIfSuccessOrWait();
                 int eventType = parser.getEventType();
@@ -1030,6 +1143,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                                         parseAndProcessStanza(parser);
                                     } finally {
                                         clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
+                                        notifyStreamManagementStateChanged();
                                     }
                                     break;
                                 case "stream":
@@ -1176,11 +1290,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                                     LOGGER.fine("Stream Management (XEP-198): Stream resumed");
                                     break;
                                 case AckAnswer.ELEMENT:
-                                    AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
-                                    processHandledCount(ackAnswer.getHandledCount());
+                                    // Acks are frequent, parse them without creating the element
+                                    processHandledCount(XmppStreamReader.parseHandledCount(parser));
+                                    metrics.onAckReceived();
                                     break;
                                 case AckRequest.ELEMENT:
-                                    ParseStreamManagement.ackRequest(parser);
+                                    XmppStreamReader.skipElement(parser);
                                     if (smEnabledSyncPoint.wasSuccessful()) {
                                         sendSmAcknowledgementInternal();
                                     } else {
@@ -1273,6 +1388,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          */
         private boolean shouldBundleAndDefer;
 
+        /**
+         * Number of elements written since the last flush. Accessed only by the writer thread.
+         */
+        private int unflushedElements;
+
         /**
          * Initializes the writer in order to be used. It is called at the first connection and also
          * is invoked if the connection is disconnected by an error.
@@ -1280,6 +1400,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         void init() {
             shutdownDone.init();
             shutdownTimestamp = null;
+            unflushedElements = 0;
 
             if (unacknowledgedStanzas != null) {
                 // It's possible that there are new stanzas in the writer queue that
@@ -1321,6 +1442,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          */
         protected void sendStreamElement(Element element) throws NotConnectedException, InterruptedException {
             throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+            // before the element can be written, so the callback never sees it after its flush
+            final BundleAndDeferCallback localBundleAndDeferCallback = bundleAndDeferCallback;
+            if (localBundleAndDeferCallback instanceof AdaptiveBundleAndDeferCallback) {
+                ((AdaptiveBundleAndDeferCallback) localBundleAndDeferCallback).onElementQueued(element);
+            }
             try {
                 queue.put(element);
             }
@@ -1400,7 +1526,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         shouldBundleAndDefer = false;
                         final AtomicBoolean bundlingAndDeferringStopped = new AtomicBoolean();
                         final int bundleAndDeferMillis = localBundleAndDeferCallback.getBundleAndDeferMillis(new BundleAndDefer(
-                                bundlingAndDeferringStopped));
+                                bundlingAndDeferringStopped, element));
                         if (bundleAndDeferMillis > 0) {
                             long remainingWait = bundleAndDeferMillis;
                             final long waitStart = System.currentTimeMillis();
@@ -1426,16 +1552,16 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                     }
                     maybeAddToUnacknowledgedStanzas(packet);
 
-                    CharSequence elementXml = element.toXML();
-                    if (elementXml instanceof XmlStringBuilder) {
-                        ((XmlStringBuilder) elementXml).write(writer);
-                    }
-                    else {
-                        writer.write(elementXml.toString());
-                    }
+                    writeElement(element);
 
+                    unflushedElements++;
                     if (queue.isEmpty()) {
                         writer.flush();
+                        if (localBundleAndDeferCallback instanceof AdaptiveBundleAndDeferCallback) {
+                            ((AdaptiveBundleAndDeferCallback) localBundleAndDeferCallback)
+                                    .onFlush(unflushedElements);
+                        }
+                        unflushedElements = 0;
                     }
                     if (packet != null) {
                         firePacketSendingListeners(packet);
@@ -1450,7 +1576,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                                 Stanza stanza = (Stanza) packet;
                                 maybeAddToUnacknowledgedStanzas(stanza);
                             }
-                            writer.write(packet.toXML().toString());
+                            writeElement(packet);
                         }
                         writer.flush();
                     }
@@ -1499,6 +1625,20 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        /**
+         * Writes the element without building its whole string, if the writer supports it.
+         */
+        private void writeElement(Element element) throws IOException {
+            metrics.onElementSent(element);
+            CharSequence elementXml = element.toXML();
+            if (elementXml instanceof XmlStringBuilder) {
+                ((XmlStringBuilder) elementXml).write(writer);
+            }
+            else {
+                writer.append(elementXml);
+            }
+        }
+
         private void drainWriterQueueToUnacknowledgedStanzas() {
             List<Element> elements = new ArrayList<Element>(queue.size());
             queue.drainTo(elements);
@@ -1518,13 +1658,14 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 // If the unacknowledgedStanza queue is nearly full, request an new ack
                 // from the server in order to drain it
                 if (unacknowledgedStanzas.size() == 0.8 * XMPPTCPConnection.QUEUE_SIZE) {
-                    writer.write(AckRequest.INSTANCE.toXML().toString());
+                    writeElement(AckRequest.INSTANCE);
                     writer.flush();
                 }
                 try {
                     // It is important the we put the stanza in the unacknowledged stanza
                     // queue before we put it on the wire
                     unacknowledgedStanzas.put(stanza);
+                    notifyStreamManagementStateChanged();
                 }
                 catch (InterruptedException e) {
                     throw new IllegalStateException(e);
@@ -1795,7 +1936,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         if (smSessionId == null)
             return false;
 
-        final Long shutdownTimestamp = packetWriter.shutdownTimestamp;
+        // State was restored, but this connection was not connected yet
+        final Long shutdownTimestamp = packetWriter != null ? packetWriter.shutdownTimestamp : restoredSmStateTimestamp;
         // Seems like we are already reconnected, report true
         if (shutdownTimestamp == null) {
             return true;
@@ -1824,6 +1966,70 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         unacknowledgedStanzas = null;
     }
 
+    /**
+     * Takes a snapshot of the resumable stream management session, so it can be restored
+     * by {@link #restoreStreamManagementState(StreamManagementState)} after process restart.
+     *
+     * @return the state or <code>null</code> if there is no resumable session.
+     */
+    public StreamManagementState getStreamManagementState() {
+        String sessionId = smSessionId;
+        EntityFullJid user = this.user;
+        BlockingQueue<Stanza> unacknowledgedStanzas = this.unacknowledgedStanzas;
+        if (sessionId == null || user == null || unacknowledgedStanzas == null || !isSmResumptionPossible()) {
+            return null;
+        }
+
+        List<String> stanzas = new ArrayList<>(unacknowledgedStanzas.size());
+        for (Stanza stanza : unacknowledgedStanzas) {
+            stanzas.add(stanza.toXML().toString());
+        }
+        return new StreamManagementState(sessionId, user.toString(), clientHandledStanzasCount,
+                serverHandledStanzasCount, getMaxSmResumptionTime(), System.currentTimeMillis(), stanzas);
+    }
+
+    /**
+     * Restores stream management session, so next {@link #login()} tries to resume it first
+     * and falls back to resource binding, resending the unacknowledged stanzas, if server declines.
+     * Must be called before the connection is established.
+     *
+     * @return whether the state was restored.
+     */
+    public synchronized boolean restoreStreamManagementState(StreamManagementState state) {
+        if (isConnected() || smSessionId != null || state.isExpired(System.currentTimeMillis())) {
+            return false;
+        }
+
+        EntityFullJid user;
+        try {
+            user = JidCreate.entityFullFrom(state.getUser());
+        } catch (XmppStringprepException e) {
+            LOGGER.log(Level.WARNING, "Invalid user of stream management state", e);
+            return false;
+        }
+
+        BlockingQueue<Stanza> stanzas = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        for (String xml : state.getUnacknowledgedStanzas()) {
+            try {
+                if (!stanzas.offer(PacketParserUtils.parseStanza(xml))) {
+                    break;
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Unacknowledged stanza of stream management state was not parsed", e);
+            }
+        }
+
+        this.user = user;
+        smSessionId = state.getSessionId();
+        clientHandledStanzasCount = state.getClientHandledCount();
+        serverHandledStanzasCount = state.getServerHandledCount();
+        smServerMaxResumptimTime = state.getMaxResumptionTime();
+        restoredSmStateTimestamp = state.getTimestamp();
+        unacknowledgedStanzas = stanzas;
+        smWasEnabledAtLeastOnce = true;
+        return true;
+    }
+
     /**
      * Get the maximum resumption time in seconds after which a managed stream can be resumed.
      * <p>
@@ -1903,6 +2109,24 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
 
         serverHandledStanzasCount = handledCount;
+        notifyStreamManagementStateChanged();
+    }
+
+    /**
+     * Sets listener of changes of the resumable session, so its state can be saved as soon as
+     * a stanza was handled or acknowledged.
+     *
+     * @param listener the listener or <code>null</code>.
+     */
+    public void setStreamManagementStateListener(StreamManagementStateListener listener) {
+        streamManagementStateListener = listener;
+    }
+
+    private void notifyStreamManagementStateChanged() {
+        final StreamManagementStateListener listener = streamManagementStateListener;
+        if (listener != null && smSessionId != null) {
+            listener.onStreamManagementStateChanged(this);
+        }
     }
 
     /**
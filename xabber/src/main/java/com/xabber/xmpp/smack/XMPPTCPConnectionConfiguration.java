@@ -25,6 +25,11 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     public static int DEFAULT_CONNECT_TIMEOUT = 30000;
 
+    /**
+     * The default delay between connection attempts of parallel connect in milliseconds, as recommended by RFC 8305.
+     */
+    public static int DEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
     private final boolean compressionEnabled;
 
     /**
@@ -32,10 +37,25 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     private final int connectTimeout;
 
+    /**
+     * Size of the buffer of the stream reader in chars.
+     */
+    private final int readBufferSize;
+
+    private final boolean parallelConnectEnabled;
+
+    private final int connectionAttemptDelay;
+
+    private final AddressFamilyPreference addressFamilyPreference;
+
     private XMPPTCPConnectionConfiguration(Builder builder) {
         super(builder);
         compressionEnabled = builder.compressionEnabled;
         connectTimeout = builder.connectTimeout;
+        readBufferSize = builder.readBufferSize;
+        parallelConnectEnabled = builder.parallelConnectEnabled;
+        connectionAttemptDelay = builder.connectionAttemptDelay;
+        addressFamilyPreference = builder.addressFamilyPreference;
     }
 
     /**
@@ -60,6 +80,42 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
         return connectTimeout;
     }
 
+    /**
+     * Size of the buffer of the stream reader in chars. Defaults to {@link XmppStreamReader#DEFAULT_BUFFER_SIZE}.
+     *
+     * @return the buffer size in chars.
+     */
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Returns true if addresses of the server are raced with {@link HappyEyeballsConnector}
+     * instead of being tried one by one. Not used with proxy.
+     *
+     * @return true if parallel connect is enabled.
+     */
+    public boolean isParallelConnectEnabled() {
+        return parallelConnectEnabled;
+    }
+
+    /**
+     * Delay before the next connection attempt of parallel connect is started, if the previous one
+     * has not completed yet. Defaults to {@link #DEFAULT_CONNECTION_ATTEMPT_DELAY}.
+     *
+     * @return the delay in milliseconds.
+     */
+    public int getConnectionAttemptDelay() {
+        return connectionAttemptDelay;
+    }
+
+    /**
+     * @return preference of address family for parallel connect or <code>null</code>.
+     */
+    public AddressFamilyPreference getAddressFamilyPreference() {
+        return addressFamilyPreference;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -71,6 +127,10 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
     public static final class Builder extends ConnectionConfiguration.Builder<Builder, XMPPTCPConnectionConfiguration> {
         private boolean compressionEnabled = false;
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private int readBufferSize = XmppStreamReader.DEFAULT_BUFFER_SIZE;
+        private boolean parallelConnectEnabled = false;
+        private int connectionAttemptDelay = DEFAULT_CONNECTION_ATTEMPT_DELAY;
+        private AddressFamilyPreference addressFamilyPreference;
 
         private Builder() {
         }
@@ -100,6 +160,55 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
             return this;
         }
 
+        /**
+         * Set size of the buffer of the stream reader. Larger buffer reads bursts of stanzas,
+         * like message archive pages or busy rooms, with fewer reads from the socket.
+         *
+         * @param readBufferSize the buffer size in chars.
+         * @return a reference to this object.
+         */
+        public Builder setReadBufferSize(int readBufferSize) {
+            this.readBufferSize = readBufferSize;
+            return this;
+        }
+
+        /**
+         * Sets if addresses of the server are raced in the spirit of RFC 8305 (Happy Eyeballs):
+         * connection attempts to the top SRV targets and both address families are started with
+         * {@link #setConnectionAttemptDelay(int) delay} and the first established one is used.
+         * By default addresses are tried one by one.
+         *
+         * @param parallelConnectEnabled if the connection is going to race addresses.
+         * @return a reference to this object.
+         */
+        public Builder setParallelConnectEnabled(boolean parallelConnectEnabled) {
+            this.parallelConnectEnabled = parallelConnectEnabled;
+            return this;
+        }
+
+        /**
+         * Set delay before the next connection attempt of parallel connect is started.
+         *
+         * @param connectionAttemptDelay the delay in milliseconds.
+         * @return a reference to this object.
+         */
+        public Builder setConnectionAttemptDelay(int connectionAttemptDelay) {
+            this.connectionAttemptDelay = connectionAttemptDelay;
+            return this;
+        }
+
+        /**
+         * Set address family preference, which is asked for the family to try first and is told
+         * which address won the race.
+         *
+         * @param addressFamilyPreference the preference or <code>null</code>.
+         * @return a reference to this object.
+         */
+        public Builder setAddressFamilyPreference(AddressFamilyPreference addressFamilyPreference) {
+            this.addressFamilyPreference = addressFamilyPreference;
+            return this;
+        }
+
         @Override
         protected Builder getThis() {
             return this;
@@ -0,0 +1,77 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Read path of the XMPP stream used by {@link XMPPTCPConnection.PacketReader}.
+ */
+public final class XmppStreamReader {
+
+    /**
+     * Default size of the read buffer in chars.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private XmppStreamReader() {
+    }
+
+    /**
+     * Creates UTF-8 reader of the socket or compression stream.
+     *
+     * @param bufferSize size of the read buffer in chars.
+     */
+    public static Reader newReader(InputStream is, int bufferSize) throws IOException {
+        return new BufferedReader(new InputStreamReader(is, "UTF-8"), bufferSize);
+    }
+
+    /**
+     * Points the parser to the reader. Parser keeps its buffers and name pool,
+     * so it should be reused when stream is restarted after TLS, SASL or compression.
+     *
+     * @param parser the parser to reuse or <code>null</code> to create a new one.
+     * @return the parser ready to read the new stream.
+     */
+    public static XmlPullParser resetParser(XmlPullParser parser, Reader reader) throws XmlPullParserException {
+        if (parser == null) {
+            return PacketParserUtils.newXmppParser(reader);
+        }
+        parser.setInput(reader);
+        return parser;
+    }
+
+    /**
+     * Parses stream management ack answer without creating the element.
+     * Parser must be at the start tag of &lt;a/&gt; and will be at its end tag.
+     *
+     * @return the number of stanzas handled by the server.
+     */
+    public static long parseHandledCount(XmlPullParser parser) throws XmlPullParserException, IOException {
+        long handledCount = Long.parseLong(parser.getAttributeValue("", "h"));
+        skipElement(parser);
+        return handledCount;
+    }
+
+    /**
+     * Skips the element. Parser must be at its start tag and will be at its end tag.
+     */
+    public static void skipElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        while (true) {
+            int eventType = parser.next();
+            if (eventType == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                return;
+            }
+            if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document", parser, null);
+            }
+        }
+    }
+}
@@ -36,7 +36,7 @@ import java.util.NoSuchElementException;
  */
 public class Feature extends PacketExtension {
 
-    private static final String NAMESPACE = "http://jabber.org/protocol/feature-neg";
+    public static final String NAMESPACE = "http://jabber.org/protocol/feature-neg";
     private static final String ELEMENT_NAME = "feature";
 
     public static final String FORM_TYPE_FIELD = "FORM_TYPE";
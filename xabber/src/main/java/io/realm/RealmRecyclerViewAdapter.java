@@ -1,6 +1,7 @@
 package io.realm;
 
 import android.content.Context;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 
@@ -9,7 +10,7 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
     protected LayoutInflater inflater;
     protected RealmResults<T> realmResults;
     protected Context context;
-    private final RealmChangeListener listener;
+    private final OrderedRealmCollectionChangeListener<RealmResults<T>> listener;
 
     public RealmRecyclerViewAdapter(Context context, RealmResults<T> realmResults, boolean automaticUpdate) {
         if (context == null) {
@@ -18,10 +19,10 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
         this.context = context;
         this.realmResults = realmResults;
         this.inflater = LayoutInflater.from(context);
-        this.listener = (!automaticUpdate) ? null : new RealmChangeListener() {
+        this.listener = (!automaticUpdate) ? null : new OrderedRealmCollectionChangeListener<RealmResults<T>>() {
             @Override
-            public void onChange(Object element) {
-                RealmRecyclerViewAdapter.this.onChange();
+            public void onChange(RealmResults<T> results, OrderedCollectionChangeSet changeSet) {
+                RealmRecyclerViewAdapter.this.onChange(changeSet);
             }
         };
 
@@ -30,6 +31,16 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
         }
     }
 
+    /**
+     * Called when results were changed.
+     *
+     * @param changeSet changed positions, <code>null</code> when results were loaded
+     *                  asynchronously for the first time.
+     */
+    public void onChange(@Nullable OrderedCollectionChangeSet changeSet) {
+        onChange();
+    }
+
     public void onChange() {
         notifyDataSetChanged();
     }
@@ -40,6 +51,17 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
         }
     }
 
+    /**
+     * Replaces results. Adapter is not notified about changed items.
+     */
+    public void updateRealmResults(RealmResults<T> realmResults) {
+        release();
+        this.realmResults = realmResults;
+        if (listener != null && realmResults != null && realmResults.isValid()) {
+            this.realmResults.addChangeListener(listener);
+        }
+    }
+
     /**
      * Returns how many items are in the data set.
      *
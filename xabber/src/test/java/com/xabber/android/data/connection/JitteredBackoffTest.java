@@ -0,0 +1,66 @@
+package com.xabber.android.data.connection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JitteredBackoffTest {
+
+    private final JitteredBackoff backoff = new JitteredBackoff(2000, 120000, new Random(42));
+
+    @Test
+    public void ceilingDoublesUpToCap() {
+        assertEquals(2000, backoff.getCeilingMillis(0));
+        assertEquals(4000, backoff.getCeilingMillis(1));
+        assertEquals(64000, backoff.getCeilingMillis(5));
+        assertEquals(120000, backoff.getCeilingMillis(6));
+        assertEquals(120000, backoff.getCeilingMillis(1000));
+    }
+
+    @Test
+    public void delayIsWithinCeiling() {
+        for (int attempts = 0; attempts < 30; attempts++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = backoff.getDelayMillis(attempts);
+                assertTrue(delay >= 0);
+                assertTrue(delay < backoff.getCeilingMillis(attempts));
+            }
+        }
+    }
+
+    @Test
+    public void delaysAreSpread() {
+        long first = backoff.getDelayMillis(6);
+        boolean spread = false;
+        for (int i = 0; i < 10 && !spread; i++) {
+            spread = backoff.getDelayMillis(6) != first;
+        }
+        assertTrue(spread);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapBelowBase() {
+        new JitteredBackoff(2000, 1000, new Random());
+    }
+
+    @Test
+    public void statsCountDelaysAndSuccesses() {
+        ReconnectionStats stats = new ReconnectionStats();
+        stats.onDelayScheduled(500);
+        stats.onDelayScheduled(1500);
+        stats.onDelayScheduled(500000);
+        stats.onSuccess(1);
+        stats.onSuccess(10);
+
+        assertEquals(1, stats.getDelayCount(0));
+        assertEquals(1, stats.getDelayCount(1));
+        assertEquals(1, stats.getDelayCount(7));
+        assertEquals(1, stats.getSuccessCount(1));
+        assertEquals(1, stats.getSuccessCount(6));
+        assertNotEquals(0, stats.toString().length());
+    }
+}
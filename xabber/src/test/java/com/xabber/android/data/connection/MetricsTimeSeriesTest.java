@@ -0,0 +1,50 @@
+package com.xabber.android.data.connection;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTimeSeriesTest {
+
+    private static MetricsTimeSeries.Sample totals(long timestamp, long bytes) {
+        return new MetricsTimeSeries.Sample(timestamp, bytes, bytes / 2, bytes * 2, bytes, bytes / 10, bytes / 20);
+    }
+
+    @Test
+    public void firstTotalsOnlyStartSeries() {
+        MetricsTimeSeries series = new MetricsTimeSeries(3);
+        series.add(totals(1, 100));
+        assertTrue(series.getIntervals().isEmpty());
+    }
+
+    @Test
+    public void intervalsAreDifferences() {
+        MetricsTimeSeries series = new MetricsTimeSeries(3);
+        series.add(totals(1, 100));
+        series.add(totals(2, 300));
+        List<MetricsTimeSeries.Sample> intervals = series.getIntervals();
+        assertEquals(1, intervals.size());
+        assertEquals(2, intervals.get(0).timestamp);
+        assertEquals(200, intervals.get(0).wireBytesIn);
+        assertEquals(100, intervals.get(0).wireBytesOut);
+        assertEquals(400, intervals.get(0).streamBytesIn);
+        assertEquals(20, intervals.get(0).stanzasIn);
+    }
+
+    @Test
+    public void oldestIntervalsAreOverwritten() {
+        MetricsTimeSeries series = new MetricsTimeSeries(3);
+        for (int i = 0; i <= 5; i++) {
+            series.add(totals(i, i * 100));
+        }
+        List<MetricsTimeSeries.Sample> intervals = series.getIntervals();
+        assertEquals(3, intervals.size());
+        assertEquals(3, intervals.get(0).timestamp);
+        assertEquals(4, intervals.get(1).timestamp);
+        assertEquals(5, intervals.get(2).timestamp);
+        assertEquals(100, intervals.get(2).wireBytesIn);
+    }
+}
@@ -0,0 +1,87 @@
+package com.xabber.android.data.connection;
+
+import androidx.annotation.NonNull;
+
+import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.connection.listeners.OnSelectivePacketListener;
+import com.xabber.android.data.connection.listeners.PacketInterest;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.ping.packet.Ping;
+import org.jivesoftware.smackx.receipts.DeliveryReceiptRequest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StanzaDispatcherTest {
+
+    private final List<String> calls = new ArrayList<>();
+
+    private class Listener implements OnPacketListener {
+        private final String name;
+
+        Listener(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onStanza(ConnectionItem connection, Stanza packet) {
+            calls.add(name);
+        }
+    }
+
+    private class SelectiveListener extends Listener implements OnSelectivePacketListener {
+        private final PacketInterest interest;
+
+        SelectiveListener(String name, PacketInterest interest) {
+            super(name);
+            this.interest = interest;
+        }
+
+        @NonNull
+        @Override
+        public PacketInterest getPacketInterest() {
+            return interest;
+        }
+    }
+
+    private final StanzaDispatcher dispatcher = new StanzaDispatcher(Arrays.<OnPacketListener>asList(
+            new SelectiveListener("presences", new PacketInterest().allOf(PacketInterest.Kind.presence)),
+            new Listener("all"),
+            new SelectiveListener("receipts", new PacketInterest()
+                    .withNamespace(PacketInterest.Kind.message, DeliveryReceiptRequest.NAMESPACE)),
+            new SelectiveListener("ping", new PacketInterest()
+                    .withNamespace(PacketInterest.Kind.iq, Ping.NAMESPACE))));
+
+    @Test
+    public void presenceWakesOnlyInterestedListeners() {
+        dispatcher.dispatch(null, new Presence(Presence.Type.available));
+        assertEquals(Arrays.asList("presences", "all"), calls);
+    }
+
+    @Test
+    public void messageWithoutExtensionSkipsNamespaceListeners() {
+        dispatcher.dispatch(null, new Message());
+        assertEquals(Arrays.asList("all"), calls);
+    }
+
+    @Test
+    public void messageWithExtensionIsRoutedByNamespace() {
+        Message message = new Message();
+        message.addExtension(new DeliveryReceiptRequest());
+        dispatcher.dispatch(null, message);
+        assertEquals(Arrays.asList("all", "receipts"), calls);
+    }
+
+    @Test
+    public void iqIsRoutedByChildNamespace() {
+        dispatcher.dispatch(null, new Ping());
+        assertEquals(Arrays.asList("all", "ping"), calls);
+    }
+}
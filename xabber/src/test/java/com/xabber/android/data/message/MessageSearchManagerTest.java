@@ -0,0 +1,76 @@
+package com.xabber.android.data.message;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSearchManagerTest {
+
+    @Test
+    public void testFolding() {
+        assertEquals("rene muller", MessageSearchManager.fold("Ren\u00e9 M\u00dcLLER"));
+        assertEquals("cafe  deja vu ", MessageSearchManager.fold("Caf\u00e9, d\u00e9j\u00e0 vu!"));
+        assertEquals("", MessageSearchManager.fold(null));
+    }
+
+    @Test
+    public void testFoldingKeepsLength() {
+        String text = "\u00c5ngstr\u00f6m \u0130stanbul \u00df \u2014 \u00e9t\u00e9 \ud83d\ude00 ok";
+        assertEquals(text.length(), MessageSearchManager.fold(text).length());
+    }
+
+    @Test
+    public void testWords() {
+        assertEquals(Arrays.asList("hello", "world"),
+                MessageSearchManager.getWords(MessageSearchManager.fold("Hello,  world! hello")));
+    }
+
+    @Test
+    public void testSnippetHighlights() {
+        String text = "Meet me at the Caf\u00e9 Central";
+        MessageSearchManager.Snippet snippet = MessageSearchManager.getSnippet(text,
+                MessageSearchManager.fold(text), Collections.singletonList("cafe"));
+        assertEquals(text, snippet.text);
+        assertArrayEquals(new int[]{15, 19}, snippet.highlights);
+        assertEquals("Caf\u00e9", snippet.text.substring(snippet.highlights[0], snippet.highlights[1]));
+    }
+
+    @Test
+    public void testLongSnippetOffsets() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20; i++) builder.append("filler").append(i).append(' ');
+        builder.append("\u00dcber Stra\u00dfe");
+        for (int i = 0; i < 30; i++) builder.append(" tail").append(i);
+        String text = builder.toString();
+
+        List<String> words = Arrays.asList("uber", "stra");
+        MessageSearchManager.Snippet snippet = MessageSearchManager.getSnippet(text,
+                MessageSearchManager.fold(text), words);
+        assertTrue(snippet.text.startsWith("\u2026"));
+        assertTrue(snippet.text.endsWith("\u2026"));
+        assertEquals(4, snippet.highlights.length);
+        assertEquals("\u00dcber", snippet.text.substring(snippet.highlights[0], snippet.highlights[1]));
+        assertEquals("Stra", snippet.text.substring(snippet.highlights[2], snippet.highlights[3]));
+    }
+
+    @Test
+    public void testScore() {
+        Map<String, Double> weights = new HashMap<>();
+        weights.put("cat", 1.0);
+        List<String> words = Collections.singletonList("cat");
+        double whole = MessageSearchManager.getScore("a cat", words, weights);
+        double prefix = MessageSearchManager.getScore("a catalog", words, weights);
+        double repeated = MessageSearchManager.getScore("cat and cat", words, weights);
+        assertEquals(0, MessageSearchManager.getScore("concat", words, weights), 0);
+        assertTrue(whole > prefix);
+        assertTrue(repeated > whole);
+    }
+}
@@ -0,0 +1,47 @@
+package com.xabber.android.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    private static final int COUNT = 10000;
+
+    @Test
+    public void addedKeysAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            filter.add("id-" + i);
+        }
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue(filter.mightContain("id-" + i));
+        }
+    }
+
+    @Test
+    public void falsePositivesAreRare() {
+        BloomFilter filter = new BloomFilter(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            filter.add("id-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < COUNT * 3 / 100);
+    }
+
+    @Test
+    public void overloadIsReported() {
+        BloomFilter filter = new BloomFilter(2);
+        filter.add("a");
+        filter.add("b");
+        assertFalse(filter.isOverloaded());
+        filter.add("c");
+        assertTrue(filter.isOverloaded());
+    }
+}
@@ -0,0 +1,64 @@
+package com.xabber.android.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+
+    private SearchIndex<String> index;
+
+    @Before
+    public void setUp() {
+        index = new SearchIndex<>();
+        index.put("alice", Arrays.asList("Alice Smith", "alice@xabber.com"));
+        index.put("bob", Arrays.asList("Bob", "bob@example.org", null));
+        index.put("rene", Arrays.asList("Ren\u00e9 M\u00fcller", "rene@xabber.com"));
+    }
+
+    @Test
+    public void testSubstring() {
+        assertEquals(Collections.singleton("alice"), index.search("smi"));
+        assertEquals(Collections.singleton("alice"), index.search("ice smith"));
+        assertEquals(Collections.singleton("bob"), index.search("example"));
+        assertTrue(index.search("unknown").isEmpty());
+    }
+
+    @Test
+    public void testShortQuery() {
+        assertEquals(Collections.singleton("bob"), index.search("bo"));
+        assertEquals(3, index.search("e").size());
+        assertEquals(3, index.search("").size());
+    }
+
+    @Test
+    public void testFolding() {
+        assertEquals(Collections.singleton("rene"), index.search("MULLER"));
+        assertEquals(Collections.singleton("rene"), index.search("ren\u00e9"));
+        Set<String> found = index.search("XABBER");
+        assertEquals(2, found.size());
+        assertTrue(found.contains("alice"));
+        assertTrue(found.contains("rene"));
+    }
+
+    @Test
+    public void testUpdate() {
+        index.put("bob", Collections.singletonList("Robert"));
+        assertTrue(index.search("example").isEmpty());
+        assertEquals(Collections.singleton("bob"), index.search("robert"));
+
+        index.remove("alice");
+        assertFalse(index.contains("alice"));
+        assertTrue(index.search("smith").isEmpty());
+
+        index.retainAll(Collections.singleton("rene"));
+        assertEquals(Collections.singleton("rene"), index.search(""));
+    }
+}
@@ -0,0 +1,140 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.sm.provider.ParseStreamManagement;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Replays recorded stream capture through the old and the new packet reader paths and reports
+ * stanzas per second and allocation rate. Every replay is a stream restart: the old path
+ * creates new parser for it, the new one reuses the parser.
+ * <p>
+ * Not a unit test, run it with the test classpath and XmlPullParser implementation
+ * (e.g. kxml2) on HotSpot JVM:
+ * <pre>java com.xabber.xmpp.smack.PacketReaderBenchmark [rounds]</pre>
+ * </p>
+ */
+public class PacketReaderBenchmark {
+
+    private static final String CAPTURE = "stream_capture.xml";
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int DEFAULT_ROUNDS = 20000;
+
+    private interface Path {
+        /**
+         * @return number of parsed top level elements.
+         */
+        int replay(byte[] capture) throws Exception;
+    }
+
+    private static final Path OLD_PATH = new Path() {
+        @Override
+        public int replay(byte[] capture) throws Exception {
+            Reader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(capture), "UTF-8"));
+            XmlPullParser parser = PacketParserUtils.newXmppParser(reader);
+            int elements = 0;
+            for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+                 eventType = parser.next()) {
+                if (eventType != XmlPullParser.START_TAG || parser.getDepth() != 2) continue;
+                switch (parser.getName()) {
+                    case "message":
+                    case "iq":
+                    case "presence":
+                        PacketParserUtils.parseStanza(parser);
+                        break;
+                    case "a":
+                        ParseStreamManagement.ackAnswer(parser).getHandledCount();
+                        break;
+                    case "r":
+                        ParseStreamManagement.ackRequest(parser);
+                        break;
+                    default:
+                        XmppStreamReader.skipElement(parser);
+                        break;
+                }
+                elements++;
+            }
+            return elements;
+        }
+    };
+
+    private static final Path NEW_PATH = new Path() {
+        private XmlPullParser parser;
+
+        @Override
+        public int replay(byte[] capture) throws Exception {
+            Reader reader = XmppStreamReader.newReader(new ByteArrayInputStream(capture),
+                    XmppStreamReader.DEFAULT_BUFFER_SIZE);
+            parser = XmppStreamReader.resetParser(parser, reader);
+            int elements = 0;
+            for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+                 eventType = parser.next()) {
+                if (eventType != XmlPullParser.START_TAG || parser.getDepth() != 2) continue;
+                switch (parser.getName()) {
+                    case "message":
+                    case "iq":
+                    case "presence":
+                        PacketParserUtils.parseStanza(parser);
+                        break;
+                    case "a":
+                        XmppStreamReader.parseHandledCount(parser);
+                        break;
+                    default:
+                        XmppStreamReader.skipElement(parser);
+                        break;
+                }
+                elements++;
+            }
+            return elements;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+        byte[] capture = readCapture();
+
+        System.out.println("old: " + measure(OLD_PATH, capture, rounds));
+        System.out.println("new: " + measure(NEW_PATH, capture, rounds));
+    }
+
+    private static String measure(Path path, byte[] capture, int rounds) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) path.replay(capture);
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        long elements = 0;
+        for (int i = 0; i < rounds; i++) elements += path.replay(capture);
+        long nanos = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+
+        double seconds = nanos / 1e9;
+        return String.format("%.0f elements/s, %.1f MB/s allocated, %d bytes per element",
+                elements / seconds, allocated / seconds / (1024 * 1024), allocated / elements);
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static byte[] readCapture() throws Exception {
+        InputStream is = PacketReaderBenchmark.class.getResourceAsStream(CAPTURE);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
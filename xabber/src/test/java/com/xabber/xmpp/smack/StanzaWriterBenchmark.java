@@ -0,0 +1,136 @@
+package com.xabber.xmpp.smack;
+
+import org.jivesoftware.smack.packet.Element;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jivesoftware.smackx.ping.packet.Ping;
+import org.jivesoftware.smackx.receipts.DeliveryReceipt;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures bytes allocated per written stanza by the old and the new packet writer paths
+ * over a mixed corpus of messages, chat states, receipts, presences and pings.
+ * <p>
+ * Not a unit test, run it with the test classpath on HotSpot JVM:
+ * <pre>java com.xabber.xmpp.smack.StanzaWriterBenchmark</pre>
+ * </p>
+ */
+public class StanzaWriterBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int ROUNDS = 100000;
+
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private interface Path {
+        void write(Writer writer, Element element) throws IOException;
+    }
+
+    private static final Path STRING_PATH = new Path() {
+        @Override
+        public void write(Writer writer, Element element) throws IOException {
+            writer.write(element.toXML().toString());
+        }
+    };
+
+    private static final Path BUILDER_PATH = new Path() {
+        @Override
+        public void write(Writer writer, Element element) throws IOException {
+            CharSequence xml = element.toXML();
+            if (xml instanceof XmlStringBuilder) {
+                ((XmlStringBuilder) xml).write(writer);
+            } else {
+                writer.append(xml);
+            }
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<Element> corpus = createCorpus();
+
+        System.out.println("toString + OutputStreamWriter: "
+                + measure(new OutputStreamWriter(NULL_STREAM, "UTF-8"), STRING_PATH, corpus)
+                + " bytes per stanza");
+        System.out.println("XmlStringBuilder + OutputStreamWriter: "
+                + measure(new OutputStreamWriter(NULL_STREAM, "UTF-8"), BUILDER_PATH, corpus)
+                + " bytes per stanza");
+        System.out.println("XmlStringBuilder + StanzaWriter: "
+                + measure(new StanzaWriter(NULL_STREAM), BUILDER_PATH, corpus)
+                + " bytes per stanza");
+    }
+
+    private static long measure(Writer writer, Path path, List<Element> corpus) throws IOException {
+        run(writer, path, corpus, WARMUP_ROUNDS);
+        long before = getAllocatedBytes();
+        run(writer, path, corpus, ROUNDS);
+        return (getAllocatedBytes() - before) / ((long) ROUNDS * corpus.size());
+    }
+
+    private static void run(Writer writer, Path path, List<Element> corpus, int rounds) throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            for (Element element : corpus) {
+                path.write(writer, element);
+            }
+            writer.flush();
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static List<Element> createCorpus() throws Exception {
+        Jid user = JidCreate.from("juliet@example.com/balcony");
+        Jid room = JidCreate.from("room@conference.example.com");
+        List<Element> corpus = new ArrayList<>();
+
+        Message chat = new Message(user, "Wherefore art thou, Romeo? \u041f\u0440\u0438\u0432\u0435\u0442 \ud83d\ude00");
+        chat.setType(Message.Type.chat);
+        chat.addExtension(new ChatStateExtension(ChatState.active));
+        corpus.add(chat);
+
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 40; i++) longText.append("Busy room message with some text. ");
+        Message groupchat = new Message(room, longText.toString());
+        groupchat.setType(Message.Type.groupchat);
+        corpus.add(groupchat);
+
+        Message composing = new Message(user);
+        composing.setType(Message.Type.chat);
+        composing.addExtension(new ChatStateExtension(ChatState.composing));
+        corpus.add(composing);
+
+        Message receipt = new Message(user);
+        receipt.addExtension(new DeliveryReceipt("a1b2c3d4"));
+        corpus.add(receipt);
+
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setStatus("Online");
+        presence.setPriority(5);
+        corpus.add(presence);
+
+        corpus.add(new Ping(JidCreate.from("example.com")));
+        return corpus;
+    }
+}
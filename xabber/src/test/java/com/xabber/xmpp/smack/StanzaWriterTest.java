@@ -0,0 +1,78 @@
+package com.xabber.xmpp.smack;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StanzaWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ByteArrayOutputStream out;
+    private StanzaWriter writer;
+
+    @Before
+    public void setUp() {
+        out = new ByteArrayOutputStream();
+        writer = new StanzaWriter(out);
+    }
+
+    @Test
+    public void encodesStringAsUtf8() throws IOException {
+        String text = "<message><body>Caf\u00e9 \u043f\u0440\u0438\u0432\u0435\u0442 \u4f60\u597d</body></message>";
+        writer.write(text);
+        writer.flush();
+
+        assertArrayEquals(text.getBytes(UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void writesNothingBeforeFlush() throws IOException {
+        writer.write("<presence/>");
+        assertEquals(0, out.size());
+
+        writer.flush();
+        assertEquals("<presence/>", new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void encodesSurrogatePairSplitBetweenWrites() throws IOException {
+        String emoji = "\ud83d\ude00";
+        writer.write(emoji.charAt(0));
+        writer.write(emoji.charAt(1));
+        writer.append(new StringBuilder("x" + emoji.charAt(0)));
+        writer.write(emoji.substring(1));
+        writer.flush();
+
+        assertArrayEquals((emoji + "x" + emoji).getBytes(UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void encodesTextLongerThanBuffers() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append(i % 7 == 0 ? "\ud83d\ude00" : i % 3 == 0 ? "\u044f" : "a");
+        }
+        writer.write(text.toString());
+        writer.append(text);
+        writer.write(text.toString().toCharArray());
+        writer.flush();
+
+        String expected = text.toString() + text + text;
+        assertArrayEquals(expected.getBytes(UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void replacesUnpairedSurrogateOnClose() throws IOException {
+        writer.write("a\ud83d");
+        writer.close();
+
+        assertArrayEquals("a?".getBytes(UTF_8), out.toByteArray());
+    }
+}